@@ -0,0 +1,378 @@
+#ifndef BEAGLE_CORE_H
+#define BEAGLE_CORE_H
+
+/*
+ * Core of the runtime: types, reference counting, type tests and arenas.
+ * Only the small functions used in the generated code are defined here;
+ * the others (marked with 'BGL_RT') come from 'libbeagle_rt' (see
+ * 'runtime/beagle_rt.c') or, with 'beagle/base.h', from 'beagle/runtime.h'
+ * included in every translation unit. No C library header is needed with
+ * GCC and Clang.
+ */
+
+#include <stdint.h>
+#include <stddef.h>
+
+
+#if defined(WIN32) || defined(_WIN32)
+    #define __WINDOWS__
+#else
+    #define __UNIX__
+#endif
+
+
+#if defined(__WINDOWS__) || defined(_MSC_VER)
+    #define BGL_PRIVATE
+    #define BGL_PUBLIC
+    #ifdef __cplusplus
+        #define BGL_LIB_EXPORT  extern "C" __declspec(dllexport)
+    #else
+        #define BGL_LIB_EXPORT  extern __declspec(dllexport)
+    #endif
+    #define BGL_LIB_IMPORT  extern __declspec(dllimport)
+#else
+    #define BGL_PRIVATE  __attribute__((visibility("hidden")))
+    #define BGL_PUBLIC  __attribute__((visibility("default")))
+    #ifdef __cplusplus
+        #define BGL_LIB_EXPORT  extern "C" BGL_PUBLIC
+    #else
+        #define BGL_LIB_EXPORT  extern BGL_PUBLIC
+    #endif
+    #define BGL_LIB_IMPORT extern
+#endif
+
+
+#ifndef __WINDOWS__
+    #define BGL_FUNCTION(type, name)   type __fastcall name
+#else
+    #define BGL_FUNCTION(type, name)   type name
+#endif
+
+
+/*
+ * Linkage of the runtime functions and data: private copies in every
+ * translation unit ('BGL_RUNTIME_INLINE', defined by 'beagle/base.h') or
+ * external, from 'libbeagle_rt'.
+ */
+#ifdef BGL_RUNTIME_INLINE
+    #define BGL_RT       static inline
+    #define BGL_RT_DATA  static
+#else
+    #define BGL_RT       extern
+    #define BGL_RT_DATA  extern
+#endif
+
+#if defined(__GNUC__)
+    #define BGL_MEMSET  __builtin_memset
+#else
+    #include <string.h>
+    #define BGL_MEMSET  memset
+#endif
+
+/*
+ * Memory allocation (aborts when there is no memory).
+ */
+BGL_RT void *beagle_alloc( size_t size );
+BGL_RT void *beagle_realloc( void *memory, size_t size );
+BGL_RT void beagle_free( void *memory );
+
+
+/*
+ * Loop hints. 'BGL_IVDEP' asserts that the iterations of the next loop have
+ * no memory dependencies between them and 'BGL_SIMD' that they can also run
+ * as SIMD lanes (enabled defining 'BGL_OPENMP_SIMD' and compiling with
+ * '-fopenmp-simd'; otherwise it is 'BGL_IVDEP'). Only one of them can come
+ * before a loop.
+ */
+#define BGL_PRAGMA(x) _Pragma(#x)
+#if defined(__clang__)
+    #define BGL_IVDEP  BGL_PRAGMA(clang loop vectorize(assume_safety))
+#elif defined(__GNUC__)
+    #define BGL_IVDEP  BGL_PRAGMA(GCC ivdep)
+#else
+    #define BGL_IVDEP
+#endif
+#ifdef BGL_OPENMP_SIMD
+    #define BGL_SIMD(...)  BGL_PRAGMA(omp simd __VA_ARGS__)
+#else
+    #define BGL_SIMD(...)  BGL_IVDEP
+#endif
+
+/*
+ * Profile guided hints ('-profile-use'): expected values of conditions and
+ * functions where the program spends most (or none) of its time.
+ */
+#if defined(__GNUC__)
+    #define BGL_LIKELY(x)    __builtin_expect(!!(x), 1)
+    #define BGL_UNLIKELY(x)  __builtin_expect(!!(x), 0)
+    #define BGL_HOT   __attribute__((hot))
+    #define BGL_COLD  __attribute__((cold))
+#else
+    #define BGL_LIKELY(x)    (x)
+    #define BGL_UNLIKELY(x)  (x)
+    #define BGL_HOT
+    #define BGL_COLD
+#endif
+
+#define BGL_NULL (void*)0
+#ifndef BGL_TRUE
+    #define BGL_TRUE (uint8_t)1
+#endif
+#ifndef BGL_FALSE
+    #define BGL_FALSE (uint8_t)0
+#endif
+
+typedef uint8_t  beagle_uint8;
+typedef uint16_t beagle_uint16;
+typedef uint32_t beagle_uint32;
+typedef uint64_t beagle_uint64;
+typedef int8_t   beagle_int8;
+typedef int16_t  beagle_int16;
+typedef int32_t  beagle_int32;
+typedef int64_t  beagle_int64;
+typedef float    beagle_float32;
+typedef double   beagle_float64;
+typedef uint8_t  beagle_bool;
+
+
+/*
+ * Number of ancestors kept in the display of every type. Types deeper than
+ * that are found walking the 'base' chain. The compiler emits the displays
+ * and the depths for this size ('CodeGenerator.DISPLAY_SIZE'), so it can
+ * not be changed here alone.
+ */
+#define BGL_DISPLAY_SIZE 8
+
+struct TypeInfo
+{
+	struct TypeInfo *base; // pointer to static data of base class/struct (NULL = no base)
+	size_t staticSize;
+	size_t dynamicSize;
+	const char *name;
+	void (*dispose)( void *self ); // releases the references in the fields (NULL = none)
+	uint32_t depth; // number of ancestors (0 = no base)
+	const struct TypeInfo *display[BGL_DISPLAY_SIZE]; // ancestors by depth, including the type itself
+};
+
+typedef struct beagle_frame
+{
+    struct beagle_frame* prev;
+    const char *function;
+    const char *fileName;
+    uint32_t line;
+    uint32_t depth;
+    uint32_t size;
+    uint8_t content[];
+} beagle_frame;
+
+
+/**
+ * String class
+ */
+typedef struct
+{
+   void *base__;
+   struct TypeInfo typeInfo__;
+} static_string_;
+
+typedef struct
+{
+	static_string_ *type__;
+	uint32_t length;
+	const char *content;
+} dynamic_string_;
+
+BGL_RT_DATA static_string_ type_string_;
+
+typedef const dynamic_string_ *beagle_string;
+
+
+/**
+ * Reference counting
+ *
+ * Every structure instance starts with a pointer to the static data of its
+ * type followed by the reference counter (in derived structures, these are
+ * the first fields of the root base). Instances are created with one
+ * reference, owned by whoever created them.
+ */
+typedef uint32_t beagle_refcount;
+
+/*
+ * Reference counter of instances whose memory is not managed by reference
+ * counting (e.g. allocated from an arena).
+ */
+#define BGL_PINNED UINT32_MAX
+
+typedef struct
+{
+	const void *type__;
+	beagle_refcount refs__;
+} beagle_object;
+
+/*
+ * Layout shared by the static data of every type.
+ */
+typedef struct
+{
+	void *base__;
+	struct TypeInfo typeInfo__;
+} beagle_static;
+
+/**
+ * Prepares the given memory to hold an instance of the type. Used directly
+ * for instances the compiler allocates on the stack.
+ */
+static inline void *beagle_place( void *memory, const void *type )
+{
+	const struct TypeInfo *info = &((const beagle_static*) type)->typeInfo__;
+	beagle_object *object = (beagle_object*) memory;
+	BGL_MEMSET(object, 0, info->dynamicSize);
+	object->type__ = type;
+	object->refs__ = 1;
+	return object;
+}
+
+static inline void *beagle_new( const void *type )
+{
+	const struct TypeInfo *info = &((const beagle_static*) type)->typeInfo__;
+	return beagle_place(beagle_alloc(info->dynamicSize), type);
+}
+
+static inline void *beagle_retain( void *object )
+{
+	if (object != NULL && ((beagle_object*) object)->refs__ != BGL_PINNED)
+		++((beagle_object*) object)->refs__;
+	return object;
+}
+
+/**
+ * Releases the references held by the fields of the instance, without
+ * freeing it (instances on the stack end this way).
+ */
+static inline void beagle_dispose( void *object )
+{
+	const struct TypeInfo *info = &((const beagle_static*) ((beagle_object*) object)->type__)->typeInfo__;
+	if (info->dispose != NULL) info->dispose(object);
+}
+
+static inline void beagle_release( void *object )
+{
+	if (object == NULL || ((beagle_object*) object)->refs__ == BGL_PINNED) return;
+	if (--((beagle_object*) object)->refs__ != 0) return;
+	beagle_dispose(object);
+	beagle_free(object);
+}
+
+/**
+ * Whether the instance is of the given type or derived from it. The depth
+ * of the type is a constant in the generated code, so only one branch
+ * remains: a bounds check and a comparison with the entry of the display.
+ */
+static inline beagle_bool beagle_is( const void *object, const struct TypeInfo *type, uint32_t depth )
+{
+	if (object == NULL) return BGL_FALSE;
+	const struct TypeInfo *info = &((const beagle_static*) ((const beagle_object*) object)->type__)->typeInfo__;
+	if (depth < BGL_DISPLAY_SIZE)
+		return info->depth >= depth && info->display[depth] == type;
+	while (info != NULL && info->depth > depth) info = info->base;
+	return info == type;
+}
+
+
+/**
+ * Arena allocator
+ *
+ * Bump-pointer allocation from a list of blocks, all freed at once by
+ * 'beagle_arena_release'. Instances created in an arena are pinned (not
+ * reference counted) and the ones holding references are disposed when the
+ * arena is released, so they must not outlive it.
+ */
+#ifndef BGL_ARENA_BLOCK_SIZE
+    #define BGL_ARENA_BLOCK_SIZE 16384
+#endif
+
+#define BGL_ARENA_ALIGNMENT 16
+
+typedef struct beagle_arena_block
+{
+	struct beagle_arena_block *next;
+	size_t size;
+	size_t used;
+	uint8_t data[];
+} beagle_arena_block;
+
+typedef struct beagle_arena_item
+{
+	struct beagle_arena_item *next;
+	void *object;
+} beagle_arena_item;
+
+typedef struct
+{
+	beagle_arena_block *blocks;
+	beagle_arena_item *disposable; // instances to dispose on release
+} beagle_arena;
+
+static inline void beagle_arena_init( beagle_arena *arena )
+{
+	arena->blocks = NULL;
+	arena->disposable = NULL;
+}
+
+static inline void *beagle_arena_alloc( beagle_arena *arena, size_t size )
+{
+	beagle_arena_block *block = arena->blocks;
+	if (block != NULL)
+	{
+		uintptr_t start = (uintptr_t) (block->data + block->used);
+		start = (start + BGL_ARENA_ALIGNMENT - 1) & ~(uintptr_t) (BGL_ARENA_ALIGNMENT - 1);
+		size_t offset = (size_t) (start - (uintptr_t) block->data);
+		if (offset + size <= block->size)
+		{
+			block->used = offset + size;
+			return (void*) start;
+		}
+	}
+
+	// large requests get a block of their own
+	size_t capacity = size + BGL_ARENA_ALIGNMENT;
+	if (capacity < BGL_ARENA_BLOCK_SIZE) capacity = BGL_ARENA_BLOCK_SIZE;
+	block = (beagle_arena_block*) beagle_alloc(sizeof(beagle_arena_block) + capacity);
+	block->next = arena->blocks;
+	block->size = capacity;
+	block->used = 0;
+	arena->blocks = block;
+	return beagle_arena_alloc(arena, size);
+}
+
+static inline void *beagle_arena_new( beagle_arena *arena, const void *type )
+{
+	const struct TypeInfo *info = &((const beagle_static*) type)->typeInfo__;
+	beagle_object *object = (beagle_object*) beagle_place(beagle_arena_alloc(arena, info->dynamicSize), type);
+	object->refs__ = BGL_PINNED;
+	if (info->dispose != NULL)
+	{
+		beagle_arena_item *item = (beagle_arena_item*) beagle_arena_alloc(arena, sizeof(beagle_arena_item));
+		item->object = object;
+		item->next = arena->disposable;
+		arena->disposable = item;
+	}
+	return object;
+}
+
+static inline void beagle_arena_release( beagle_arena *arena )
+{
+	for (beagle_arena_item *item = arena->disposable; item != NULL; item = item->next)
+		beagle_dispose(item->object);
+	beagle_arena_block *block = arena->blocks;
+	while (block != NULL)
+	{
+		beagle_arena_block *next = block->next;
+		beagle_free(block);
+		block = next;
+	}
+	beagle_arena_init(arena);
+}
+
+
+#endif // BEAGLE_CORE_H
@@ -0,0 +1,34 @@
+#ifndef BEAGLE_PROFILE_H
+#define BEAGLE_PROFILE_H
+
+#include "core.h"
+
+
+/**
+ * Profile counters
+ *
+ * Code generated with '-profile-generate' defines 'BGL_PROFILE' and
+ * registers the counters of its translation unit. When the program exits,
+ * every counter is appended as a 'label count' line to the file named by
+ * the 'BEAGLE_PROFILE' environment variable (or 'beagle.profile'), so the
+ * counters of several runs add up.
+ */
+typedef struct beagle_profile
+{
+	uint32_t count;
+	const char * const *names;
+	uint64_t *counters;
+	struct beagle_profile *next;
+} beagle_profile;
+
+BGL_RT void beagle_profile_register( beagle_profile *profile );
+
+/*
+ * Counts the outcome of a condition in the counters 'index' (true) and
+ * 'index + 1' (false).
+ */
+#define BGL_PROFILE_BRANCH(counters, index, condition) \
+    ((condition) ? (++(counters)[index], BGL_TRUE) : (++(counters)[(index) + 1], BGL_FALSE))
+
+
+#endif // BEAGLE_PROFILE_H
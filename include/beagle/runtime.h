@@ -0,0 +1,80 @@
+#ifndef BEAGLE_RUNTIME_H
+#define BEAGLE_RUNTIME_H
+
+/*
+ * Implementation of the runtime functions and data declared with 'BGL_RT'
+ * and 'BGL_RT_DATA'. Included by 'beagle/base.h', giving every translation
+ * unit its own copy, and compiled once into 'libbeagle_rt'.
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+
+#include "core.h"
+#ifdef BGL_PROFILE
+    #include "profile.h"
+#endif
+
+
+BGL_RT void *beagle_alloc( size_t size )
+{
+	void *memory = malloc(size);
+	if (memory == NULL) abort();
+	return memory;
+}
+
+BGL_RT void *beagle_realloc( void *memory, size_t size )
+{
+	memory = realloc(memory, size);
+	if (memory == NULL) abort();
+	return memory;
+}
+
+BGL_RT void beagle_free( void *memory )
+{
+	free(memory);
+}
+
+#ifdef BGL_RUNTIME_INLINE
+static
+#endif
+static_string_ type_string_ =
+{
+   .typeInfo__.base = NULL,
+   .typeInfo__.staticSize = sizeof(static_string_),
+   .typeInfo__.dynamicSize = sizeof(dynamic_string_),
+   .typeInfo__.name = "string",
+   .typeInfo__.depth = 0,
+   .typeInfo__.display = { &type_string_.typeInfo__ },
+   .base__ = NULL
+};
+
+
+#ifdef BGL_PROFILE
+
+static beagle_profile *beagle_profiles_ = NULL;
+
+static inline void beagle_profile_dump( void )
+{
+	const char *path = getenv("BEAGLE_PROFILE");
+	FILE *output = fopen((path != NULL) ? path : "beagle.profile", "a");
+	if (output == NULL) return;
+	for (const beagle_profile *profile = beagle_profiles_; profile != NULL; profile = profile->next)
+	{
+		for (uint32_t i = 0; i < profile->count; ++i)
+			fprintf(output, "%s %llu\n", profile->names[i], (unsigned long long) profile->counters[i]);
+	}
+	fclose(output);
+}
+
+BGL_RT void beagle_profile_register( beagle_profile *profile )
+{
+	if (beagle_profiles_ == NULL) atexit(beagle_profile_dump);
+	profile->next = beagle_profiles_;
+	beagle_profiles_ = profile;
+}
+
+#endif // BGL_PROFILE
+
+
+#endif // BEAGLE_RUNTIME_H
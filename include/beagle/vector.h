@@ -0,0 +1,41 @@
+#ifndef BEAGLE_VECTOR_H
+#define BEAGLE_VECTOR_H
+
+#include "core.h"
+
+
+/*
+ * Vector types (GCC/Clang vector extensions). Operators work element-wise
+ * and map to SIMD instructions. Alignment is limited to 16 bytes, the one
+ * of 'malloc' and arenas, so vectors can be fields of any instance.
+ */
+typedef float   beagle_float32x4 __attribute__((vector_size(16)));
+typedef float   beagle_float32x8 __attribute__((vector_size(32), aligned(16)));
+typedef int32_t beagle_int32x4   __attribute__((vector_size(16)));
+
+/*
+ * Without AVX, GCC warns that 'beagle_float32x8' parameters and results
+ * change the ABI. Every module of a program is compiled with the same
+ * options, so the warning is disabled for the generated code as well.
+ */
+#if defined(__GNUC__) && !defined(__clang__)
+    #pragma GCC diagnostic ignored "-Wpsabi"
+#endif
+
+static inline beagle_float32x4 beagle_float32x4_splat( beagle_float32 value )
+{
+	return (beagle_float32x4) { value, value, value, value };
+}
+
+static inline beagle_float32x8 beagle_float32x8_splat( beagle_float32 value )
+{
+	return (beagle_float32x8) { value, value, value, value, value, value, value, value };
+}
+
+static inline beagle_int32x4 beagle_int32x4_splat( beagle_int32 value )
+{
+	return (beagle_int32x4) { value, value, value, value };
+}
+
+
+#endif // BEAGLE_VECTOR_H
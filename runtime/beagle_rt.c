@@ -0,0 +1,9 @@
+/*
+ * Beagle runtime library ('libbeagle_rt'), linked with the code generated
+ * with '-runtime-lib'. Profile support is always included, so the library
+ * also serves instrumented programs.
+ */
+
+#define BGL_PROFILE
+
+#include <beagle/runtime.h>
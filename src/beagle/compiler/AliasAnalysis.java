@@ -0,0 +1,563 @@
+package beagle.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+import beagle.compiler.tree.Argument;
+import beagle.compiler.tree.ArgumentList;
+import beagle.compiler.tree.BinaryExpression;
+import beagle.compiler.tree.CompilationUnit;
+import beagle.compiler.tree.ConstantDeclaration;
+import beagle.compiler.tree.ExpressionStmt;
+import beagle.compiler.tree.ForEachStmt;
+import beagle.compiler.tree.FormalParameter;
+import beagle.compiler.tree.Function;
+import beagle.compiler.tree.IExpression;
+import beagle.compiler.tree.IntegerLiteral;
+import beagle.compiler.tree.NameLiteral;
+import beagle.compiler.tree.ReturnStmt;
+import beagle.compiler.tree.StorageDeclaration;
+import beagle.compiler.tree.Structure;
+import beagle.compiler.tree.TreeVisitor;
+import beagle.compiler.tree.TypeReference;
+import beagle.compiler.tree.UnaryExpression;
+import beagle.compiler.tree.VariableDeclaration;
+
+/**
+ * Alias analysis for the C back end.
+ *
+ * A parameter holding a reference is marked as 'restrict' when no other
+ * pointer used while the function runs can reach the same instance:
+ *
+ * - the function and its callees only access fields directly ('x.field')
+ *   through parameters or new instances, never through references loaded
+ *   from fields or globals;
+ * - the parameter is never assigned;
+ * - every call in the unit passes it an instance distinct from the other
+ *   reference arguments (a new instance, distinct new local instances or
+ *   unrelated structure types);
+ * - the function is not an entry point, which could be called from
+ *   anywhere.
+ *
+ * Counted loops ('for x in range') whose body neither stores to memory nor
+ * calls functions are marked as independent ('#pragma GCC ivdep'). If they
+ * also have no returns, no nested loops and only accumulate integers with
+ * '+=', they are marked to run as SIMD lanes ('omp simd' with reductions).
+ */
+public class AliasAnalysis
+{
+
+	CompilationContext context;
+
+	HashMap<String, Function> functions;
+
+	HashMap<String, Structure> structures;
+
+	/**
+	 * Global variables holding references.
+	 */
+	HashSet<String> globals;
+
+	/**
+	 * Facts of each function with body, in declaration order.
+	 */
+	LinkedHashMap<Function, Facts> facts;
+
+	public AliasAnalysis( CompilationContext context )
+	{
+		this.context = context;
+	}
+
+	public void analyze( CompilationUnit unit )
+	{
+		functions = new HashMap<>();
+		structures = new HashMap<>();
+		globals = new HashSet<>();
+		facts = new LinkedHashMap<>();
+		for (Function item : unit.functions)
+			functions.put(item.name().qualifiedName(), item);
+		for (Structure item : unit.structures)
+			structures.put(item.name.qualifiedName(), item);
+		for (StorageDeclaration item : unit.storages())
+			if (CodeGenerator.isReference(item.type())) globals.add(item.name().qualifiedName());
+
+		boolean library = true;
+		for (Function item : unit.functions)
+		{
+			library &= !DeadCodeElimination.isEntryPoint(item);
+			if (item.body() != null) facts.put(item, new Facts(item));
+		}
+
+		// functions accessing instances only through direct fields, as their callees
+		HashSet<Function> simple = new HashSet<>();
+		for (Function item : facts.keySet())
+			if (facts.get(item).simple) simple.add(item);
+		boolean changed = true;
+		while (changed)
+		{
+			changed = false;
+			for (Function item : new ArrayList<>(simple))
+			{
+				for (UnaryExpression call : facts.get(item).calls)
+				{
+					Function callee = callee(facts.get(item), call);
+					if (callee != null && simple.contains(callee)) continue;
+					simple.remove(item);
+					changed = true;
+					break;
+				}
+			}
+		}
+
+		int parameters = 0;
+		int restrict = 0;
+		for (Function item : unit.functions)
+		{
+			if (item.parameters() == null) continue;
+			for (int i = 0; i < item.parameters().size(); ++i)
+			{
+				FormalParameter param = item.parameters().get(i);
+				if (!CodeGenerator.isReference(param.type())) continue;
+				++parameters;
+				if (library || DeadCodeElimination.isEntryPoint(item) || !simple.contains(item)) continue;
+				if (facts.get(item).assigned.contains(param.name().qualifiedName())) continue;
+				if (!isDistinct(item, i)) continue;
+				param.restrict = true;
+				++restrict;
+			}
+		}
+
+		int loops = 0;
+		int independent = 0;
+		int lanes = 0;
+		for (Facts item : facts.values())
+		{
+			for (ForEachStmt loop : item.loops)
+			{
+				++loops;
+				analyze(item, loop);
+				if (loop.independent) ++independent;
+				if (loop.reductions != null) ++lanes;
+			}
+		}
+
+		Statistics stats = context.statistics;
+		stats.set("alias.parameters", parameters);
+		stats.set("alias.restrict", restrict);
+		stats.set("alias.loops", loops);
+		stats.set("alias.loops.independent", independent);
+		stats.set("alias.loops.simd", lanes);
+	}
+
+	/**
+	 * Whether every call passes to the parameter an instance distinct from
+	 * the other reference arguments.
+	 */
+	boolean isDistinct( Function function, int index )
+	{
+		TypeReference type = function.parameters().get(index).type();
+		for (Facts caller : facts.values())
+		{
+			for (UnaryExpression call : caller.calls)
+			{
+				if (callee(caller, call) != function) continue;
+				ArrayList<IExpression> arguments = arguments(call);
+				if (arguments.size() != function.parameters().size()) return false;
+				for (int j = 0; j < arguments.size(); ++j)
+				{
+					TypeReference other = function.parameters().get(j).type();
+					if (j == index || !CodeGenerator.isReference(other) || !isRelated(type, other)) continue;
+					if (!isDistinct(caller, arguments.get(index), arguments.get(j))) return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	boolean isDistinct( Facts caller, IExpression first, IExpression second )
+	{
+		if (caller.isConstructor(first) || caller.isConstructor(second)) return true;
+		String a = caller.variable(first);
+		String b = caller.variable(second);
+		return a != null && b != null && !a.equals(b) && caller.isFresh(a) && caller.isFresh(b);
+	}
+
+	/**
+	 * Whether instances of one type may also be of the other.
+	 */
+	boolean isRelated( TypeReference first, TypeReference second )
+	{
+		return isAncestor(first.qualifiedName(), second.qualifiedName()) || isAncestor(second.qualifiedName(), first.qualifiedName());
+	}
+
+	boolean isAncestor( String ancestor, String name )
+	{
+		HashSet<String> visited = new HashSet<>();
+		while (name != null && visited.add(name))
+		{
+			if (name.equals(ancestor)) return true;
+			Structure structure = structures.get(name);
+			if (structure == null) return true;
+			name = (structure.parent != null) ? structure.parent.qualifiedName() : null;
+		}
+		return false;
+	}
+
+	Function callee( Facts caller, UnaryExpression call )
+	{
+		String name = ((NameLiteral) call.expression()).value().qualifiedName();
+		return (caller.declarations.containsKey(name)) ? null : functions.get(name);
+	}
+
+	static ArrayList<IExpression> arguments( UnaryExpression call )
+	{
+		ArrayList<IExpression> result = new ArrayList<>();
+		if (call.extra() instanceof ArgumentList)
+		{
+			for (Argument item : (ArgumentList) call.extra())
+				result.add(item.value());
+		}
+		else
+		if (call.extra() != null)
+			result.add(call.extra());
+		return result;
+	}
+
+	/**
+	 * Finds whether the iterations of the loop are independent and can run
+	 * as SIMD lanes.
+	 */
+	void analyze( Facts function, ForEachStmt loop )
+	{
+		if (loop.range() == null || !isInteger(loop.iterator.type())) return;
+		if (loop.range().size() == 3 && !(CodeGenerator.strip(loop.range().get(2).value()) instanceof IntegerLiteral)) return;
+
+		Loop body = new Loop(function);
+		loop.statement.accept(body);
+		if (!body.independent) return;
+		loop.independent = true;
+		if (body.exits || body.nested) return;
+
+		ArrayList<String> reductions = new ArrayList<>();
+		for (String name : body.updated)
+		{
+			if (body.inner.contains(name) || name.equals(loop.iterator.name().qualifiedName())) continue;
+			// accumulated integers not read otherwise by the iterations
+			if (!body.accumulated.containsKey(name) || !isInteger(function.types.get(name))) return;
+			if (body.uses.getOrDefault(name, 0) != body.accumulated.get(name)) return;
+			reductions.add(name);
+		}
+		loop.reductions = reductions;
+	}
+
+	static boolean isInteger( TypeReference type )
+	{
+		return type == TypeReference.INT8 || type == TypeReference.INT16 || type == TypeReference.INT32
+			|| type == TypeReference.INT64 || type == TypeReference.UINT8 || type == TypeReference.UINT16
+			|| type == TypeReference.UINT32 || type == TypeReference.UINT64;
+	}
+
+	/**
+	 * Declarations, calls and accesses of a function.
+	 */
+	class Facts extends TreeVisitor
+	{
+
+		HashMap<String, Integer> declarations = new HashMap<>();
+
+		HashMap<String, TypeReference> types = new HashMap<>();
+
+		HashSet<String> assigned = new HashSet<>();
+
+		/**
+		 * Local variables initialized with a new instance.
+		 */
+		HashSet<String> created = new HashSet<>();
+
+		/**
+		 * Variables whose fields are accessed.
+		 */
+		HashSet<String> roots = new HashSet<>();
+
+		ArrayList<UnaryExpression> calls = new ArrayList<>();
+
+		ArrayList<ForEachStmt> loops = new ArrayList<>();
+
+		/**
+		 * Whether the function itself only accesses fields directly.
+		 */
+		boolean simple = true;
+
+		Facts( Function function )
+		{
+			function.accept(this);
+			for (String name : roots)
+				if (!isFresh(name) && !isParameter(function, name)) simple = false;
+		}
+
+		boolean isParameter( Function function, String name )
+		{
+			if (function.parameters() == null || declarations.get(name) != 1) return false;
+			for (FormalParameter item : function.parameters())
+				if (item.name().qualifiedName().equals(name)) return true;
+			return false;
+		}
+
+		boolean isFresh( String name )
+		{
+			return created.contains(name) && declarations.get(name) == 1 && !assigned.contains(name);
+		}
+
+		boolean isConstructor( IExpression expr )
+		{
+			expr = CodeGenerator.strip(expr);
+			if (!(expr instanceof UnaryExpression)) return false;
+			UnaryExpression call = (UnaryExpression) expr;
+			if (call.operation() != TokenType.TOK_LEFT_PAR || !(call.expression() instanceof NameLiteral)) return false;
+			String name = ((NameLiteral) call.expression()).value().qualifiedName();
+			return structures.containsKey(name) && !declarations.containsKey(name);
+		}
+
+		String variable( IExpression expr )
+		{
+			expr = CodeGenerator.strip(expr);
+			if (!(expr instanceof NameLiteral) || ((NameLiteral) expr).value().isQualified()) return null;
+			String name = ((NameLiteral) expr).value().qualifiedName();
+			return (declarations.containsKey(name)) ? name : null;
+		}
+
+		void declare( String name, TypeReference type )
+		{
+			declarations.merge(name, 1, Integer::sum);
+			types.put(name, type);
+		}
+
+		void assign( IExpression target )
+		{
+			String name = variable(target);
+			if (name != null) assigned.add(name);
+		}
+
+		@Override
+		public boolean visit( FormalParameter target )
+		{
+			declare(target.name().qualifiedName(), target.type());
+			return true;
+		}
+
+		@Override
+		public boolean visit( VariableDeclaration target )
+		{
+			visitStorage(target);
+			return true;
+		}
+
+		@Override
+		public boolean visit( ConstantDeclaration target )
+		{
+			visitStorage(target);
+			return true;
+		}
+
+		void visitStorage( StorageDeclaration target )
+		{
+			String name = target.name().qualifiedName();
+			declare(name, target.type());
+			if (target.initializer() != null && isConstructor(target.initializer())) created.add(name);
+		}
+
+		@Override
+		public boolean visit( ForEachStmt target )
+		{
+			loops.add(target);
+			// iterating calls functions of the runtime
+			if (target.range() == null) simple = false;
+			return true;
+		}
+
+		@Override
+		public boolean visit( BinaryExpression target )
+		{
+			if (target.operation().name().endsWith("_ASSIGN")) assign(target.left());
+			return true;
+		}
+
+		@Override
+		public boolean visit( UnaryExpression target )
+		{
+			if (target.operation() == TokenType.TOK_INC || target.operation() == TokenType.TOK_DEC)
+				assign(target.expression());
+			if (target.operation() != TokenType.TOK_LEFT_PAR) return true;
+			if (!(target.expression() instanceof NameLiteral))
+			{
+				simple = false;
+				return true;
+			}
+			String name = ((NameLiteral) target.expression()).value().qualifiedName();
+			if (declarations.containsKey(name) || !functions.containsKey(name))
+			{
+				// creating instances, vectors and ranges calls nothing else
+				boolean known = structures.containsKey(name) || name.equals("range")
+					|| TypeReference.fromName(((NameLiteral) target.expression()).value()).isVector();
+				if (!known || declarations.containsKey(name)) simple = false;
+				return true;
+			}
+			calls.add(target);
+			return true;
+		}
+
+		@Override
+		public boolean visit( NameLiteral target )
+		{
+			if (!target.value().isQualified())
+			{
+				String name = target.value().qualifiedName();
+				if (!declarations.containsKey(name) && globals.contains(name)) simple = false;
+				return true;
+			}
+			// only 'x.field'
+			if (target.value().count() != 2)
+			{
+				simple = false;
+				return true;
+			}
+			String root = target.value().slice(0, 1).qualifiedName();
+			if (!declarations.containsKey(root))
+				simple = false;
+			else
+				roots.add(root);
+			return true;
+		}
+
+	}
+
+	/**
+	 * Stores, calls and updated variables in the body of a loop.
+	 */
+	class Loop extends TreeVisitor
+	{
+
+		Facts function;
+
+		boolean independent = true;
+
+		boolean exits;
+
+		boolean nested;
+
+		/**
+		 * Variables declared in the body.
+		 */
+		HashSet<String> inner = new HashSet<>();
+
+		HashSet<String> updated = new HashSet<>();
+
+		/**
+		 * Number of updates with '+=' (or '++') by variable.
+		 */
+		HashMap<String, Integer> accumulated = new HashMap<>();
+
+		/**
+		 * Number of uses by variable.
+		 */
+		HashMap<String, Integer> uses = new HashMap<>();
+
+		Loop( Facts function )
+		{
+			this.function = function;
+		}
+
+		/**
+		 * Updates of local variables holding values, the only stores allowed.
+		 */
+		void update( IExpression target, boolean accumulate )
+		{
+			target = CodeGenerator.strip(target);
+			String name = function.variable(target);
+			if (name == null || CodeGenerator.isReference(function.types.get(name)))
+			{
+				independent = false;
+				return;
+			}
+			updated.add(name);
+			if (accumulate) accumulated.merge(name, 1, Integer::sum);
+		}
+
+		@Override
+		public boolean visit( VariableDeclaration target )
+		{
+			inner.add(target.name().qualifiedName());
+			if (CodeGenerator.isReference(target.type())) independent = false;
+			return true;
+		}
+
+		@Override
+		public boolean visit( ConstantDeclaration target )
+		{
+			inner.add(target.name().qualifiedName());
+			if (CodeGenerator.isReference(target.type())) independent = false;
+			return true;
+		}
+
+		@Override
+		public boolean visit( ForEachStmt target )
+		{
+			nested = true;
+			inner.add(target.iterator.name().qualifiedName());
+			if (target.range() == null) independent = false;
+			return true;
+		}
+
+		@Override
+		public boolean visit( ExpressionStmt target )
+		{
+			// 'ReturnStmt' is visited as its base class
+			if (target instanceof ReturnStmt) exits = true;
+			return true;
+		}
+
+		@Override
+		public boolean visit( BinaryExpression target )
+		{
+			if (target.operation().name().endsWith("_ASSIGN"))
+				update(target.left(), target.operation() == TokenType.TOK_PLUS_ASSIGN);
+			return true;
+		}
+
+		@Override
+		public boolean visit( UnaryExpression target )
+		{
+			if (target.operation() == TokenType.TOK_INC)
+				update(target.expression(), true);
+			else
+			if (target.operation() == TokenType.TOK_DEC)
+				update(target.expression(), false);
+			else
+			if (target.operation() == TokenType.TOK_LEFT_PAR)
+			{
+				// only vectors and ranges of nested loops are created without calls
+				boolean known = false;
+				if (target.expression() instanceof NameLiteral)
+				{
+					NameLiteral callee = (NameLiteral) target.expression();
+					String name = callee.value().qualifiedName();
+					known = !function.declarations.containsKey(name) && !functions.containsKey(name)
+						&& (name.equals("range") || TypeReference.fromName(callee.value()).isVector());
+				}
+				if (!known) independent = false;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean visit( NameLiteral target )
+		{
+			if (!target.value().isQualified()) uses.merge(target.value().qualifiedName(), 1, Integer::sum);
+			return true;
+		}
+
+	}
+
+}
@@ -0,0 +1,56 @@
+package beagle.compiler;
+
+import beagle.compiler.tree.Annotation;
+import beagle.compiler.tree.AnnotationList;
+
+/**
+ * Annotations interpreted by the compiler itself (directives). Any other
+ * annotation is kept for the user.
+ */
+public final class Annotations
+{
+
+	/**
+	 * Functions whose instances are allocated from an arena released in bulk
+	 * when the function returns.
+	 */
+	public static final String ARENA = "arena";
+
+	/**
+	 * Structures whose fields keep the declaration order (e.g. shared with C
+	 * code expecting a given layout).
+	 */
+	public static final String ORDERED = "ordered";
+
+	/**
+	 * Structures that also get a struct-of-arrays container, with one array
+	 * per field.
+	 */
+	public static final String SOA = "soa";
+
+	static final String[] DIRECTIVES = { ARENA, ORDERED, SOA };
+
+	private Annotations()
+	{
+	}
+
+	/**
+	 * Whether the list contains the annotation with the given name.
+	 */
+	public static boolean has( AnnotationList list, String name )
+	{
+		if (list == null) return false;
+		for (Annotation item : list)
+			if (item.type().qualifiedName().equals(name)) return true;
+		return false;
+	}
+
+	public static boolean isDirective( Annotation annotation )
+	{
+		String name = annotation.type().qualifiedName();
+		for (String item : DIRECTIVES)
+			if (item.equals(name)) return true;
+		return false;
+	}
+
+}
@@ -1,14 +1,39 @@
 package beagle.compiler;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
+import beagle.compiler.ir.CEmitter;
+import beagle.compiler.ir.IrFunction;
+import beagle.compiler.ir.Lowering;
+import beagle.compiler.tree.Argument;
+import beagle.compiler.tree.ArgumentList;
+import beagle.compiler.tree.AtomicExpression;
 import beagle.compiler.tree.BinaryExpression;
 import beagle.compiler.tree.Block;
 import beagle.compiler.tree.BooleanLiteral;
 import beagle.compiler.tree.CompilationUnit;
 import beagle.compiler.tree.ConstantDeclaration;
+import beagle.compiler.tree.ExpressionList;
 import beagle.compiler.tree.ExpressionStmt;
 import beagle.compiler.tree.FloatLiteral;
 import beagle.compiler.tree.ForEachStmt;
@@ -18,9 +43,11 @@ import beagle.compiler.tree.Function;
 import beagle.compiler.tree.FunctionList;
 import beagle.compiler.tree.IExpression;
 import beagle.compiler.tree.IStatement;
+import beagle.compiler.tree.ITreeElement;
 import beagle.compiler.tree.IfThenElseStmt;
 import beagle.compiler.tree.IntegerLiteral;
 import beagle.compiler.tree.Module;
+import beagle.compiler.tree.Name;
 import beagle.compiler.tree.NameLiteral;
 import beagle.compiler.tree.NullLiteral;
 import beagle.compiler.tree.ReturnStmt;
@@ -29,25 +56,171 @@ import beagle.compiler.tree.StorageList;
 import beagle.compiler.tree.StringLiteral;
 import beagle.compiler.tree.Structure;
 import beagle.compiler.tree.StructureList;
+import beagle.compiler.tree.TreeVisitor;
 import beagle.compiler.tree.TypeReference;
 import beagle.compiler.tree.UnaryExpression;
+import beagle.compiler.tree.UnaryExpression.UnaryDirection;
 
 public class CodeGenerator
 {
 
+	/**
+	 * Ancestors in the display of every type ('BGL_DISPLAY_SIZE' in 'beagle/core.h').
+	 */
+	static final int DISPLAY_SIZE = 8;
+
 	protected OutputStream output;
 
 	protected PrintStream printer;
 
+	/**
+	 * Line counters of the generated files.
+	 */
+	protected IdentityHashMap<PrintStream, LineCounter> outputs = new IdentityHashMap<>();
+
+	/**
+	 * Source positions of the generated lines or {@code null}.
+	 */
+	protected SourceMap sourceMap;
+
+	/**
+	 * Absolute path of each source file in the '#line' directives.
+	 */
+	protected HashMap<String, String> sourceNames = new HashMap<>();
+
 	protected CompilationContext context;
 
+	/**
+	 * Functions in the current compilation unit by name.
+	 */
+	protected HashMap<String, Function> unitFunctions = new HashMap<>();
+
+	/**
+	 * Structures in the current compilation unit by name.
+	 */
+	protected HashMap<String, Structure> unitStructures = new HashMap<>();
+
+	/**
+	 * Function being generated.
+	 */
+	protected Function function;
+
+	/**
+	 * Types of the parameters and local variables of the current function
+	 * (they hide functions with the same name).
+	 */
+	protected HashMap<String, TypeReference> locals = new HashMap<>();
+
+	/**
+	 * Local variables holding a reference to be released at the end of each
+	 * enclosing block (innermost block first).
+	 */
+	protected LinkedList<ArrayList<String>> owned = new LinkedList<>();
+
+	/**
+	 * Local variables referencing instances on the stack, which are disposed
+	 * instead of released.
+	 */
+	protected HashSet<String> stack = new HashSet<>();
+
+	/**
+	 * Temporaries holding new instances used as arguments.
+	 */
+	protected IdentityHashMap<IExpression, String> hoisted = new IdentityHashMap<>();
+
+	/**
+	 * Whether the instances of the current function come from its arena.
+	 */
+	protected boolean arena;
+
+	/**
+	 * Number of loops in the current function (used to name hidden variables).
+	 */
+	protected int loops;
+
+	/**
+	 * Number of temporaries in the current function.
+	 */
+	protected int temporaries;
+
+	/**
+	 * Labels of the functions, conditionals and loops of the current unit
+	 * when instrumenting or using a profile (see 'Profile').
+	 */
+	protected LinkedHashMap<ITreeElement, String> labels;
+
+	/**
+	 * Index of the first counter of every labeled element (when
+	 * instrumenting).
+	 */
+	protected IdentityHashMap<ITreeElement, Integer> counters = new IdentityHashMap<>();
+
+	/**
+	 * Name of the array with the counters of the current unit.
+	 */
+	protected String counterArray;
+
+	/**
+	 * Number of units generated (used to name the counters of each one).
+	 */
+	protected int units;
+
+	// state of modules generated as several files (see 'generateSplit')
+
+	/**
+	 * Declarations shared by every file.
+	 */
+	protected PrintStream header;
+
+	/**
+	 * Definitions that must be unique in the program (type information,
+	 * string table and profile counters).
+	 */
+	protected PrintStream data;
+
+	protected File directory;
+
+	protected String baseName;
+
+	protected int functionsPerFile;
+
+	/**
+	 * C files generated.
+	 */
+	protected ArrayList<String> files = new ArrayList<>();
+
 	public CodeGenerator( CompilationContext context, OutputStream output )
+	{
+		this(context, output, null, null);
+	}
+
+	/**
+	 * @param outputName Name of the generated file, used by the '#line'
+	 *    directives to restore its line numbers after each function (no
+	 *    directives are generated without it).
+	 * @param sourceMap Map receiving the source position of the generated
+	 *    lines or {@code null}.
+	 */
+	public CodeGenerator( CompilationContext context, OutputStream output, String outputName, SourceMap sourceMap )
 	{
 		this.output = output;
-		this.printer = new PrintStream(output);
+		this.printer = open(output, outputName);
+		this.sourceMap = sourceMap;
 		this.context = context;
 	}
 
+	/**
+	 * Creates the printer of a generated file.
+	 */
+	private PrintStream open( OutputStream output, String fileName )
+	{
+		LineCounter counter = new LineCounter(output, fileName);
+		// string lengths in the string table are computed for UTF-8
+		PrintStream result = new PrintStream(counter, false, StandardCharsets.UTF_8);
+		outputs.put(result, counter);
+		return result;
+	}
+
 	protected void println()
 	{
 		printer.println();
@@ -80,42 +253,486 @@ public class CodeGenerator
 		comment(" Beagle Compiler");
 		comment(" AUTO-GENERATED CODE - Do not edit!");
 
-		println("\n#include <beagle/base.h>");
+		println();
+		generateIncludes(module.units.values());
 
 		generateStringTable();
 		for (CompilationUnit item : module.units.values())
 			generateUnit(item);
 	}
 
+	/**
+	 * Generates the module as several files in the given directory, so the
+	 * C compiler can process them in parallel:
+	 *
+	 * - '<name>.h' with the types, the prototypes and the 'static inline'
+	 *   functions;
+	 * - '<name>_data.c' with the type information, the string table and
+	 *   the profile counters;
+	 * - '<name>_<N>.c' with the functions of a compilation unit, up to
+	 *   'functionsPerFile' of them in each file (0 for no limit);
+	 * - 'Makefile' building the library 'lib<name>.a' ('make -j');
+	 * - '<name>.map' with the source positions of the lines of the C files
+	 *   (see 'SourceMap'), unless '#line' directives are disabled.
+	 */
+	public void generateSplit( Module module, File directory, String name, int functionsPerFile ) throws IOException
+	{
+		this.directory = directory;
+		this.baseName = name;
+		this.functionsPerFile = functionsPerFile;
+		files.clear();
+		Files.createDirectories(directory.toPath());
+		PrintStream main = printer;
+		SourceMap map = sourceMap;
+		if (context.lineDirectives) sourceMap = new SourceMap();
+
+		String guard = "BEAGLE_" + name.toUpperCase().replaceAll("[^A-Z0-9]", "_") + "_H";
+		header = create(name + ".h");
+		printer = header;
+		comment(" Beagle Compiler");
+		comment(" AUTO-GENERATED CODE - Do not edit!");
+		println();
+		println("#ifndef " + guard);
+		println("#define " + guard);
+		println();
+		generateIncludes(module.units.values());
+		println();
+		if (!context.stringTable.isEmpty()) println("extern const dynamic_string_ STRING_TABLE[];");
+
+		data = create(name + "_data.c");
+		files.add(name + "_data.c");
+		printer = data;
+		comment(" Beagle Compiler");
+		comment(" AUTO-GENERATED CODE - Do not edit!");
+		println();
+		println("#include \"" + name + ".h\"");
+		println();
+		generateStringTable();
+		println();
+
+		for (CompilationUnit item : module.units.values())
+			generateUnit(item);
+
+		printer = header;
+		println();
+		println("#endif // " + guard);
+		header.close();
+		data.close();
+		header = null;
+		data = null;
+		printer = main;
+
+		generateMakefile();
+		if (sourceMap != null && !sourceMap.isEmpty())
+		{
+			try (PrintStream output = create(name + ".map"))
+			{
+				sourceMap.write(output);
+			}
+		}
+		sourceMap = map;
+	}
+
+	/**
+	 * Includes the runtime. With 'libbeagle_rt', only the headers the units
+	 * use are included, which keeps the C compilation of each file short.
+	 */
+	private void generateIncludes( Collection<CompilationUnit> units )
+	{
+		if (context.instrument) println("#define BGL_PROFILE");
+		if (!context.runtimeLibrary)
+		{
+			println("#include <beagle/base.h>");
+			return;
+		}
+
+		println("#include <beagle/core.h>");
+		boolean[] uses = new boolean[1];
+		TreeVisitor visitor = new TreeVisitor()
+		{
+			@Override
+			public boolean visit( TypeReference target )
+			{
+				uses[0] |= target.isVector();
+				return true;
+			}
+
+			@Override
+			public boolean visit( NameLiteral target )
+			{
+				// vector constructors
+				uses[0] |= TypeReference.fromName(target.value()).isVector();
+				return true;
+			}
+		};
+		for (CompilationUnit unit : units)
+		{
+			for (Structure item : unit.structures)
+				for (StorageDeclaration field : item.body.storages)
+					uses[0] |= field.type() != null && field.type().isVector();
+			for (Function item : unit.functions)
+				item.accept(visitor);
+		}
+		if (uses[0]) println("#include <beagle/vector.h>");
+		if (context.instrument) println("#include <beagle/profile.h>");
+	}
+
+	/**
+	 * Creates a file in the output directory.
+	 */
+	private PrintStream create( String fileName ) throws IOException
+	{
+		return open(new FileOutputStream(new File(directory, fileName)), fileName);
+	}
+
+	private void generateMakefile() throws IOException
+	{
+		String library = "lib" + baseName + ".a";
+		StringBuilder objects = new StringBuilder();
+		for (String item : files)
+			objects.append(" ").append(item.substring(0, item.length() - 2)).append(".o");
+
+		try (PrintStream output = create("Makefile"))
+		{
+			output.println("# Beagle Compiler");
+			output.println("# AUTO-GENERATED CODE - Do not edit!");
+			output.println("#");
+			output.println("# Builds '" + library + "'; use 'make -j' to compile the files in parallel.");
+			output.println("# 'BEAGLE_INCLUDE' is the directory containing 'beagle/base.h'.");
+			if (context.runtimeLibrary)
+				output.println("# Programs using the library must also be linked with 'libbeagle_rt'.");
+			output.println("#");
+			output.println("# The shared header is precompiled ('PCH'); use 'make PCH=' to disable it");
+			output.println("# (e.g. for compilers that do not pick up '.gch' files).");
+			output.println();
+			output.println("CFLAGS ?= -O2");
+			output.println("BEAGLE_INCLUDE ?= /usr/local/include");
+			output.println("PCH ?= " + baseName + ".h.gch");
+			output.println();
+			output.println("OBJECTS =" + objects);
+			output.println();
+			output.println(library + ": $(OBJECTS)");
+			output.println("\t$(AR) rcs $@ $(OBJECTS)");
+			output.println();
+			output.println("%.o: %.c " + baseName + ".h $(PCH)");
+			output.println("\t$(CC) $(CFLAGS) -I$(BEAGLE_INCLUDE) -c $< -o $@");
+			output.println();
+			output.println(baseName + ".h.gch: " + baseName + ".h");
+			output.println("\t$(CC) $(CFLAGS) -I$(BEAGLE_INCLUDE) -x c-header $< -o $@");
+			output.println();
+			output.println("clean:");
+			output.println("\trm -f $(OBJECTS) " + library + " " + baseName + ".h.gch");
+			output.println();
+			output.println(".PHONY: clean");
+		}
+	}
+
 	public void generateUnit( CompilationUnit unit )
 	{
+		// types and prototypes are shared by the files of the unit
+		if (header != null) printer = header;
+		unitFunctions.clear();
+		for (Function item : unit.functions)
+			unitFunctions.put(item.name().qualifiedName(), item);
+		unitStructures.clear();
+		for (Structure item : unit.structures)
+			unitStructures.put(item.name.qualifiedName(), item);
+
 		generateStructures(unit.structures);
-		generateFunctions(unit.functions);
+		labels = (context.instrument || context.profile != null) ? Profile.label(unit) : null;
+		counters.clear();
+		counterArray = null;
+		if (context.instrument) generateCounters();
+		generateGlobals(unit);
+		generateFunctions(unit);
+		++units;
 	}
 
-	private void generateFunctions(FunctionList functions)
+	/**
+	 * Generates the global storages of the unit. They are named like the
+	 * locals, so the functions use them in the same way, and can only be
+	 * initialized with constants, as C requires for static storage.
+	 */
+	private void generateGlobals( CompilationUnit unit )
 	{
+		if (unit.storages().isEmpty()) return;
+		PrintStream declarations = printer;
+		if (data != null)
+		{
+			// the storages are used by the functions in every file
+			println();
+			for (StorageDeclaration item : unit.storages())
+				println("extern " + ((item instanceof ConstantDeclaration) ? "const " : "") + nativeType(item.type()) + " " + nativeName("local_", item.name().qualifiedName()) + ";");
+			printer = data;
+		}
+		println();
+		comment("GLOBALS");
+		for (StorageDeclaration item : unit.storages())
+		{
+			IExpression initializer = item.initializer();
+			if (initializer != null && !ConstantFolding.isConstant(initializer))
+			{
+				context.listener.onError(item.location(), "Global storages must be initialized with constants");
+				continue;
+			}
+			if (data == null) print("static ");
+			if (item instanceof ConstantDeclaration) print("const ");
+			printTypeReference(item.type());
+			print(nativeName("local_", item.name().qualifiedName()));
+			// static storage starts with zero (or null) otherwise
+			if (initializer != null)
+			{
+				print(" = ");
+				generateExpression(initializer);
+			}
+			println(";");
+		}
+		printer = declarations;
+	}
+
+	/**
+	 * Generates the counters of the unit, registered to be written to the
+	 * profile when the program exits.
+	 */
+	private void generateCounters()
+	{
+		ArrayList<String> names = new ArrayList<>();
+		for (Map.Entry<ITreeElement, String> entry : labels.entrySet())
+		{
+			counters.put(entry.getKey(), names.size());
+			names.addAll(Profile.counters(entry.getKey(), entry.getValue()));
+		}
+		context.statistics.set("profile.counters", names.size());
+		// C does not allow empty arrays
+		if (names.isEmpty()) return;
+
+		String prefix = "profile" + units + "_";
+		counterArray = prefix + "counters_";
+		PrintStream declarations = printer;
+		if (data != null)
+		{
+			// the counters are used by the functions in every file
+			println("extern beagle_uint64 " + counterArray + "[" + names.size() + "];");
+			printer = data;
+		}
+		println();
+		comment("PROFILE COUNTERS");
+		println(((data != null) ? "" : "static ") + "beagle_uint64 " + counterArray + "[" + names.size() + "];");
+		println("static const char * const " + prefix + "names_[] =\n{");
+		for (String name : names)
+			println("\t\"" + name + "\",");
+		println("};");
+		println("static beagle_profile " + prefix + " = { " + names.size() + ", " + prefix + "names_, " + counterArray + ", NULL };");
+		println("__attribute__((constructor)) static void " + prefix + "register_( void )");
+		println("{");
+		println("beagle_profile_register(&" + prefix + ");");
+		println("}");
+		printer = declarations;
+	}
+
+	/**
+	 * Returns the counter of the labeled element with the given offset or
+	 * {@code null} if it is not instrumented.
+	 */
+	private String counter( ITreeElement element, int offset )
+	{
+		Integer index = counters.get(element);
+		if (counterArray == null || index == null) return null;
+		return counterArray + "[" + (index + offset) + "]";
+	}
+
+	private void generateFunctions(CompilationUnit unit)
+	{
+		FunctionList functions = unit.functions;
+		Lowering lowering = (context.useIr) ? new Lowering(context, unit) : null;
+
 		println();
 		comment("\nFUNCTIONS\n ");
 		println();
 
+		List<Function> ordered = (context.profile != null) ? order(functions) : functions;
+		if (header != null)
+		{
+			generateFiles(ordered, lowering);
+			return;
+		}
+		if (!ordered.equals(functions))
+		{
+			// functions may be called before their definition
+			for (Function item : ordered)
+				generatePrototype(item);
+			println();
+		}
+
 		// generate C types and global variables;
+		for (Function item : ordered)
+			generateFunction(item, lowering);
+	}
+
+	/**
+	 * Generates the functions of a unit in their own files, declared in the
+	 * header. Functions that are 'static inline' are defined in the header.
+	 */
+	private void generateFiles(List<Function> functions, Lowering lowering)
+	{
+		for (Function item : functions)
+			generatePrototype(item);
+		println();
+		for (Function item : functions)
+			if (item.inline) generateFunction(item, lowering);
+
+		int count = 0;
 		for (Function item : functions)
 		{
+			if (item.inline) continue;
+			if (count == 0 || (functionsPerFile > 0 && count % functionsPerFile == 0))
+			{
+				if (printer != header) printer.close();
+				String fileName = baseName + "_" + files.size() + ".c";
+				try
+				{
+					printer = create(fileName);
+				} catch (IOException ex)
+				{
+					throw new UncheckedIOException(ex);
+				}
+				files.add(fileName);
+				comment(" Beagle Compiler");
+				comment(" AUTO-GENERATED CODE - Do not edit!");
+				println();
+				println("#include \"" + baseName + ".h\"");
+				println();
+			}
+			generateFunction(item, lowering);
+			++count;
+		}
+		if (printer != header) printer.close();
+		printer = header;
+	}
+
+	private void generateFunction(Function item, Lowering lowering)
+	{
+		// instrumented functions are generated from the tree, where the counters are
+		IrFunction ir = (lowering != null && !context.instrument) ? lowering.lower(item) : null;
+		if (ir != null)
+			generateFunction(ir, item);
+		else
 			generateFunction(item);
+	}
+
+	/**
+	 * Orders the functions by their weight in the profile: hot functions
+	 * first, so they share cache lines and pages, and the ones never called
+	 * at the end.
+	 */
+	private List<Function> order(FunctionList functions)
+	{
+		Profile profile = context.profile;
+		ArrayList<Function> result = new ArrayList<>(functions);
+		// the sort is stable, keeping the source order of similar functions
+		result.sort(Comparator.comparingInt((Function item) -> rank(item.name().qualifiedName()))
+			.thenComparingLong(item -> profile.isHot(item.name().qualifiedName()) ? -profile.weight(item.name().qualifiedName()) : 0));
+		return result;
+	}
+
+	private int rank(String name)
+	{
+		if (context.profile.isHot(name)) return 0;
+		return (context.profile.isCold(name)) ? 2 : 1;
+	}
+
+	/**
+	 * Generates the attributes (linkage and profile) before the signature of a function.
+	 */
+	private void generateAttributes(Function function)
+	{
+		if (function.inline) print("static inline ");
+		if (context.profile == null) return;
+
+		String name = function.name().qualifiedName();
+		if (context.profile.isHot(name))
+		{
+			print("BGL_HOT ");
+			context.statistics.add("profile.hot", 1);
 		}
+		else
+		if (context.profile.isCold(name))
+		{
+			print("BGL_COLD ");
+			context.statistics.add("profile.cold", 1);
+		}
+	}
+
+	private void generatePrototype(Function function)
+	{
+		if (function.inline) print("static inline ");
+		if (function.returnType() != null)
+			printTypeReference(function.returnType());
+		print("  ");
+		print(nativeName("def_", function.name().qualifiedName()));
+		generateParameterList(function.parameters());
+		locals.clear();
+		println(";");
+	}
+
+	private void generateFunction(IrFunction function, Function source)
+	{
+		comment(function.name);
+		generateLine(source);
+		generateAttributes(source);
+		new CEmitter(printer)
+		{
+			@Override
+			protected void location( SourceLocation location )
+			{
+				generateLine(location);
+			}
+		}.emit(function);
+		restoreLine();
+		println();
 	}
 
 	private void generateFunction(Function function)
 	{
 		comment(function.name().qualifiedName());
+		this.function = function;
+		locals.clear();
+		owned.clear();
+		stack.clear();
+		hoisted.clear();
+		loops = 0;
+		temporaries = 0;
+		arena = Annotations.has(function.annotations(), Annotations.ARENA);
+		generateLine(function);
+		generateAttributes(function);
 		if (function.returnType() != null)
 			printTypeReference(function.returnType());
 		print("  ");
 		print(nativeName("def_", function.name().qualifiedName()));
 		generateParameterList(function.parameters());
-		generateBlock(function.body());
+		String calls = counter(function, 0);
+		if (arena || calls != null)
+		{
+			println("{");
+			if (calls != null) println("++" + calls + ";");
+			if (arena)
+			{
+				// instances are freed together when the function returns
+				if (isReference(function.returnType()))
+					context.listener.onError(function.location(), "Function '" + function.name() + "' can not return references from its arena");
+				println("beagle_arena arena__;");
+				println("beagle_arena_init(&arena__);");
+			}
+			generateBlock(function.body());
+			if (arena && (function.body().isEmpty() || !(function.body().getLast() instanceof ReturnStmt)))
+				println("beagle_arena_release(&arena__);");
+			println("}");
+		}
+		else
+			generateBlock(function.body());
+		restoreLine();
 		println();
+		this.function = null;
 	}
 
 	private void generateParameterList( FormalParameterList params )
@@ -125,7 +742,10 @@ public class CodeGenerator
 		{
 			FormalParameter current = it.next();
 			printTypeReference(current.type());
-			print(current.name().qualifiedName());
+			if (current.restrict) print("restrict ");
+			print(nativeName("local_", current.name().qualifiedName()));
+			// parameters are borrowed from the caller
+			locals.put(current.name().qualifiedName(), current.type());
 
 			if (it.hasNext()) print(", ");
 		}
@@ -135,27 +755,63 @@ public class CodeGenerator
 	private void generateBlock( Block block )
 	{
 		println("{");
+		owned.push(new ArrayList<>());
 		for (IStatement stmt : block)
 		{
 			generateStatement(stmt);
 		}
+		// 'return' releases the references by itself
+		if (block.isEmpty() || !(block.getLast() instanceof ReturnStmt))
+			generateReleases(owned.peek(), null);
+		owned.pop();
 		println("}");
 	}
 
+	/**
+	 * Releases the given references in reverse order, except the one being
+	 * returned.
+	 */
+	private void generateReleases( List<String> names, String except )
+	{
+		for (int i = names.size() - 1; i >= 0; --i)
+		{
+			String name = names.get(i);
+			if (name.equals(except)) continue;
+			if (!stack.contains(name))
+				println("beagle_release(" + name + ");");
+			else
+			if (hasReferences(unitStructures.get(typeOfName(name).qualifiedName())))
+				println("beagle_dispose(" + name + ");");
+		}
+	}
+
 	private void generateStatement( IStatement stmt )
 	{
+		generateLine(stmt);
 		if (stmt instanceof StorageDeclaration)
 			generateStorage(((StorageDeclaration)stmt));
 		else
 		if (stmt instanceof IfThenElseStmt)
 			generateIfThenElse(((IfThenElseStmt)stmt));
 		else
-		if (stmt instanceof ExpressionStmt)
-			generateExpression(((ExpressionStmt)stmt).expression());
-		else
 		if (stmt instanceof ReturnStmt)
 			generateReturn((ReturnStmt)stmt);
 		else
+		if (stmt instanceof ExpressionStmt)
+		{
+			IExpression expr = ((ExpressionStmt)stmt).expression();
+			ArrayList<String> temporaries = hoist(expr);
+			if (!generateAssignment(expr))
+			{
+				// new instances not stored anywhere
+				boolean release = isFresh(expr);
+				if (release) print("beagle_release(");
+				generateExpression(expr);
+				println((release) ? ");" : ";");
+			}
+			generateReleases(temporaries, null);
+		}
+		else
 		if (stmt instanceof ForEachStmt)
 			generateForEach((ForEachStmt)stmt);
 		else
@@ -165,25 +821,240 @@ public class CodeGenerator
 			context.listener.onError(null, "Unknown statement " + stmt.getClass().getName());
 	}
 
+	/**
+	 * Makes the C compiler report the following lines at the source position
+	 * of the given element, so debuggers and profilers show the Beagle code.
+	 */
+	private void generateLine( ITreeElement element )
+	{
+		generateLine(element.location());
+	}
+
+	private void generateLine( SourceLocation location )
+	{
+		LineCounter counter = outputs.get(printer);
+		if (!context.lineDirectives || counter == null || counter.name == null || location == null) return;
+		// the C code may be compiled in another directory
+		String source = sourceNames.computeIfAbsent(location.fileName, name -> Paths.get(name).toAbsolutePath().normalize().toString());
+		// the C compiler keeps counting the lines after the previous directive
+		if (!source.equals(counter.source) || location.line != counter.line + counter.shift)
+		{
+			println("#line " + location.line + " " + quote(source));
+			counter.source = source;
+			counter.shift = location.line - counter.line;
+		}
+		if (sourceMap != null) sourceMap.add(counter.name, counter.line, new SourceLocation(source, location.line, location.column));
+	}
+
+	/**
+	 * Makes the C compiler report the following lines at their position in
+	 * the generated file again.
+	 */
+	private void restoreLine()
+	{
+		LineCounter counter = outputs.get(printer);
+		if (counter == null || counter.source == null) return;
+		println("#line " + (counter.line + 1) + " " + quote(counter.name));
+		counter.source = null;
+		if (sourceMap != null) sourceMap.add(counter.name, counter.line, null);
+	}
+
+	/**
+	 * Returns the given file name as a C string literal.
+	 */
+	static String quote( String fileName )
+	{
+		return "\"" + fileName.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	/**
+	 * Generates 'for x in range(...)' as a counted C loop. The loop variable is
+	 * a copy of a hidden counter, so assigning to it does not change the
+	 * iteration. Loops with a step of zero do not iterate.
+	 */
 	private void generateForEach(ForEachStmt stmt)
 	{
-		print("for (size_t i = 0; i < 5; ++i) {");
+		TypeReference type = stmt.iterator.type();
+		String name = stmt.iterator.name().qualifiedName();
+		if (type == null)
+		{
+			context.listener.onError(stmt.iterator.name().location(), "Unknown type for '" + name + "'");
+			return;
+		}
+		// other values are reported by Semantic
+		ArgumentList range = stmt.range();
+		if (range == null) return;
+		// zero steps written in the source are reported by Semantic, so this
+		// one comes from an inlined argument
+		IExpression stepExpr = (range.size() == 3) ? range.get(2).value() : null;
+		if (stepExpr instanceof IntegerLiteral && ((IntegerLiteral) stepExpr).value() == 0) return;
+		locals.put(name, type);
+		int id = loops++;
+		ArrayList<String> temporaries = hoist(stmt.expression);
+		String entries = counter(stmt, 0);
+		String iterations = counter(stmt, 1);
+		if (entries != null) println("++" + entries + ";");
+
+		String counter = "counter" + id + "_";
+		String end = "end" + id + "_";
+		String step = "step" + id + "_";
+
+		// the counters are shared by the iterations
+		boolean independent = stmt.independent && iterations == null;
+
+		// bounds and step are evaluated only once
+		if (independent)
+		{
+			// the end is declared first to keep the form required by 'omp simd'
+			println("{");
+			printTypeReference(type);
+			print(end + " = ");
+			generateExpression(range.get((range.size() == 1) ? 0 : 1).value());
+			println(";");
+			if (stmt.reductions == null)
+				println("BGL_IVDEP");
+			else
+			{
+				print("BGL_SIMD(");
+				for (int i = 0; i < stmt.reductions.size(); ++i)
+				{
+					if (i > 0) print(" ");
+					print("reduction(+:" + nativeName("local_", stmt.reductions.get(i)) + ")");
+				}
+				println(")");
+			}
+		}
+		print("for (");
+		printTypeReference(type);
+		print(counter + " = ");
+		if (range.size() == 1)
+			print("0");
+		else
+			generateExpression(range.get(0).value());
+		if (!independent)
+		{
+			print(", " + end + " = ");
+			generateExpression(range.get((range.size() == 1) ? 0 : 1).value());
+		}
+
+		if (stepExpr == null || stepExpr instanceof IntegerLiteral)
+		{
+			// constant steps give the loops compilers know how to vectorize
+			long value = (stepExpr == null) ? 1 : ((IntegerLiteral) stepExpr).value();
+			print("; " + counter + ((value > 0) ? " < " : " > ") + end + "; ");
+			if (value == 1)
+				print("++" + counter);
+			else
+			if (value == -1)
+				print("--" + counter);
+			else
+				print(counter + " += " + integerLiteral(value, type));
+		}
+		else
+		{
+			print(", " + step + " = ");
+			generateExpression(stepExpr);
+			print("; (" + step + " > 0) ? " + counter + " < " + end + " : (" + step + " < 0 && " + counter + " > " + end + "); ");
+			print(counter + " += " + step);
+		}
+		println(")");
+		println("{");
+		printTypeReference(type);
+		println(nativeName("local_", name) + " = " + counter + ";");
+		if (iterations != null) println("++" + iterations + ";");
 		generateStatement(stmt.statement);
 		println("}");
+		if (independent) println("}");
+		generateReleases(temporaries, null);
 	}
 
 	private void generateReturn(ReturnStmt stmt)
 	{
-		print("return ");
-		generateExpression(stmt.expression());
-		println();
+		IExpression expr = stmt.expression();
+		ArrayList<String> temporaries = (expr != null) ? hoist(expr) : new ArrayList<>();
+		boolean cleanup = !temporaries.isEmpty() || arena;
+		for (ArrayList<String> scope : owned)
+			cleanup |= !scope.isEmpty();
+
+		if (!cleanup)
+		{
+			print("return");
+			if (expr != null)
+			{
+				print(" ");
+				generateResult(expr);
+			}
+			println(";");
+			return;
+		}
+
+		// the result is computed before releasing the references
+		println("{");
+		String except = null;
+		if (expr != null)
+		{
+			printTypeReference(function.returnType());
+			print("result__ = ");
+			except = generateResult(expr);
+			println(";");
+		}
+		generateReleases(temporaries, null);
+		for (ArrayList<String> scope : owned)
+			generateReleases(scope, except);
+		if (arena) println("beagle_arena_release(&arena__);");
+		println((expr != null) ? "return result__;" : "return;");
+		println("}");
+	}
+
+	/**
+	 * Generates the returned value. References are returned owned by the
+	 * caller, so a local variable owning the reference passes it on.
+	 *
+	 * @return Local variable whose reference is passed to the caller or
+	 *    {@code null}.
+	 */
+	private String generateResult(IExpression expr)
+	{
+		if (!isReference(function.returnType()))
+		{
+			generateExpression(expr);
+			return null;
+		}
+
+		IExpression value = strip(expr);
+		if (value instanceof NameLiteral && !((NameLiteral)value).value().isQualified())
+		{
+			String name = nativeName("local_", ((NameLiteral)value).value().qualifiedName());
+			for (ArrayList<String> scope : owned)
+			{
+				if (!scope.contains(name)) continue;
+				print(name);
+				return name;
+			}
+		}
+		generateOwned(expr);
+		return null;
 	}
 
 	private void generateIfThenElse(IfThenElseStmt cond)
 	{
-		print("if (");
-		generateExpression(cond.condition());
-		println(")");
+		ArrayList<String> temporaries = hoist(cond.condition());
+		String[] wrapper = branch(cond);
+		if (temporaries.isEmpty())
+		{
+			print("if (" + wrapper[0]);
+			generateExpression(cond.condition());
+			println(wrapper[1] + ")");
+		}
+		else
+		{
+			String condition = "condition" + this.temporaries++ + "_";
+			print("beagle_bool " + condition + " = ");
+			generateExpression(cond.condition());
+			println(";");
+			generateReleases(temporaries, null);
+			println("if (" + wrapper[0] + condition + wrapper[1] + ")");
+		}
 		generateStatement(cond.thenSide());
 		if (cond.elseSide() != null)
 		{
@@ -192,8 +1063,29 @@ public class CodeGenerator
 		}
 	}
 
+	/**
+	 * Returns the text around the condition of an 'if': the counters when
+	 * instrumenting or the prediction from the profile.
+	 */
+	private String[] branch(IfThenElseStmt cond)
+	{
+		String taken = counter(cond, 0);
+		if (taken != null)
+			return new String[] { "BGL_PROFILE_BRANCH(" + counterArray + ", " + counters.get(cond) + ", ", ")" };
+		if (context.profile == null || labels.get(cond) == null) return new String[] { "", "" };
+
+		int prediction = context.profile.predict(labels.get(cond));
+		if (prediction == 0) return new String[] { "", "" };
+		context.statistics.add("profile.predicted", 1);
+		return new String[] { (prediction > 0) ? "BGL_LIKELY(" : "BGL_UNLIKELY(", ")" };
+	}
+
 	private void generateExpression(IExpression expr)
 	{
+		String temporary = hoisted.get(expr);
+		if (temporary != null)
+			print(temporary);
+		else
 		if (expr instanceof Block)
 			generateBlock((Block)expr);
 		else
@@ -203,45 +1095,573 @@ public class CodeGenerator
 		if (expr instanceof UnaryExpression)
 		{
 			UnaryExpression unary = (UnaryExpression) expr;
-			print(unary.operation().name());
-			generateExpression(unary.expression());
+			TokenType operation = unary.operation();
+			if (operation == TokenType.TOK_LEFT_PAR && isConstructor(unary.expression()))
+			{
+				if (unary.extra() != null && !(unary.extra() instanceof ArgumentList && ((ArgumentList)unary.extra()).isEmpty()))
+					context.listener.onError(expr.location(), "Structure constructors have no arguments");
+				print(nativeName("new_", ((NameLiteral)unary.expression()).value().qualifiedName()));
+				print((arena) ? "(&arena__)" : "(NULL)");
+			}
+			else
+			if (operation == TokenType.TOK_LEFT_PAR && isVectorConstructor(unary.expression()))
+				generateVector(unary);
+			else
+			if (operation == TokenType.TOK_LEFT_PAR && callee(unary) != null)
+			{
+				generateExpression(unary.expression());
+				print("(");
+				generateArguments(unary.extra(), callee(unary).parameters());
+				print(")");
+			}
+			else
+			if (operation == TokenType.TOK_LEFT_PAR || operation == TokenType.TOK_LEFT_BRACKET)
+			{
+				generateExpression(unary.expression());
+				print((operation == TokenType.TOK_LEFT_PAR) ? "(" : "[");
+				generateExpression(unary.extra());
+				print((operation == TokenType.TOK_LEFT_PAR) ? ")" : "]");
+			}
+			else
+			if (unary.direction() == UnaryDirection.POSTFIX)
+			{
+				generateExpression(unary.expression());
+				print(operator(operation));
+			}
+			else
+			{
+				print(operator(operation));
+				generateExpression(unary.expression());
+			}
 		}
 		else
 		if (expr instanceof BinaryExpression)
 		{
 			BinaryExpression binary = (BinaryExpression) expr;
-			generateExpression(binary.left());
+			if (binary.operation() == TokenType.TOK_ASSIGN && isReference(typeOf(binary.left())))
+				context.listener.onError(expr.location(), "Assignments of references must be statements");
+			if (binary.operation() == TokenType.TOK_IS || binary.operation() == TokenType.TOK_NIS)
+			{
+				generateTypeTest(binary);
+				return;
+			}
+			generateOperand(binary.left(), typeOf(binary.right()));
 			print(" ");
-			print(binary.operation().name());
+			print(operator(binary.operation()));
 			print(" ");
-			generateExpression(binary.right());
+			generateOperand(binary.right(), typeOf(binary.left()));
+		}
+		else
+		if (expr instanceof AtomicExpression)
+		{
+			print("(");
+			generateExpression(((AtomicExpression)expr).value());
+			print(")");
+		}
+		else
+		if (expr instanceof ArgumentList)
+		{
+			for (Iterator<Argument> it = ((ArgumentList)expr).iterator(); it.hasNext();)
+			{
+				generateExpression(it.next().value());
+				if (it.hasNext()) print(", ");
+			}
+		}
+		else
+		if (expr instanceof ExpressionList)
+		{
+			for (Iterator<IExpression> it = ((ExpressionList)expr).iterator(); it.hasNext();)
+			{
+				generateExpression(it.next());
+				if (it.hasNext()) print(", ");
+			}
 		}
 		else
 		if (expr instanceof StringLiteral)
-			print(((StringLiteral)expr).value());
+			generateStringLiteral((StringLiteral)expr);
 		else
 		if (expr instanceof IntegerLiteral)
-			print(Long.toString(((IntegerLiteral)expr).value()));
+			generateIntegerLiteral((IntegerLiteral)expr);
 		else
 		if (expr instanceof FloatLiteral)
-			print(Float.toString(((FloatLiteral)expr).value()));
+		{
+			float value = ((FloatLiteral)expr).value();
+			// negative values may come from constant folding
+			if (value < 0) print("(");
+			print(Float.toString(value));
+			if (value < 0) print(")");
+		}
 		else
 		if (expr instanceof BooleanLiteral)
-			print(Boolean.toString(((BooleanLiteral)expr).value()));
+			print((((BooleanLiteral)expr).value()) ? "BGL_TRUE" : "BGL_FALSE");
 		else
 		if (expr instanceof NameLiteral)
-			print("local_" + (((NameLiteral)expr).value()));
+		{
+			Name value = ((NameLiteral)expr).value();
+			String name = value.qualifiedName();
+			StringBuilder field = new StringBuilder();
+			if (value.isQualified() && resolveField(value, field) != null)
+				print(field.toString());
+			else
+			if (!locals.containsKey(name) && unitFunctions.containsKey(name))
+				print(nativeName("def_", name));
+			else
+				print(nativeName("local_", name));
+		}
 		else
 			context.listener.onError(null, "Unknown expression " + expr.getClass().getName());
 	}
 
+	/**
+	 * Generates an operand of a binary expression. Scalars operating with
+	 * vectors are converted to vectors with the value in every element.
+	 */
+	private void generateOperand(IExpression expr, TypeReference other)
+	{
+		TypeReference type = typeOf(expr);
+		if (other == null || !other.isVector() || (type != null && type.isVector()))
+		{
+			generateExpression(expr);
+			return;
+		}
+		print("beagle_" + other.qualifiedName() + "_splat(");
+		generateExpression(expr);
+		print(")");
+	}
+
+	/**
+	 * Whether the expression is the name of a vector type (called to create
+	 * a vector).
+	 */
+	private boolean isVectorConstructor(IExpression expr)
+	{
+		if (!(expr instanceof NameLiteral)) return false;
+		Name name = ((NameLiteral) expr).value();
+		return !locals.containsKey(name.qualifiedName()) && TypeReference.fromName(name).isVector();
+	}
+
+	/**
+	 * Returns the function of the unit called by the expression; {@code null}
+	 * for anything else.
+	 */
+	private Function callee(UnaryExpression unary)
+	{
+		if (unary.operation() != TokenType.TOK_LEFT_PAR || !(unary.expression() instanceof NameLiteral)) return null;
+		String name = ((NameLiteral)unary.expression()).value().qualifiedName();
+		if (locals.containsKey(name)) return null;
+		return unitFunctions.get(name);
+	}
+
+	/**
+	 * Generates the arguments of a call, converting instances of derived
+	 * structures to the structure of the parameter.
+	 */
+	private void generateArguments(IExpression arguments, FormalParameterList params)
+	{
+		if (arguments == null) return;
+		ArrayList<IExpression> values = new ArrayList<>();
+		if (arguments instanceof ArgumentList)
+		{
+			for (Argument item : (ArgumentList) arguments)
+				values.add(item.value());
+		}
+		else
+			values.add(arguments);
+
+		Iterator<FormalParameter> param = params.iterator();
+		for (Iterator<IExpression> it = values.iterator(); it.hasNext();)
+		{
+			IExpression value = it.next();
+			TypeReference expected = (param.hasNext()) ? param.next().type() : null;
+			TypeReference actual = typeOf(value);
+			if (isReference(expected) && isReference(actual) && !expected.qualifiedName().equals(actual.qualifiedName()))
+				print("(" + nativeType(expected) + ") ");
+			generateExpression(value);
+			if (it.hasNext()) print(", ");
+		}
+	}
+
+	/**
+	 * Generates the creation of a vector from its elements (as a compound
+	 * literal) or from a single value for all of them.
+	 */
+	private void generateVector(UnaryExpression unary)
+	{
+		TypeReference type = TypeReference.fromName(((NameLiteral) unary.expression()).value());
+		IExpression arguments = unary.extra();
+		if (!(arguments instanceof ArgumentList) || ((ArgumentList) arguments).size() == 1)
+		{
+			print("beagle_" + type.qualifiedName() + "_splat(");
+			generateExpression(arguments);
+			print(")");
+			return;
+		}
+		print("((" + nativeType(type) + ") { ");
+		generateExpression(arguments);
+		print(" })");
+	}
+
+	/**
+	 * Generates 'x is T' (or 'x not is T') as a lookup in the display of the
+	 * dynamic type of 'x'. The depth of 'T' is known here, so the test is a
+	 * bounds check and a comparison.
+	 */
+	private void generateTypeTest(BinaryExpression binary)
+	{
+		String name = ((NameLiteral) binary.right()).value().qualifiedName();
+		Structure type = unitStructures.get(name);
+		if (type == null)
+		{
+			context.listener.onError(binary.location(), "Unknown structure '" + name + "'");
+			return;
+		}
+		if (binary.operation() == TokenType.TOK_NIS) print("!");
+		print("beagle_is(");
+		generateExpression(binary.left());
+		print(", &" + nativeName("type_", name) + ".typeInfo__, " + (ancestors(type).size() - 1) + ")");
+	}
+
+	/**
+	 * Evaluates to temporaries the new instances passed as arguments, which
+	 * would be lost otherwise since callees only borrow references. The
+	 * temporaries are declared before the statement containing the call.
+	 *
+	 * @return Temporaries to be released after the statement.
+	 */
+	private ArrayList<String> hoist(IExpression expr)
+	{
+		ArrayList<String> result = new ArrayList<>();
+		hoist(expr, result);
+		return result;
+	}
+
+	private void hoist(IExpression expr, ArrayList<String> result)
+	{
+		if (expr instanceof AtomicExpression)
+			hoist(((AtomicExpression)expr).value(), result);
+		else
+		if (expr instanceof BinaryExpression)
+		{
+			BinaryExpression binary = (BinaryExpression) expr;
+			hoist(binary.left(), result);
+			hoist(binary.right(), result);
+			// the instance tested is released after the statement
+			if (binary.operation() == TokenType.TOK_IS || binary.operation() == TokenType.TOK_NIS)
+				hoistFresh(binary.left(), result);
+		}
+		else
+		if (expr instanceof UnaryExpression)
+		{
+			UnaryExpression unary = (UnaryExpression) expr;
+			hoist(unary.expression(), result);
+			if (unary.operation() != TokenType.TOK_LEFT_PAR || unary.extra() == null) return;
+
+			ArrayList<IExpression> arguments = new ArrayList<>();
+			if (unary.extra() instanceof ArgumentList)
+			{
+				for (Argument item : (ArgumentList) unary.extra())
+					arguments.add(item.value());
+			}
+			else
+				arguments.add(unary.extra());
+
+			for (IExpression item : arguments)
+			{
+				hoist(item, result);
+				hoistFresh(item, result);
+			}
+		}
+	}
+
+	private void hoistFresh(IExpression expr, ArrayList<String> result)
+	{
+		if (!isFresh(expr)) return;
+		String name = "temporary" + temporaries++ + "_";
+		printTypeReference(typeOf(expr));
+		print(name + " = ");
+		generateExpression(expr);
+		println(";");
+		hoisted.put(expr, name);
+		result.add(name);
+	}
+
+	/**
+	 * Generates assignments of references, which retain the new value and
+	 * release the previous one.
+	 *
+	 * @return Whether the expression is such assignment.
+	 */
+	private boolean generateAssignment(IExpression expr)
+	{
+		if (!(expr instanceof BinaryExpression)) return false;
+		BinaryExpression binary = (BinaryExpression) expr;
+		if (binary.operation() != TokenType.TOK_ASSIGN || !isReference(typeOf(binary.left()))) return false;
+
+		println("{");
+		print("void *previous__ = ");
+		generateExpression(binary.left());
+		println(";");
+		generateExpression(binary.left());
+		print(" = ");
+		generateOwned(binary.right());
+		println(";");
+		println("beagle_release(previous__);");
+		println("}");
+		return true;
+	}
+
+	/**
+	 * Generates the expression retaining the reference if it is borrowed.
+	 */
+	private void generateOwned(IExpression expr)
+	{
+		if (isBorrowed(expr))
+		{
+			print("beagle_retain(");
+			generateExpression(expr);
+			print(")");
+		}
+		else
+			generateExpression(expr);
+	}
+
+	static boolean isReference(TypeReference type)
+	{
+		return type != null && !type.isPrimitive;
+	}
+
+	static IExpression strip(IExpression expr)
+	{
+		while (expr instanceof AtomicExpression)
+			expr = ((AtomicExpression)expr).value();
+		return expr;
+	}
+
+	/**
+	 * Whether the expression gives a reference owned by the caller (created
+	 * by a constructor or returned by a function).
+	 */
+	private boolean isFresh(IExpression expr)
+	{
+		expr = strip(expr);
+		if (!(expr instanceof UnaryExpression)) return false;
+		UnaryExpression unary = (UnaryExpression) expr;
+		if (unary.operation() != TokenType.TOK_LEFT_PAR) return false;
+		return isReference(typeOf(unary));
+	}
+
+	/**
+	 * Whether the expression gives a reference owned by some variable.
+	 */
+	private boolean isBorrowed(IExpression expr)
+	{
+		expr = strip(expr);
+		return expr instanceof NameLiteral && isReference(typeOf(expr));
+	}
+
+	/**
+	 * Whether the expression names a structure (and not a local variable).
+	 */
+	private boolean isConstructor(IExpression expr)
+	{
+		if (!(expr instanceof NameLiteral)) return false;
+		String name = ((NameLiteral)expr).value().qualifiedName();
+		return !locals.containsKey(name) && unitStructures.containsKey(name);
+	}
+
+	/**
+	 * Returns the type of variables, fields and calls; {@code null} for
+	 * anything else.
+	 */
+	private TypeReference typeOf(IExpression expr)
+	{
+		expr = strip(expr);
+		if (expr instanceof NameLiteral)
+		{
+			Name name = ((NameLiteral)expr).value();
+			if (name.isQualified()) return resolveField(name, new StringBuilder());
+			return locals.get(name.qualifiedName());
+		}
+		if (expr instanceof BinaryExpression)
+		{
+			// only vector results are needed
+			BinaryExpression binary = (BinaryExpression) expr;
+			TypeReference left = typeOf(binary.left());
+			if (left != null && left.isVector()) return left;
+			TypeReference right = typeOf(binary.right());
+			if (right != null && right.isVector() && !binary.operation().name().endsWith("ASSIGN")) return right;
+			return null;
+		}
+		if (expr instanceof UnaryExpression)
+		{
+			UnaryExpression unary = (UnaryExpression) expr;
+			if (unary.operation() != TokenType.TOK_LEFT_PAR || !(unary.expression() instanceof NameLiteral)) return null;
+			Name name = ((NameLiteral)unary.expression()).value();
+			if (isConstructor(unary.expression()) || isVectorConstructor(unary.expression())) return TypeReference.fromName(name);
+			Function callee = unitFunctions.get(name.qualifiedName());
+			if (callee != null && !locals.containsKey(name.qualifiedName())) return callee.returnType();
+		}
+		return null;
+	}
+
+	/**
+	 * Resolves the access to a field ('object.field'), appending the C
+	 * expression to the given output.
+	 *
+	 * @return Type of the field or {@code null} if the name is not a field.
+	 */
+	private TypeReference resolveField(Name name, StringBuilder output)
+	{
+		String first = name.slice(0, 1).qualifiedName();
+		TypeReference type = locals.get(first);
+		output.append(nativeName("local_", first));
+		for (int i = 1; i < name.count(); ++i)
+		{
+			if (!isReference(type)) return null;
+			String field = name.slice(i, 1).qualifiedName();
+			Structure structure = unitStructures.get(type.qualifiedName());
+			output.append("->");
+			type = null;
+			// fields of the parents are in the embedded 'base__'
+			while (structure != null)
+			{
+				StorageDeclaration item = structure.field(field);
+				if (item != null)
+				{
+					type = item.type();
+					break;
+				}
+				output.append("base__.");
+				structure = (structure.parent != null) ? unitStructures.get(structure.parent.qualifiedName()) : null;
+			}
+			if (type == null) return null;
+			output.append(field);
+		}
+		return type;
+	}
+
+	private void generateIntegerLiteral(IntegerLiteral literal)
+	{
+		print(integerLiteral(literal.value(), literal.type()));
+	}
+
+	/**
+	 * Returns the C literal for the given integer value.
+	 */
+	public static String integerLiteral( long value, TypeReference type )
+	{
+		if (type == TypeReference.UINT64)
+			return Long.toUnsignedString(value) + "ULL";
+		// the minimum value can not be written as a negated literal
+		if (value == Long.MIN_VALUE)
+			return "(-9223372036854775807LL - 1)";
+		if (value == Integer.MIN_VALUE && type != TypeReference.INT64)
+			return "(-2147483647 - 1)";
+		if (value < 0)
+			return "(" + value + ((value < Integer.MIN_VALUE) ? "LL" : "") + ")";
+		if (value > Integer.MAX_VALUE)
+			return value + ((type == TypeReference.UINT32) ? "U" : "LL");
+		return Long.toString(value);
+	}
+
+	/**
+	 * Returns the C operator corresponding to the given token.
+	 */
+	static String operator( TokenType type )
+	{
+		switch (type)
+		{
+			case TOK_AND:
+				return "&&";
+			case TOK_OR:
+				return "||";
+			case TOK_NOT:
+				return "!";
+			default:
+				return type.getName();
+		}
+	}
+
+	/**
+	 * String literals are references to the corresponding entry in the string table.
+	 */
+	private void generateStringLiteral(StringLiteral literal)
+	{
+		int index = literal.index;
+		if (index < 0 || index >= context.stringTable.size() || !context.stringTable.get(index).equals(literal.value()))
+			index = context.stringTable.add(literal.value());
+		print("(&STRING_TABLE[");
+		print(Integer.toString(index));
+		print("])");
+	}
+
 	private void generateStorage(StorageDeclaration storage)
 	{
+		if (storage.onStack)
+		{
+			generateStackStorage(storage);
+			return;
+		}
+
+		ArrayList<String> temporaries = (storage.initializer() != null) ? hoist(storage.initializer()) : new ArrayList<>();
 		if (storage instanceof ConstantDeclaration)
 			print("const ");
 		printTypeReference(storage.type());
 		print(nativeName("local_", storage.name().qualifiedName()));
+		locals.put(storage.name().qualifiedName(), storage.type());
+		if (isReference(storage.type()))
+		{
+			// the variable owns a reference unless it is known to be borrowed
+			print(" = ");
+			if (storage.initializer() == null)
+				print("BGL_NULL");
+			else
+			if (storage.borrowed)
+				generateExpression(storage.initializer());
+			else
+				generateOwned(storage.initializer());
+			if (!storage.borrowed && !owned.isEmpty())
+				owned.peek().add(nativeName("local_", storage.name().qualifiedName()));
+		}
+		else
+		if (storage.initializer() != null)
+		{
+			print(" = ");
+			generateExpression(storage.initializer());
+		}
 		println(";");
+		generateReleases(temporaries, null);
+	}
+
+	/**
+	 * Generates a variable whose instance lives in the stack frame. The
+	 * instance is initialized like in 'new_X_' and disposed (but not freed)
+	 * at the end of the block.
+	 */
+	private void generateStackStorage(StorageDeclaration storage)
+	{
+		String name = storage.name().qualifiedName();
+		String typeName = storage.type().qualifiedName();
+		String dynamicType = nativeTypeName(typeName, false);
+		String variable = nativeName("local_", name);
+
+		println(dynamicType + " " + nativeName("stack_", name) + ";");
+		print(dynamicType + "* " + variable + " = (" + dynamicType + "*) beagle_place(&" + nativeName("stack_", name));
+		println(", &" + nativeName("type_", typeName) + ");");
+		println(nativeName("init_", typeName) + "(" + variable + ");");
+		locals.put(name, storage.type());
+		owned.peek().add(variable);
+		stack.add(variable);
+	}
+
+	/**
+	 * Returns the type of the local variable with the given C name.
+	 */
+	private TypeReference typeOfName(String variable)
+	{
+		for (String name : locals.keySet())
+			if (nativeName("local_", name).equals(variable)) return locals.get(name);
+		return null;
 	}
 
 	private void generateStructures(StructureList structures)
@@ -250,6 +1670,15 @@ public class CodeGenerator
 		comment("\nSTRUCTURES\n ");
 		println();
 
+		locals.clear();
+		// fields may reference any structure
+		for (Structure item : structures)
+		{
+			String dynamicType = nativeTypeName(item.name.qualifiedName(), false);
+			println("typedef struct " + dynamicType + " " + dynamicType + ";");
+		}
+		println();
+
 		// generate C types and global variables;
 		for (Structure item : structures)
 		{
@@ -277,7 +1706,9 @@ public class CodeGenerator
 		// TODO: generate static fields
 
 		// dynamic data
-		print("typedef struct\n{\n   ");
+		print("struct ");
+		print(nativeTypeName(item.name.qualifiedName(), false));
+		print("\n{\n   ");
 		if (item.parent != null)
 		{
 			print(nativeTypeName(item.parent.qualifiedName(), false));
@@ -288,11 +1719,19 @@ public class CodeGenerator
 		print("   ");
 		print(nativeTypeName(item.name.qualifiedName(), true));
 		print(" *type__;\n");
+		// the root of the hierarchy has the reference counter (see 'beagle_object')
+		if (item.parent == null)
+			print("   beagle_refcount refs__;\n");
 		//print("\n   // no dynamic fields\n} ");
 		generateStorageList(item.body.storages);
-		print("\n} ");
-		print(nativeTypeName(item.name.qualifiedName(), false));
-		print(";\n\n");
+		print("\n};\n\n");
+
+		// the type information is unique in the program
+		PrintStream declarations = printer;
+		if (data != null) printer = data;
+
+		boolean dispose = hasReferences(item);
+		if (dispose) generateDispose(item);
 
 
 		String typeGlobal = nativeName("type_", item.name.qualifiedName());
@@ -303,7 +1742,7 @@ public class CodeGenerator
 		//
 		// global storage for static information
 		//
-		print("static ");
+		if (data == null) print("static ");
 		print(nativeTypeName(item.name.qualifiedName(), true));
 		print(" ");
 		print(typeGlobal);
@@ -338,6 +1777,23 @@ public class CodeGenerator
 		print(".typeInfo__.name = \"");
 		print(item.name.qualifiedName());
 		print("\",\n");
+		// function releasing the references in the fields
+		print("   ");
+		print(".typeInfo__.dispose = ");
+		print((dispose) ? nativeName("dispose_", item.name.qualifiedName()) : "NULL");
+		print(",\n");
+		// ancestors by depth (see 'beagle_is')
+		ArrayList<String> ancestors = ancestors(item);
+		print("   ");
+		print(".typeInfo__.depth = " + (ancestors.size() - 1) + ",\n");
+		print("   ");
+		print(".typeInfo__.display = { ");
+		for (int i = 0; i < ancestors.size() && i < DISPLAY_SIZE; ++i)
+		{
+			if (i > 0) print(", ");
+			print("&" + nativeName("type_", ancestors.get(i)) + ".typeInfo__");
+		}
+		print(" },\n");
 		// pointer to base static information
 		print("   ");
 		print(".base__ = ");
@@ -350,6 +1806,181 @@ public class CodeGenerator
 			print(",\n");
 		}
 		print("};\n\n");
+
+		printer = declarations;
+		if (data != null)
+			print("extern " + nativeTypeName(item.name.qualifiedName(), true) + " " + typeGlobal + ";\n\n");
+		generateConstructor(item);
+		if (Annotations.has(item.annotations, Annotations.SOA)) generateContainer(item);
+	}
+
+	/**
+	 * Returns the names of the structure and its parents, from the root of
+	 * the hierarchy. The position of a type in the list is its depth.
+	 */
+	private ArrayList<String> ancestors(Structure item)
+	{
+		ArrayList<String> result = new ArrayList<>();
+		while (item != null && !result.contains(item.name.qualifiedName()))
+		{
+			result.add(0, item.name.qualifiedName());
+			item = (item.parent != null) ? unitStructures.get(item.parent.qualifiedName()) : null;
+		}
+		return result;
+	}
+
+	/**
+	 * Whether the structure (or its parents) has fields holding references.
+	 */
+	private boolean hasReferences(Structure item)
+	{
+		for (StorageDeclaration field : item.body.storages)
+			if (isReference(field.type())) return true;
+		Structure parent = (item.parent != null) ? unitStructures.get(item.parent.qualifiedName()) : null;
+		return parent != null && hasReferences(parent);
+	}
+
+	/**
+	 * Generates the function releasing the references in the fields when the
+	 * instance is destroyed. Fields of the parent come first in memory, so
+	 * the parent function receives the same pointer.
+	 */
+	private void generateDispose(Structure item)
+	{
+		String name = item.name.qualifiedName();
+		String dynamicType = nativeTypeName(name, false);
+		print("static void " + nativeName("dispose_", name) + "( void *self )\n{\n");
+		for (StorageDeclaration field : item.body.storages)
+		{
+			if (!isReference(field.type())) continue;
+			print("   beagle_release(((" + dynamicType + "*) self)->" + field.name().qualifiedName() + ");\n");
+		}
+		Structure parent = (item.parent != null) ? unitStructures.get(item.parent.qualifiedName()) : null;
+		if (parent != null && hasReferences(parent))
+			print("   " + nativeName("dispose_", parent.name.qualifiedName()) + "(self);\n");
+		print("}\n\n");
+	}
+
+	/**
+	 * Generates the functions creating instances ('new_X_', from the heap or
+	 * the given arena) and initializing the fields ('init_X_', also used by
+	 * derived structures). Fields are zeroed by 'beagle_place' and heap
+	 * instances start with one reference.
+	 */
+	private void generateConstructor(Structure item)
+	{
+		String name = item.name.qualifiedName();
+		String dynamicType = nativeTypeName(name, false);
+		String typeGlobal = nativeName("type_", name);
+
+		print("static inline void " + nativeName("init_", name) + "( " + dynamicType + " *self )\n{\n");
+		if (item.parent != null)
+		{
+			print("   " + nativeName("init_", item.parent.qualifiedName()) + "(&self->base__);\n");
+			print("   self->type__ = &" + typeGlobal + ";\n");
+		}
+		for (StorageDeclaration field : item.body.storages)
+		{
+			if (field.initializer() == null) continue;
+			print("   self->" + field.name().qualifiedName() + " = ");
+			generateOwned(field.initializer());
+			print(";\n");
+		}
+		print("}\n\n");
+
+		print("static inline " + dynamicType + " *" + nativeName("new_", name) + "( beagle_arena *arena )\n{\n");
+		print("   " + dynamicType + " *self = (" + dynamicType + "*) ((arena != NULL) ? beagle_arena_new(arena, &" + typeGlobal + ")");
+		print(" : beagle_new(&" + typeGlobal + "));\n");
+		print("   " + nativeName("init_", name) + "(self);\n");
+		print("   return self;\n}\n\n");
+	}
+
+	/**
+	 * Generates the struct-of-arrays container of the structure ('soa_X_'):
+	 * one array per field (parents included), so loops reading a single
+	 * field stream through contiguous memory. Elements are appended with
+	 * 'soa_push_X_' and accessed with 'soa_get_X_field_'/'soa_set_X_field_'.
+	 */
+	private void generateContainer(Structure item)
+	{
+		String name = item.name.qualifiedName();
+		String container = nativeName("soa_", name);
+
+		ArrayList<StorageDeclaration> fields = new ArrayList<>();
+		for (String ancestor : ancestors(item))
+			fields.addAll(unitStructures.get(ancestor).body.storages);
+
+		comment("struct-of-arrays container of '" + name + "'");
+		print("typedef struct " + container + "\n{\n");
+		print("   size_t length;\n");
+		print("   size_t capacity;\n");
+		for (StorageDeclaration field : fields)
+			print("   " + nativeType(field.type()) + " *" + field.name().qualifiedName() + ";\n");
+		print("} " + container + ";\n\n");
+
+		print("static inline void " + nativeName("soa_init_", name) + "( " + container + " *self )\n{\n");
+		print("   BGL_MEMSET(self, 0, sizeof(" + container + "));\n");
+		print("}\n\n");
+
+		print("static inline void " + nativeName("soa_free_", name) + "( " + container + " *self )\n{\n");
+		for (StorageDeclaration field : fields)
+		{
+			String array = "self->" + field.name().qualifiedName();
+			if (isReference(field.type()))
+				print("   for (size_t i = 0; i < self->length; ++i) beagle_release(" + array + "[i]);\n");
+			print("   beagle_free(" + array + ");\n");
+		}
+		print("   BGL_MEMSET(self, 0, sizeof(" + container + "));\n");
+		print("}\n\n");
+
+		print("static inline void " + nativeName("soa_reserve_", name) + "( " + container + " *self, size_t capacity )\n{\n");
+		print("   if (capacity <= self->capacity) return;\n");
+		for (StorageDeclaration field : fields)
+		{
+			String array = "self->" + field.name().qualifiedName();
+			String type = nativeType(field.type());
+			print("   " + array + " = (" + type + "*) beagle_realloc(" + array + ", capacity * sizeof(" + type + "));\n");
+		}
+		print("   self->capacity = capacity;\n");
+		print("}\n\n");
+
+		// new elements get the initial values of the fields
+		print("static inline size_t " + nativeName("soa_push_", name) + "( " + container + " *self )\n{\n");
+		print("   if (self->length == self->capacity)\n");
+		print("      " + nativeName("soa_reserve_", name) + "(self, (self->capacity == 0) ? 16 : self->capacity * 2);\n");
+		print("   size_t index = self->length++;\n");
+		for (StorageDeclaration field : fields)
+		{
+			print("   self->" + field.name().qualifiedName() + "[index] = ");
+			if (field.initializer() != null)
+				generateOwned(field.initializer());
+			else
+				print((isReference(field.type())) ? "NULL" : "0");
+			print(";\n");
+		}
+		print("   return index;\n");
+		print("}\n\n");
+
+		for (StorageDeclaration field : fields)
+		{
+			String fieldName = field.name().qualifiedName();
+			String type = nativeType(field.type());
+			String array = "self->" + fieldName;
+			print("static inline " + type + " " + nativeName("soa_get_", name + "." + fieldName));
+			print("( const " + container + " *self, size_t index )\n{\n");
+			print("   return " + array + "[index];\n");
+			print("}\n\n");
+
+			print("static inline void " + nativeName("soa_set_", name + "." + fieldName));
+			print("( " + container + " *self, size_t index, " + type + " value )\n{\n");
+			if (isReference(field.type()))
+			{
+				print("   beagle_retain(value);\n");
+				print("   beagle_release(" + array + "[index]);\n");
+			}
+			print("   " + array + "[index] = value;\n");
+			print("}\n\n");
+		}
 	}
 
 	void generateStorageList( StorageList storages )
@@ -367,13 +1998,13 @@ public class CodeGenerator
 		}
 	}
 
-	String nativeName( String prefix, String qualified )
+	public static String nativeName( String prefix, String qualified )
 	{
 		String value = qualified.replaceAll("\\.", "_");
 		return prefix + value + "_";
 	}
 
-	String nativeTypeName( String qualified, boolean isStatic )
+	public static String nativeTypeName( String qualified, boolean isStatic )
 	{
 		String value = qualified.replaceAll("\\.", "_");
 		if (isStatic)
@@ -383,35 +2014,97 @@ public class CodeGenerator
 	}
 
 	void printTypeReference( TypeReference ref )
+	{
+		print(nativeType(ref));
+		print(" ");
+	}
+
+	/**
+	 * Returns the C type used for values of the given type.
+	 */
+	public static String nativeType( TypeReference ref )
 	{
 		if (ref.isPrimitive)
-		{
-			print("beagle_");
-			print(ref.qualifiedName());
-		}
+			return "beagle_" + ref.qualifiedName();
 		else
-		{
-			print(nativeTypeName(ref.qualifiedName(), false));
-			print("*");
-		}
-		print(" ");
+			return nativeTypeName(ref.qualifiedName(), false) + "*";
 	}
 
 	public void generateStringTable()
 	{
 		comment("STRING TABLE");
-		print("static const dynamic_string_ STRING_TABLE[] =\n{\n");
+		// C does not allow empty initializer lists
+		if (context.stringTable.isEmpty()) return;
+
+		// shared by the files of split modules
+		print((data != null) ? "const " : "static const ");
+		print("dynamic_string_ STRING_TABLE[] =\n{\n");
 
+		int index = 0;
 		for (String item : context.stringTable)
 		{
-			print("   { .type__ = &type_string_, .length = ");
-			print(Integer.toString(item.length()));
+			print("   /* ");
+			print(Integer.toString(index++));
+			print(" */ { .type__ = &type_string_, .length = ");
+			print(Integer.toString(StringTable.length(item)));
 			print(", .content = \"");
-			print(item);
+			print(StringTable.literal(item));
 			print("\"},\n");
 		}
 
 		print("};");
 	}
 
+	/**
+	 * Counts the lines written to a generated file and keeps the line the C
+	 * compiler reports after '#line' directives.
+	 */
+	protected static class LineCounter extends FilterOutputStream
+	{
+
+		/**
+		 * Name of the generated file or {@code null} if unknown.
+		 */
+		public final String name;
+
+		/**
+		 * Number of the line being written.
+		 */
+		public int line = 1;
+
+		/**
+		 * Source file reported by the C compiler or {@code null} for the
+		 * generated file itself.
+		 */
+		public String source;
+
+		/**
+		 * Difference between the line reported in 'source' and the line
+		 * being written.
+		 */
+		public int shift;
+
+		public LineCounter( OutputStream output, String name )
+		{
+			super(output);
+			this.name = name;
+		}
+
+		@Override
+		public void write( int value ) throws IOException
+		{
+			out.write(value);
+			if (value == '\n') ++line;
+		}
+
+		@Override
+		public void write( byte[] buffer, int offset, int length ) throws IOException
+		{
+			out.write(buffer, offset, length);
+			for (int i = offset; i < offset + length; ++i)
+				if (buffer[i] == '\n') ++line;
+		}
+
+	}
+
 }
@@ -1,8 +1,6 @@
 package beagle.compiler;
 
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
 
 import beagle.compiler.tree.Name;
 import beagle.compiler.tree.Package;
@@ -29,7 +27,48 @@ public class CompilationContext
 
 	public CompilationListener listener;
 
-	public Set<String> stringTable;
+	/**
+	 * String literals of every compilation unit.
+	 */
+	public StringTable stringTable;
+
+	/**
+	 * Whether functions are generated from their SSA form (when possible).
+	 */
+	public boolean useIr;
+
+	/**
+	 * Output format.
+	 */
+	public Target target;
+
+	/**
+	 * Counters collected by the compilation passes.
+	 */
+	public Statistics statistics;
+
+	/**
+	 * Whether the generated code counts the executions of functions,
+	 * conditionals and loops (see 'Profile').
+	 */
+	public boolean instrument;
+
+	/**
+	 * Profile guiding the optimizations or {@code null}.
+	 */
+	public Profile profile;
+
+	/**
+	 * Whether the generated code is linked with 'libbeagle_rt' instead of
+	 * including the whole runtime ('beagle/base.h').
+	 */
+	public boolean runtimeLibrary;
+
+	/**
+	 * Whether the generated C code has '#line' directives pointing to the
+	 * source of each statement.
+	 */
+	public boolean lineDirectives;
 
 
 	public CompilationContext( CompilationListener listener )
@@ -37,7 +76,14 @@ public class CompilationContext
 		this.types = new HashMap<>();
 		this.packages = new HashMap<>();
 		this.listener = listener;
-		this.stringTable = new HashSet<String>();
+		this.stringTable = new StringTable();
+		this.useIr = false;
+		this.target = Target.C;
+		this.statistics = new Statistics();
+		this.instrument = false;
+		this.profile = null;
+		this.runtimeLibrary = false;
+		this.lineDirectives = true;
 	}
 
 
@@ -0,0 +1,511 @@
+package beagle.compiler;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+import beagle.compiler.tree.Argument;
+import beagle.compiler.tree.ArgumentList;
+import beagle.compiler.tree.AtomicExpression;
+import beagle.compiler.tree.BinaryExpression;
+import beagle.compiler.tree.Block;
+import beagle.compiler.tree.BooleanLiteral;
+import beagle.compiler.tree.CompilationUnit;
+import beagle.compiler.tree.ConstantDeclaration;
+import beagle.compiler.tree.ExpressionList;
+import beagle.compiler.tree.ExpressionStmt;
+import beagle.compiler.tree.FloatLiteral;
+import beagle.compiler.tree.ForEachStmt;
+import beagle.compiler.tree.FormalParameter;
+import beagle.compiler.tree.Function;
+import beagle.compiler.tree.IExpression;
+import beagle.compiler.tree.IStatement;
+import beagle.compiler.tree.IfThenElseStmt;
+import beagle.compiler.tree.IntegerLiteral;
+import beagle.compiler.tree.Literal;
+import beagle.compiler.tree.Name;
+import beagle.compiler.tree.NameLiteral;
+import beagle.compiler.tree.StorageDeclaration;
+import beagle.compiler.tree.StringLiteral;
+import beagle.compiler.tree.Structure;
+import beagle.compiler.tree.TypeReference;
+import beagle.compiler.tree.UnaryExpression;
+
+/**
+ * Constant folding and propagation.
+ *
+ * Runs after the semantic analysis and replaces, in place, every expression
+ * whose operands are literals by the resulting literal. Constants whose
+ * initializer is (or folds to) a literal are replaced by that literal
+ * wherever they are referenced.
+ *
+ * Integer arithmetic wraps around using the width of the operands' type
+ * (i.e. 32 bits for integer literals); divisions by zero and floating-point
+ * operations producing non-finite values are left to run-time.
+ */
+public class ConstantFolding
+{
+
+	CompilationContext context;
+
+	/**
+	 * Known constants for each scope. Names mapped to {@code null} hide
+	 * constants from the enclosing scopes.
+	 */
+	LinkedList<HashMap<Name, Literal<?>>> scopes;
+
+	public ConstantFolding( CompilationContext context )
+	{
+		this.context = context;
+		this.scopes = new LinkedList<>();
+	}
+
+	public void fold( CompilationUnit unit )
+	{
+		// file scope
+		scopes.push(new HashMap<>());
+
+		for (StorageDeclaration item : unit.storages())
+			fold(item);
+		for (Structure item : unit.structures)
+		{
+			if (item.body == null) continue;
+			// fields are not constants, so they are folded in their own scope
+			scopes.push(new HashMap<>());
+			for (StorageDeclaration field : item.body.storages)
+				fold(field);
+			scopes.pop();
+		}
+		for (Function item : unit.functions)
+			fold(item);
+
+		scopes.pop();
+	}
+
+	public void fold( Function function )
+	{
+		scopes.push(new HashMap<>());
+		if (function.parameters() != null)
+		{
+			for (FormalParameter item : function.parameters())
+				scopes.peek().put(item.name(), null);
+		}
+		if (function.body() != null)
+			fold(function.body());
+		scopes.pop();
+	}
+
+	void fold( IStatement statement )
+	{
+		if (statement == null) return;
+
+		if (statement instanceof Block)
+		{
+			scopes.push(new HashMap<>());
+			for (IStatement item : (Block) statement)
+				fold(item);
+			scopes.pop();
+		}
+		else
+		if (statement instanceof StorageDeclaration)
+		{
+			fold((StorageDeclaration) statement);
+		}
+		else
+		if (statement instanceof IfThenElseStmt)
+		{
+			IfThenElseStmt cond = (IfThenElseStmt) statement;
+			cond.condition(fold(cond.condition()));
+			fold(cond.thenSide());
+			fold(cond.elseSide());
+		}
+		else
+		if (statement instanceof ExpressionStmt)
+		{
+			// also handles 'return'
+			ExpressionStmt stmt = (ExpressionStmt) statement;
+			stmt.expression(fold(stmt.expression()));
+		}
+		else
+		if (statement instanceof ForEachStmt)
+		{
+			ForEachStmt stmt = (ForEachStmt) statement;
+			stmt.expression = fold(stmt.expression);
+			scopes.push(new HashMap<>());
+			if (stmt.iterator != null) scopes.peek().put(stmt.iterator.name(), null);
+			fold(stmt.statement);
+			scopes.pop();
+		}
+	}
+
+	void fold( StorageDeclaration storage )
+	{
+		storage.initializer(fold(storage.initializer()));
+
+		Literal<?> value = null;
+		if (storage instanceof ConstantDeclaration)
+			value = constantValue(storage.type(), storage.initializer());
+		scopes.peek().put(storage.name(), value);
+	}
+
+	/**
+	 * Returns the literal to be used in place of a constant with the given type
+	 * and initializer, or {@code null} if the constant can not be propagated.
+	 */
+	Literal<?> constantValue( TypeReference type, IExpression initializer )
+	{
+		if (initializer instanceof IntegerLiteral)
+		{
+			IntegerLiteral literal = (IntegerLiteral) initializer;
+			if (type == null || type == literal.type()) return literal;
+			if (!isInteger(type)) return null;
+			// the value assumes the declared type
+			IntegerLiteral result = new IntegerLiteral(wrap(literal.value(), type));
+			result.type(type);
+			return result;
+		}
+		if (initializer instanceof FloatLiteral)
+		{
+			if (type != null && type != TypeReference.FLOAT32 && type != TypeReference.FLOAT64) return null;
+			return (Literal<?>) initializer;
+		}
+		if (initializer instanceof BooleanLiteral || initializer instanceof StringLiteral)
+			return (Literal<?>) initializer;
+		return null;
+	}
+
+	Literal<?> lookup( Name name )
+	{
+		// innermost scopes are at the beginning of the list
+		for (HashMap<Name, Literal<?>> scope : scopes)
+		{
+			if (scope.containsKey(name)) return scope.get(name);
+		}
+		return null;
+	}
+
+	/**
+	 * Fold the given expression.
+	 *
+	 * @return The expression to be used in place of the given one (possibly the same).
+	 */
+	IExpression fold( IExpression expr )
+	{
+		if (expr == null) return null;
+
+		if (expr instanceof NameLiteral)
+		{
+			Literal<?> value = lookup(((NameLiteral) expr).value());
+			if (value == null) return expr;
+			return replace(expr, copy(value));
+		}
+		else
+		if (expr instanceof AtomicExpression)
+		{
+			AtomicExpression atomic = (AtomicExpression) expr;
+			atomic.value(fold(atomic.value()));
+			// parenthesis are not necessary around literals
+			if (isConstant(atomic.value())) return replace(expr, atomic.value());
+			return expr;
+		}
+		else
+		if (expr instanceof UnaryExpression)
+		{
+			return foldUnary((UnaryExpression) expr);
+		}
+		else
+		if (expr instanceof BinaryExpression)
+		{
+			return foldBinary((BinaryExpression) expr);
+		}
+		else
+		if (expr instanceof ArgumentList)
+		{
+			for (Argument item : (ArgumentList) expr)
+				if (item != null) item.value(fold(item.value()));
+		}
+		else
+		if (expr instanceof ExpressionList)
+		{
+			for (ListIterator<IExpression> it = ((ExpressionList) expr).listIterator(); it.hasNext();)
+				it.set(fold(it.next()));
+		}
+		return expr;
+	}
+
+	IExpression foldUnary( UnaryExpression expr )
+	{
+		TokenType operation = expr.operation();
+
+		// the operand of increments and decrements is a storage and must not be replaced
+		if (operation == TokenType.TOK_INC || operation == TokenType.TOK_DEC)
+			return expr;
+
+		if (operation == TokenType.TOK_LEFT_PAR || operation == TokenType.TOK_LEFT_BRACKET)
+		{
+			// function calls and array accesses: only the arguments are folded
+			if (expr.extra() != null) expr.extra(fold(expr.extra()));
+			return expr;
+		}
+
+		expr.expression(fold(expr.expression()));
+		IExpression value = expr.expression();
+
+		switch (operation)
+		{
+			case TOK_MINUS:
+				if (value instanceof IntegerLiteral)
+				{
+					IntegerLiteral literal = (IntegerLiteral) value;
+					return replace(expr, integer(-literal.value(), literal.type()));
+				}
+				// exact in both precisions: the literal is printed with a leading minus
+				if (value instanceof FloatLiteral)
+					return replace(expr, new FloatLiteral(-((FloatLiteral) value).value()));
+				break;
+			case TOK_TILDE:
+				if (value instanceof IntegerLiteral)
+				{
+					IntegerLiteral literal = (IntegerLiteral) value;
+					return replace(expr, integer(~literal.value(), literal.type()));
+				}
+				break;
+			case TOK_NOT:
+			case TOK_BANG:
+				if (value instanceof BooleanLiteral)
+					return replace(expr, new BooleanLiteral(!((BooleanLiteral) value).value()));
+				break;
+			default:
+				break;
+		}
+		return expr;
+	}
+
+	IExpression foldBinary( BinaryExpression expr )
+	{
+		TokenType operation = expr.operation();
+
+		// the left side of assignments is a storage and must not be replaced
+		if (!isAssignment(operation))
+			expr.left(fold(expr.left()));
+		expr.right(fold(expr.right()));
+
+		IExpression left = expr.left();
+		IExpression right = expr.right();
+		IExpression result = null;
+
+		if (left instanceof IntegerLiteral && right instanceof IntegerLiteral)
+			result = foldInteger(expr, (IntegerLiteral) left, (IntegerLiteral) right);
+		else
+		if (left instanceof FloatLiteral && right instanceof FloatLiteral)
+			result = foldFloat(operation, ((FloatLiteral) left).value(), ((FloatLiteral) right).value());
+		else
+		if (left instanceof BooleanLiteral && right instanceof BooleanLiteral)
+			result = foldBoolean(operation, ((BooleanLiteral) left).value(), ((BooleanLiteral) right).value());
+
+		if (result == null) return expr;
+		return replace(expr, result);
+	}
+
+	IExpression foldInteger( BinaryExpression expr, IntegerLiteral left, IntegerLiteral right )
+	{
+		TypeReference type = left.type();
+		if (type != right.type()) return null;
+
+		boolean unsigned = (type == TypeReference.UINT64);
+		long a = left.value();
+		long b = right.value();
+
+		switch (expr.operation())
+		{
+			case TOK_PLUS:
+				return integer(a + b, type);
+			case TOK_MINUS:
+				return integer(a - b, type);
+			case TOK_MUL:
+				return integer(a * b, type);
+			case TOK_DIV:
+			case TOK_MOD:
+				if (b == 0)
+				{
+					context.listener.onWarning(expr.location(), "Division by zero");
+					return null;
+				}
+				if (expr.operation() == TokenType.TOK_DIV)
+					return integer((unsigned) ? Long.divideUnsigned(a, b) : a / b, type);
+				else
+					return integer((unsigned) ? Long.remainderUnsigned(a, b) : a % b, type);
+			case TOK_EQ:
+				return new BooleanLiteral(a == b);
+			case TOK_NE:
+				return new BooleanLiteral(a != b);
+			case TOK_LT:
+				return new BooleanLiteral(compare(a, b, unsigned) < 0);
+			case TOK_LE:
+				return new BooleanLiteral(compare(a, b, unsigned) <= 0);
+			case TOK_GT:
+				return new BooleanLiteral(compare(a, b, unsigned) > 0);
+			case TOK_GE:
+				return new BooleanLiteral(compare(a, b, unsigned) >= 0);
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Folds an operation on float literals.
+	 *
+	 * Float literals are printed in the generated code as their shortest
+	 * decimal representation, which C reads as a double, so the operation
+	 * is computed on those double values. The result is only folded when
+	 * it is the same in single and double precision (e.g. '1.0 / 3.0' is
+	 * kept as is).
+	 */
+	IExpression foldFloat( TokenType operation, float left, float right )
+	{
+		double a = Double.parseDouble(Float.toString(left));
+		double b = Double.parseDouble(Float.toString(right));
+		double value;
+		switch (operation)
+		{
+			case TOK_PLUS:
+				value = a + b;
+				break;
+			case TOK_MINUS:
+				value = a - b;
+				break;
+			case TOK_MUL:
+				value = a * b;
+				break;
+			case TOK_DIV:
+				value = a / b;
+				break;
+			case TOK_EQ:
+				return new BooleanLiteral(a == b);
+			case TOK_NE:
+				return new BooleanLiteral(a != b);
+			case TOK_LT:
+				return new BooleanLiteral(a < b);
+			case TOK_LE:
+				return new BooleanLiteral(a <= b);
+			case TOK_GT:
+				return new BooleanLiteral(a > b);
+			case TOK_GE:
+				return new BooleanLiteral(a >= b);
+			default:
+				return null;
+		}
+		// infinity and NaN have no literal representation
+		if (Double.isNaN(value) || Double.isInfinite(value)) return null;
+		float result = (float) value;
+		if (result != value || Double.parseDouble(Float.toString(result)) != value) return null;
+		return new FloatLiteral(result);
+	}
+
+	IExpression foldBoolean( TokenType operation, boolean a, boolean b )
+	{
+		switch (operation)
+		{
+			case TOK_AND:
+				return new BooleanLiteral(a && b);
+			case TOK_OR:
+				return new BooleanLiteral(a || b);
+			case TOK_EQ:
+				return new BooleanLiteral(a == b);
+			case TOK_NE:
+				return new BooleanLiteral(a != b);
+			default:
+				return null;
+		}
+	}
+
+	static int compare( long a, long b, boolean unsigned )
+	{
+		return (unsigned) ? Long.compareUnsigned(a, b) : Long.compare(a, b);
+	}
+
+	static boolean isAssignment( TokenType operation )
+	{
+		switch (operation)
+		{
+			case TOK_ASSIGN:
+			case TOK_PLUS_ASSIGN:
+			case TOK_MINUS_ASSIGN:
+			case TOK_MUL_ASSIGN:
+			case TOK_DIV_ASSIGN:
+			case TOK_BAND_ASSIGN:
+			case TOK_BOR_ASSIGN:
+			case TOK_XOR_ASSIGN:
+			case TOK_SHL_ASSIGN:
+			case TOK_SHR_ASSIGN:
+			case TOK_MOD_ASSIGN:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	static boolean isInteger( TypeReference type )
+	{
+		return type == TypeReference.INT8 || type == TypeReference.INT16 || type == TypeReference.INT32 ||
+			type == TypeReference.INT64 || type == TypeReference.UINT8 || type == TypeReference.UINT16 ||
+			type == TypeReference.UINT32 || type == TypeReference.UINT64;
+	}
+
+	static boolean isConstant( IExpression expr )
+	{
+		return expr instanceof IntegerLiteral || expr instanceof FloatLiteral ||
+			expr instanceof BooleanLiteral || expr instanceof StringLiteral;
+	}
+
+	/**
+	 * Truncate the given value to the width of the given integer type.
+	 */
+	static long wrap( long value, TypeReference type )
+	{
+		if (type == TypeReference.INT8) return (byte) value;
+		if (type == TypeReference.UINT8) return value & 0xFFL;
+		if (type == TypeReference.INT16) return (short) value;
+		if (type == TypeReference.UINT16) return value & 0xFFFFL;
+		if (type == TypeReference.INT32) return (int) value;
+		if (type == TypeReference.UINT32) return value & 0xFFFFFFFFL;
+		return value;
+	}
+
+	static IntegerLiteral integer( long value, TypeReference type )
+	{
+		IntegerLiteral result = new IntegerLiteral(wrap(value, type));
+		result.type(type);
+		return result;
+	}
+
+	/**
+	 * Returns a copy of the given literal (tree nodes can not be shared).
+	 */
+	static Literal<?> copy( Literal<?> value )
+	{
+		if (value instanceof IntegerLiteral)
+			return integer(((IntegerLiteral) value).value(), value.type());
+		if (value instanceof FloatLiteral)
+			return new FloatLiteral(((FloatLiteral) value).value());
+		if (value instanceof BooleanLiteral)
+			return new BooleanLiteral(((BooleanLiteral) value).value());
+
+		StringLiteral string = (StringLiteral) value;
+		StringLiteral result = new StringLiteral(string.value());
+		result.index = string.index;
+		return result;
+	}
+
+	/**
+	 * Prepare the given expression to take the place of the original one.
+	 */
+	static IExpression replace( IExpression original, IExpression value )
+	{
+		if (value.location() == null && value instanceof Literal)
+			((Literal<?>) value).location(original.location());
+		value.parent(original.parent());
+		return value;
+	}
+
+}
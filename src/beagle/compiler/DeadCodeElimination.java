@@ -0,0 +1,248 @@
+package beagle.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+import beagle.compiler.tree.Annotation;
+import beagle.compiler.tree.CompilationUnit;
+import beagle.compiler.tree.Function;
+import beagle.compiler.tree.ITreeElement;
+import beagle.compiler.tree.Name;
+import beagle.compiler.tree.NameLiteral;
+import beagle.compiler.tree.StorageDeclaration;
+import beagle.compiler.tree.StringLiteral;
+import beagle.compiler.tree.Structure;
+import beagle.compiler.tree.TreeVisitor;
+import beagle.compiler.tree.TypeReference;
+
+/**
+ * Removal of unused functions, structures, global storages and strings.
+ *
+ * Declarations are kept only if they are reachable from the entry points of
+ * the compilation unit (annotated functions and 'main') through references in
+ * function bodies, initializers and type references. Units without entry
+ * points are libraries and keep every function, structure and global
+ * storage (only unused strings are removed).
+ *
+ * References are matched by name regardless of scope, so a local variable
+ * with the same name as a function keeps the function alive. That is
+ * conservative: nothing used is ever removed.
+ */
+public class DeadCodeElimination
+{
+
+	CompilationContext context;
+
+	HashMap<String, Function> functions;
+
+	HashMap<String, Structure> structures;
+
+	HashMap<String, StorageDeclaration> storages;
+
+	/**
+	 * Declarations found to be reachable.
+	 */
+	HashSet<ITreeElement> reachable;
+
+	/**
+	 * Reachable declarations not scanned yet.
+	 */
+	LinkedList<ITreeElement> pending;
+
+	/**
+	 * String literals in reachable declarations.
+	 */
+	ArrayList<StringLiteral> strings;
+
+	public DeadCodeElimination( CompilationContext context )
+	{
+		this.context = context;
+	}
+
+	public void eliminate( CompilationUnit unit )
+	{
+		functions = new HashMap<>();
+		structures = new HashMap<>();
+		storages = new HashMap<>();
+		reachable = new HashSet<>();
+		pending = new LinkedList<>();
+		strings = new ArrayList<>();
+
+		for (Function item : unit.functions)
+			functions.put(item.name().qualifiedName(), item);
+		for (Structure item : unit.structures)
+			structures.put(item.name.qualifiedName(), item);
+		for (StorageDeclaration item : unit.storages())
+			storages.put(item.name().qualifiedName(), item);
+
+		for (Function item : unit.functions)
+			if (isEntryPoint(item)) mark(item);
+		// libraries are used from elsewhere
+		if (pending.isEmpty())
+		{
+			for (Function item : unit.functions)
+				mark(item);
+			for (Structure item : unit.structures)
+				mark(item);
+			for (StorageDeclaration item : unit.storages())
+				mark(item);
+		}
+
+		References visitor = new References();
+		while (!pending.isEmpty())
+		{
+			ITreeElement item = pending.removeFirst();
+			if (item instanceof Structure)
+			{
+				Structure structure = (Structure) item;
+				if (structure.parent != null) reference(structure.parent);
+				if (structure.body != null) structure.body.accept(visitor);
+			}
+			else
+				item.accept(visitor);
+		}
+
+		Statistics stats = context.statistics;
+		stats.set("dce.functions", unit.functions.size());
+		stats.set("dce.functions.removed", remove(unit.functions));
+		stats.set("dce.structures", unit.structures.size());
+		stats.set("dce.structures.removed", remove(unit.structures));
+		stats.set("dce.storages", unit.storages().size());
+		stats.set("dce.storages.removed", remove(unit.storages()));
+		int count = countStrings(unit);
+		compactStrings();
+		stats.set("dce.strings", count);
+		stats.set("dce.strings.removed", count - context.stringTable.size());
+	}
+
+	/**
+	 * Returns the number of distinct strings used by the unit. The string
+	 * table may also hold the strings of other units, so it can not be used
+	 * for that.
+	 */
+	static int countStrings( CompilationUnit unit )
+	{
+		HashSet<String> values = new HashSet<>();
+		TreeVisitor visitor = new TreeVisitor()
+		{
+			@Override
+			public boolean visit( StringLiteral target )
+			{
+				values.add(target.value());
+				return true;
+			}
+		};
+		for (Function item : unit.functions)
+			item.accept(visitor);
+		for (Structure item : unit.structures)
+			if (item.body != null) item.body.accept(visitor);
+		for (StorageDeclaration item : unit.storages())
+			item.accept(visitor);
+		return values.size();
+	}
+
+	/**
+	 * Whether the function is called from outside the compilation unit
+	 * (annotations other than compiler directives mark exported functions).
+	 */
+	static boolean isEntryPoint( Function function )
+	{
+		if (function.annotations() != null)
+		{
+			for (Annotation item : function.annotations())
+				if (!Annotations.isDirective(item)) return true;
+		}
+		return function.name().qualifiedName().equals("main");
+	}
+
+	/**
+	 * Whether the unit is a library: without entry points, every function is
+	 * used from elsewhere.
+	 */
+	static boolean isLibrary( CompilationUnit unit )
+	{
+		for (Function item : unit.functions)
+			if (isEntryPoint(item)) return false;
+		return true;
+	}
+
+	void mark( ITreeElement item )
+	{
+		if (item != null && reachable.add(item)) pending.add(item);
+	}
+
+	void reference( Name name )
+	{
+		String value = name.qualifiedName();
+		mark(functions.get(value));
+		mark(structures.get(value));
+		mark(storages.get(value));
+	}
+
+	void reference( TypeReference type )
+	{
+		if (type.isPrimitive) return;
+		mark(structures.get(type.qualifiedName()));
+		mark(structures.get(type.name().qualifiedName()));
+	}
+
+	/**
+	 * Removes the unreachable declarations from the given list.
+	 *
+	 * @return Number of removed declarations.
+	 */
+	int remove( List<? extends ITreeElement> list )
+	{
+		int size = list.size();
+		list.removeIf(item -> !reachable.contains(item));
+		return size - list.size();
+	}
+
+	/**
+	 * Rebuilds the string table with only the strings referenced by reachable
+	 * declarations, in the order they are found, and updates the indices of
+	 * the literals. The table is shared by every unit compiled with the same
+	 * context, so it is not enough to remove the unused strings: the order
+	 * left by the previous compilations would change the generated code.
+	 */
+	void compactStrings()
+	{
+		StringTable table = context.stringTable;
+		table.clear();
+		for (StringLiteral item : strings)
+			item.index = table.add(item.value());
+	}
+
+	/**
+	 * Collects the references of the visited declaration.
+	 */
+	class References extends TreeVisitor
+	{
+
+		@Override
+		public boolean visit( NameLiteral target )
+		{
+			reference(target.value());
+			return true;
+		}
+
+		@Override
+		public boolean visit( TypeReference target )
+		{
+			reference(target);
+			return true;
+		}
+
+		@Override
+		public boolean visit( StringLiteral target )
+		{
+			strings.add(target);
+			return true;
+		}
+
+	}
+
+}
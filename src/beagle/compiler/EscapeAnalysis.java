@@ -0,0 +1,306 @@
+package beagle.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import beagle.compiler.tree.Argument;
+import beagle.compiler.tree.ArgumentList;
+import beagle.compiler.tree.BinaryExpression;
+import beagle.compiler.tree.CompilationUnit;
+import beagle.compiler.tree.ConstantDeclaration;
+import beagle.compiler.tree.ExpressionStmt;
+import beagle.compiler.tree.ForEachStmt;
+import beagle.compiler.tree.FormalParameter;
+import beagle.compiler.tree.Function;
+import beagle.compiler.tree.IExpression;
+import beagle.compiler.tree.NameLiteral;
+import beagle.compiler.tree.ReturnStmt;
+import beagle.compiler.tree.StorageDeclaration;
+import beagle.compiler.tree.Structure;
+import beagle.compiler.tree.TreeVisitor;
+import beagle.compiler.tree.UnaryExpression;
+import beagle.compiler.tree.VariableDeclaration;
+
+/**
+ * Escape analysis of structure instances.
+ *
+ * A reference escapes a function when it is returned, stored in a field or
+ * global, used as the iterated value of a loop or passed to a callee that
+ * lets it escape (callees outside the compilation unit always do). Copies
+ * to other local variables escape when the copy does.
+ *
+ * Local variables initialized by a constructor, never assigned and whose
+ * reference does not escape are marked to be allocated on the stack, which
+ * avoids the allocation and the reference counting of the instance.
+ *
+ * The parameters that escape are computed for every function of the unit,
+ * iterating until no summary changes, so calls between them are precise.
+ */
+public class EscapeAnalysis
+{
+
+	CompilationContext context;
+
+	HashMap<String, Function> functions;
+
+	HashMap<String, Structure> structures;
+
+	/**
+	 * Parameters that escape, by function.
+	 */
+	HashMap<Function, boolean[]> summaries;
+
+	// state of the function being analyzed
+
+	HashMap<String, Integer> declarations;
+
+	HashSet<String> assigned;
+
+	HashSet<String> escaping;
+
+	/**
+	 * Variables copied to each variable.
+	 */
+	HashMap<String, ArrayList<String>> sources;
+
+	ArrayList<StorageDeclaration> storages;
+
+	public EscapeAnalysis( CompilationContext context )
+	{
+		this.context = context;
+	}
+
+	public void analyze( CompilationUnit unit )
+	{
+		functions = new HashMap<>();
+		structures = new HashMap<>();
+		summaries = new HashMap<>();
+		for (Function item : unit.functions)
+		{
+			functions.put(item.name().qualifiedName(), item);
+			int count = (item.parameters() == null) ? 0 : item.parameters().size();
+			summaries.put(item, new boolean[count]);
+		}
+		for (Structure item : unit.structures)
+			structures.put(item.name.qualifiedName(), item);
+
+		boolean changed = true;
+		while (changed)
+		{
+			changed = false;
+			for (Function item : unit.functions)
+				changed |= summarize(item);
+		}
+
+		int candidates = 0;
+		int stack = 0;
+		for (Function item : unit.functions)
+		{
+			analyze(item);
+			for (StorageDeclaration storage : storages)
+			{
+				String name = storage.name().qualifiedName();
+				if (!isConstructor(storage.initializer())) continue;
+				++candidates;
+				if (escaping.contains(name) || assigned.contains(name) || declarations.get(name) != 1) continue;
+				storage.onStack = true;
+				++stack;
+			}
+		}
+
+		Statistics stats = context.statistics;
+		stats.set("escape.instances", candidates);
+		stats.set("escape.stack", stack);
+	}
+
+	/**
+	 * Updates the parameters that escape from the function.
+	 *
+	 * @return Whether the summary changed.
+	 */
+	boolean summarize( Function function )
+	{
+		analyze(function);
+		boolean[] summary = summaries.get(function);
+		boolean changed = false;
+		for (int i = 0; i < summary.length; ++i)
+		{
+			if (summary[i] || !escaping.contains(function.parameters().get(i).name().qualifiedName())) continue;
+			summary[i] = true;
+			changed = true;
+		}
+		return changed;
+	}
+
+	void analyze( Function function )
+	{
+		declarations = new HashMap<>();
+		assigned = new HashSet<>();
+		escaping = new HashSet<>();
+		sources = new HashMap<>();
+		storages = new ArrayList<>();
+		if (function.body() == null) return;
+
+		function.accept(new Collector());
+
+		// copies escape through the variables they were copied to
+		ArrayList<String> pending = new ArrayList<>(escaping);
+		while (!pending.isEmpty())
+		{
+			String name = pending.remove(pending.size() - 1);
+			for (String source : sources.getOrDefault(name, new ArrayList<>()))
+				if (escaping.add(source)) pending.add(source);
+		}
+	}
+
+	/**
+	 * Whether the expression creates a structure instance.
+	 */
+	boolean isConstructor( IExpression expr )
+	{
+		expr = CodeGenerator.strip(expr);
+		if (!(expr instanceof UnaryExpression)) return false;
+		UnaryExpression call = (UnaryExpression) expr;
+		if (call.operation() != TokenType.TOK_LEFT_PAR || !(call.expression() instanceof NameLiteral)) return false;
+		String name = ((NameLiteral) call.expression()).value().qualifiedName();
+		return structures.containsKey(name) && !declarations.containsKey(name);
+	}
+
+	/**
+	 * Returns the name of the local variable or parameter the expression is
+	 * or {@code null}.
+	 */
+	String variable( IExpression expr )
+	{
+		expr = CodeGenerator.strip(expr);
+		if (!(expr instanceof NameLiteral)) return null;
+		NameLiteral literal = (NameLiteral) expr;
+		if (literal.value().isQualified()) return null;
+		String name = literal.value().qualifiedName();
+		return (declarations.containsKey(name)) ? name : null;
+	}
+
+	void escape( IExpression expr )
+	{
+		String name = variable(expr);
+		if (name != null) escaping.add(name);
+	}
+
+	void copy( String target, IExpression expr )
+	{
+		String source = variable(expr);
+		if (source != null) sources.computeIfAbsent(target, key -> new ArrayList<>()).add(source);
+	}
+
+	void declare( String name )
+	{
+		declarations.merge(name, 1, Integer::sum);
+	}
+
+	/**
+	 * Collects the uses of the variables in a function. Declarations come
+	 * before their uses, so every name is known when used.
+	 */
+	class Collector extends TreeVisitor
+	{
+
+		@Override
+		public boolean visit( FormalParameter target )
+		{
+			declare(target.name().qualifiedName());
+			return true;
+		}
+
+		@Override
+		public boolean visit( VariableDeclaration target )
+		{
+			visitStorage(target);
+			return true;
+		}
+
+		@Override
+		public boolean visit( ConstantDeclaration target )
+		{
+			visitStorage(target);
+			return true;
+		}
+
+		void visitStorage( StorageDeclaration target )
+		{
+			String name = target.name().qualifiedName();
+			declare(name);
+			storages.add(target);
+			if (target.initializer() != null) copy(name, target.initializer());
+		}
+
+		@Override
+		public boolean visit( ExpressionStmt target )
+		{
+			// 'ReturnStmt' is visited as its base class
+			if (target instanceof ReturnStmt && target.expression() != null) escape(target.expression());
+			return true;
+		}
+
+		@Override
+		public boolean visit( ForEachStmt target )
+		{
+			escape(target.expression);
+			return true;
+		}
+
+		@Override
+		public boolean visit( BinaryExpression target )
+		{
+			if (target.operation() != TokenType.TOK_ASSIGN) return true;
+
+			String name = variable(target.left());
+			if (name != null)
+			{
+				assigned.add(name);
+				copy(name, target.right());
+			}
+			else
+				// fields and globals
+				escape(target.right());
+			return true;
+		}
+
+		@Override
+		public boolean visit( UnaryExpression target )
+		{
+			if (target.operation() == TokenType.TOK_INC || target.operation() == TokenType.TOK_DEC)
+			{
+				String name = variable(target.expression());
+				if (name != null) assigned.add(name);
+				return true;
+			}
+			if (target.operation() != TokenType.TOK_LEFT_PAR || target.extra() == null) return true;
+
+			ArrayList<IExpression> arguments = new ArrayList<>();
+			if (target.extra() instanceof ArgumentList)
+			{
+				for (Argument item : (ArgumentList) target.extra())
+					arguments.add(item.value());
+			}
+			else
+				arguments.add(target.extra());
+
+			Function callee = null;
+			if (target.expression() instanceof NameLiteral)
+			{
+				String name = ((NameLiteral) target.expression()).value().qualifiedName();
+				if (!declarations.containsKey(name)) callee = functions.get(name);
+			}
+			boolean[] summary = (callee != null) ? summaries.get(callee) : null;
+			for (int i = 0; i < arguments.size(); ++i)
+			{
+				if (summary == null || i >= summary.length || summary[i])
+					escape(arguments.get(i));
+			}
+			return true;
+		}
+
+	}
+
+}
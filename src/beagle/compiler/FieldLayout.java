@@ -0,0 +1,188 @@
+package beagle.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import beagle.compiler.tree.CompilationUnit;
+import beagle.compiler.tree.StorageDeclaration;
+import beagle.compiler.tree.Structure;
+import beagle.compiler.tree.TypeReference;
+
+/**
+ * Orders the fields of the structures to reduce the padding in their
+ * dynamic data.
+ *
+ * The header of the instances (the parent data, the pointer to the type and
+ * the reference counter) stays in front. Fields are then placed one at a
+ * time, picking the one with the largest alignment that needs no padding at
+ * the current offset, which fills the gaps left by the header before the
+ * larger fields. The declaration order is kept if it is not worse, and
+ * always for structures annotated with '@ordered'.
+ *
+ * Sizes follow the C back end on 64-bit targets. The size and padding of
+ * every structure are reported in the statistics.
+ */
+public class FieldLayout
+{
+
+	/**
+	 * Size of pointers (references, strings and the type of the instances).
+	 */
+	static final int POINTER_SIZE = 8;
+
+	CompilationContext context;
+
+	HashMap<String, Structure> structures;
+
+	/**
+	 * Size and alignment of the dynamic data of the structures laid out.
+	 */
+	HashMap<String, int[]> layouts;
+
+	public FieldLayout( CompilationContext context )
+	{
+		this.context = context;
+	}
+
+	public void layout( CompilationUnit unit )
+	{
+		structures = new HashMap<>();
+		layouts = new HashMap<>();
+		for (Structure item : unit.structures)
+			structures.put(item.name.qualifiedName(), item);
+
+		Statistics stats = context.statistics;
+		stats.set("layout.structures", unit.structures.size());
+		stats.set("layout.reordered", 0);
+		stats.set("layout.padding", 0);
+		stats.set("layout.padding.saved", 0);
+		for (Structure item : unit.structures)
+			layout(item);
+	}
+
+	/**
+	 * Lays out the structure after its parent.
+	 *
+	 * @return Size and alignment of the dynamic data.
+	 */
+	int[] layout( Structure item )
+	{
+		String name = item.name.qualifiedName();
+		int[] result = layouts.get(name);
+		if (result != null) return result;
+		// placeholder for invalid hierarchies with cycles
+		layouts.put(name, new int[] { POINTER_SIZE, POINTER_SIZE });
+
+		// header
+		int offset = 0;
+		int alignment = POINTER_SIZE;
+		Structure parent = (item.parent != null) ? structures.get(item.parent.qualifiedName()) : null;
+		if (parent != null)
+		{
+			int[] base = layout(parent);
+			offset = base[0];
+			alignment = Math.max(alignment, base[1]);
+		}
+		offset = align(offset, POINTER_SIZE) + POINTER_SIZE;
+		if (item.parent == null) offset += 4;
+
+		List<StorageDeclaration> fields = item.body.storages;
+		int[] declared = measure(offset, alignment, fields);
+		int[] chosen = declared;
+		if (!Annotations.has(item.annotations, Annotations.ORDERED))
+		{
+			ArrayList<StorageDeclaration> ordered = order(offset, fields);
+			int[] candidate = measure(offset, alignment, ordered);
+			if (candidate[0] < declared[0])
+			{
+				fields.clear();
+				fields.addAll(ordered);
+				chosen = candidate;
+				context.statistics.add("layout.reordered", 1);
+				context.statistics.add("layout.padding.saved", declared[0] - candidate[0]);
+			}
+		}
+
+		Statistics stats = context.statistics;
+		stats.set("layout." + name + ".size", chosen[0]);
+		stats.set("layout." + name + ".padding", chosen[2]);
+		stats.add("layout.padding", chosen[2]);
+
+		result = new int[] { chosen[0], chosen[1] };
+		layouts.put(name, result);
+		return result;
+	}
+
+	/**
+	 * Places the fields with the largest alignment that need no padding
+	 * first (in declaration order when they are equal).
+	 */
+	ArrayList<StorageDeclaration> order( int offset, List<StorageDeclaration> fields )
+	{
+		ArrayList<StorageDeclaration> pending = new ArrayList<>(fields);
+		ArrayList<StorageDeclaration> result = new ArrayList<>();
+		while (!pending.isEmpty())
+		{
+			StorageDeclaration best = null;
+			boolean bestFits = false;
+			for (StorageDeclaration field : pending)
+			{
+				int current = alignment(field.type());
+				boolean fits = offset % current == 0;
+				if (best == null || (fits && !bestFits) || (fits == bestFits && current > alignment(best.type())))
+				{
+					best = field;
+					bestFits = fits;
+				}
+			}
+			pending.remove(best);
+			result.add(best);
+			offset = align(offset, alignment(best.type())) + size(best.type());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the size, alignment and padding (including the padding at the
+	 * end) of the fields placed from the given offset.
+	 */
+	int[] measure( int offset, int alignment, List<StorageDeclaration> fields )
+	{
+		int padding = 0;
+		for (StorageDeclaration field : fields)
+		{
+			int current = alignment(field.type());
+			int start = align(offset, current);
+			padding += start - offset;
+			offset = start + size(field.type());
+			alignment = Math.max(alignment, current);
+		}
+		int size = align(offset, alignment);
+		padding += size - offset;
+		return new int[] { size, alignment, padding };
+	}
+
+	static int align( int offset, int alignment )
+	{
+		return (offset + alignment - 1) / alignment * alignment;
+	}
+
+	static int size( TypeReference type )
+	{
+		if (type.isVector()) return type.lanes * size(type.element);
+		if (type == TypeReference.INT8 || type == TypeReference.UINT8 || type == TypeReference.BOOL) return 1;
+		if (type == TypeReference.INT16 || type == TypeReference.UINT16) return 2;
+		if (type == TypeReference.INT32 || type == TypeReference.UINT32 || type == TypeReference.FLOAT32) return 4;
+		if (type == TypeReference.INT64 || type == TypeReference.UINT64 || type == TypeReference.FLOAT64) return 8;
+		// strings and references
+		return POINTER_SIZE;
+	}
+
+	static int alignment( TypeReference type )
+	{
+		// see the vector types in 'beagle/base.h'
+		return Math.min(size(type), 16);
+	}
+
+}
@@ -1,6 +1,7 @@
 package beagle.compiler;
 
 import java.io.PrintStream;
+import java.util.BitSet;
 
 import beagle.compiler.tree.Annotation;
 import beagle.compiler.tree.AnnotationList;
@@ -41,18 +42,60 @@ import beagle.compiler.tree.TypeReferenceList;
 import beagle.compiler.tree.UnaryExpression;
 import beagle.compiler.tree.VariableDeclaration;
 
+/**
+ * Renders the AST as a HTML page.
+ *
+ * The output is written as the tree is traversed and the stream is flushed
+ * only at the end of each compilation unit, so callers should provide a
+ * buffered stream. Large trees can be reduced by limiting the depth of the
+ * output or by rendering deep containers collapsed.
+ */
 public class HtmlVisitor
 {
 
+	public static final int UNLIMITED = Integer.MAX_VALUE;
+
 	PrintStream out;
 
 	String currentName = null;
 
+	/**
+	 * Containers deeper than this are omitted.
+	 */
+	int maxDepth = UNLIMITED;
+
+	/**
+	 * Containers at this depth or deeper are rendered collapsed.
+	 */
+	int collapseDepth = UNLIMITED;
+
+	/**
+	 * Depth of the current container.
+	 */
+	int depth = 0;
+
+	/**
+	 * Whether the container at the given depth was rendered as a 'details' element.
+	 */
+	BitSet collapsible = new BitSet();
+
+	/**
+	 * Whether the omitted children of the current container were already reported.
+	 */
+	boolean truncated = false;
+
 	public HtmlVisitor( PrintStream out )
 	{
 		this.out = out;
 	}
 
+	public HtmlVisitor( PrintStream out, int maxDepth, int collapseDepth )
+	{
+		this.out = out;
+		this.maxDepth = maxDepth;
+		this.collapseDepth = collapseDepth;
+	}
+
 	void currentName(String value)
 	{
 		this.currentName = value;
@@ -73,12 +116,13 @@ public class HtmlVisitor
 	 */
 	protected void attribute( String name, Class<?> clazz )
 	{
+		if (depth > maxDepth) return;
+
 		out.append("<div class='container'><div class='attribute'><span class='name'>");
 		out.append(name);
 		out.append("</span> &rarr; <span class='title'>");
 		out.append(clazz.getSimpleName());
 		out.append("</span></div></div>");
-		out.flush();
 	}
 
 	/**
@@ -90,6 +134,8 @@ public class HtmlVisitor
 	 */
 	protected void attribute( String name, Class<?> clazz, String value )
 	{
+		if (depth > maxDepth) return;
+
 		out.append("<div class='container'><div class='attribute'>");
 
 		if (name != null)
@@ -102,9 +148,8 @@ public class HtmlVisitor
 		out.append("<span class='title'>");
 		out.append(clazz.getSimpleName());
 		out.append("</span>(<span class='value'>");
-		out.append(value);
+		text(value);
 		out.append("</span>)</div></div>");
-		out.flush();
 	}
 
 	/**
@@ -115,18 +160,45 @@ public class HtmlVisitor
 	 */
 	protected void attribute( String name, String value )
 	{
+		if (depth > maxDepth) return;
+
 		out.append("<div class='container'><div class='attribute'><span class='name'>");
 		out.append(name);
 		out.append("</span> &rarr; (<span class='value'>");
-		out.append(value);
+		text(value);
 		out.append("</span>)</div></div>");
-		out.flush();
 	}
 
 	protected void missing()
 	{
+		if (depth > maxDepth) return;
 		out.append("<div class='container'><span class='missing'>missing</span></div>");
-		out.flush();
+	}
+
+	/**
+	 * Write the given text escaping HTML special characters.
+	 */
+	protected void text( String value )
+	{
+		if (value == null) return;
+
+		// unescaped characters are written in runs
+		int start = 0;
+		for (int i = 0; i < value.length(); ++i)
+		{
+			char current = value.charAt(i);
+			if (current != '<' && current != '>' && current != '&') continue;
+
+			if (start < i) out.append(value, start, i);
+			start = i + 1;
+			switch (current)
+			{
+				case '<': out.append("&lt;"); break;
+				case '>': out.append("&gt;"); break;
+				default: out.append("&amp;");
+			}
+		}
+		if (start < value.length()) out.append(value, start, value.length());
 	}
 
 /*
@@ -142,17 +214,53 @@ public class HtmlVisitor
 
 	protected void close()
 	{
-		out.append("</div>");
+		if (depth <= maxDepth)
+		{
+			out.append((collapsible.get(depth)) ? "</details>" : "</div>");
+			truncated = false;
+		}
+		--depth;
+	}
+
+	/**
+	 * Enter a new container.
+	 *
+	 * @param titled Whether the container has a header.
+	 * @return Whether the container is visible.
+	 */
+	protected boolean enter( boolean titled )
+	{
+		++depth;
+		if (depth > maxDepth)
+		{
+			// report the omitted children only once for each visible container
+			if (depth == maxDepth + 1 && !truncated)
+			{
+				out.append("<div class='container'><span class='truncated'>&hellip;</span></div>");
+				truncated = true;
+			}
+			return false;
+		}
+		truncated = false;
+
+		boolean details = titled && collapseDepth != UNLIMITED;
+		collapsible.set(depth, details);
+		if (details)
+			out.append((depth < collapseDepth) ? "<details class='container' open>" : "<details class='container'>");
+		else
+			out.append("<div class='container'>");
+		return true;
 	}
 
 	protected boolean open(Class<?> clazz)
 	{
-		out.append("<div class='container'>");
+		if (!enter(clazz != null)) return false;
 		if (clazz != null)
 		{
-			out.append("<div class='title'>");
+			String tag = (collapsible.get(depth)) ? "summary" : "div";
+			out.append('<').append(tag).append(" class='title'>");
 			out.append(clazz.getSimpleName());
-			out.append("</div>");
+			out.append("</").append(tag).append('>');
 		}
 		return true;
 	}
@@ -160,6 +268,7 @@ public class HtmlVisitor
 	public boolean print(CompilationUnit target)
 	{
 		printCompilationUnit(target);
+		out.flush();
 		return false;
 	}
 
@@ -175,10 +284,11 @@ public class HtmlVisitor
 		String temp = currentName();
 		if (temp != null) name = temp;
 
-		out.append("<div class='container'>");
+		if (!enter(name != null && clazz != null)) return false;
 		if (name != null && clazz != null)
 		{
-			out.append("<div class='dedent'>");
+			String tag = (collapsible.get(depth)) ? "summary" : "div";
+			out.append('<').append(tag).append(" class='dedent'>");
 
 			if (name != null)
 			{
@@ -191,7 +301,7 @@ public class HtmlVisitor
 			out.append(clazz.getSimpleName());
 			out.append("</span>");
 
-			out.append("</div>");
+			out.append("</").append(tag).append('>');
 		}
 		return true;
 	}
@@ -232,6 +342,7 @@ public class HtmlVisitor
 		printStructures(target.structures);
 		printFunctions(target.functions);
 		printTypes(target.types());
+		close();
 		out.append("</body></html>");
 	}
 
@@ -532,6 +643,8 @@ public class HtmlVisitor
 			+ "body div:first-of-type:hover { border-left: none; }"
 			+ ".title {font-weight: 600;}"
 			+ ".missing {color: red}"
+			+ ".truncated {color: #888}"
+			+ "summary {cursor: pointer}"
 			+ ".attribute .name {color: blue}"
 			+ ".container .description {color: blue}"
 			+ ".attribute .value {font-style: italic; color: green}"
@@ -0,0 +1,568 @@
+package beagle.compiler;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import beagle.compiler.tree.CompilationUnit;
+import beagle.compiler.tree.Function;
+import beagle.compiler.tree.StorageDeclaration;
+import beagle.compiler.tree.Structure;
+import beagle.compiler.tree.TreeElement;
+import beagle.compiler.tree.TreeElementList;
+import beagle.compiler.tree.TypeImport;
+
+/**
+ * Incremental front end for a single source file.
+ *
+ * Keeps the token stream and the top-level declarations of the last parse.
+ * After a text edit, only the tokens around the modified region are scanned
+ * again (until the new token stream matches the old one) and only the
+ * top-level declarations overlapping the modified tokens are parsed again
+ * and spliced into the existing compilation unit.
+ */
+public class IncrementalParser
+{
+
+	protected CompilationContext context;
+
+	protected String fileName;
+
+	protected String text;
+
+	/**
+	 * Every token in the source code (the last one is always the end of file).
+	 */
+	protected ArrayList<Token> tokens;
+
+	/**
+	 * Top-level declarations, in source order.
+	 */
+	protected ArrayList<Declaration> declarations;
+
+	protected CompilationUnit unit;
+
+	/**
+	 * Top-level elements created by the last parse or update.
+	 */
+	protected List<TreeElement> changed;
+
+	public IncrementalParser( CompilationContext context, String fileName, String text )
+	{
+		this.context = context;
+		this.fileName = fileName;
+		this.text = text;
+		this.changed = new LinkedList<>();
+	}
+
+	public String text()
+	{
+		return text;
+	}
+
+	public List<Token> tokens()
+	{
+		return tokens;
+	}
+
+	public List<Declaration> declarations()
+	{
+		return declarations;
+	}
+
+	public CompilationUnit unit()
+	{
+		return unit;
+	}
+
+	public List<TreeElement> changed()
+	{
+		return changed;
+	}
+
+	/**
+	 * Scan and parse the entire source code.
+	 *
+	 * @return
+	 */
+	public CompilationUnit parse()
+	{
+		Scanner scanner = new Scanner(context, new ScanString(fileName, text));
+
+		tokens = new ArrayList<>();
+		while (true)
+		{
+			Token current = scanner.readToken();
+			if (current == null) continue;
+			tokens.add(current);
+			if (current.type == TokenType.TOK_EOF) break;
+		}
+
+		declarations = segment(tokens);
+		unit = new CompilationUnit(fileName, null);
+		changed.clear();
+
+		for (Declaration item : declarations)
+		{
+			parse(item);
+			attach(item, -1);
+		}
+
+		return unit;
+	}
+
+	/**
+	 * Apply a text edit and update the token stream and the compilation unit.
+	 *
+	 * @param offset Position of the first modified character.
+	 * @param removed Number of characters removed from the original text.
+	 * @param inserted Text inserted at {@code offset}.
+	 * @return
+	 */
+	public CompilationUnit update( int offset, int removed, String inserted )
+	{
+		if (unit == null) parse();
+		if (offset < 0 || removed < 0 || offset + removed > text.length())
+			throw new IndexOutOfBoundsException("Invalid edit range");
+
+		String previous = text;
+		text = previous.substring(0, offset) + inserted + previous.substring(offset + removed);
+		int delta = inserted.length() - removed;
+		int editEnd = offset + inserted.length();
+
+		// the first damaged token is the first one ending at or after the edit
+		// (tokens touching the edit may be extended by it)
+		int first = find(offset);
+
+		ScanString source = new ScanString(fileName, text);
+		if (first > 0)
+		{
+			Token prev = tokens.get(first - 1);
+			source.seek(prev.offset + prev.length - 1, prev.location);
+		}
+		Scanner scanner = new Scanner(context, source);
+
+		// scan until the new tokens match the old ones
+		ArrayList<Token> window = new ArrayList<>();
+		int candidate = first;
+		int resync = -1;
+		while (true)
+		{
+			Token current = scanner.readToken();
+			if (current == null) continue;
+			window.add(current);
+			if (current.type == TokenType.TOK_EOF) break;
+			if (current.offset < editEnd) continue;
+
+			int oldOffset = current.offset - delta;
+			while (candidate < tokens.size() && tokens.get(candidate).offset < oldOffset)
+				++candidate;
+			if (candidate < tokens.size() && isSame(tokens.get(candidate), current, oldOffset))
+			{
+				resync = candidate;
+				break;
+			}
+		}
+
+		int oldEnd = (resync >= 0) ? resync + 1 : tokens.size();
+
+		// update the position of the tokens after the damaged window
+		shift(previous, offset, removed, inserted, oldEnd);
+
+		ArrayList<Token> output = new ArrayList<>(tokens.size() + window.size() - (oldEnd - first));
+		output.addAll(tokens.subList(0, first));
+		output.addAll(window);
+		output.addAll(tokens.subList(oldEnd, tokens.size()));
+		int tokenDelta = output.size() - tokens.size();
+		tokens = output;
+
+		splice(segment(tokens), first, oldEnd, tokenDelta);
+		return unit;
+	}
+
+	/**
+	 * Returns the index of the first token ending at or after the given position.
+	 */
+	protected int find( int offset )
+	{
+		int low = 0, high = tokens.size() - 1;
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			Token current = tokens.get(middle);
+			if (current.offset + current.length < offset)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	protected boolean isSame( Token oldToken, Token newToken, int oldOffset )
+	{
+		if (oldToken.offset != oldOffset || oldToken.length != newToken.length || oldToken.type != newToken.type)
+			return false;
+		if (oldToken.value == null) return newToken.value == null;
+		return oldToken.value.equals(newToken.value);
+	}
+
+	/**
+	 * Move the tokens starting at {@code start} according to the text edit.
+	 *
+	 * The location objects are updated in place, so tree elements referencing
+	 * them are updated as well.
+	 */
+	protected void shift( String previous, int offset, int removed, String inserted, int start )
+	{
+		int delta = inserted.length() - removed;
+		int lines = count(inserted, 0, inserted.length()) - count(previous, offset, offset + removed);
+
+		// the first line starts at column 2 (see SourceLocation.update)
+		int oldBreak = previous.lastIndexOf('\n', offset + removed - 1);
+		if (oldBreak < 0) oldBreak = -2;
+		int newBreak = text.lastIndexOf('\n', offset + inserted.length() - 1);
+		if (newBreak < 0) newBreak = -2;
+		int columns = delta - (newBreak - oldBreak);
+
+		// only the tokens in the same line as the end of the edit change columns
+		boolean sameLine = true;
+		int position = offset + removed;
+		for (int i = start; i < tokens.size(); ++i)
+		{
+			Token current = tokens.get(i);
+			int end = Math.min(current.offset + current.length, previous.length());
+			if (sameLine && count(previous, position, end) > 0) sameLine = false;
+			position = end;
+
+			current.offset += delta;
+			current.location.shift(lines, (sameLine) ? columns : 0);
+		}
+	}
+
+	private static int count( String value, int start, int end )
+	{
+		int result = 0;
+		for (int i = start; i < end; ++i)
+			if (value.charAt(i) == '\n') ++result;
+		return result;
+	}
+
+	/**
+	 * Split the token stream in top-level declarations.
+	 *
+	 * Annotations belong to the following declaration and the package and
+	 * import declarations are grouped in a single header declaration.
+	 */
+	protected static ArrayList<Declaration> segment( List<Token> tokens )
+	{
+		ArrayList<Declaration> output = new ArrayList<>();
+		Declaration current = null;
+		boolean started = false;
+		int depth = 0;
+
+		for (int i = 0; i < tokens.size() - 1; ++i)
+		{
+			TokenType type = tokens.get(i).type;
+
+			if (depth == 0)
+			{
+				TokenType kind = Declaration.kindOf(type);
+				if (current == null || (kind != null && started &&
+					!(kind == TokenType.TOK_PACKAGE && current.kind == TokenType.TOK_PACKAGE)))
+				{
+					if (current != null) current.end = i;
+					current = new Declaration(i);
+					output.add(current);
+					started = false;
+				}
+				if (kind == TokenType.TOK_AT)
+				{
+					// the name and the arguments belong to the annotation
+					i = skipAnnotation(tokens, i + 1) - 1;
+					continue;
+				}
+				if (!started) current.kind = kind;
+				started = true;
+			}
+
+			if (type == TokenType.TOK_LEFT_BRACE)
+				++depth;
+			else
+			if (type == TokenType.TOK_RIGHT_BRACE && depth > 0)
+				--depth;
+		}
+
+		if (current != null) current.end = tokens.size() - 1;
+		return output;
+	}
+
+	/**
+	 * Returns the index of the first token after the name and the arguments
+	 * of the annotation starting at the given index.
+	 */
+	private static int skipAnnotation( List<Token> tokens, int index )
+	{
+		int end = tokens.size() - 1;
+		if (index < end && tokens.get(index).type == TokenType.TOK_NAME)
+		{
+			++index;
+			while (index + 1 < end && tokens.get(index).type == TokenType.TOK_DOT && tokens.get(index + 1).type == TokenType.TOK_NAME)
+				index += 2;
+		}
+		if (index < end && tokens.get(index).type == TokenType.TOK_LEFT_PAR)
+		{
+			int depth = 0;
+			for (; index < end; ++index)
+			{
+				TokenType type = tokens.get(index).type;
+				if (type == TokenType.TOK_LEFT_PAR)
+					++depth;
+				else
+				if (type == TokenType.TOK_RIGHT_PAR && --depth == 0)
+					return index + 1;
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Reuse the declarations outside the modified token window and parse the remaining ones.
+	 *
+	 * The preserved {@link Declaration} objects are kept (only their token range
+	 * is updated), so they can be used to identify the same declaration across
+	 * updates.
+	 */
+	protected void splice( ArrayList<Declaration> current, int first, int oldEnd, int tokenDelta )
+	{
+		changed.clear();
+
+		int prefix = 0;
+		while (prefix < declarations.size() && prefix < current.size())
+		{
+			Declaration before = declarations.get(prefix);
+			Declaration after = current.get(prefix);
+			if (before.end > first || !before.matches(after, 0)) break;
+			current.set(prefix, before);
+			++prefix;
+		}
+
+		int oldSuffix = declarations.size(), newSuffix = current.size();
+		while (oldSuffix > prefix && newSuffix > prefix)
+		{
+			Declaration before = declarations.get(oldSuffix - 1);
+			Declaration after = current.get(newSuffix - 1);
+			if (before.start < oldEnd || !before.matches(after, tokenDelta)) break;
+			before.start = after.start;
+			before.end = after.end;
+			current.set(newSuffix - 1, before);
+			--oldSuffix;
+			--newSuffix;
+		}
+
+		// remove the elements of the old declarations
+		for (int i = prefix; i < oldSuffix; ++i)
+			detach(declarations.get(i));
+
+		// parse the new ones and insert their elements after the preserved prefix
+		int functions = 0, storages = 0, structures = 0;
+		for (int i = 0; i < prefix; ++i)
+		{
+			Declaration item = current.get(i);
+			if (item.element instanceof Function) ++functions;
+			if (item.element instanceof StorageDeclaration) ++storages;
+			if (item.element instanceof Structure) ++structures;
+		}
+		for (int i = prefix; i < newSuffix; ++i)
+		{
+			Declaration item = current.get(i);
+			parse(item);
+
+			if (item.element instanceof Function)
+				attach(item, functions++);
+			else
+			if (item.element instanceof StorageDeclaration)
+				attach(item, storages++);
+			else
+			if (item.element instanceof Structure)
+				attach(item, structures++);
+			else
+				attach(item, -1);
+		}
+
+		declarations = current;
+	}
+
+	/**
+	 * Parse the tokens of a single declaration.
+	 */
+	protected void parse( Declaration item )
+	{
+		IScanner scanner = new TokenListScanner(context, fileName, tokens, item.start, item.end, tokens.get(tokens.size() - 1));
+
+		item.element = null;
+		CompilationUnit slice;
+		try
+		{
+			slice = new Parser(context, scanner).parse();
+		} catch (RuntimeException ex)
+		{
+			// the parser does not recover from some syntax errors; while editing,
+			// the declaration is simply left out of the compilation unit
+			context.listener.onError(tokens.get(item.start).location, "Unable to parse declaration");
+			return;
+		}
+		if (slice == null) return;
+
+		if (item.kind == TokenType.TOK_PACKAGE)
+			item.element = slice;
+		else
+		if (item.kind == TokenType.TOK_DEF && slice.functions.size() == 1)
+			item.element = slice.functions.getFirst();
+		else
+		if (item.kind == TokenType.TOK_VAR && slice.storages().size() == 1)
+			item.element = slice.storages().getFirst();
+		else
+		if (item.kind == TokenType.TOK_STRUCT && slice.structures.size() == 1)
+			item.element = slice.structures.getFirst();
+
+		if (item.element != null) changed.add(item.element);
+	}
+
+	/**
+	 * Parse a declaration whose tokens did not change again, replacing its
+	 * element in the compilation unit (e.g. to discard the types inferred
+	 * from other declarations).
+	 */
+	protected void reparse( Declaration item )
+	{
+		int index = -1;
+		if (item.element instanceof Function)
+			index = unit.functions.indexOf(item.element);
+		else
+		if (item.element instanceof StorageDeclaration)
+			index = unit.storages().indexOf(item.element);
+		else
+		if (item.element instanceof Structure)
+			index = unit.structures.indexOf(item.element);
+		detach(item);
+		parse(item);
+		attach(item, index);
+	}
+
+	/**
+	 * Insert the element of the given declaration in the compilation unit.
+	 *
+	 * @param item
+	 * @param index Position in the corresponding list or -1 to append.
+	 */
+	protected void attach( Declaration item, int index )
+	{
+		if (item.element instanceof Function)
+			insert(unit.functions, (Function) item.element, index);
+		else
+		if (item.element instanceof StorageDeclaration)
+			insert(unit.storages(), (StorageDeclaration) item.element, index);
+		else
+		if (item.element instanceof Structure)
+			insert(unit.structures, (Structure) item.element, index);
+		else
+		if (item.element instanceof CompilationUnit)
+		{
+			CompilationUnit header = (CompilationUnit) item.element;
+			unit.namespace(header.namespace());
+			unit.imports().clear();
+			for (TypeImport entry : header.imports())
+				unit.imports().add(entry);
+		}
+	}
+
+	private static <T extends TreeElement> void insert( TreeElementList<T> list, T value, int index )
+	{
+		if (index < 0 || index >= list.size())
+			list.add(value);
+		else
+		{
+			list.add(index, value);
+			value.parent(list);
+		}
+	}
+
+	/**
+	 * Remove the element of the given declaration from the compilation unit.
+	 */
+	protected void detach( Declaration item )
+	{
+		if (item.element instanceof Function)
+			unit.functions.remove(item.element);
+		else
+		if (item.element instanceof StorageDeclaration)
+			unit.storages().remove(item.element);
+		else
+		if (item.element instanceof Structure)
+			unit.structures.remove(item.element);
+		else
+		if (item.element instanceof CompilationUnit)
+		{
+			unit.namespace(null);
+			unit.imports().clear();
+		}
+	}
+
+	/**
+	 * Top-level declaration and the corresponding range of tokens.
+	 */
+	public static class Declaration
+	{
+
+		/**
+		 * One of {@code TOK_DEF}, {@code TOK_VAR} (variables and constants),
+		 * {@code TOK_STRUCT}, {@code TOK_MSTRING_LITERAL}, {@code TOK_PACKAGE}
+		 * (package and imports) or {@code null} for unrecognized content.
+		 */
+		public TokenType kind;
+
+		/**
+		 * Index of the first token.
+		 */
+		public int start;
+
+		/**
+		 * Index after the last token.
+		 */
+		public int end;
+
+		public TreeElement element;
+
+		public Declaration( int start )
+		{
+			this.start = start;
+		}
+
+		boolean matches( Declaration other, int delta )
+		{
+			return kind == other.kind && start + delta == other.start && end + delta == other.end;
+		}
+
+		static TokenType kindOf( TokenType type )
+		{
+			switch (type)
+			{
+				case TOK_AT:
+				case TOK_DEF:
+				case TOK_VAR:
+				case TOK_STRUCT:
+				case TOK_MSTRING_LITERAL:
+				case TOK_PACKAGE:
+					return type;
+				case TOK_CONST:
+					return TokenType.TOK_VAR;
+				case TOK_IMPORT:
+					return TokenType.TOK_PACKAGE;
+				default:
+					return null;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,856 @@
+package beagle.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.ListIterator;
+
+import beagle.compiler.tree.Argument;
+import beagle.compiler.tree.ArgumentList;
+import beagle.compiler.tree.AtomicExpression;
+import beagle.compiler.tree.BinaryExpression;
+import beagle.compiler.tree.Block;
+import beagle.compiler.tree.BooleanLiteral;
+import beagle.compiler.tree.CompilationUnit;
+import beagle.compiler.tree.ConstantDeclaration;
+import beagle.compiler.tree.ExpressionList;
+import beagle.compiler.tree.ExpressionStmt;
+import beagle.compiler.tree.FloatLiteral;
+import beagle.compiler.tree.ForEachStmt;
+import beagle.compiler.tree.FormalParameter;
+import beagle.compiler.tree.Function;
+import beagle.compiler.tree.IExpression;
+import beagle.compiler.tree.IStatement;
+import beagle.compiler.tree.IfThenElseStmt;
+import beagle.compiler.tree.IntegerLiteral;
+import beagle.compiler.tree.Literal;
+import beagle.compiler.tree.Name;
+import beagle.compiler.tree.NameLiteral;
+import beagle.compiler.tree.NullLiteral;
+import beagle.compiler.tree.ReturnStmt;
+import beagle.compiler.tree.StorageDeclaration;
+import beagle.compiler.tree.StringLiteral;
+import beagle.compiler.tree.Structure;
+import beagle.compiler.tree.TreeVisitor;
+import beagle.compiler.tree.TypeReference;
+import beagle.compiler.tree.UnaryExpression;
+import beagle.compiler.tree.UnaryExpression.UnaryDirection;
+import beagle.compiler.tree.VariableDeclaration;
+
+/**
+ * Inlining of small functions.
+ *
+ * Calls to leaf functions whose body is a single 'return' of a small
+ * expression (no calls, assignments or increments) are replaced by a copy of
+ * that expression with the arguments in place of the parameters. Larger
+ * expressions are only inlined when the function has few call sites.
+ * Arguments must have the type of their parameter, so no conversion is lost,
+ * and an argument with operators must be used exactly once and have no side
+ * effects, so it is evaluated as in the call.
+ *
+ * The other small functions, not recursive and defined before their callers,
+ * are marked to be generated as 'static inline' so the C compiler is free to
+ * inline them. Functions whose calls were all inlined are removed by the dead
+ * code elimination.
+ *
+ * With a profile ('-profile-use'), larger expressions of hot functions are
+ * inlined regardless of their call sites and functions never called are
+ * left alone.
+ *
+ * Runs before the constant folding, which then folds the inlined arguments.
+ */
+public class Inliner
+{
+
+	/**
+	 * Size (in expression nodes) of the functions always inlined.
+	 */
+	static final int INLINE_SIZE = 12;
+
+	/**
+	 * Size of the functions inlined when they have at most
+	 * {@link #FEW_CALLS} call sites.
+	 */
+	static final int INLINE_SIZE_FEW_CALLS = 32;
+
+	static final int FEW_CALLS = 2;
+
+	/**
+	 * Size (in statements and expression nodes) of the functions marked as
+	 * 'static inline'.
+	 */
+	static final int STATIC_INLINE_SIZE = 40;
+
+	/**
+	 * Inlined expressions may contain calls to inlined functions, so the unit
+	 * is processed again a few times.
+	 */
+	static final int MAX_ROUNDS = 3;
+
+	CompilationContext context;
+
+	HashMap<String, Function> functions;
+
+	HashMap<String, Structure> structures;
+
+	/**
+	 * Call sites of each function in the unit.
+	 */
+	HashMap<Function, Integer> calls;
+
+	int inlined;
+
+	// state of the function being processed
+
+	Function caller;
+
+	HashMap<String, TypeReference> declarations;
+
+	public Inliner( CompilationContext context )
+	{
+		this.context = context;
+	}
+
+	public void inline( CompilationUnit unit )
+	{
+		functions = new HashMap<>();
+		structures = new HashMap<>();
+		for (Function item : unit.functions)
+			functions.put(item.name().qualifiedName(), item);
+		for (Structure item : unit.structures)
+			structures.put(item.name.qualifiedName(), item);
+
+		int candidates = 0;
+		for (Function item : unit.functions)
+			if (expression(item) != null) ++candidates;
+
+		inlined = 0;
+		for (int round = 0; round < MAX_ROUNDS; ++round)
+		{
+			int previous = inlined;
+			count(unit);
+			for (Function item : unit.functions)
+				inline(item);
+			if (inlined == previous) break;
+		}
+
+		// the call sites left after inlining
+		count(unit);
+		int marked = 0;
+		// functions of libraries must stay visible to the code linked with them
+		boolean library = DeadCodeElimination.isLibrary(unit);
+		for (int i = 0; i < unit.functions.size() && !library; ++i)
+		{
+			Function item = unit.functions.get(i);
+			if (isStaticInline(unit, i))
+			{
+				item.inline = true;
+				++marked;
+			}
+		}
+
+		Statistics stats = context.statistics;
+		stats.set("inline.candidates", candidates);
+		stats.set("inline.calls", inlined);
+		stats.set("inline.static", marked);
+	}
+
+	/**
+	 * Counts the call sites of every function.
+	 */
+	void count( CompilationUnit unit )
+	{
+		calls = new HashMap<>();
+		for (Function item : unit.functions)
+		{
+			if (item.body() == null) continue;
+			Collector collector = new Collector();
+			item.accept(collector);
+			for (UnaryExpression call : collector.calls)
+			{
+				Function callee = callee(call, collector.declarations);
+				if (callee != null) calls.merge(callee, 1, Integer::sum);
+			}
+		}
+	}
+
+	/**
+	 * Whether the function at the given index should be generated as
+	 * 'static inline' (only in units with entry points). C requires the function to be declared before its
+	 * calls, and the prototypes are not generated, so every caller must come
+	 * after it.
+	 */
+	boolean isStaticInline( CompilationUnit unit, int index )
+	{
+		Function function = unit.functions.get(index);
+		if (function.body() == null || DeadCodeElimination.isEntryPoint(function) || isCold(function)) return false;
+		if (!calls.containsKey(function)) return false;
+
+		Counter counter = new Counter();
+		function.accept(counter);
+		if (counter.size > STATIC_INLINE_SIZE) return false;
+
+		for (int i = 0; i <= index; ++i)
+		{
+			Function item = unit.functions.get(i);
+			if (item.body() == null) continue;
+			Collector collector = new Collector();
+			item.accept(collector);
+			for (UnaryExpression call : collector.calls)
+				if (callee(call, collector.declarations) == function) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the function called by the given expression or {@code null}
+	 * if it is not a call to a function of the unit.
+	 */
+	Function callee( UnaryExpression call, HashMap<String, TypeReference> declarations )
+	{
+		if (call.operation() != TokenType.TOK_LEFT_PAR || !(call.expression() instanceof NameLiteral)) return null;
+		String name = ((NameLiteral) call.expression()).value().qualifiedName();
+		if (declarations.containsKey(name)) return null;
+		return functions.get(name);
+	}
+
+	/**
+	 * Returns the expression returned by the function if it can be inlined
+	 * or {@code null}.
+	 */
+	IExpression expression( Function function )
+	{
+		Block body = function.body();
+		if (body == null || body.size() != 1 || !(body.getFirst() instanceof ReturnStmt)) return null;
+		if (Annotations.has(function.annotations(), Annotations.ARENA)) return null;
+		if (isCold(function)) return null;
+		if (!isInlinable(function.returnType())) return null;
+		if (function.parameters() != null)
+		{
+			for (FormalParameter item : function.parameters())
+				if (item.type() == null || isNarrow(item.type())) return null;
+		}
+
+		IExpression expr = ((ReturnStmt) body.getFirst()).expression();
+		if (expr == null || size(expr) < 0) return null;
+		return expr;
+	}
+
+	boolean isHot( Function function )
+	{
+		return context.profile != null && context.profile.isHot(function.name().qualifiedName());
+	}
+
+	/**
+	 * Functions never called in the profile are not worth their code size.
+	 */
+	boolean isCold( Function function )
+	{
+		return context.profile != null && context.profile.isCold(function.name().qualifiedName());
+	}
+
+	/**
+	 * Returned values are copied by the caller as is: references would need
+	 * the ownership of the returned instance.
+	 */
+	static boolean isInlinable( TypeReference type )
+	{
+		return type != null && type.isPrimitive && !isNarrow(type);
+	}
+
+	/**
+	 * Operations on 8 and 16 bit integers are done in 'int' by C and only
+	 * truncated when returned.
+	 */
+	static boolean isNarrow( TypeReference type )
+	{
+		return type == TypeReference.INT8 || type == TypeReference.INT16 ||
+			type == TypeReference.UINT8 || type == TypeReference.UINT16;
+	}
+
+	/**
+	 * Returns the number of nodes of an expression that can be copied or -1
+	 * if it contains calls (other than vector constructors), assignments,
+	 * increments or other expressions that can not be copied.
+	 */
+	static int size( IExpression expr )
+	{
+		if (expr == null) return 0;
+		if (expr instanceof NameLiteral || expr instanceof NullLiteral || ConstantFolding.isConstant(expr)) return 1;
+		if (expr instanceof AtomicExpression)
+			return size(((AtomicExpression) expr).value());
+		if (expr instanceof BinaryExpression)
+		{
+			BinaryExpression binary = (BinaryExpression) expr;
+			if (ConstantFolding.isAssignment(binary.operation())) return -1;
+			int left = size(binary.left());
+			int right = size(binary.right());
+			return (left < 0 || right < 0) ? -1 : left + right + 1;
+		}
+		if (expr instanceof ArgumentList)
+		{
+			int result = 0;
+			for (Argument item : (ArgumentList) expr)
+			{
+				if (item == null || item.name() != null) return -1;
+				int current = size(item.value());
+				if (current < 0) return -1;
+				result += current;
+			}
+			return result;
+		}
+		if (expr instanceof UnaryExpression)
+		{
+			UnaryExpression unary = (UnaryExpression) expr;
+			TokenType operation = unary.operation();
+			if (operation == TokenType.TOK_INC || operation == TokenType.TOK_DEC) return -1;
+			if (operation == TokenType.TOK_LEFT_PAR && !isVector(unary.expression())) return -1;
+			int operand = size(unary.expression());
+			int extra = size(unary.extra());
+			return (operand < 0 || extra < 0) ? -1 : operand + extra + 1;
+		}
+		return -1;
+	}
+
+	static boolean isVector( IExpression expr )
+	{
+		return expr instanceof NameLiteral && TypeReference.fromName(((NameLiteral) expr).value()).isVector();
+	}
+
+	void inline( Function function )
+	{
+		if (function.body() == null) return;
+		caller = function;
+		Collector collector = new Collector();
+		function.accept(collector);
+		declarations = collector.declarations;
+		inline(function.body());
+		caller = null;
+	}
+
+	void inline( IStatement statement )
+	{
+		if (statement == null) return;
+
+		if (statement instanceof Block)
+		{
+			for (IStatement item : (Block) statement)
+				inline(item);
+		}
+		else
+		if (statement instanceof StorageDeclaration)
+		{
+			StorageDeclaration storage = (StorageDeclaration) statement;
+			storage.initializer(inline(storage.initializer()));
+		}
+		else
+		if (statement instanceof IfThenElseStmt)
+		{
+			IfThenElseStmt cond = (IfThenElseStmt) statement;
+			cond.condition(inline(cond.condition()));
+			inline(cond.thenSide());
+			inline(cond.elseSide());
+		}
+		else
+		if (statement instanceof ExpressionStmt)
+		{
+			// also handles 'return'
+			ExpressionStmt stmt = (ExpressionStmt) statement;
+			stmt.expression(inline(stmt.expression()));
+		}
+		else
+		if (statement instanceof ForEachStmt)
+		{
+			ForEachStmt stmt = (ForEachStmt) statement;
+			stmt.expression = inline(stmt.expression);
+			inline(stmt.statement);
+		}
+	}
+
+	/**
+	 * Inline the calls in the given expression (innermost first).
+	 *
+	 * @return The expression to be used in place of the given one (possibly the same).
+	 */
+	IExpression inline( IExpression expr )
+	{
+		if (expr == null) return null;
+
+		if (expr instanceof AtomicExpression)
+		{
+			AtomicExpression atomic = (AtomicExpression) expr;
+			atomic.value(inline(atomic.value()));
+		}
+		else
+		if (expr instanceof BinaryExpression)
+		{
+			BinaryExpression binary = (BinaryExpression) expr;
+			// the left side of assignments is a storage and must not be replaced
+			if (!ConstantFolding.isAssignment(binary.operation())) binary.left(inline(binary.left()));
+			binary.right(inline(binary.right()));
+		}
+		else
+		if (expr instanceof UnaryExpression)
+		{
+			UnaryExpression unary = (UnaryExpression) expr;
+			TokenType operation = unary.operation();
+			if (operation == TokenType.TOK_INC || operation == TokenType.TOK_DEC) return expr;
+			if (operation == TokenType.TOK_LEFT_PAR || operation == TokenType.TOK_LEFT_BRACKET)
+			{
+				if (unary.extra() != null) unary.extra(inline(unary.extra()));
+				if (operation == TokenType.TOK_LEFT_PAR) return inlineCall(unary);
+			}
+			else
+				unary.expression(inline(unary.expression()));
+		}
+		else
+		if (expr instanceof ArgumentList)
+		{
+			for (Argument item : (ArgumentList) expr)
+				if (item != null) item.value(inline(item.value()));
+		}
+		else
+		if (expr instanceof ExpressionList)
+		{
+			for (ListIterator<IExpression> it = ((ExpressionList) expr).listIterator(); it.hasNext();)
+				it.set(inline(it.next()));
+		}
+		return expr;
+	}
+
+	IExpression inlineCall( UnaryExpression call )
+	{
+		Function callee = callee(call, declarations);
+		if (callee == null || callee == caller) return call;
+		IExpression body = expression(callee);
+		if (body == null) return call;
+		int size = size(body);
+		if (size > INLINE_SIZE_FEW_CALLS) return call;
+		if (size > INLINE_SIZE && calls.getOrDefault(callee, 0) > FEW_CALLS && !isHot(callee)) return call;
+
+		ArrayList<IExpression> arguments = new ArrayList<>();
+		if (call.extra() instanceof ArgumentList)
+		{
+			for (Argument item : (ArgumentList) call.extra())
+			{
+				// named arguments are not supported
+				if (item == null || item.name() != null) return call;
+				arguments.add(item.value());
+			}
+		}
+		else
+		if (call.extra() != null)
+			arguments.add(call.extra());
+		int count = (callee.parameters() == null) ? 0 : callee.parameters().size();
+		if (arguments.size() != count) return call;
+
+		HashMap<String, IExpression> values = new HashMap<>();
+		for (int i = 0; i < count; ++i)
+		{
+			FormalParameter parameter = callee.parameters().get(i);
+			IExpression argument = arguments.get(i);
+			String name = parameter.name().qualifiedName();
+			if (!isSameType(parameter.type(), typeOf(argument))) return call;
+
+			int[] uses = uses(body, name);
+			boolean simple = isSimple(argument);
+			// fields are accessed through the name of the argument
+			if (uses[1] > 0 && !(CodeGenerator.strip(argument) instanceof NameLiteral)) return call;
+			if (!simple && (uses[0] > 1 || !isPure(argument))) return call;
+			// instances are borrowed by the callee, not owned
+			if (CodeGenerator.isReference(parameter.type()) && !simple) return call;
+			values.put(name, argument);
+		}
+
+		// the names used by the callee (e.g. globals) must not be hidden by the caller
+		for (String name : freeNames(body, values))
+			if (declarations.containsKey(name)) return call;
+
+		++inlined;
+		IExpression result = new AtomicExpression(substitute(body, values));
+		((AtomicExpression) result).location(call.location());
+		return ConstantFolding.replace(call, result);
+	}
+
+	static boolean isSameType( TypeReference a, TypeReference b )
+	{
+		// primitive types are unique instances
+		return a == b || (a != null && a.equals(b));
+	}
+
+	/**
+	 * Literals and names (including fields) can be evaluated any number of
+	 * times.
+	 */
+	static boolean isSimple( IExpression expr )
+	{
+		expr = CodeGenerator.strip(expr);
+		return expr instanceof NameLiteral || expr instanceof NullLiteral || ConstantFolding.isConstant(expr);
+	}
+
+	/**
+	 * Whether the evaluation of the expression has no side effects (and so it
+	 * can be dropped).
+	 */
+	static boolean isPure( IExpression expr )
+	{
+		return size(expr) >= 0;
+	}
+
+	/**
+	 * Returns how many times the parameter is used by itself and as the
+	 * object of a field access.
+	 */
+	static int[] uses( IExpression expr, String name )
+	{
+		int[] result = new int[2];
+		uses(expr, name, result);
+		return result;
+	}
+
+	static void uses( IExpression expr, String name, int[] result )
+	{
+		if (expr == null) return;
+		if (expr instanceof NameLiteral)
+		{
+			Name value = ((NameLiteral) expr).value();
+			if (!value.name(0).equals(name)) return;
+			if (value.isQualified())
+				++result[1];
+			else
+				++result[0];
+		}
+		else
+		if (expr instanceof AtomicExpression)
+			uses(((AtomicExpression) expr).value(), name, result);
+		else
+		if (expr instanceof BinaryExpression)
+		{
+			BinaryExpression binary = (BinaryExpression) expr;
+			uses(binary.left(), name, result);
+			// the right side of type tests is a structure
+			if (!isTypeTest(binary)) uses(binary.right(), name, result);
+		}
+		else
+		if (expr instanceof UnaryExpression)
+		{
+			UnaryExpression unary = (UnaryExpression) expr;
+			// the callee of vector constructors is a type
+			if (unary.operation() != TokenType.TOK_LEFT_PAR) uses(unary.expression(), name, result);
+			uses(unary.extra(), name, result);
+		}
+		else
+		if (expr instanceof ArgumentList)
+		{
+			for (Argument item : (ArgumentList) expr)
+				uses(item.value(), name, result);
+		}
+	}
+
+	/**
+	 * Returns the names (the first part of qualified ones) used by the
+	 * expression that are not parameters.
+	 */
+	static ArrayList<String> freeNames( IExpression expr, HashMap<String, IExpression> parameters )
+	{
+		ArrayList<String> result = new ArrayList<>();
+		freeNames(expr, parameters, result);
+		return result;
+	}
+
+	static void freeNames( IExpression expr, HashMap<String, IExpression> parameters, ArrayList<String> result )
+	{
+		if (expr == null) return;
+		if (expr instanceof NameLiteral)
+		{
+			String name = ((NameLiteral) expr).value().name(0);
+			if (!parameters.containsKey(name)) result.add(name);
+		}
+		else
+		if (expr instanceof AtomicExpression)
+			freeNames(((AtomicExpression) expr).value(), parameters, result);
+		else
+		if (expr instanceof BinaryExpression)
+		{
+			BinaryExpression binary = (BinaryExpression) expr;
+			freeNames(binary.left(), parameters, result);
+			if (!isTypeTest(binary)) freeNames(binary.right(), parameters, result);
+		}
+		else
+		if (expr instanceof UnaryExpression)
+		{
+			UnaryExpression unary = (UnaryExpression) expr;
+			if (unary.operation() != TokenType.TOK_LEFT_PAR) freeNames(unary.expression(), parameters, result);
+			freeNames(unary.extra(), parameters, result);
+		}
+		else
+		if (expr instanceof ArgumentList)
+		{
+			for (Argument item : (ArgumentList) expr)
+				freeNames(item.value(), parameters, result);
+		}
+	}
+
+	static boolean isTypeTest( BinaryExpression expr )
+	{
+		return expr.operation() == TokenType.TOK_IS || expr.operation() == TokenType.TOK_NIS;
+	}
+
+	/**
+	 * Returns a copy of the expression with the arguments in place of the
+	 * parameters (tree nodes can not be shared).
+	 */
+	static IExpression substitute( IExpression expr, HashMap<String, IExpression> values )
+	{
+		if (expr == null) return null;
+
+		if (expr instanceof NameLiteral)
+		{
+			Name name = ((NameLiteral) expr).value();
+			IExpression value = values.get(name.name(0));
+			if (value == null) return copy(name, expr);
+			if (name.isQualified())
+			{
+				// 'p.field' with 'p = object' is 'object.field'
+				Name object = ((NameLiteral) CodeGenerator.strip(value)).value();
+				Name result = new Name(object.name(0));
+				for (int i = 1; i < object.count(); ++i)
+					result.append(object.name(i));
+				for (int i = 1; i < name.count(); ++i)
+					result.append(name.name(i));
+				return copy(result, expr);
+			}
+			value = duplicate(value);
+			return (isSimple(value)) ? value : new AtomicExpression(value);
+		}
+		if (expr instanceof Literal && !(expr instanceof AtomicExpression))
+			return ConstantFolding.copy((Literal<?>) expr);
+		if (expr instanceof NullLiteral)
+			return new NullLiteral();
+		if (expr instanceof AtomicExpression)
+			return new AtomicExpression(substitute(((AtomicExpression) expr).value(), values));
+		if (expr instanceof BinaryExpression)
+		{
+			BinaryExpression binary = (BinaryExpression) expr;
+			IExpression right = (isTypeTest(binary)) ? duplicate(binary.right()) : substitute(binary.right(), values);
+			return new BinaryExpression(substitute(binary.left(), values), binary.operation(), right);
+		}
+		if (expr instanceof ArgumentList)
+		{
+			ArgumentList result = new ArgumentList();
+			for (Argument item : (ArgumentList) expr)
+				result.add(new Argument(null, substitute(item.value(), values)));
+			return result;
+		}
+
+		UnaryExpression unary = (UnaryExpression) expr;
+		IExpression operand = (unary.operation() == TokenType.TOK_LEFT_PAR) ?
+			duplicate(unary.expression()) : substitute(unary.expression(), values);
+		UnaryExpression result = (unary.direction() == UnaryDirection.PREFIX) ?
+			new UnaryExpression(unary.operation(), operand) : new UnaryExpression(operand, unary.operation());
+		result.extra(substitute(unary.extra(), values));
+		return result;
+	}
+
+	static IExpression duplicate( IExpression expr )
+	{
+		return substitute(expr, new HashMap<>());
+	}
+
+	static NameLiteral copy( Name name, IExpression original )
+	{
+		NameLiteral result = new NameLiteral(name);
+		result.location(original.location());
+		return result;
+	}
+
+	/**
+	 * Returns the type of the argument, or {@code null} if it is not known.
+	 */
+	TypeReference typeOf( IExpression expr )
+	{
+		expr = CodeGenerator.strip(expr);
+		if (expr instanceof IntegerLiteral || expr instanceof FloatLiteral)
+			return ((Literal<?>) expr).type();
+		if (expr instanceof BooleanLiteral)
+			return TypeReference.BOOL;
+		if (expr instanceof StringLiteral)
+			return TypeReference.STRING;
+		if (expr instanceof NameLiteral)
+		{
+			Name name = ((NameLiteral) expr).value();
+			TypeReference type = declarations.get(name.name(0));
+			for (int i = 1; i < name.count() && type != null; ++i)
+				type = fieldType(type, name.name(i));
+			return type;
+		}
+		if (expr instanceof BinaryExpression)
+		{
+			BinaryExpression binary = (BinaryExpression) expr;
+			switch (binary.operation())
+			{
+				case TOK_EQ:
+				case TOK_NE:
+				case TOK_LT:
+				case TOK_LE:
+				case TOK_GT:
+				case TOK_GE:
+				case TOK_AND:
+				case TOK_OR:
+				case TOK_IS:
+				case TOK_NIS:
+					return TypeReference.BOOL;
+				default:
+					TypeReference left = typeOf(binary.left());
+					TypeReference right = typeOf(binary.right());
+					return (isSameType(left, right)) ? left : null;
+			}
+		}
+		if (expr instanceof UnaryExpression)
+		{
+			UnaryExpression unary = (UnaryExpression) expr;
+			switch (unary.operation())
+			{
+				case TOK_NOT:
+				case TOK_BANG:
+					return TypeReference.BOOL;
+				case TOK_MINUS:
+				case TOK_TILDE:
+					return typeOf(unary.expression());
+				case TOK_LEFT_PAR:
+					if (isVector(unary.expression()) && !declarations.containsKey(((NameLiteral) unary.expression()).value().qualifiedName()))
+						return TypeReference.fromName(((NameLiteral) unary.expression()).value());
+					Function callee = callee(unary, declarations);
+					return (callee != null) ? callee.returnType() : null;
+				default:
+					return null;
+			}
+		}
+		return null;
+	}
+
+	TypeReference fieldType( TypeReference type, String field )
+	{
+		Structure structure = structures.get(type.qualifiedName());
+		while (structure != null)
+		{
+			for (StorageDeclaration item : structure.body.storages)
+				if (item.name().qualifiedName().equals(field)) return item.type();
+			structure = (structure.parent != null) ? structures.get(structure.parent.qualifiedName()) : null;
+		}
+		return null;
+	}
+
+	/**
+	 * Collects the declarations and the calls of a function.
+	 */
+	static class Collector extends TreeVisitor
+	{
+
+		HashMap<String, TypeReference> declarations = new HashMap<>();
+
+		ArrayList<UnaryExpression> calls = new ArrayList<>();
+
+		@Override
+		public boolean visit( FormalParameter target )
+		{
+			declarations.put(target.name().qualifiedName(), target.type());
+			return true;
+		}
+
+		@Override
+		public boolean visit( VariableDeclaration target )
+		{
+			declarations.put(target.name().qualifiedName(), target.type());
+			return true;
+		}
+
+		@Override
+		public boolean visit( ConstantDeclaration target )
+		{
+			declarations.put(target.name().qualifiedName(), target.type());
+			return true;
+		}
+
+		@Override
+		public boolean visit( ForEachStmt target )
+		{
+			if (target.iterator != null) declarations.put(target.iterator.name().qualifiedName(), target.iterator.type());
+			return true;
+		}
+
+		@Override
+		public boolean visit( UnaryExpression target )
+		{
+			if (target.operation() == TokenType.TOK_LEFT_PAR) calls.add(target);
+			return true;
+		}
+
+	}
+
+	/**
+	 * Counts the statements and expression nodes of a function.
+	 */
+	static class Counter extends TreeVisitor
+	{
+
+		int size = 0;
+
+		@Override
+		public boolean visit( ExpressionStmt target )
+		{
+			++size;
+			return true;
+		}
+
+		@Override
+		public boolean visit( VariableDeclaration target )
+		{
+			++size;
+			return true;
+		}
+
+		@Override
+		public boolean visit( ConstantDeclaration target )
+		{
+			++size;
+			return true;
+		}
+
+		@Override
+		public boolean visit( IfThenElseStmt target )
+		{
+			++size;
+			return true;
+		}
+
+		@Override
+		public boolean visit( ForEachStmt target )
+		{
+			++size;
+			return true;
+		}
+
+		@Override
+		public boolean visit( BinaryExpression target )
+		{
+			++size;
+			return true;
+		}
+
+		@Override
+		public boolean visit( UnaryExpression target )
+		{
+			++size;
+			return true;
+		}
+
+		@Override
+		public boolean visit( NameLiteral target )
+		{
+			++size;
+			return true;
+		}
+
+	}
+
+}
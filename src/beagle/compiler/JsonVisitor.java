@@ -0,0 +1,479 @@
+package beagle.compiler;
+
+import java.io.PrintStream;
+
+import beagle.compiler.tree.Annotation;
+import beagle.compiler.tree.AnnotationList;
+import beagle.compiler.tree.Argument;
+import beagle.compiler.tree.ArgumentList;
+import beagle.compiler.tree.AtomicExpression;
+import beagle.compiler.tree.BinaryExpression;
+import beagle.compiler.tree.Block;
+import beagle.compiler.tree.BooleanLiteral;
+import beagle.compiler.tree.CompilationUnit;
+import beagle.compiler.tree.ExpressionList;
+import beagle.compiler.tree.ExpressionStmt;
+import beagle.compiler.tree.FloatLiteral;
+import beagle.compiler.tree.ForEachStmt;
+import beagle.compiler.tree.FormalParameter;
+import beagle.compiler.tree.FormalParameterList;
+import beagle.compiler.tree.Function;
+import beagle.compiler.tree.IExpression;
+import beagle.compiler.tree.IStatement;
+import beagle.compiler.tree.ITreeElement;
+import beagle.compiler.tree.IfThenElseStmt;
+import beagle.compiler.tree.IntegerLiteral;
+import beagle.compiler.tree.Modifiers;
+import beagle.compiler.tree.Name;
+import beagle.compiler.tree.NameLiteral;
+import beagle.compiler.tree.NullLiteral;
+import beagle.compiler.tree.ReturnStmt;
+import beagle.compiler.tree.StorageDeclaration;
+import beagle.compiler.tree.StringLiteral;
+import beagle.compiler.tree.Structure;
+import beagle.compiler.tree.TypeBody;
+import beagle.compiler.tree.TypeDeclaration;
+import beagle.compiler.tree.TypeImport;
+import beagle.compiler.tree.TypeReference;
+import beagle.compiler.tree.UnaryExpression;
+
+/**
+ * Dumps the AST as newline delimited JSON.
+ *
+ * Every top-level element of a compilation unit (package, imports,
+ * structures, global storages, functions and types) is written as a single
+ * line containing a JSON object, so tools can process the output as it is
+ * produced. Each object has a 'node' field with the name of the AST class
+ * and the top-level ones also have a 'file' field.
+ */
+public class JsonVisitor
+{
+
+	PrintStream out;
+
+	public JsonVisitor( PrintStream out )
+	{
+		this.out = out;
+	}
+
+	public void print( CompilationUnit target )
+	{
+		String fileName = target.fileName();
+
+		if (target.namespace() != null)
+		{
+			begin(fileName, target.namespace());
+			field("name", target.namespace().qualifiedName());
+			end();
+		}
+
+		for (TypeImport item : target.imports())
+		{
+			begin(fileName, item);
+			if (item.namespace() != null) field("package", item.namespace().qualifiedName());
+			printName("name", item.name());
+			printName("alias", item.alias());
+			end();
+		}
+
+		for (Structure item : target.structures)
+		{
+			begin(fileName, item);
+			printStructure(item);
+			end();
+		}
+
+		for (StorageDeclaration item : target.storages())
+		{
+			begin(fileName, item);
+			printStorage(item);
+			end();
+		}
+
+		for (Function item : target.functions)
+		{
+			begin(fileName, item);
+			printFunction(item);
+			end();
+		}
+
+		for (TypeDeclaration item : target.types())
+		{
+			begin(fileName, item);
+			printAnnotationList(item.annotations());
+			printModifiers(item.modifiers());
+			printName("name", item.name());
+			if (item.extended() != null && item.extended().size() > 0)
+			{
+				key("inherit");
+				out.append('[');
+				int count = 0;
+				for (TypeReference type : item.extended())
+				{
+					if (count++ > 0) out.append(',');
+					string(type.qualifiedName());
+				}
+				out.append(']');
+			}
+			printTypeBody(item.body());
+			end();
+		}
+
+		out.flush();
+	}
+
+	/**
+	 * Start a top-level object.
+	 */
+	protected void begin( String fileName, ITreeElement target )
+	{
+		out.append("{\"file\":");
+		string(fileName);
+		out.append(",\"node\":");
+		string(target.getClass().getSimpleName());
+		printLine(target);
+	}
+
+	/**
+	 * Finish a top-level object.
+	 */
+	protected void end()
+	{
+		out.append("}\n");
+	}
+
+	/**
+	 * Start a nested object.
+	 */
+	protected void open( ITreeElement target )
+	{
+		out.append("{\"node\":");
+		string(target.getClass().getSimpleName());
+		printLine(target);
+	}
+
+	protected void close()
+	{
+		out.append('}');
+	}
+
+	protected void key( String name )
+	{
+		out.append(",\"");
+		out.append(name);
+		out.append("\":");
+	}
+
+	protected void field( String name, String value )
+	{
+		key(name);
+		string(value);
+	}
+
+	/**
+	 * Write the given text as a JSON string.
+	 */
+	protected void string( String value )
+	{
+		if (value == null)
+		{
+			out.append("null");
+			return;
+		}
+
+		out.append('"');
+		// unescaped characters are written in runs
+		int start = 0;
+		for (int i = 0; i < value.length(); ++i)
+		{
+			char current = value.charAt(i);
+			if (current >= ' ' && current != '"' && current != '\\') continue;
+
+			if (start < i) out.append(value, start, i);
+			start = i + 1;
+			switch (current)
+			{
+				case '"': out.append("\\\""); break;
+				case '\\': out.append("\\\\"); break;
+				case '\n': out.append("\\n"); break;
+				case '\r': out.append("\\r"); break;
+				case '\t': out.append("\\t"); break;
+				default:
+					out.append("\\u00");
+					out.append(Character.forDigit(current >> 4, 16));
+					out.append(Character.forDigit(current & 0xF, 16));
+			}
+		}
+		if (start < value.length()) out.append(value, start, value.length());
+		out.append('"');
+	}
+
+	protected void printLine( ITreeElement target )
+	{
+		SourceLocation location = target.location();
+		if (location == null) return;
+		key("line");
+		out.print(location.getLine());
+	}
+
+	public void printName( String name, Name target )
+	{
+		if (target == null) return;
+		field(name, target.qualifiedName());
+	}
+
+	public void printTypeReference( String name, TypeReference target )
+	{
+		if (target == null) return;
+		field(name, target.qualifiedName());
+	}
+
+	public void printModifiers( Modifiers target )
+	{
+		if (target == null) return;
+		key("modifiers");
+		out.print(target.modifiers());
+	}
+
+	public void printAnnotationList( AnnotationList target )
+	{
+		if (target == null || target.size() == 0) return;
+
+		key("annotations");
+		out.append('[');
+		int count = 0;
+		for (Annotation item : target)
+		{
+			if (count++ > 0) out.append(',');
+			string(item.type().qualifiedName());
+		}
+		out.append(']');
+	}
+
+	public void printStructure( Structure target )
+	{
+		printName("name", target.name);
+		printTypeReference("parent", target.parent);
+		printTypeBody(target.body);
+	}
+
+	public void printTypeBody( TypeBody target )
+	{
+		if (target == null) return;
+
+		if (target.storages.size() > 0)
+		{
+			key("storages");
+			out.append('[');
+			int count = 0;
+			for (StorageDeclaration item : target.storages)
+			{
+				if (count++ > 0) out.append(',');
+				open(item);
+				printStorage(item);
+				close();
+			}
+			out.append(']');
+		}
+
+		if (target.functions.size() > 0)
+		{
+			key("functions");
+			out.append('[');
+			int count = 0;
+			for (Function item : target.functions)
+			{
+				if (count++ > 0) out.append(',');
+				open(item);
+				printFunction(item);
+				close();
+			}
+			out.append(']');
+		}
+	}
+
+	public void printStorage( StorageDeclaration target )
+	{
+		printAnnotationList(target.annotations());
+		printModifiers(target.modifiers());
+		printName("name", target.name());
+		printTypeReference("type", target.type());
+		printExpression("initializer", target.initializer());
+	}
+
+	public void printFormalParameterList( FormalParameterList target )
+	{
+		if (target == null) return;
+
+		key("parameters");
+		out.append('[');
+		int count = 0;
+		for (FormalParameter item : target)
+		{
+			if (count++ > 0) out.append(',');
+			open(item);
+			printName("name", item.name());
+			printTypeReference("type", item.type());
+			close();
+		}
+		out.append(']');
+	}
+
+	public void printFunction( Function target )
+	{
+		printAnnotationList(target.annotations());
+		printModifiers(target.modifiers());
+		printName("name", target.name());
+		printFormalParameterList(target.parameters());
+		printTypeReference("returnType", target.returnType());
+		printStatement("body", target.body());
+	}
+
+	protected void printStatement( String name, IStatement stmt )
+	{
+		if (stmt == null) return;
+
+		if (name != null) key(name);
+		open(stmt);
+
+		if (stmt instanceof ReturnStmt)
+		{
+			printExpression("value", ((ReturnStmt)stmt).expression());
+		}
+		else
+		if (stmt instanceof IfThenElseStmt)
+		{
+			printExpression("condition", ((IfThenElseStmt)stmt).condition());
+			printStatement("then", ((IfThenElseStmt)stmt).thenSide());
+			printStatement("else", ((IfThenElseStmt)stmt).elseSide());
+		}
+		else
+		if (stmt instanceof Block)
+		{
+			key("statements");
+			out.append('[');
+			int count = 0;
+			for (IStatement item : (Block)stmt)
+			{
+				if (item == null) continue;
+				if (count++ > 0) out.append(',');
+				printStatement(null, item);
+			}
+			out.append(']');
+		}
+		else
+		if (stmt instanceof StorageDeclaration)
+		{
+			printStorage((StorageDeclaration)stmt);
+		}
+		else
+		if (stmt instanceof ExpressionStmt)
+		{
+			printExpression("expression", ((ExpressionStmt)stmt).expression());
+		}
+		else
+		if (stmt instanceof ForEachStmt)
+		{
+			ForEachStmt forEach = (ForEachStmt)stmt;
+			printStatement("iterator", forEach.iterator);
+			printExpression("expression", forEach.expression);
+			printStatement("statement", forEach.statement);
+		}
+
+		close();
+	}
+
+	protected void printExpression( String name, IExpression expr )
+	{
+		if (expr == null) return;
+
+		if (name != null) key(name);
+		open(expr);
+
+		if (expr instanceof NameLiteral)
+		{
+			printName("value", ((NameLiteral)expr).value());
+		}
+		else
+		if (expr instanceof StringLiteral)
+		{
+			field("value", ((StringLiteral)expr).value());
+		}
+		else
+		if (expr instanceof IntegerLiteral)
+		{
+			key("value");
+			out.print(((IntegerLiteral)expr).value().longValue());
+		}
+		else
+		if (expr instanceof FloatLiteral)
+		{
+			key("value");
+			out.print(((FloatLiteral)expr).value().floatValue());
+		}
+		else
+		if (expr instanceof BooleanLiteral)
+		{
+			key("value");
+			out.print(((BooleanLiteral)expr).value().booleanValue());
+		}
+		else
+		if (expr instanceof NullLiteral)
+		{
+			// no fields
+		}
+		else
+		if (expr instanceof AtomicExpression)
+		{
+			printExpression("expression", ((AtomicExpression)expr).value());
+		}
+		else
+		if (expr instanceof UnaryExpression)
+		{
+			field("operation", ((UnaryExpression)expr).operation().toString());
+			printExpression("expression", ((UnaryExpression)expr).expression());
+			printExpression("right", ((UnaryExpression)expr).extra());
+		}
+		else
+		if (expr instanceof BinaryExpression)
+		{
+			field("operation", ((BinaryExpression)expr).operation().toString());
+			printExpression("left", ((BinaryExpression)expr).left());
+			printExpression("right", ((BinaryExpression)expr).right());
+		}
+		else
+		if (expr instanceof ExpressionList)
+		{
+			key("expressions");
+			out.append('[');
+			int count = 0;
+			for (IExpression item : ((ExpressionList)expr))
+			{
+				if (item == null) continue;
+				if (count++ > 0) out.append(',');
+				printExpression(null, item);
+			}
+			out.append(']');
+		}
+		else
+		if (expr instanceof ArgumentList)
+		{
+			key("arguments");
+			out.append('[');
+			int count = 0;
+			for (Argument item : ((ArgumentList)expr))
+			{
+				if (item == null) continue;
+				if (count++ > 0) out.append(',');
+				open(item);
+				printName("name", item.name());
+				printExpression("value", item.value());
+				close();
+			}
+			out.append(']');
+		}
+
+		close();
+	}
+
+}
@@ -0,0 +1,518 @@
+package beagle.compiler;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+import beagle.compiler.ir.BasicBlock;
+import beagle.compiler.ir.IntList;
+import beagle.compiler.ir.IrFunction;
+import beagle.compiler.ir.Lowering;
+import beagle.compiler.ir.Opcode;
+import beagle.compiler.tree.CompilationUnit;
+import beagle.compiler.tree.FormalParameter;
+import beagle.compiler.tree.Function;
+import beagle.compiler.tree.Module;
+import beagle.compiler.tree.StorageDeclaration;
+import beagle.compiler.tree.Structure;
+import beagle.compiler.tree.TypeReference;
+
+/**
+ * Generates LLVM assembly (textual IR) for a module.
+ *
+ * Function bodies are translated from their SSA form (see {@link Lowering}),
+ * so phi instructions map directly to LLVM. Functions that can not be lowered
+ * are only declared (and a warning is reported). Types and global names are
+ * the same used by {@link CodeGenerator}, so the output can be linked with
+ * code generated by the C back end.
+ *
+ * The output uses opaque pointers (LLVM 15 or newer) and can be checked with
+ * 'llvm-as' or 'opt -passes=verify'.
+ */
+public class LlvmGenerator
+{
+
+	protected PrintStream printer;
+
+	protected CompilationContext context;
+
+	/**
+	 * Function being generated.
+	 */
+	protected IrFunction function;
+
+	/**
+	 * Parent of every structure generated so far (for the type displays).
+	 */
+	protected HashMap<String, String> parents = new HashMap<>();
+
+	public LlvmGenerator( CompilationContext context, OutputStream output )
+	{
+		this.printer = new PrintStream(output, false, StandardCharsets.UTF_8);
+		this.context = context;
+	}
+
+	protected void print( String value )
+	{
+		printer.print(value);
+	}
+
+	protected void println( String value )
+	{
+		printer.println(value);
+	}
+
+	public void generate( Module module )
+	{
+		println("; Beagle Compiler");
+		println("; AUTO-GENERATED CODE - Do not edit!");
+		println("");
+
+		generateRuntime();
+		generateStringTable();
+		for (CompilationUnit item : module.units.values())
+			generateUnit(item);
+		printer.flush();
+	}
+
+	/**
+	 * Types and globals from 'beagle/base.h'.
+	 */
+	protected void generateRuntime()
+	{
+		println("%TypeInfo = type { ptr, i64, i64, ptr, ptr, i32, [" + CodeGenerator.DISPLAY_SIZE + " x ptr] }");
+		println("%static_string_ = type { ptr, %TypeInfo }");
+		println("%dynamic_string_ = type { ptr, i32, ptr }");
+		println("");
+		generateName("string");
+		generateTypeGlobal("string", null);
+		println("");
+	}
+
+	protected void generateStringTable()
+	{
+		int index = 0;
+		for (String item : context.stringTable)
+		{
+			byte[] content = StringTable.bytes(item);
+			print("@.str." + index + " = private unnamed_addr constant ");
+			print(arrayType(content.length + 1) + " c\"" + escape(content) + "\\00\"\n");
+			print("@.string." + index + " = internal constant %dynamic_string_ { ptr @type_string_, i32 ");
+			print(content.length + ", ptr @.str." + index + " }\n");
+			++index;
+		}
+		if (index > 0) println("");
+	}
+
+	public void generateUnit( CompilationUnit unit )
+	{
+		for (Structure item : unit.structures)
+			generateStructure(item);
+
+		Lowering lowering = new Lowering(context, unit);
+		for (Function item : unit.functions)
+		{
+			IrFunction ir = lowering.lower(item);
+			if (ir == null)
+			{
+				context.listener.onWarning(item.location(), "Function '" + item.name() + "' is only declared (not supported by the LLVM target)");
+				generateDeclaration(item);
+			}
+			else
+				generateFunction(ir);
+			println("");
+		}
+
+		// entry point for executables
+		for (Function item : unit.functions)
+		{
+			if (!item.name().qualifiedName().equals("main")) continue;
+			if (item.parameters() != null && !item.parameters().isEmpty()) break;
+			TypeReference type = item.returnType();
+			println("define i32 @main() {");
+			if (type == null)
+			{
+				println("  call void @def_main_()");
+				println("  ret i32 0");
+			}
+			else
+			if (type == TypeReference.INT32 || type == TypeReference.UINT32)
+			{
+				println("  %result = call i32 @def_main_()");
+				println("  ret i32 %result");
+			}
+			else
+			{
+				println("  call " + type(type) + " @def_main_()");
+				println("  ret i32 0");
+			}
+			println("}");
+			println("");
+		}
+	}
+
+	protected void generateStructure( Structure item )
+	{
+		String name = item.name.qualifiedName();
+		String parent = (item.parent != null) ? item.parent.qualifiedName() : null;
+		parents.put(name, parent);
+
+		// static data
+		print("%" + CodeGenerator.nativeTypeName(name, true) + " = type { ptr, %TypeInfo }\n");
+		// dynamic data
+		print("%" + CodeGenerator.nativeTypeName(name, false) + " = type { ");
+		if (parent != null)
+			print("%" + CodeGenerator.nativeTypeName(parent, false) + ", ");
+		print("ptr");
+		// reference counter (instances are not created yet in this target)
+		if (parent == null)
+			print(", i32");
+		if (item.body != null)
+		{
+			for (StorageDeclaration field : item.body.storages)
+				print(", " + memoryType(field.type()));
+		}
+		print(" }\n");
+
+		generateName(name);
+		generateTypeGlobal(name, parent);
+		println("");
+	}
+
+	protected void generateName( String name )
+	{
+		byte[] content = name.getBytes(StandardCharsets.UTF_8);
+		print("@.name." + name + " = private unnamed_addr constant " + arrayType(content.length + 1));
+		print(" c\"" + escape(content) + "\\00\"\n");
+	}
+
+	/**
+	 * Generates the global with the static information of the type.
+	 */
+	protected void generateTypeGlobal( String name, String parent )
+	{
+		String staticType = "%" + CodeGenerator.nativeTypeName(name, true);
+		String dynamicType = "%" + CodeGenerator.nativeTypeName(name, false);
+		String base = "null";
+		String baseInfo = "null";
+		if (parent != null)
+		{
+			base = "@" + CodeGenerator.nativeName("type_", parent);
+			baseInfo = typeInfo(parent);
+		}
+
+		// ancestors by depth, from the root of the hierarchy
+		ArrayList<String> ancestors = new ArrayList<>();
+		for (String current = name; current != null && !ancestors.contains(current); current = parents.get(current))
+			ancestors.add(0, current);
+		StringBuilder display = new StringBuilder();
+		for (int i = 0; i < CodeGenerator.DISPLAY_SIZE; ++i)
+		{
+			if (i > 0) display.append(", ");
+			display.append("ptr ").append((i < ancestors.size()) ? typeInfo(ancestors.get(i)) : "null");
+		}
+
+		print("@" + CodeGenerator.nativeName("type_", name) + " = internal global " + staticType + " {\n");
+		print("  ptr " + base + ",\n");
+		print("  %TypeInfo { ptr " + baseInfo + ", i64 " + sizeOf(staticType) + ", i64 " + sizeOf(dynamicType));
+		print(", ptr @.name." + name + ", ptr null, i32 " + (ancestors.size() - 1));
+		print(", [" + CodeGenerator.DISPLAY_SIZE + " x ptr] [" + display + "] }\n}\n");
+	}
+
+	/**
+	 * Returns the address of the 'TypeInfo' in the static data of the type.
+	 */
+	protected String typeInfo( String name )
+	{
+		return "getelementptr (%" + CodeGenerator.nativeTypeName(name, true) + ", ptr @" + CodeGenerator.nativeName("type_", name) + ", i32 0, i32 1)";
+	}
+
+	protected void generateDeclaration( Function item )
+	{
+		print("declare " + returnType(item.returnType()) + " @" + CodeGenerator.nativeName("def_", item.name().qualifiedName()) + "(");
+		if (item.parameters() != null)
+		{
+			int i = 0;
+			for (FormalParameter param : item.parameters())
+			{
+				if (i++ > 0) print(", ");
+				print(type(param.type()));
+			}
+		}
+		print(")\n");
+	}
+
+	protected void generateFunction( IrFunction ir )
+	{
+		function = ir;
+		BitSet reachable = reachable();
+
+		print("define " + returnType(ir.returnType) + " @" + CodeGenerator.nativeName("def_", ir.name) + "(");
+		for (int i = 0; i < ir.parameterNames.length; ++i)
+		{
+			if (i > 0) print(", ");
+			print(type(ir.parameterTypes[i]) + " %arg." + ir.parameterNames[i]);
+		}
+		print(") {\n");
+
+		for (BasicBlock block : ir.blocks)
+		{
+			// unreachable blocks are empty
+			if (!reachable.get(block.index)) continue;
+			print("b" + block.index + ":\n");
+			for (int i = 0; i < block.phis.size(); ++i)
+				generatePhi(block, block.phis.get(i));
+			for (int i = 0; i < block.code.size(); ++i)
+				generateInstruction(block.code.get(i));
+		}
+		print("}\n");
+		function = null;
+	}
+
+	protected BitSet reachable()
+	{
+		BitSet result = new BitSet();
+		IntList pending = new IntList();
+		pending.add(0);
+		result.set(0);
+		while (!pending.isEmpty())
+		{
+			int block = pending.get(pending.size() - 1);
+			pending.truncate(pending.size() - 1);
+			for (int item : function.successors(function.block(block)))
+			{
+				if (result.get(item)) continue;
+				result.set(item);
+				pending.add(item);
+			}
+		}
+		return result;
+	}
+
+	protected void generatePhi( BasicBlock block, int phi )
+	{
+		print("  %v" + phi + " = phi " + type(function.type(phi)) + " ");
+		for (int i = 0; i < function.extraCount(phi); ++i)
+		{
+			if (i > 0) print(", ");
+			print("[ " + value(function.extra(phi, i)) + ", %b" + block.predecessors.get(i) + " ]");
+		}
+		print("\n");
+	}
+
+	protected void generateInstruction( int index )
+	{
+		Opcode opcode = function.opcode(index);
+		int first = function.first(index);
+		int second = function.second(index);
+		TypeReference type = function.type(index);
+
+		switch (opcode)
+		{
+			case JUMP:
+				print("  br label %b" + function.immediate(index) + "\n");
+				return;
+			case BRANCH:
+			{
+				String condition = value(first);
+				TypeReference conditionType = function.type(first);
+				if (conditionType != TypeReference.BOOL)
+				{
+					// other values are true when not zero (as in C)
+					condition = "%c" + index;
+					String operand = type(conditionType) + " " + value(first);
+					if (isFloat(conditionType))
+						print("  " + condition + " = fcmp une " + operand + ", 0.0\n");
+					else
+					if (type(conditionType).equals("ptr"))
+						print("  " + condition + " = icmp ne " + operand + ", null\n");
+					else
+						print("  " + condition + " = icmp ne " + operand + ", 0\n");
+				}
+				print("  br i1 " + condition + ", label %b" + function.extra(index, 0) + ", label %b" + function.extra(index, 1) + "\n");
+				return;
+			}
+			case RETURN:
+				if (first == IrFunction.NONE)
+					print("  ret void\n");
+				else
+					print("  ret " + type(function.type(first)) + " " + value(first) + "\n");
+				return;
+			case CALL:
+			{
+				print("  ");
+				if (type != null) print("%v" + index + " = ");
+				print("call " + returnType(type) + " @" + CodeGenerator.nativeName("def_", function.symbols.get((int) function.immediate(index))) + "(");
+				for (int i = 0; i < function.extraCount(index); ++i)
+				{
+					if (i > 0) print(", ");
+					int argument = function.extra(index, i);
+					print(type(function.type(argument)) + " " + value(argument));
+				}
+				print(")\n");
+				return;
+			}
+			default:
+				break;
+		}
+
+		print("  %v" + index + " = ");
+		TypeReference operand = (first != IrFunction.NONE) ? function.type(first) : type;
+		boolean isFloat = isFloat(operand);
+		boolean isSigned = !isUnsigned(operand);
+		String operands = type(operand) + " " + value(first) + ((second != IrFunction.NONE) ? ", " + value(second) : "");
+		switch (opcode)
+		{
+			case ADD: print(((isFloat) ? "fadd " : "add ") + operands); break;
+			case SUB: print(((isFloat) ? "fsub " : "sub ") + operands); break;
+			case MUL: print(((isFloat) ? "fmul " : "mul ") + operands); break;
+			case DIV: print(((isFloat) ? "fdiv " : (isSigned) ? "sdiv " : "udiv ") + operands); break;
+			case MOD: print(((isFloat) ? "frem " : (isSigned) ? "srem " : "urem ") + operands); break;
+			case NEG:
+				if (isFloat)
+					print("fneg " + operands);
+				else
+					print("sub " + type(operand) + " 0, " + value(first));
+				break;
+			case NOT: print("xor i1 " + value(first) + ", true"); break;
+			case BNOT: print("xor " + operands + ", -1"); break;
+			case EQ: print(compare("eq", "oeq", operand) + operands); break;
+			case NE: print(compare("ne", "une", operand) + operands); break;
+			case LT: print(compare((isSigned) ? "slt" : "ult", "olt", operand) + operands); break;
+			case LE: print(compare((isSigned) ? "sle" : "ule", "ole", operand) + operands); break;
+			case GT: print(compare((isSigned) ? "sgt" : "ugt", "ogt", operand) + operands); break;
+			case GE: print(compare((isSigned) ? "sge" : "uge", "oge", operand) + operands); break;
+			case SELECT:
+			{
+				int other = function.extra(index, 0);
+				print("select i1 " + value(first) + ", " + type(type) + " " + value(second) + ", " + type(type) + " " + value(other));
+				break;
+			}
+			default:
+				throw new IllegalStateException("Unexpected " + opcode);
+		}
+		print("\n");
+	}
+
+	static String compare( String integer, String real, TypeReference type )
+	{
+		return (isFloat(type)) ? "fcmp " + real + " " : "icmp " + integer + " ";
+	}
+
+	/**
+	 * Returns the LLVM operand for the given value.
+	 */
+	protected String value( int index )
+	{
+		TypeReference type = function.type(index);
+		switch (function.opcode(index))
+		{
+			case CONST_INT:
+				return Long.toString(signed(function.immediate(index), type));
+			case CONST_FLOAT:
+				// float constants are written with the bits of the equivalent double
+				return String.format("0x%016X", Double.doubleToRawLongBits(Float.intBitsToFloat((int) function.immediate(index))));
+			case CONST_BOOL:
+				return (function.immediate(index) != 0) ? "true" : "false";
+			case CONST_STRING:
+				return "@.string." + function.immediate(index);
+			case PARAM:
+				return "%arg." + function.parameterNames[(int) function.immediate(index)];
+			case UNDEF:
+				// any value would do, so use the zero value of the type
+				if (type == TypeReference.BOOL) return "false";
+				if (isFloat(type)) return "0.0";
+				if (type != null && type.isPrimitive && type != TypeReference.STRING) return "0";
+				return "null";
+			default:
+				return "%v" + index;
+		}
+	}
+
+	/**
+	 * Returns the value as a signed integer with the width of the given type.
+	 */
+	static long signed( long value, TypeReference type )
+	{
+		if (type == TypeReference.INT8 || type == TypeReference.UINT8) return (byte) value;
+		if (type == TypeReference.INT16 || type == TypeReference.UINT16) return (short) value;
+		if (type == TypeReference.INT32 || type == TypeReference.UINT32) return (int) value;
+		return value;
+	}
+
+	/**
+	 * Returns the LLVM type of values of the given type.
+	 */
+	static String type( TypeReference type )
+	{
+		if (type.isVector()) return "<" + type.lanes + " x " + type(type.element) + ">";
+		if (type == TypeReference.BOOL) return "i1";
+		if (type == TypeReference.INT8 || type == TypeReference.UINT8) return "i8";
+		if (type == TypeReference.INT16 || type == TypeReference.UINT16) return "i16";
+		if (type == TypeReference.INT32 || type == TypeReference.UINT32) return "i32";
+		if (type == TypeReference.INT64 || type == TypeReference.UINT64) return "i64";
+		if (type == TypeReference.FLOAT32) return "float";
+		if (type == TypeReference.FLOAT64) return "double";
+		// strings and structures are references
+		return "ptr";
+	}
+
+	static String returnType( TypeReference type )
+	{
+		return (type == null) ? "void" : type(type);
+	}
+
+	/**
+	 * Returns the LLVM type of fields of the given type (booleans are stored
+	 * as bytes, like in C).
+	 */
+	static String memoryType( TypeReference type )
+	{
+		return (type == TypeReference.BOOL) ? "i8" : type(type);
+	}
+
+	static boolean isFloat( TypeReference type )
+	{
+		return type == TypeReference.FLOAT32 || type == TypeReference.FLOAT64;
+	}
+
+	static boolean isUnsigned( TypeReference type )
+	{
+		return type == TypeReference.UINT8 || type == TypeReference.UINT16 || type == TypeReference.UINT32
+			|| type == TypeReference.UINT64 || type == TypeReference.BOOL;
+	}
+
+	static String arrayType( int length )
+	{
+		return "[" + length + " x i8]";
+	}
+
+	/**
+	 * Returns a constant expression with the size of the given type.
+	 */
+	static String sizeOf( String type )
+	{
+		return "ptrtoint (ptr getelementptr (" + type + ", ptr null, i32 1) to i64)";
+	}
+
+	/**
+	 * Escapes the given bytes for LLVM string constants.
+	 */
+	static String escape( byte[] content )
+	{
+		StringBuilder output = new StringBuilder(content.length);
+		for (byte item : content)
+		{
+			int value = item & 0xFF;
+			if (value >= 0x20 && value < 0x7F && value != '"' && value != '\\')
+				output.append((char) value);
+			else
+				output.append(String.format("\\%02X", value));
+		}
+		return output.toString();
+	}
+
+}
@@ -1,11 +1,16 @@
 package beagle.compiler;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.LinkedList;
+import java.util.List;
 
 import beagle.compiler.tree.CompilationUnit;
 import beagle.compiler.tree.Module;
@@ -15,20 +20,94 @@ public class Main
 {
 
 	@SuppressWarnings("unused")
-	public static void main(String[] args) throws IOException
+	public static void main(String[] args) throws IOException, InterruptedException
 	{
 		CompilationContext context = new CompilationContext(new Listener());
+		boolean watch = false;
+		boolean stats = false;
+		// functions per C file when splitting the output (-1 for a single file)
+		int split = -1;
+		List<String> fileNames = new LinkedList<>();
 
-		for (String fileName : args)
+		for (int i = 0; i < args.length; ++i)
+		{
+			String arg = args[i];
+			if (arg.equals("-watch"))
+				watch = true;
+			else
+			if (arg.equals("-ir"))
+				context.useIr = true;
+			else
+			if (arg.equals("-stats"))
+				stats = true;
+			else
+			if (arg.equals("-split") && i + 1 < args.length)
+			{
+				try
+				{
+					split = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException ex)
+				{
+					split = -1;
+				}
+				if (split < 0)
+				{
+					System.err.println("Invalid number of functions per file '" + args[i] + "'");
+					System.exit(1);
+				}
+			}
+			else
+			if (arg.equals("-runtime-lib"))
+				context.runtimeLibrary = true;
+			else
+			if (arg.equals("-no-line"))
+				context.lineDirectives = false;
+			else
+			if (arg.equals("-profile-generate"))
+				context.instrument = true;
+			else
+			if (arg.equals("-profile-use") && i + 1 < args.length)
+			{
+				Path path = Paths.get(args[++i]);
+				if (!Files.isRegularFile(path))
+				{
+					System.err.println("Profile '" + path + "' not found");
+					System.exit(1);
+				}
+				context.profile = Profile.load(path);
+			}
+			else
+			if (arg.equals("-target") && i + 1 < args.length)
+			{
+				context.target = Target.fromOption(args[++i]);
+				if (context.target == null)
+				{
+					System.err.println("Unknown target '" + args[i] + "'");
+					System.exit(1);
+				}
+			}
+			else
+				fileNames.add(arg);
+		}
+
+		if (watch)
+		{
+			Watcher watcher = new Watcher(context, split);
+			for (String fileName : fileNames)
+				watcher.add(Paths.get(fileName));
+			watcher.run();
+			return;
+		}
+
+		for (String fileName : fileNames)
 		{
 			String content = new String(Files.readAllBytes(Paths.get(fileName)), StandardCharsets.UTF_8);
-			File outputFile = new File(fileName);
-			String outputName = "/tmp/beagle_" + outputFile.getName() + ".c";
+			String outputName = outputName(fileName, context.target);
 
 			System.out.println("Compiling '" + fileName + "'");
-			IScanner scanner = new Scanner(context, new ScanString(fileName, content));
 			if (false)
 			{
+				IScanner scanner = new Scanner(context, new ScanString(fileName, content));
 				Token tok;
 				while ((tok = scanner.readToken()).type != TokenType.TOK_EOF)
 				{
@@ -37,24 +116,185 @@ public class Main
 			}
 			else
 			{
-				IParser parser = new Parser(context, scanner);
-				CompilationUnit unit = parser.parse();
+				context.statistics.clear();
+				CompilationUnit unit = parse(context, fileName, content);
 				if (unit == null) return;
-				Module module = new Module(new Name("myModule"));
-				module.units.put(unit.fileName(), unit);
 
-				Semantic semantic = new Semantic(context);
-				semantic.typeInference(unit);
+				analyze(context, unit);
+				optimize(context, unit);
+
+				if (split >= 0 && context.target == Target.C)
+				{
+					File directory = splitDirectory(fileName);
+					generateSplit(context, unit, directory, split);
+					System.out.println("Generated '" + directory + "'");
+					if (stats) context.statistics.print(System.out);
+					continue;
+				}
 
+				SourceMap map = sourceMap(context);
 				FileOutputStream output = new FileOutputStream(outputName);
-				CodeGenerator codegen = new CodeGenerator(context, output);
-				codegen.generate(module);
+				generate(context, unit, output, map);
 				output.close();
 				System.out.println("Generated '" + outputName + "'");
+				writeSourceMap(outputName, map);
+				if (stats) context.statistics.print(System.out);
 			}
 		}
 	}
 
+	/**
+	 * Returns the name of the file generated for the given source file.
+	 */
+	public static String outputName( String fileName, Target target )
+	{
+		return "/tmp/beagle_" + new File(fileName).getName() + "." + target.extension;
+	}
+
+	/**
+	 * Returns the directory of the files generated for the given source file
+	 * with '-split'.
+	 */
+	public static File splitDirectory( String fileName )
+	{
+		return new File("/tmp/beagle_" + new File(fileName).getName());
+	}
+
+	/**
+	 * Scan and parse the given source code.
+	 *
+	 * @return The compilation unit or {@code null} in case of errors.
+	 */
+	public static CompilationUnit parse( CompilationContext context, String fileName, String content )
+	{
+		IScanner scanner = new Scanner(context, new ScanString(fileName, content));
+		IParser parser = new Parser(context, scanner);
+		return parser.parse();
+	}
+
+	/**
+	 * Perform the semantic analysis of the given compilation unit.
+	 */
+	public static void analyze( CompilationContext context, CompilationUnit unit )
+	{
+		Semantic semantic = new Semantic(context);
+		semantic.typeInference(unit);
+	}
+
+	/**
+	 * Apply the AST optimizations to the given (already analyzed) compilation unit.
+	 */
+	public static void optimize( CompilationContext context, CompilationUnit unit )
+	{
+		// instrumented code counts every call written in the source
+		if (!context.instrument) new Inliner(context).inline(unit);
+		new ConstantFolding(context).fold(unit);
+		// folding may remove the last references to constants
+		new DeadCodeElimination(context).eliminate(unit);
+		new RetainElision(context).elide(unit);
+		new EscapeAnalysis(context).analyze(unit);
+		new AliasAnalysis(context).analyze(unit);
+		new FieldLayout(context).layout(unit);
+	}
+
+	/**
+	 * Generate the code for a module containing only the given compilation unit.
+	 */
+	public static void generate( CompilationContext context, CompilationUnit unit, OutputStream output )
+	{
+		generate(context, unit, output, null);
+	}
+
+	/**
+	 * Generate the code for a module containing only the given compilation unit.
+	 *
+	 * @param map Map receiving the source positions of the generated C lines
+	 *    (written to '<output>.map') or {@code null}.
+	 */
+	public static void generate( CompilationContext context, CompilationUnit unit, OutputStream output, SourceMap map )
+	{
+		Module module = new Module(new Name("myModule"));
+		module.units.put(unit.fileName(), unit);
+
+		if (context.target == Target.LLVM)
+		{
+			new LlvmGenerator(context, output).generate(module);
+			return;
+		}
+		if (context.target == Target.WASM)
+		{
+			new WasmGenerator(context, output).generate(module);
+			return;
+		}
+		CodeGenerator codegen = new CodeGenerator(context, output, outputName(unit.fileName(), context.target), map);
+		codegen.generate(module);
+	}
+
+	/**
+	 * Generate the C code for a module containing only the given compilation
+	 * unit as several files (see 'CodeGenerator.generateSplit').
+	 *
+	 * @param functionsPerFile Maximum number of functions in each C file or
+	 *    0 for a single file.
+	 */
+	public static void generateSplit( CompilationContext context, CompilationUnit unit, File directory, int functionsPerFile ) throws IOException
+	{
+		Module module = new Module(new Name("myModule"));
+		module.units.put(unit.fileName(), unit);
+
+		// the name of the source file without extension
+		String name = new File(unit.fileName()).getName().replaceFirst("\\.[^.]*$", "");
+		CodeGenerator codegen = new CodeGenerator(context, OutputStream.nullOutputStream());
+		codegen.generateSplit(module, directory, name, functionsPerFile);
+	}
+
+	/**
+	 * Generate the code for the given compilation unit in memory.
+	 */
+	public static byte[] generate( CompilationContext context, CompilationUnit unit )
+	{
+		return generate(context, unit, (SourceMap) null);
+	}
+
+	/**
+	 * Generate the code for the given compilation unit in memory.
+	 *
+	 * @param map Map receiving the source positions of the generated C lines
+	 *    or {@code null}.
+	 */
+	public static byte[] generate( CompilationContext context, CompilationUnit unit, SourceMap map )
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		generate(context, unit, output, map);
+		return output.toByteArray();
+	}
+
+	/**
+	 * Returns the map for the source positions of the generated code or
+	 * {@code null} if they are not recorded for the target.
+	 */
+	public static SourceMap sourceMap( CompilationContext context )
+	{
+		return (context.target == Target.C && context.lineDirectives) ? new SourceMap() : null;
+	}
+
+	/**
+	 * Writes the map of the given output file to '<output>.map' or removes
+	 * the previous one if there are no source positions.
+	 */
+	public static void writeSourceMap( String outputName, SourceMap map ) throws IOException
+	{
+		if (map != null && !map.isEmpty())
+		{
+			try (FileOutputStream output = new FileOutputStream(outputName + ".map"))
+			{
+				map.write(output);
+			}
+		}
+		else
+			Files.deleteIfExists(Paths.get(outputName + ".map"));
+	}
+
 	public static class Listener implements CompilationListener
 	{
 
@@ -67,6 +307,12 @@ public class Main
 
 		@Override
 		public boolean onError(SourceLocation location, String message)
+		{
+			print(location, "E", message);
+			return true;
+		}
+
+		protected void print(SourceLocation location, String type, String message)
 		{
 			System.out.print("--- ");
 			if (location != null)
@@ -79,15 +325,14 @@ public class Main
 			}
 			else
 				System.out.print("unknow:0:0");
-			System.out.print(": [E] ");
+			System.out.print(": [" + type + "] ");
 			System.out.println(message);
-			return true;
 		}
 
 		@Override
 		public boolean onWarning(SourceLocation location, String message)
 		{
-			// TODO Auto-generated method stub
+			print(location, "W", message);
 			return false;
 		}
 
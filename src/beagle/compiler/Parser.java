@@ -5,6 +5,7 @@ import static beagle.compiler.TokenType.TOK_ASSIGN;
 import static beagle.compiler.TokenType.TOK_COMA;
 import static beagle.compiler.TokenType.TOK_ELIF;
 import static beagle.compiler.TokenType.TOK_ELSE;
+import static beagle.compiler.TokenType.TOK_FALSE;
 import static beagle.compiler.TokenType.TOK_IF;
 import static beagle.compiler.TokenType.TOK_IN;
 import static beagle.compiler.TokenType.TOK_IS;
@@ -178,8 +179,13 @@ public class Parser implements IParser
 		tokens.discard();
 
 		Structure current = new Structure();
+		current.annotations = annots;
 		if (expected(TokenType.TOK_NAME))
-			current.name = new Name(tokens.read().value);
+		{
+			current.location(tokens.peek().location);
+			current.name = new Name(tokens.peek().value);
+			current.name.location(tokens.read().location);
+		}
 
 		if (tokens.peekType() == TokenType.TOK_COLON)
 		{
@@ -541,6 +547,7 @@ public class Parser implements IParser
 
 		Function method = new Function(annots, type, name, params, block);
 		method.parent(body);
+		if (name != null) method.location(name.location());
 
 		return method;
 	}
@@ -687,6 +694,7 @@ public class Parser implements IParser
 	 */
 	IStatement parseStatement()
 	{
+		SourceLocation location = tokens.peek().location;
 		switch (tokens.peekType())
 		{
 			case TOK_RETURN:
@@ -697,14 +705,18 @@ public class Parser implements IParser
 			case TOK_CONST:
 				return (IStatement) parseVariableOrConstant(null);
 			case TOK_FOR:
-				return (IStatement) parseForEach();
+				ForEachStmt loop = parseForEach();
+				if (loop != null) loop.location(location);
+				return loop;
 			default:
 				break;
 		}
 
 		IExpression expr = parseExpression();
 		if (expr == null) return null;
-		return new ExpressionStmt(expr);
+		ExpressionStmt result = new ExpressionStmt(expr);
+		result.location(location);
+		return result;
 	}
 
 
@@ -717,6 +729,7 @@ public class Parser implements IParser
 	IStatement parseIfThenElseStmt()
 	{
 		if (!expected(TOK_IF, TOK_ELIF)) return null;
+		SourceLocation location = tokens.peek().location;
 		tokens.discard();
 
 		IExpression condition = parseExpression();
@@ -751,7 +764,9 @@ public class Parser implements IParser
 			if (elseSide == null) return null;
 		}
 
-		return new IfThenElseStmt(condition, thenSide, elseSide);
+		IfThenElseStmt result = new IfThenElseStmt(condition, thenSide, elseSide);
+		result.location(location);
+		return result;
 	}
 
 	/**
@@ -786,8 +801,9 @@ public class Parser implements IParser
 	{
 		if (type == null || left == null || right == null)
 			return null;
-		else
-			return new BinaryExpression(left, type, right);
+		BinaryExpression result = new BinaryExpression(left, type, right);
+		result.location(left.location());
+		return result;
 	}
 
 	/**
@@ -822,83 +838,85 @@ public class Parser implements IParser
 	}
 
 	/**
-	 * Disjunction: Conjunction ( "or" Disjunction )*
+	 * Disjunction: Conjunction ( "or" Conjunction )*
+	 *
+	 * Binary operators (except assignments) are left associative.
 	 */
 	IExpression parseDisjunction()
 	{
 		IExpression left = parseConjunction();
-		if (left == null) return null;
-
-		TokenType type = null;
-		if (tokens.peekType() == TOK_OR)
-			type = tokens.read().type;
-		else
-			return left;
 
-		return createBinaryExpression(left, type, parseDisjunction());
+		while (left != null && tokens.peekType() == TOK_OR)
+		{
+			TokenType type = tokens.read().type;
+			left = createBinaryExpression(left, type, parseConjunction());
+		}
+		return left;
 	}
 
 	/**
-	 * Conjunction: EqualityComparison ( "and" Conjunction )*
+	 * Conjunction: EqualityComparison ( "and" EqualityComparison )*
 	 */
 	IExpression parseConjunction()
 	{
 		IExpression left = parseEquality();
-		if (left == null) return null;
-
-		TokenType type = null;
-		if (tokens.peekType() == TOK_AND)
-			type = tokens.read().type;
-		else
-			return left;
 
-		return createBinaryExpression(left, type, parseConjunction());
+		while (left != null && tokens.peekType() == TOK_AND)
+		{
+			TokenType type = tokens.read().type;
+			left = createBinaryExpression(left, type, parseEquality());
+		}
+		return left;
 	}
 
 	/**
-	 * EqualityComparison: Comparison ( EqualityOperator EqualityComparison )*
+	 * EqualityComparison: Comparison ( EqualityOperator Comparison )*
 	 */
 	IExpression parseEquality()
 	{
 		IExpression left = parseComparison();
-		if (left == null) return null;
 
-		TokenType type = null;
-		switch(tokens.peekType())
+		while (left != null)
 		{
-			case TOK_EQ: // ==
-			case TOK_NE: // !=
-				type = tokens.read().type;
-				break;
-			default:
-				return left;
-		}
+			switch(tokens.peekType())
+			{
+				case TOK_EQ: // ==
+				case TOK_NE: // !=
+					break;
+				default:
+					return left;
+			}
 
-		return createBinaryExpression(left, type, parseEquality());
+			TokenType type = tokens.read().type;
+			left = createBinaryExpression(left, type, parseComparison());
+		}
+		return null;
 	}
 
 	/**
-	 * Comparison: NamedInfix ( ComparisonOperator Comparison )*
+	 * Comparison: NamedInfix ( ComparisonOperator NamedInfix )*
 	 */
 	IExpression parseComparison()
 	{
 		IExpression left = parseNamedInfix();
-		if (left == null) return null;
 
-		TokenType type = null;
-		switch(tokens.peekType())
+		while (left != null)
 		{
-			case TOK_GT: // >
-			case TOK_GE: // >=
-			case TOK_LT: // <
-			case TOK_LE: // <=
-				type = tokens.read().type;
-				break;
-			default:
-				return left;
-		}
+			switch(tokens.peekType())
+			{
+				case TOK_GT: // >
+				case TOK_GE: // >=
+				case TOK_LT: // <
+				case TOK_LE: // <=
+					break;
+				default:
+					return left;
+			}
 
-		return createBinaryExpression(left, type, parseComparison());
+			TokenType type = tokens.read().type;
+			left = createBinaryExpression(left, type, parseNamedInfix());
+		}
+		return null;
 	}
 
 	/**
@@ -950,50 +968,54 @@ public class Parser implements IParser
 	}
 
 	/**
-	 * MultiplicativeExpression: PrefixUnaryExpression ( MultiplicativeOperator MultiplicativeExpression )*
+	 * AdditiveExpression: MultiplicativeExpression ( AdditiveOperator MultiplicativeExpression )*
 	 *
 	 */
 	IExpression  parseAdditiveExpression()
 	{
 		IExpression left = parseMultiplicativeExpression();
-		if (left == null) return null;
 
-		TokenType type = null;
-		switch(tokens.peekType())
+		while (left != null)
 		{
-			case TOK_MINUS: // -
-			case TOK_PLUS:  // +
-				type = tokens.read().type;
-				break;
-			default:
-				return left;
-		}
+			switch(tokens.peekType())
+			{
+				case TOK_MINUS: // -
+				case TOK_PLUS:  // +
+					break;
+				default:
+					return left;
+			}
 
-		return createBinaryExpression(left, type, parseAdditiveExpression());
+			TokenType type = tokens.read().type;
+			left = createBinaryExpression(left, type, parseMultiplicativeExpression());
+		}
+		return null;
 	}
 
 	/**
-	 * MultiplicativeExpression: PrefixUnaryExpression ( MultiplicativeOperator MultiplicativeExpression )*
+	 * MultiplicativeExpression: PrefixUnaryExpression ( MultiplicativeOperator PrefixUnaryExpression )*
 	 *
 	 */
 	IExpression parseMultiplicativeExpression()
 	{
 		IExpression left = parsePrefixUnaryExpression();
-		if (left == null) return null;
 
-		TokenType type = null;
-		switch(tokens.peekType())
+		while (left != null)
 		{
-			case TOK_MUL: // *
-			case TOK_DIV: // /
-			case TOK_MOD: // %
-				type = tokens.read().type;
-				break;
-			default:
-				return left;
-		}
+			switch(tokens.peekType())
+			{
+				case TOK_MUL: // *
+				case TOK_DIV: // /
+				case TOK_MOD: // %
+					break;
+				default:
+					return left;
+			}
 
-		return createBinaryExpression(left, type, parseMultiplicativeExpression());
+			TokenType type = tokens.read().type;
+			left = createBinaryExpression(left, type, parsePrefixUnaryExpression());
+		}
+		return null;
 	}
 
 
@@ -1009,7 +1031,10 @@ public class Parser implements IParser
 
 	/**
 	 *
-	 * PrefixUnaryExpression: PrefixUnaryOperator? PostfixUnaryExpression
+	 * PrefixUnaryExpression
+	 *   : PrefixUnaryOperator? PostfixUnaryExpression
+	 *   : ( "-" | "not" | "!" | "~" ) PrefixUnaryExpression
+	 *   ;
 	 *
 	 */
 	IExpression parsePrefixUnaryExpression(IExpression leftValue)
@@ -1023,6 +1048,17 @@ public class Parser implements IParser
 			case TOK_DEC:
 				type = tokens.read().type;
 				break;
+			case TOK_MINUS:
+			case TOK_NOT:
+			case TOK_BANG:
+			case TOK_TILDE:
+			{
+				// arithmetic and logical operators may be chained (e.g. '- -x')
+				type = tokens.read().type;
+				IExpression expr = parsePrefixUnaryExpression();
+				if (expr == null) return null;
+				return new UnaryExpression(type, expr);
+			}
 			default:
 				type = null;
 		}
@@ -1217,7 +1253,10 @@ public class Parser implements IParser
 				tokens.discard();
 				return result;
 			case TOK_NAME:
-				return new NameLiteral( parseName() );
+				Name name = parseName();
+				NameLiteral literal = new NameLiteral(name);
+				literal.location(name.location());
+				return literal;
 			default:
 				return parseLiteralConstant();
 		}
@@ -1282,13 +1321,14 @@ public class Parser implements IParser
 	StringLiteral parseStringLiteral()
 	{
 		String value = tokens.read().value;
-		context.stringTable.add(value);
-		return new StringLiteral(value);
+		StringLiteral result = new StringLiteral(value);
+		result.index = context.stringTable.add(value);
+		return result;
 	}
 
 	BooleanLiteral parseBooleanLiteral()
 	{
-		if (!expected(TOK_TRUE)) return null;
+		if (!expected(TOK_TRUE, TOK_FALSE)) return null;
 
 		boolean value = (tokens.read().type == TOK_TRUE);
 		return new BooleanLiteral(value);
@@ -1299,7 +1339,15 @@ public class Parser implements IParser
 		if (!expected(TOK_FOR)) return null;
 		tokens.discard();
 
-		StorageDeclaration storage = new VariableDeclaration(null, parseName(), null, null);
+		Name name = parseName();
+		TypeReference type = null;
+		// the type is only required when iterating over something other than 'range'
+		if (tokens.peekType() == TokenType.TOK_COLON)
+		{
+			tokens.discard(1);
+			type = TypeReference.fromName( parseName() );
+		}
+		StorageDeclaration storage = new VariableDeclaration(null, name, type, null);
 
 		if (!expected(TOK_IN)) return null;
 		tokens.discard();
@@ -0,0 +1,221 @@
+package beagle.compiler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import beagle.compiler.tree.CompilationUnit;
+import beagle.compiler.tree.ForEachStmt;
+import beagle.compiler.tree.Function;
+import beagle.compiler.tree.ITreeElement;
+import beagle.compiler.tree.IfThenElseStmt;
+import beagle.compiler.tree.TreeVisitor;
+
+/**
+ * Execution profile collected by programs compiled with '-profile-generate'
+ * and used by the compilation with '-profile-use'.
+ *
+ * Functions, conditionals and loops are labeled by the name of the function
+ * and their position in it (e.g. 'main.if0' or 'main.loop1'), so the labels
+ * are the same in every compilation of the same source. The counters of each
+ * label are:
+ *
+ * - functions: '.calls';
+ * - conditionals: '.then' and '.else';
+ * - loops: '.entries' and '.iterations'.
+ *
+ * The profile file has one 'label count' line for every counter. Programs
+ * append their counters when they exit, so counters repeated in the file
+ * are added up.
+ */
+public class Profile
+{
+
+	public static final String CALLS = ".calls";
+
+	public static final String THEN = ".then";
+
+	public static final String ELSE = ".else";
+
+	public static final String ENTRIES = ".entries";
+
+	public static final String ITERATIONS = ".iterations";
+
+	/**
+	 * Minimum number of executions of a conditional to predict its outcome.
+	 */
+	static final long MIN_BRANCHES = 16;
+
+	/**
+	 * Fraction of the executions of a conditional going to one side to
+	 * predict it.
+	 */
+	static final double LIKELY = 0.9;
+
+	/**
+	 * Minimum weight of hot functions.
+	 */
+	static final long MIN_HOT = 100;
+
+	/**
+	 * Fraction of the weight of the heaviest function that makes a function
+	 * hot.
+	 */
+	static final double HOT = 0.1;
+
+	HashMap<String, Long> counters = new HashMap<>();
+
+	/**
+	 * Calls and loop iterations of each function.
+	 */
+	HashMap<String, Long> weights = new HashMap<>();
+
+	long heaviest = 0;
+
+	public static Profile load( Path path ) throws IOException
+	{
+		Profile result = new Profile();
+		for (String line : Files.readAllLines(path, StandardCharsets.UTF_8))
+		{
+			String[] fields = line.trim().split("\\s+");
+			if (fields.length != 2) continue;
+			try
+			{
+				result.add(fields[0], Long.parseUnsignedLong(fields[1]));
+			} catch (NumberFormatException ex)
+			{
+				// ignore corrupted lines (e.g. from a program killed while writing)
+			}
+		}
+		for (long value : result.weights.values())
+			result.heaviest = Math.max(result.heaviest, value);
+		return result;
+	}
+
+	void add( String name, long value )
+	{
+		counters.merge(name, value, Long::sum);
+		if (name.endsWith(CALLS))
+			weights.merge(name.substring(0, name.length() - CALLS.length()), value, Long::sum);
+		else
+		if (name.endsWith(ITERATIONS))
+		{
+			// 'function.loopN.iterations'
+			String loop = name.substring(0, name.length() - ITERATIONS.length());
+			int end = loop.lastIndexOf('.');
+			if (end > 0) weights.merge(loop.substring(0, end), value, Long::sum);
+		}
+	}
+
+	public long count( String name )
+	{
+		return counters.getOrDefault(name, 0L);
+	}
+
+	/**
+	 * Returns the number of calls and loop iterations of the function.
+	 */
+	public long weight( String function )
+	{
+		return weights.getOrDefault(function, 0L);
+	}
+
+	/**
+	 * Whether the function is among the ones where the program spends its
+	 * time.
+	 */
+	public boolean isHot( String function )
+	{
+		long weight = weight(function);
+		return weight >= MIN_HOT && weight >= heaviest * HOT;
+	}
+
+	/**
+	 * Whether the function was never called in the profiled runs.
+	 */
+	public boolean isCold( String function )
+	{
+		return counters.containsKey(function + CALLS) && count(function + CALLS) == 0;
+	}
+
+	/**
+	 * Predicts the outcome of the conditional with the given label.
+	 *
+	 * @return 1 if the condition is likely true, -1 if it is likely false
+	 *    and 0 if it is not predictable.
+	 */
+	public int predict( String label )
+	{
+		long taken = count(label + THEN);
+		long total = taken + count(label + ELSE);
+		if (total < MIN_BRANCHES) return 0;
+		if (taken >= total * LIKELY) return 1;
+		if (total - taken >= total * LIKELY) return -1;
+		return 0;
+	}
+
+	/**
+	 * Labels the functions, conditionals and loops of the unit, in the order
+	 * they appear.
+	 */
+	public static LinkedHashMap<ITreeElement, String> label( CompilationUnit unit )
+	{
+		LinkedHashMap<ITreeElement, String> result = new LinkedHashMap<>();
+		for (Function item : unit.functions)
+		{
+			String name = item.name().qualifiedName();
+			result.put(item, name);
+			if (item.body() == null) continue;
+			item.body().accept(new TreeVisitor()
+			{
+				int conditionals = 0;
+
+				int loops = 0;
+
+				@Override
+				public boolean visit( IfThenElseStmt target )
+				{
+					result.put(target, name + ".if" + conditionals++);
+					return true;
+				}
+
+				@Override
+				public boolean visit( ForEachStmt target )
+				{
+					result.put(target, name + ".loop" + loops++);
+					return true;
+				}
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the names of the counters of a labeled element.
+	 */
+	public static List<String> counters( ITreeElement element, String label )
+	{
+		ArrayList<String> result = new ArrayList<>();
+		if (element instanceof Function)
+			result.add(label + CALLS);
+		else
+		if (element instanceof IfThenElseStmt)
+		{
+			result.add(label + THEN);
+			result.add(label + ELSE);
+		}
+		else
+		if (element instanceof ForEachStmt)
+		{
+			result.add(label + ENTRIES);
+			result.add(label + ITERATIONS);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,169 @@
+package beagle.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import beagle.compiler.tree.AtomicExpression;
+import beagle.compiler.tree.BinaryExpression;
+import beagle.compiler.tree.CompilationUnit;
+import beagle.compiler.tree.ConstantDeclaration;
+import beagle.compiler.tree.FormalParameter;
+import beagle.compiler.tree.Function;
+import beagle.compiler.tree.IExpression;
+import beagle.compiler.tree.NameLiteral;
+import beagle.compiler.tree.StorageDeclaration;
+import beagle.compiler.tree.TreeVisitor;
+import beagle.compiler.tree.UnaryExpression;
+import beagle.compiler.tree.VariableDeclaration;
+
+/**
+ * Removal of redundant retain/release pairs.
+ *
+ * A local variable initialized with another variable (or parameter) holding
+ * a reference does not need a reference of its own if neither of them is
+ * ever assigned: the original keeps the instance alive while the copy is in
+ * scope. Such variables are marked as borrowed and the code generator emits
+ * neither the retain nor the release, which matters for aliases taken inside
+ * loops.
+ *
+ * Variables are matched by name, so functions declaring the same name more
+ * than once are left alone.
+ */
+public class RetainElision
+{
+
+	CompilationContext context;
+
+	HashMap<String, Integer> declarations;
+
+	HashSet<String> assigned;
+
+	ArrayList<StorageDeclaration> storages;
+
+	public RetainElision( CompilationContext context )
+	{
+		this.context = context;
+	}
+
+	public void elide( CompilationUnit unit )
+	{
+		int candidates = 0;
+		int elided = 0;
+		for (Function item : unit.functions)
+		{
+			if (item.body() == null) continue;
+			declarations = new HashMap<>();
+			assigned = new HashSet<>();
+			storages = new ArrayList<>();
+			item.accept(new Collector());
+
+			// parameters are declared before any local variable
+			HashSet<String> visible = new HashSet<>();
+			if (item.parameters() != null)
+			{
+				for (FormalParameter param : item.parameters())
+					visible.add(param.name().qualifiedName());
+			}
+			for (StorageDeclaration storage : storages)
+			{
+				String name = storage.name().qualifiedName();
+				if (CodeGenerator.isReference(storage.type()))
+				{
+					++candidates;
+					String source = source(storage.initializer());
+					if (source != null && visible.contains(source) && isStable(name) && isStable(source))
+					{
+						storage.borrowed = true;
+						++elided;
+					}
+				}
+				visible.add(name);
+			}
+		}
+
+		Statistics stats = context.statistics;
+		stats.set("rc.locals", candidates);
+		stats.set("rc.locals.elided", elided);
+	}
+
+	/**
+	 * Returns the name of the variable used as initializer or {@code null}.
+	 */
+	static String source( IExpression expr )
+	{
+		expr = CodeGenerator.strip(expr);
+		if (!(expr instanceof NameLiteral)) return null;
+		NameLiteral literal = (NameLiteral) expr;
+		if (literal.value().isQualified()) return null;
+		return literal.value().qualifiedName();
+	}
+
+	/**
+	 * Whether the variable is declared only once and never assigned.
+	 */
+	boolean isStable( String name )
+	{
+		return declarations.getOrDefault(name, 0) == 1 && !assigned.contains(name);
+	}
+
+	void declare( StorageDeclaration storage )
+	{
+		declarations.merge(storage.name().qualifiedName(), 1, Integer::sum);
+		storages.add(storage);
+	}
+
+	void assign( IExpression target )
+	{
+		while (target instanceof AtomicExpression)
+			target = ((AtomicExpression) target).value();
+		if (target instanceof NameLiteral)
+			assigned.add(((NameLiteral) target).value().qualifiedName());
+	}
+
+	/**
+	 * Collects the declarations and assignments of a function.
+	 */
+	class Collector extends TreeVisitor
+	{
+
+		@Override
+		public boolean visit( FormalParameter target )
+		{
+			declarations.merge(target.name().qualifiedName(), 1, Integer::sum);
+			return true;
+		}
+
+		@Override
+		public boolean visit( VariableDeclaration target )
+		{
+			declare(target);
+			return true;
+		}
+
+		@Override
+		public boolean visit( ConstantDeclaration target )
+		{
+			declare(target);
+			return true;
+		}
+
+		@Override
+		public boolean visit( BinaryExpression target )
+		{
+			// compound assignments included
+			if (target.operation().name().endsWith("_ASSIGN")) assign(target.left());
+			return true;
+		}
+
+		@Override
+		public boolean visit( UnaryExpression target )
+		{
+			if (target.operation() == TokenType.TOK_INC || target.operation() == TokenType.TOK_DEC)
+				assign(target.expression());
+			return true;
+		}
+
+	}
+
+}
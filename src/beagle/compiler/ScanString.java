@@ -236,6 +236,28 @@ public class ScanString
     	throw new NumberFormatException("'" + value + "' is not a valid hexadecimal digit");
     }
 
+	/**
+	 * Move the cursor to the given position.
+	 *
+	 * The location must correspond to the character at that position (as if
+	 * every previous character were read by {@link #next()}). Use the index
+	 * {@code -1} to restart from the beginning of the input.
+	 *
+	 * @param index
+	 * @param location
+	 */
+	public void seek( int index, SourceLocation location )
+	{
+		if (index < -1 || index >= bufferSize)
+			throw new IndexOutOfBoundsException("Invalid position " + index);
+
+		this.index = index;
+		if (location == null)
+			this.location = new SourceLocation(this.location.fileName);
+		else
+			this.location = location.clone();
+	}
+
     @Override
     public String toString()
     {
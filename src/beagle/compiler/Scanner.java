@@ -23,6 +23,11 @@ public class Scanner implements IScanner
 
 	List<Comment> comments;
 
+	/**
+	 * Position of the first character of the current token.
+	 */
+	int start = 0;
+
 	public Scanner( CompilationContext context, ScanString source )
 	{
 		this.source = source;
@@ -54,6 +59,8 @@ public class Scanner implements IScanner
 		lineBreak = false;
 
 		Token output = new Token(source.location, state, (comments.size() > 0) ? comments : null, type, name);
+		output.offset = start;
+		output.length = source.index - start + 1;
 
 		if (comments.size() > 0)
 			comments = new LinkedList<>();
@@ -76,6 +83,7 @@ public class Scanner implements IScanner
 				while (source.next() == '\n');
 			}
 
+			start = source.index;
 			switch (source.peek())
 			{
 				case 'A':
@@ -174,10 +182,6 @@ public class Scanner implements IScanner
 						source.next();
 						return createToken(TokenType.TOK_PLUS_ASSIGN);
 					}
-					if (isDigit(source.peek(1)))
-					{
-						return processNumber();
-					}
 					return createToken(TokenType.TOK_PLUS);
 				case '-':
 					if (source.peek(1) == '-')
@@ -190,10 +194,6 @@ public class Scanner implements IScanner
 						source.next();
 						return createToken(TokenType.TOK_MINUS_ASSIGN);
 					}
-					if (isDigit(source.peek(1)))
-					{
-						return processNumber();
-					}
 					return createToken(TokenType.TOK_MINUS);
 				case '*':
 					if (source.peek(1) == '=')
@@ -266,7 +266,7 @@ public class Scanner implements IScanner
 					if (source.peek(1) == '=')
 					{
 						source.next();
-						return createToken(TokenType.TOK_GT);
+						return createToken(TokenType.TOK_GE);
 					}
 					if (source.peek(1) == '>')
 					{
@@ -284,7 +284,7 @@ public class Scanner implements IScanner
 					if (source.peek(1) == '=')
 					{
 						source.next();
-						return createToken(TokenType.TOK_LT);
+						return createToken(TokenType.TOK_LE);
 					}
 					if (source.peek(1) == '<')
 					{
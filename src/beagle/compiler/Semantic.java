@@ -2,19 +2,24 @@ package beagle.compiler;
 
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.Objects;
 
+import beagle.compiler.tree.ArgumentList;
 import beagle.compiler.tree.AtomicExpression;
 import beagle.compiler.tree.BinaryExpression;
 import beagle.compiler.tree.Block;
 import beagle.compiler.tree.BooleanLiteral;
 import beagle.compiler.tree.CompilationUnit;
+import beagle.compiler.tree.ExpressionStmt;
 import beagle.compiler.tree.FloatLiteral;
+import beagle.compiler.tree.ForEachStmt;
 import beagle.compiler.tree.FormalParameter;
 import beagle.compiler.tree.FormalParameterList;
 import beagle.compiler.tree.Function;
 import beagle.compiler.tree.FunctionList;
 import beagle.compiler.tree.IExpression;
 import beagle.compiler.tree.IStatement;
+import beagle.compiler.tree.IfThenElseStmt;
 import beagle.compiler.tree.IntegerLiteral;
 import beagle.compiler.tree.Name;
 import beagle.compiler.tree.NameLiteral;
@@ -37,16 +42,29 @@ public class Semantic
 
 	Scope currentScope;
 
+	/**
+	 * Functions of the compilation unit by name.
+	 */
+	HashMap<Name, Function> functions;
+
+	/**
+	 * Structures of the compilation unit by qualified name.
+	 */
+	HashMap<String, Structure> structures;
+
 	public Semantic( CompilationContext context )
 	{
 		this.context = context;
 		this.scopes = new LinkedList<>();
+		this.functions = new HashMap<>();
+		this.structures = new HashMap<>();
 		// file scope
 		pushScope();
 	}
 
 	public void typeInference( CompilationUnit unit )
 	{
+		declare(unit);
 		// evaluate variables and constants
 		typeInference(unit.storages());
 		// evaluate structures
@@ -55,6 +73,18 @@ public class Semantic
 		typeInference(unit.functions);
 	}
 
+	/**
+	 * Makes the structures and functions of the unit known, so they can be
+	 * referenced by the declarations analyzed afterwards (in any order).
+	 */
+	public void declare( CompilationUnit unit )
+	{
+		for (Structure item : unit.structures)
+			if (item.name != null) structures.put(item.name.qualifiedName(), item);
+		for (Function item : unit.functions)
+			if (item.name() != null) functions.put(item.name(), item);
+	}
+
 	public void typeInference( StorageList storages )
 	{
 		for (StorageDeclaration item : storages )
@@ -65,12 +95,16 @@ public class Semantic
 
 	public void typeInference( StructureList structures )
 	{
+		for (Structure item : structures )
+			this.structures.put(item.name.qualifiedName(), item);
 		for (Structure item : structures )
 			typeInference(item.body.storages);
 	}
 
 	public void typeInference( FunctionList functions )
 	{
+		for (Function function : functions )
+			this.functions.put(function.name(), function);
 		for (Function function : functions )
 		{
 			typeInference(function);
@@ -79,8 +113,12 @@ public class Semantic
 
 	public void typeInference( Function function )
 	{
-		typeInference(function.parameters(), function);
-		typeInference(function.body(), function);
+		pushScope();
+		if (function.parameters() != null)
+			typeInference(function.parameters(), function);
+		if (function.body() != null)
+			typeInference(function.body(), function);
+		popScope();
 	}
 
 	private void typeInference(FormalParameterList parameters, Function function)
@@ -95,27 +133,63 @@ public class Semantic
 	public void typeInference( Block block, Function function )
 	{
 		for (IStatement statement: block )
+			typeInference(statement, function);
+	}
+
+	void typeInference( IStatement statement, Function function )
+	{
+		if (statement instanceof Block) typeInference((Block) statement, function);
+		if (statement instanceof StorageDeclaration) typeInference((StorageDeclaration) statement);
+		if (statement instanceof IfThenElseStmt)
+		{
+			IfThenElseStmt cond = (IfThenElseStmt) statement;
+			typeInference(cond.thenSide(), function);
+			typeInference(cond.elseSide(), function);
+		}
+		if (statement instanceof ForEachStmt)
+		{
+			ForEachStmt loop = (ForEachStmt) statement;
+			pushScope();
+			// the iterator of 'range' has the type of the bounds
+			ArgumentList range = loop.range();
+			if (loop.iterator.type() == null && range != null)
+				loop.iterator.type(evaluateExpression(range.get((range.size() == 1) ? 0 : 1).value()));
+			else
+			if (loop.iterator.type() == null)
+				context.listener.onError(loop.iterator.name().location(), "The type of '" + loop.iterator.name() + "' must be declared");
+			// no other value has an iterator yet
+			if (range == null)
+				context.listener.onError(loop.location(), "Only 'range(...)' can be iterated");
+			else
+			if (range.size() == 3 && range.get(2).value() instanceof IntegerLiteral && ((IntegerLiteral) range.get(2).value()).value() == 0)
+				context.listener.onError(loop.location(), "Range step can not be zero");
+			currentScope.put(loop.iterator.name(), loop.iterator);
+			typeInference(loop.statement, function);
+			popScope();
+		}
+		if (statement instanceof ExpressionStmt)
+			evaluateExpression(((ExpressionStmt) statement).expression());
+		if (statement instanceof ReturnStmt)
 		{
-			if (statement instanceof Block) typeInference((Block) statement, function);
-			if (statement instanceof StorageDeclaration) typeInference((StorageDeclaration) statement);
-			if (statement instanceof ReturnStmt)
+			TypeReference type = evaluateExpression(((ReturnStmt) statement).expression());
+			if (function.returnType() == null)
+				function.returnType(type);
+			else
+			if (!function.returnType().equals(type))
 			{
-				TypeReference type = evaluateExpression(((ReturnStmt) statement).expression());
-				if (function.returnType() == null)
-					function.returnType(type);
-				else
-				if (!function.returnType().equals(type))
-				{
-					context.listener.onError(statement.location(), "Returning value with wrong type");
-					return;
-				}
+				context.listener.onError(statement.location(), "Returning value with wrong type");
+				return;
 			}
 		}
 	}
 
 	public void typeInference( StorageDeclaration storage )
 	{
-		if (storage.type() != null) return;
+		if (storage.type() != null)
+		{
+			currentScope.put(storage.name(), storage);
+			return;
+		}
 		if (storage.initializer() == null)
 		{
 			context.listener.onError(storage.location(), "Missing type or initializer");
@@ -155,26 +229,86 @@ public class Semantic
 		else
 		if (expr instanceof IntegerLiteral)
 		{
-			return TypeReference.INT32;
+			return ((IntegerLiteral)expr).type();
 		}
 		if (expr instanceof FloatLiteral)
 			return ((FloatLiteral)expr).type();
 		else
 		if (expr instanceof BinaryExpression)
 		{
+			TokenType operation = ((BinaryExpression)expr).operation();
+			if (operation == TokenType.TOK_IS || operation == TokenType.TOK_NIS)
+				return evaluateTypeTest((BinaryExpression)expr);
 			TypeReference left = evaluateExpression(((BinaryExpression)expr).left());
 			TypeReference right= evaluateExpression(((BinaryExpression)expr).right());
+			if ((left != null && left.isVector()) || (right != null && right.isVector()))
+				return evaluateVector((BinaryExpression)expr, left, right);
 
-			if (left != right)
+			// numeric literals take the type of the other operand
+			if (!Objects.equals(left, right) && isLiteralOf(((BinaryExpression)expr).right(), left))
+				right = left;
+			if (!Objects.equals(left, right) && isLiteralOf(((BinaryExpression)expr).left(), right))
+				left = right;
+			if (!Objects.equals(left, right))
 			{
-				context.listener.onError(expr.location(), "Binary expression with arguments of different type");
+				// errors in the operands are already reported
+				if (left != null && right != null)
+					context.listener.onError(expr.location(), "Binary expression with arguments of different type");
 				return null;
 			}
-			return left;
+			// strings are immutable references without operations yet
+			if (TypeReference.STRING.equals(left) && operation != TokenType.TOK_ASSIGN && operation != TokenType.TOK_EQ && operation != TokenType.TOK_NE)
+			{
+				context.listener.onError(expr.location(), "Operator '" + operation.getName() + "' is not supported for strings");
+				return null;
+			}
+			switch (((BinaryExpression)expr).operation())
+			{
+				case TOK_EQ:
+				case TOK_NE:
+				case TOK_LT:
+				case TOK_LE:
+				case TOK_GT:
+				case TOK_GE:
+				case TOK_AND:
+				case TOK_OR:
+					return TypeReference.BOOL;
+				default:
+					return left;
+			}
 		}
 		else
 		if (expr instanceof UnaryExpression)
 		{
+			TokenType operation = ((UnaryExpression)expr).operation();
+			if (operation == TokenType.TOK_NOT || operation == TokenType.TOK_BANG)
+				return TypeReference.BOOL;
+			IExpression callee = ((UnaryExpression)expr).expression();
+			if (operation == TokenType.TOK_LEFT_BRACKET)
+			{
+				// elements of vectors
+				TypeReference type = evaluateExpression(callee);
+				if (type != null && type.isVector()) return type.element;
+			}
+			if (operation == TokenType.TOK_LEFT_PAR && callee instanceof NameLiteral)
+			{
+				Name name = ((NameLiteral)callee).value();
+				// vectors are created from every element or from a value for all of them
+				TypeReference vector = TypeReference.fromName(name);
+				if (searchScopes(name) == null && vector.isVector())
+				{
+					IExpression arguments = ((UnaryExpression)expr).extra();
+					int count = (arguments instanceof ArgumentList) ? ((ArgumentList)arguments).size() : ((arguments == null) ? 0 : 1);
+					if (count != 1 && count != vector.lanes)
+						context.listener.onError(expr.location(), "Vectors of type '" + vector.qualifiedName() + "' take 1 or " + vector.lanes + " values");
+					return vector;
+				}
+				if (searchScopes(name) == null && functions.containsKey(name))
+					return functions.get(name).returnType();
+				// calling a structure creates an instance
+				if (searchScopes(name) == null && structures.containsKey(name.qualifiedName()))
+					return TypeReference.fromName(name);
+			}
 			return evaluateExpression(((UnaryExpression)expr).expression());
 		}
 		else
@@ -183,14 +317,123 @@ public class Semantic
 		else
 		if (expr instanceof NameLiteral)
 		{
-			StorageDeclaration item = searchScopes(((NameLiteral)expr).value());
+			Name name = ((NameLiteral)expr).value();
+			StorageDeclaration item = searchScopes(name);
 			if (item != null) return item.type();
+			// access to fields ('object.field')
+			if (name.isQualified())
+			{
+				item = searchScopes(name.slice(0, 1));
+				TypeReference type = (item != null) ? item.type() : null;
+				for (int i = 1; i < name.count() && type != null; ++i)
+				{
+					StorageDeclaration field = field(type, name.slice(i, 1).qualifiedName());
+					type = (field != null) ? field.type() : null;
+				}
+				if (type != null) return type;
+			}
 		}
 
 		context.listener.onError(null, "Unrecognized expression");
 		return null;
 	}
 
+	/**
+	 * Operators on vectors work element-wise. Arithmetic operators also take
+	 * a scalar of the element type, applied to every element.
+	 */
+	TypeReference evaluateVector( BinaryExpression expr, TypeReference left, TypeReference right )
+	{
+		TypeReference vector = (left != null && left.isVector()) ? left : right;
+		TokenType operation = expr.operation();
+		boolean valid;
+		switch (operation)
+		{
+			case TOK_ASSIGN:
+				valid = left == right;
+				break;
+			case TOK_PLUS:
+			case TOK_MINUS:
+			case TOK_MUL:
+			case TOK_DIV:
+			case TOK_PLUS_ASSIGN:
+			case TOK_MINUS_ASSIGN:
+			case TOK_MUL_ASSIGN:
+			case TOK_DIV_ASSIGN:
+				valid = true;
+				break;
+			case TOK_MOD:
+			case TOK_MOD_ASSIGN:
+			case TOK_BAND_ASSIGN:
+			case TOK_BOR_ASSIGN:
+			case TOK_XOR_ASSIGN:
+			case TOK_SHL_ASSIGN:
+			case TOK_SHR_ASSIGN:
+				valid = vector.element != TypeReference.FLOAT32;
+				break;
+			default:
+				valid = false;
+		}
+		if (!valid)
+		{
+			context.listener.onError(expr.location(), "Operator '" + operation.getName() + "' is not supported by vectors of type '" + vector.qualifiedName() + "'");
+			return null;
+		}
+		if (left == right) return vector;
+		// compound assignments must update a vector
+		boolean assignment = operation.name().endsWith("_ASSIGN");
+		if ((left == vector && right == vector.element) || (!assignment && left == vector.element && right == vector))
+			return vector;
+		context.listener.onError(expr.location(), "Binary expression with arguments of different type");
+		return null;
+	}
+
+	/**
+	 * Returns whether the expression is a numeric literal that can be
+	 * represented by the given type.
+	 */
+	static boolean isLiteralOf( IExpression expr, TypeReference type )
+	{
+		while (expr instanceof AtomicExpression)
+			expr = ((AtomicExpression) expr).value();
+		if (expr instanceof UnaryExpression && ((UnaryExpression) expr).operation() == TokenType.TOK_MINUS)
+			expr = ((UnaryExpression) expr).expression();
+		if (expr instanceof FloatLiteral)
+			return type == TypeReference.FLOAT32 || type == TypeReference.FLOAT64;
+		if (expr instanceof IntegerLiteral)
+			return ConstantFolding.isInteger(type);
+		return false;
+	}
+
+	/**
+	 * Type tests ('x is T') take an instance and the name of a structure.
+	 */
+	TypeReference evaluateTypeTest( BinaryExpression expr )
+	{
+		TypeReference left = evaluateExpression(expr.left());
+		Name name = ((NameLiteral) expr.right()).value();
+		if (left != null && (left.isPrimitive || !structures.containsKey(left.qualifiedName())))
+			context.listener.onError(expr.location(), "Type tests require a structure instance");
+		if (!structures.containsKey(name.qualifiedName()))
+			context.listener.onError(name.location(), "Unknown structure '" + name + "'");
+		return TypeReference.BOOL;
+	}
+
+	/**
+	 * Returns the field with the given name in the structure or its parents.
+	 */
+	StorageDeclaration field( TypeReference type, String name )
+	{
+		Structure structure = (type.isPrimitive) ? null : structures.get(type.qualifiedName());
+		while (structure != null)
+		{
+			StorageDeclaration field = structure.field(name);
+			if (field != null) return field;
+			structure = (structure.parent != null) ? structures.get(structure.parent.qualifiedName()) : null;
+		}
+		return null;
+	}
+
 	Scope pushScope()
 	{
 		currentScope = new Scope();
@@ -200,15 +443,15 @@ public class Semantic
 
 	void popScope()
 	{
-		currentScope = scopes.pop();
+		scopes.pop();
+		currentScope = scopes.peek();
 	}
 
 	StorageDeclaration searchScopes( Name value )
 	{
-		for (int i = scopes.size() - 1; i >= 0; i--)
+		// innermost scopes are at the beginning of the list
+		for (Scope scope : scopes)
 		{
-		    Scope scope = scopes.get(i);
-
 		    StorageDeclaration item = scope.get(value);
 		    if (item != null) return item;
 		}
@@ -50,6 +50,18 @@ public class SourceLocation implements Cloneable
 		return value;
 	}
 
+	/**
+	 * Move the location by the given number of lines and columns.
+	 *
+	 * @param lines
+	 * @param columns
+	 */
+	public void shift( int lines, int columns )
+	{
+		line += lines;
+		column += columns;
+	}
+
 	@Override
 	public SourceLocation clone()
 	{
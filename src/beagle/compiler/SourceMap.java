@@ -0,0 +1,108 @@
+package beagle.compiler;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Positions in the Beagle source of the lines of the generated C files,
+ * written next to them so tools reading the C code (e.g. profilers) can
+ * report the source of each line without parsing the '#line' directives.
+ *
+ * The map is a text file with one record per line:
+ *
+ * - 'c <file>': the following records are about the given C file;
+ * - 's <file>': the following positions are in the given source file;
+ * - '<line> <source line>:<column>': the C line and the ones after it (up
+ *   to the next record) were generated from the given position;
+ * - '<line> -': the C line and the ones after it are not from the source.
+ *
+ * Source files are absolute paths and columns are the ones reported by
+ * the compiler messages. C files are named as in the '#line' directives
+ * restoring their line numbers.
+ */
+public class SourceMap
+{
+
+	/**
+	 * Records of each generated file.
+	 */
+	protected LinkedHashMap<String, ArrayList<Entry>> files = new LinkedHashMap<>();
+
+	/**
+	 * Maps the given line of the generated file to the source position (or
+	 * to no position if {@code null}).
+	 */
+	public void add( String fileName, int line, SourceLocation location )
+	{
+		ArrayList<Entry> entries = files.computeIfAbsent(fileName, k -> new ArrayList<>());
+		if (!entries.isEmpty())
+		{
+			Entry last = entries.get(entries.size() - 1);
+			if (last.location == null && location == null) return;
+			if (last.location != null && location != null && last.location.fileName.equals(location.fileName)
+				&& last.location.line == location.line && last.location.column == location.column) return;
+			// a line generated from several positions gets the last one
+			if (last.line == line) entries.remove(entries.size() - 1);
+		}
+		else
+		if (location == null)
+			return;
+		entries.add(new Entry(line, location));
+	}
+
+	public boolean isEmpty()
+	{
+		return files.isEmpty();
+	}
+
+	public void write( OutputStream output )
+	{
+		PrintStream printer = new PrintStream(output, false, StandardCharsets.UTF_8);
+		for (Map.Entry<String, ArrayList<Entry>> file : files.entrySet())
+		{
+			printer.println("c " + file.getKey());
+			String source = null;
+			for (Entry entry : file.getValue())
+			{
+				if (entry.location == null)
+				{
+					printer.println(entry.line + " -");
+					continue;
+				}
+				if (!entry.location.fileName.equals(source))
+				{
+					source = entry.location.fileName;
+					printer.println("s " + source);
+				}
+				printer.println(entry.line + " " + entry.location.line + ":" + entry.location.column);
+			}
+		}
+		printer.flush();
+	}
+
+	protected static class Entry
+	{
+
+		/**
+		 * Line of the generated file.
+		 */
+		public final int line;
+
+		/**
+		 * Source position or {@code null}.
+		 */
+		public final SourceLocation location;
+
+		public Entry( int line, SourceLocation location )
+		{
+			this.line = line;
+			this.location = location;
+		}
+
+	}
+
+}
@@ -0,0 +1,66 @@
+package beagle.compiler;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counters collected by the compilation passes.
+ *
+ * Counters are printed in the order they were first set, so related counters
+ * should be set together.
+ */
+public class Statistics
+{
+
+	protected LinkedHashMap<String, Long> values;
+
+	public Statistics()
+	{
+		this.values = new LinkedHashMap<>();
+	}
+
+	public void set( String name, long value )
+	{
+		values.put(name, value);
+	}
+
+	public void add( String name, long value )
+	{
+		values.merge(name, value, Long::sum);
+	}
+
+	public long get( String name )
+	{
+		Long value = values.get(name);
+		return (value == null) ? 0 : value;
+	}
+
+	public boolean isEmpty()
+	{
+		return values.isEmpty();
+	}
+
+	public void clear()
+	{
+		values.clear();
+	}
+
+	public void print( PrintStream out )
+	{
+		int width = 0;
+		for (String name : values.keySet())
+			width = Math.max(width, name.length());
+
+		for (Map.Entry<String, Long> entry : values.entrySet())
+		{
+			StringBuilder line = new StringBuilder("  ");
+			line.append(entry.getKey());
+			for (int i = entry.getKey().length(); i <= width; ++i)
+				line.append(' ');
+			line.append(entry.getValue());
+			out.println(line);
+		}
+	}
+
+}
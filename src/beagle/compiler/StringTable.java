@@ -0,0 +1,256 @@
+package beagle.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Pool of string literals.
+ *
+ * Each distinct string is stored once and receives an index in the order it
+ * was added, so the generated 'STRING_TABLE' has the same layout every time
+ * the same sources are compiled. Strings are kept as they appear in the
+ * source code (i.e. escape sequences are not expanded).
+ */
+public class StringTable implements Iterable<String>
+{
+
+	protected ArrayList<String> values;
+
+	protected HashMap<String, Integer> indices;
+
+	public StringTable()
+	{
+		this.values = new ArrayList<>();
+		this.indices = new HashMap<>();
+	}
+
+	/**
+	 * Add the given string to the table, if not already present.
+	 *
+	 * @return Index of the string in the table.
+	 */
+	public int add( String value )
+	{
+		Integer index = indices.get(value);
+		if (index != null) return index;
+
+		index = values.size();
+		values.add(value);
+		indices.put(value, index);
+		return index;
+	}
+
+	/**
+	 * Returns the index of the given string or -1 if not present.
+	 */
+	public int indexOf( String value )
+	{
+		Integer index = indices.get(value);
+		return (index == null) ? -1 : index;
+	}
+
+	public String get( int index )
+	{
+		return values.get(index);
+	}
+
+	public int size()
+	{
+		return values.size();
+	}
+
+	public boolean isEmpty()
+	{
+		return values.isEmpty();
+	}
+
+	public void clear()
+	{
+		values.clear();
+		indices.clear();
+	}
+
+	public boolean contains( String value )
+	{
+		return indices.containsKey(value);
+	}
+
+	@Override
+	public Iterator<String> iterator()
+	{
+		return values.iterator();
+	}
+
+	/**
+	 * Returns the length in bytes (UTF-8) of the given string after the
+	 * escape sequences are expanded.
+	 */
+	public static int length( String value )
+	{
+		int length = 0;
+		int i = 0;
+		while (i < value.length())
+		{
+			char current = value.charAt(i++);
+			if (current != '\\' || i >= value.length())
+			{
+				if (Character.isHighSurrogate(current) && i < value.length())
+				{
+					// code points outside the BMP use 4 bytes
+					++i;
+					length += 4;
+				}
+				else
+					length += utf8Length(current);
+				continue;
+			}
+
+			current = value.charAt(i++);
+			if (current == 'x')
+			{
+				// hexadecimal escape sequences produce a single byte
+				while (i < value.length() && Character.digit(value.charAt(i), 16) >= 0) ++i;
+				length += 1;
+			}
+			else
+			if (current == 'u' || current == 'U')
+			{
+				int count = (current == 'u') ? 4 : 8;
+				int end = Math.min(i + count, value.length());
+				int codePoint = 0;
+				for (; i < end && Character.digit(value.charAt(i), 16) >= 0; ++i)
+					codePoint = codePoint * 16 + Character.digit(value.charAt(i), 16);
+				length += utf8Length(codePoint);
+			}
+			else
+			if (current >= '0' && current <= '7')
+			{
+				// octal escape sequences have up to 3 digits
+				for (int count = 1; count < 3 && i < value.length() && value.charAt(i) >= '0' && value.charAt(i) <= '7'; ++count) ++i;
+				length += 1;
+			}
+			else
+				length += 1;
+		}
+		return length;
+	}
+
+	/**
+	 * Returns the content (UTF-8) of the given string after the escape
+	 * sequences are expanded, as a C compiler would.
+	 */
+	public static byte[] bytes( String value )
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream(value.length());
+		int i = 0;
+		while (i < value.length())
+		{
+			int start = i;
+			char current = value.charAt(i++);
+			if (current != '\\' || i >= value.length())
+			{
+				if (Character.isHighSurrogate(current) && i < value.length()) ++i;
+				output.writeBytes(value.substring(start, i).getBytes(StandardCharsets.UTF_8));
+				continue;
+			}
+
+			current = value.charAt(i++);
+			int code = 0;
+			if (current == 'x')
+			{
+				for (; i < value.length() && Character.digit(value.charAt(i), 16) >= 0; ++i)
+					code = code * 16 + Character.digit(value.charAt(i), 16);
+				output.write(code);
+			}
+			else
+			if (current == 'u' || current == 'U')
+			{
+				int end = Math.min(i + ((current == 'u') ? 4 : 8), value.length());
+				for (; i < end && Character.digit(value.charAt(i), 16) >= 0; ++i)
+					code = code * 16 + Character.digit(value.charAt(i), 16);
+				output.writeBytes(new String(Character.toChars(code)).getBytes(StandardCharsets.UTF_8));
+			}
+			else
+			if (current >= '0' && current <= '7')
+			{
+				code = current - '0';
+				for (int count = 1; count < 3 && i < value.length() && value.charAt(i) >= '0' && value.charAt(i) <= '7'; ++count)
+					code = code * 8 + (value.charAt(i++) - '0');
+				output.write(code);
+			}
+			else
+			{
+				switch (current)
+				{
+					case 'a': code = 7; break;
+					case 'b': code = '\b'; break;
+					case 'f': code = '\f'; break;
+					case 'n': code = '\n'; break;
+					case 'r': code = '\r'; break;
+					case 't': code = '\t'; break;
+					case 'v': code = 11; break;
+					default: code = current; break;
+				}
+				output.write(code);
+			}
+		}
+		return output.toByteArray();
+	}
+
+	private static int utf8Length( int codePoint )
+	{
+		if (codePoint < 0x80) return 1;
+		if (codePoint < 0x800) return 2;
+		if (codePoint < 0x10000) return 3;
+		return 4;
+	}
+
+	/**
+	 * Returns the content of the given string as it should appear inside a
+	 * C string literal.
+	 *
+	 * Escape sequences are kept as they are and the remaining characters that
+	 * can not appear in a C string literal (e.g. double quotes in strings
+	 * delimited by single quotes) are escaped.
+	 */
+	public static String literal( String value )
+	{
+		StringBuilder output = null;
+		int i = 0;
+		while (i < value.length())
+		{
+			char current = value.charAt(i);
+			String replacement = null;
+			if (current == '\\' && i + 1 < value.length())
+			{
+				// keep the escape sequence
+				if (output != null) output.append(current).append(value.charAt(i + 1));
+				i += 2;
+				continue;
+			}
+			if (current == '"') replacement = "\\\"";
+			else
+			if (current == '\\') replacement = "\\\\";
+			else
+			if (current == '\n') replacement = "\\n";
+			else
+			if (current == '\r') replacement = "\\r";
+
+			if (replacement != null && output == null)
+				output = new StringBuilder(value.length() + 8).append(value, 0, i);
+			if (output != null)
+			{
+				if (replacement != null)
+					output.append(replacement);
+				else
+					output.append(current);
+			}
+			++i;
+		}
+		return (output == null) ? value : output.toString();
+	}
+
+}
@@ -0,0 +1,50 @@
+package beagle.compiler;
+
+/**
+ * Output formats of the compiler.
+ */
+public enum Target
+{
+
+	/**
+	 * C99 source code.
+	 */
+	C("c", "c"),
+
+	/**
+	 * LLVM assembly (textual IR).
+	 */
+	LLVM("llvm", "ll"),
+
+	/**
+	 * WebAssembly binary module.
+	 */
+	WASM("wasm", "wasm");
+
+	/**
+	 * Name used in the command line.
+	 */
+	public final String option;
+
+	/**
+	 * Extension of the output file.
+	 */
+	public final String extension;
+
+	private Target( String option, String extension )
+	{
+		this.option = option;
+		this.extension = extension;
+	}
+
+	/**
+	 * Returns the target with the given command line name or {@code null}.
+	 */
+	public static Target fromOption( String value )
+	{
+		for (Target item : values())
+			if (item.option.equals(value)) return item;
+		return null;
+	}
+
+}
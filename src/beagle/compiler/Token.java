@@ -17,6 +17,16 @@ public class Token
 
 	public List<Comment> comments;
 
+	/**
+	 * Position of the first character of the token in the source code.
+	 */
+	public int offset;
+
+	/**
+	 * Number of characters in the source code used by the token.
+	 */
+	public int length;
+
 	/**
 	 *
 	 * If {@code type} is null, creates a token infering its type. If the
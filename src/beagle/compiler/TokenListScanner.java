@@ -0,0 +1,67 @@
+package beagle.compiler;
+
+import java.util.List;
+
+/**
+ * Scanner that returns tokens previously extracted from the source code.
+ *
+ * Used to parse a slice of a token stream without scanning the text again.
+ * After the last token of the slice, this scanner always returns the given
+ * end of file token.
+ */
+public class TokenListScanner implements IScanner
+{
+
+	private CompilationContext context;
+
+	private String fileName;
+
+	private List<Token> tokens;
+
+	private Token eof;
+
+	private int current;
+
+	private int end;
+
+	/**
+	 * Create a scanner for the tokens in range [start, end).
+	 *
+	 * @param context
+	 * @param fileName
+	 * @param tokens
+	 * @param start
+	 * @param end
+	 * @param eof
+	 */
+	public TokenListScanner( CompilationContext context, String fileName, List<Token> tokens, int start, int end, Token eof )
+	{
+		this.context = context;
+		this.fileName = fileName;
+		this.tokens = tokens;
+		this.current = start;
+		this.end = end;
+		this.eof = eof;
+	}
+
+	@Override
+	public Token readToken()
+	{
+		if (current < end)
+			return tokens.get(current++);
+		return eof;
+	}
+
+	@Override
+	public String getFileName()
+	{
+		return fileName;
+	}
+
+	@Override
+	public CompilationContext getContext()
+	{
+		return context;
+	}
+
+}
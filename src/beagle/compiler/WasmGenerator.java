@@ -0,0 +1,947 @@
+package beagle.compiler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+import beagle.compiler.tree.Argument;
+import beagle.compiler.tree.ArgumentList;
+import beagle.compiler.tree.AtomicExpression;
+import beagle.compiler.tree.BinaryExpression;
+import beagle.compiler.tree.Block;
+import beagle.compiler.tree.BooleanLiteral;
+import beagle.compiler.tree.CompilationUnit;
+import beagle.compiler.tree.ExpressionStmt;
+import beagle.compiler.tree.FloatLiteral;
+import beagle.compiler.tree.ForEachStmt;
+import beagle.compiler.tree.FormalParameter;
+import beagle.compiler.tree.Function;
+import beagle.compiler.tree.IExpression;
+import beagle.compiler.tree.IStatement;
+import beagle.compiler.tree.IfThenElseStmt;
+import beagle.compiler.tree.IntegerLiteral;
+import beagle.compiler.tree.Module;
+import beagle.compiler.tree.Name;
+import beagle.compiler.tree.NameLiteral;
+import beagle.compiler.tree.ReturnStmt;
+import beagle.compiler.tree.StorageDeclaration;
+import beagle.compiler.tree.StringLiteral;
+import beagle.compiler.tree.TypeReference;
+import beagle.compiler.tree.UnaryExpression;
+import beagle.compiler.tree.UnaryExpression.UnaryDirection;
+
+/**
+ * Generates a WebAssembly binary module.
+ *
+ * Code is generated directly from the syntax tree, whose structured control
+ * flow maps to WebAssembly blocks and loops. Each storage declaration becomes
+ * a local. Every function is exported with its qualified name, as is the
+ * memory, which holds the string table (as 'dynamic_string_' records followed
+ * by their content) in a data segment.
+ *
+ * Functions using constructions not supported yet (e.g. globals, structure
+ * fields, string operations) get a body that traps and a warning is reported.
+ */
+public class WasmGenerator
+{
+
+	static final int I32 = 0x7F;
+	static final int I64 = 0x7E;
+	static final int F32 = 0x7D;
+	static final int F64 = 0x7C;
+	static final int V128 = 0x7B;
+	static final int EMPTY = 0x40;
+
+	// sections
+	static final int TYPE_SECTION = 1;
+	static final int FUNCTION_SECTION = 3;
+	static final int MEMORY_SECTION = 5;
+	static final int EXPORT_SECTION = 7;
+	static final int CODE_SECTION = 10;
+	static final int DATA_SECTION = 11;
+
+	// instructions
+	static final int UNREACHABLE = 0x00;
+	static final int BLOCK = 0x02;
+	static final int LOOP = 0x03;
+	static final int IF = 0x04;
+	static final int ELSE = 0x05;
+	static final int END = 0x0B;
+	static final int BR = 0x0C;
+	static final int BR_IF = 0x0D;
+	static final int RETURN = 0x0F;
+	static final int CALL = 0x10;
+	static final int DROP = 0x1A;
+	static final int SELECT = 0x1B;
+	static final int LOCAL_GET = 0x20;
+	static final int LOCAL_SET = 0x21;
+	static final int LOCAL_TEE = 0x22;
+	static final int I32_CONST = 0x41;
+	static final int I64_CONST = 0x42;
+	static final int F32_CONST = 0x43;
+	static final int F64_CONST = 0x44;
+	static final int I32_EQZ = 0x45;
+	static final int I32_AND = 0x71;
+	static final int I32_XOR = 0x73;
+	static final int I64_XOR = 0x85;
+	static final int I32_EXTEND8_S = 0xC0;
+	static final int I32_EXTEND16_S = 0xC1;
+
+	/**
+	 * Address of the first string record (address 0 is kept as null).
+	 */
+	static final int DATA_START = 16;
+
+	static final int STRING_RECORD_SIZE = 12;
+
+	/**
+	 * Type of the string records (the type 0 means no type information).
+	 */
+	static final int STRING_TYPE = 1;
+
+	static final int PAGE_SIZE = 65536;
+
+	/**
+	 * Thrown when the function uses constructions not supported by the generator.
+	 */
+	@SuppressWarnings("serial")
+	static class UnsupportedException extends RuntimeException
+	{
+		UnsupportedException( String message )
+		{
+			super(message, null, false, false);
+		}
+	}
+
+	protected OutputStream output;
+
+	protected CompilationContext context;
+
+	protected ArrayList<Function> functions;
+
+	protected HashMap<String, Integer> functionIndices;
+
+	/**
+	 * Address of each string record.
+	 */
+	protected int[] strings;
+
+	// state of the function being generated
+
+	protected Function function;
+
+	protected WasmWriter code;
+
+	protected ArrayList<TypeReference> locals;
+
+	protected LinkedList<HashMap<Name, Integer>> scopes;
+
+	/**
+	 * Number of enclosing blocks (used to compute branch depths).
+	 */
+	protected int depth;
+
+	public WasmGenerator( CompilationContext context, OutputStream output )
+	{
+		this.output = output;
+		this.context = context;
+	}
+
+	public void generate( Module module )
+	{
+		functions = new ArrayList<>();
+		functionIndices = new HashMap<>();
+		for (CompilationUnit unit : module.units.values())
+		{
+			for (Function item : unit.functions)
+			{
+				functionIndices.put(item.name().qualifiedName(), functions.size());
+				functions.add(item);
+			}
+		}
+
+		WasmWriter data = generateStringTable();
+
+		// function signatures (identical signatures share the type)
+		WasmWriter types = new WasmWriter();
+		WasmWriter declarations = new WasmWriter();
+		HashMap<String, Integer> signatures = new HashMap<>();
+		declarations.u32(functions.size());
+		for (Function item : functions)
+		{
+			WasmWriter signature = new WasmWriter(16);
+			signature.u8(0x60);
+			int count = (item.parameters() == null) ? 0 : item.parameters().size();
+			signature.u32(count);
+			for (int i = 0; i < count; ++i)
+				signature.u8(valueType(item.parameters().get(i).type()));
+			if (item.returnType() == null)
+				signature.u32(0);
+			else
+				signature.u32(1).u8(valueType(item.returnType()));
+
+			String key = new String(signature.toByteArray(), StandardCharsets.ISO_8859_1);
+			Integer index = signatures.get(key);
+			if (index == null)
+			{
+				index = signatures.size();
+				signatures.put(key, index);
+				types.bytes(signature.toByteArray());
+			}
+			declarations.u32(index);
+		}
+		WasmWriter typeSection = new WasmWriter();
+		typeSection.u32(signatures.size());
+		typeSection.bytes(types.toByteArray());
+
+		WasmWriter memory = new WasmWriter(8);
+		memory.u32(1).u8(0x00).u32((DATA_START + data.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+
+		WasmWriter exports = new WasmWriter();
+		exports.u32(functions.size() + 1);
+		exports.name("memory").u8(0x02).u32(0);
+		for (int i = 0; i < functions.size(); ++i)
+			exports.name(functions.get(i).name().qualifiedName()).u8(0x00).u32(i);
+
+		WasmWriter bodies = new WasmWriter(4096);
+		bodies.u32(functions.size());
+		for (Function item : functions)
+			bodies.vector(generateFunction(item));
+
+		WasmWriter segments = new WasmWriter(data.size() + 16);
+		if (data.size() > 0)
+		{
+			segments.u32(1);
+			segments.u32(0).u8(I32_CONST).s64(DATA_START).u8(END);
+			segments.vector(data);
+		}
+		else
+			segments.u32(0);
+
+		WasmWriter result = new WasmWriter(bodies.size() + data.size() + 256);
+		result.bytes(new byte[]{ 0x00, 0x61, 0x73, 0x6D, 0x01, 0x00, 0x00, 0x00 });
+		result.section(TYPE_SECTION, typeSection);
+		result.section(FUNCTION_SECTION, declarations);
+		result.section(MEMORY_SECTION, memory);
+		result.section(EXPORT_SECTION, exports);
+		result.section(CODE_SECTION, bodies);
+		result.section(DATA_SECTION, segments);
+		try
+		{
+			result.writeTo(output);
+			output.flush();
+		}
+		catch (IOException ex)
+		{
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * Lays out the string table: every 'dynamic_string_' record (type, length
+	 * and content address, like in the 32-bit C runtime) followed by the
+	 * null-terminated contents.
+	 */
+	protected WasmWriter generateStringTable()
+	{
+		StringTable table = context.stringTable;
+		strings = new int[table.size()];
+		WasmWriter records = new WasmWriter(table.size() * STRING_RECORD_SIZE);
+		WasmWriter contents = new WasmWriter();
+
+		int address = DATA_START + table.size() * STRING_RECORD_SIZE;
+		int index = 0;
+		for (String item : table)
+		{
+			byte[] content = StringTable.bytes(item);
+			strings[index] = DATA_START + index * STRING_RECORD_SIZE;
+			records.i32(STRING_TYPE).i32(content.length).i32(address + contents.size());
+			contents.bytes(content).u8(0);
+			++index;
+		}
+
+		records.bytes(contents.toByteArray());
+		return records;
+	}
+
+	protected WasmWriter generateFunction( Function function )
+	{
+		this.function = function;
+		code = new WasmWriter(256);
+		locals = new ArrayList<>();
+		scopes = new LinkedList<>();
+		depth = 0;
+
+		scopes.push(new HashMap<>());
+		if (function.parameters() != null)
+		{
+			for (FormalParameter item : function.parameters())
+				declare(item.name(), item.type());
+		}
+		int parameters = locals.size();
+
+		try
+		{
+			// vectors only appear in signatures
+			for (int i = 0; i < parameters; ++i)
+				if (locals.get(i).isVector()) throw new UnsupportedException("vector parameter");
+			if (function.returnType() != null && function.returnType().isVector())
+				throw new UnsupportedException("vector result");
+			if (function.body() != null)
+				generateBlock(function.body());
+			// falling off the end of the function
+			if (function.returnType() != null)
+				generateZero(function.returnType());
+		}
+		catch (UnsupportedException ex)
+		{
+			context.listener.onWarning(function.location(), "Function '" + function.name() + "' traps when called (" + ex.getMessage() + " not supported by the WebAssembly target)");
+			code.clear();
+			code.u8(UNREACHABLE);
+			locals.subList(parameters, locals.size()).clear();
+		}
+		code.u8(END);
+
+		// consecutive locals with the same type are declared together
+		WasmWriter result = new WasmWriter(code.size() + 16);
+		WasmWriter groups = new WasmWriter();
+		int count = 0;
+		for (int i = parameters; i < locals.size();)
+		{
+			int type = valueType(locals.get(i));
+			int start = i;
+			while (i < locals.size() && valueType(locals.get(i)) == type) ++i;
+			groups.u32(i - start).u8(type);
+			++count;
+		}
+		result.u32(count);
+		result.bytes(groups.toByteArray());
+		result.bytes(code.toByteArray());
+		code = null;
+		this.function = null;
+		return result;
+	}
+
+	/*
+	 * Statements
+	 */
+
+	protected void generateBlock( Block block )
+	{
+		scopes.push(new HashMap<>());
+		for (IStatement item : block)
+			generateStatement(item);
+		scopes.pop();
+	}
+
+	protected void generateStatement( IStatement stmt )
+	{
+		if (stmt instanceof Block)
+			generateBlock((Block) stmt);
+		else
+		if (stmt instanceof StorageDeclaration)
+		{
+			StorageDeclaration storage = (StorageDeclaration) stmt;
+			if (storage.type() == null) throw new UnsupportedException("variable without type");
+			if (storage.type().isVector()) throw new UnsupportedException("vector variable");
+			int local = -1;
+			if (storage.initializer() != null)
+			{
+				generateValue(storage.initializer(), storage.type());
+				local = declare(storage.name(), storage.type());
+				code.u8(LOCAL_SET).u32(local);
+			}
+			else
+			{
+				// locals declared in loops must start from zero in every iteration
+				local = declare(storage.name(), storage.type());
+				generateZero(storage.type());
+				code.u8(LOCAL_SET).u32(local);
+			}
+		}
+		else
+		if (stmt instanceof IfThenElseStmt)
+		{
+			IfThenElseStmt cond = (IfThenElseStmt) stmt;
+			generateCondition(cond.condition());
+			code.u8(IF).u8(EMPTY);
+			++depth;
+			generateScoped(cond.thenSide());
+			if (cond.elseSide() != null)
+			{
+				code.u8(ELSE);
+				generateScoped(cond.elseSide());
+			}
+			--depth;
+			code.u8(END);
+		}
+		else
+		if (stmt instanceof ForEachStmt)
+			generateForEach((ForEachStmt) stmt);
+		else
+		if (stmt instanceof ReturnStmt)
+		{
+			IExpression expr = ((ReturnStmt) stmt).expression();
+			if (expr != null)
+			{
+				if (function.returnType() == null) throw new UnsupportedException("returning a value from a function without return type");
+				generateValue(expr, function.returnType());
+			}
+			code.u8(RETURN);
+		}
+		else
+		if (stmt instanceof ExpressionStmt)
+		{
+			if (generateExpression(((ExpressionStmt) stmt).expression()) != null)
+				code.u8(DROP);
+		}
+		else
+			throw new UnsupportedException(stmt.getClass().getSimpleName());
+	}
+
+	protected void generateScoped( IStatement stmt )
+	{
+		scopes.push(new HashMap<>());
+		generateStatement(stmt);
+		scopes.pop();
+	}
+
+	/**
+	 * Generates 'for x in range(...)' as a counted loop. The end and step values
+	 * are evaluated only once.
+	 */
+	protected void generateForEach( ForEachStmt stmt )
+	{
+		ArgumentList arguments = stmt.range();
+		if (arguments == null) throw new UnsupportedException("iteration over " + stmt.expression.getClass().getSimpleName());
+
+		scopes.push(new HashMap<>());
+		TypeReference type = stmt.iterator.type();
+		if (type == null || !isInteger(type)) throw new UnsupportedException("range iterator");
+		int counter = declare(null, type);
+		int end = declare(null, type);
+		if (arguments.size() == 1)
+			generateZero(type);
+		else
+			generateValue(arguments.get(0).value(), type);
+		code.u8(LOCAL_SET).u32(counter);
+		generateValue(arguments.get((arguments.size() == 1) ? 0 : 1).value(), type);
+		code.u8(LOCAL_SET).u32(end);
+
+		// the direction of the comparison depends on the sign of the step
+		IExpression stepExpr = (arguments.size() == 3) ? arguments.get(2).value() : null;
+		long constantStep = 1;
+		int step = -1;
+		if (stepExpr instanceof IntegerLiteral)
+		{
+			constantStep = ((IntegerLiteral) stepExpr).value();
+			// reported by Semantic if written in the source
+			if (constantStep == 0)
+			{
+				scopes.pop();
+				return;
+			}
+		}
+		else
+		if (stepExpr != null)
+		{
+			step = declare(null, type);
+			generateValue(stepExpr, type);
+			code.u8(LOCAL_SET).u32(step);
+		}
+
+		code.u8(BLOCK).u8(EMPTY);
+		code.u8(LOOP).u8(EMPTY);
+		depth += 2;
+
+		// exit when the counter reaches the end
+		boolean is64 = valueType(type) == I64;
+		boolean unsigned = isUnsigned(type);
+		if (step < 0)
+		{
+			code.u8(LOCAL_GET).u32(counter).u8(LOCAL_GET).u32(end);
+			code.u8((constantStep > 0) ? compare(TokenType.TOK_LT, type) : compare(TokenType.TOK_GT, type));
+		}
+		else
+		{
+			// a step of zero does not iterate
+			code.u8(LOCAL_GET).u32(counter).u8(LOCAL_GET).u32(end).u8(compare(TokenType.TOK_LT, type));
+			code.u8(LOCAL_GET).u32(counter).u8(LOCAL_GET).u32(end).u8(compare(TokenType.TOK_GT, type));
+			code.u8(LOCAL_GET).u32(step);
+			generateConstant(type, 0);
+			code.u8(compare(TokenType.TOK_LT, type)).u8(I32_AND);
+			code.u8(LOCAL_GET).u32(step);
+			if (is64)
+				code.u8(I64_CONST).s64(0).u8(unsigned ? 0x56 : 0x55);
+			else
+				code.u8(I32_CONST).s64(0).u8(unsigned ? 0x4B : 0x4A);
+			code.u8(SELECT);
+		}
+		code.u8(I32_EQZ).u8(BR_IF).u32(1);
+
+		// the iterator receives the counter, which is incremented right away
+		int iterator = declare(stmt.iterator.name(), type);
+		code.u8(LOCAL_GET).u32(counter).u8(LOCAL_SET).u32(iterator);
+		code.u8(LOCAL_GET).u32(counter);
+		if (step < 0)
+			generateConstant(type, constantStep);
+		else
+			code.u8(LOCAL_GET).u32(step);
+		code.u8(arithmetic(TokenType.TOK_PLUS, type));
+		wrap(type);
+		code.u8(LOCAL_SET).u32(counter);
+
+		generateScoped(stmt.statement);
+		code.u8(BR).u32(0);
+
+		depth -= 2;
+		code.u8(END).u8(END);
+		scopes.pop();
+	}
+
+	/*
+	 * Expressions
+	 */
+
+	/**
+	 * Generates an expression whose value must have the given type.
+	 */
+	protected void generateValue( IExpression expr, TypeReference expected )
+	{
+		TypeReference type = generateExpression(expr);
+		if (type == null || valueType(type) != valueType(expected))
+			throw new UnsupportedException("conversion from " + typeName(type) + " to " + typeName(expected));
+	}
+
+	/**
+	 * Generates the condition of a branch. Values other than booleans are
+	 * true when not zero (as in C).
+	 */
+	protected void generateCondition( IExpression expr )
+	{
+		TypeReference type = generateExpression(expr);
+		if (type == null || type.isVector())
+			throw new UnsupportedException("conversion from " + typeName(type) + " to " + typeName(TypeReference.BOOL));
+		if (valueType(type) == I32) return;
+		generateZero(type);
+		code.u8(compare(TokenType.TOK_NE, type));
+	}
+
+	/**
+	 * Generates the given expression, leaving its value on the stack.
+	 *
+	 * @return Type of the value or {@code null} for calls to functions without
+	 *    return type.
+	 */
+	protected TypeReference generateExpression( IExpression expr )
+	{
+		if (expr instanceof AtomicExpression)
+			return generateExpression(((AtomicExpression) expr).value());
+		else
+		if (expr instanceof IntegerLiteral)
+		{
+			IntegerLiteral literal = (IntegerLiteral) expr;
+			generateConstant(literal.type(), literal.value());
+			return literal.type();
+		}
+		else
+		if (expr instanceof FloatLiteral)
+		{
+			code.u8(F32_CONST).f32(((FloatLiteral) expr).value());
+			return TypeReference.FLOAT32;
+		}
+		else
+		if (expr instanceof BooleanLiteral)
+		{
+			code.u8(I32_CONST).s64((((BooleanLiteral) expr).value()) ? 1 : 0);
+			return TypeReference.BOOL;
+		}
+		else
+		if (expr instanceof StringLiteral)
+		{
+			StringLiteral literal = (StringLiteral) expr;
+			int index = context.stringTable.indexOf(literal.value());
+			if (index < 0) throw new UnsupportedException("string not in the table");
+			code.u8(I32_CONST).s64(strings[index]);
+			return TypeReference.STRING;
+		}
+		else
+		if (expr instanceof NameLiteral)
+		{
+			int local = local(((NameLiteral) expr).value());
+			code.u8(LOCAL_GET).u32(local);
+			return locals.get(local);
+		}
+		else
+		if (expr instanceof UnaryExpression)
+			return generateUnary((UnaryExpression) expr);
+		else
+		if (expr instanceof BinaryExpression)
+			return generateBinary((BinaryExpression) expr);
+
+		throw new UnsupportedException(expr.getClass().getSimpleName());
+	}
+
+	protected TypeReference generateUnary( UnaryExpression expr )
+	{
+		TokenType operation = expr.operation();
+		switch (operation)
+		{
+			case TOK_LEFT_PAR:
+				return generateCall(expr);
+			case TOK_INC:
+			case TOK_DEC:
+			{
+				int local = target(expr.expression());
+				TypeReference type = locals.get(local);
+				if (!isInteger(type)) throw new UnsupportedException("increment of " + typeName(type));
+				// postfix operators leave the previous value on the stack
+				if (expr.direction() == UnaryDirection.POSTFIX)
+					code.u8(LOCAL_GET).u32(local);
+				code.u8(LOCAL_GET).u32(local);
+				generateConstant(type, 1);
+				code.u8(arithmetic((operation == TokenType.TOK_INC) ? TokenType.TOK_PLUS : TokenType.TOK_MINUS, type));
+				wrap(type);
+				code.u8((expr.direction() == UnaryDirection.POSTFIX) ? LOCAL_SET : LOCAL_TEE).u32(local);
+				return type;
+			}
+			case TOK_MINUS:
+			{
+				// integers are subtracted from zero, so the zero comes first
+				int start = code.size();
+				TypeReference type = generateExpression(expr.expression());
+				if (isFloat(type))
+				{
+					code.u8((type == TypeReference.FLOAT32) ? 0x8C : 0x9A);
+					return type;
+				}
+				if (!isInteger(type)) throw new UnsupportedException("negation of " + typeName(type));
+				byte[] operand = Arrays.copyOfRange(code.toByteArray(), start, code.size());
+				code.size = start;
+				generateConstant(type, 0);
+				code.bytes(operand);
+				code.u8(arithmetic(TokenType.TOK_MINUS, type));
+				wrap(type);
+				return type;
+			}
+			case TOK_NOT:
+			case TOK_BANG:
+				generateValue(expr.expression(), TypeReference.BOOL);
+				code.u8(I32_EQZ);
+				return TypeReference.BOOL;
+			case TOK_TILDE:
+			{
+				TypeReference type = generateExpression(expr.expression());
+				if (!isInteger(type)) throw new UnsupportedException("bitwise negation of " + typeName(type));
+				generateConstant(type, -1);
+				code.u8((valueType(type) == I64) ? I64_XOR : I32_XOR);
+				wrap(type);
+				return type;
+			}
+			default:
+				throw new UnsupportedException("operator " + operation);
+		}
+	}
+
+	protected TypeReference generateCall( UnaryExpression expr )
+	{
+		if (!(expr.expression() instanceof NameLiteral)) throw new UnsupportedException("indirect call");
+		Name name = ((NameLiteral) expr.expression()).value();
+		Integer index = functionIndices.get(name.qualifiedName());
+		if (index == null || lookup(name) != null) throw new UnsupportedException("call to '" + name + "'");
+		Function callee = functions.get(index);
+
+		int count = (callee.parameters() == null) ? 0 : callee.parameters().size();
+		ArrayList<IExpression> arguments = new ArrayList<>();
+		if (expr.extra() instanceof ArgumentList)
+		{
+			for (Argument item : (ArgumentList) expr.extra())
+			{
+				if (item.name() != null) throw new UnsupportedException("named argument");
+				arguments.add(item.value());
+			}
+		}
+		else
+		if (expr.extra() != null)
+			arguments.add(expr.extra());
+		if (arguments.size() != count) throw new UnsupportedException("call to '" + name + "'");
+
+		for (int i = 0; i < count; ++i)
+			generateValue(arguments.get(i), callee.parameters().get(i).type());
+		code.u8(CALL).u32(index);
+		return callee.returnType();
+	}
+
+	protected TypeReference generateBinary( BinaryExpression expr )
+	{
+		TokenType operation = expr.operation();
+
+		if (operation == TokenType.TOK_AND || operation == TokenType.TOK_OR)
+		{
+			// the right side is only evaluated when needed
+			generateValue(expr.left(), TypeReference.BOOL);
+			code.u8(IF).u8(I32);
+			++depth;
+			if (operation == TokenType.TOK_AND)
+			{
+				generateValue(expr.right(), TypeReference.BOOL);
+				code.u8(ELSE).u8(I32_CONST).s64(0);
+			}
+			else
+			{
+				code.u8(I32_CONST).s64(1).u8(ELSE);
+				generateValue(expr.right(), TypeReference.BOOL);
+			}
+			--depth;
+			code.u8(END);
+			return TypeReference.BOOL;
+		}
+
+		if (operation == TokenType.TOK_ASSIGN)
+		{
+			int local = target(expr.left());
+			generateValue(expr.right(), locals.get(local));
+			code.u8(LOCAL_TEE).u32(local);
+			return locals.get(local);
+		}
+
+		TokenType compound = compound(operation);
+		if (compound != null)
+		{
+			int local = target(expr.left());
+			TypeReference type = locals.get(local);
+			code.u8(LOCAL_GET).u32(local);
+			generateValue(expr.right(), type);
+			code.u8(arithmetic(compound, type));
+			wrap(type);
+			code.u8(LOCAL_TEE).u32(local);
+			return type;
+		}
+
+		TypeReference type = generateExpression(expr.left());
+		if (type == null || type == TypeReference.STRING || !type.isPrimitive)
+			throw new UnsupportedException("operation on " + typeName(type));
+		generateValue(expr.right(), type);
+		switch (operation)
+		{
+			case TOK_EQ:
+			case TOK_NE:
+			case TOK_LT:
+			case TOK_LE:
+			case TOK_GT:
+			case TOK_GE:
+				code.u8(compare(operation, type));
+				return TypeReference.BOOL;
+			default:
+				code.u8(arithmetic(operation, type));
+				wrap(type);
+				return type;
+		}
+	}
+
+	/**
+	 * Returns the local referenced by the left side of an assignment.
+	 */
+	protected int target( IExpression expr )
+	{
+		while (expr instanceof AtomicExpression)
+			expr = ((AtomicExpression) expr).value();
+		if (!(expr instanceof NameLiteral)) throw new UnsupportedException("assignment to " + expr.getClass().getSimpleName());
+		return local(((NameLiteral) expr).value());
+	}
+
+	static TokenType compound( TokenType operation )
+	{
+		switch (operation)
+		{
+			case TOK_PLUS_ASSIGN: return TokenType.TOK_PLUS;
+			case TOK_MINUS_ASSIGN: return TokenType.TOK_MINUS;
+			case TOK_MUL_ASSIGN: return TokenType.TOK_MUL;
+			case TOK_DIV_ASSIGN: return TokenType.TOK_DIV;
+			case TOK_MOD_ASSIGN: return TokenType.TOK_MOD;
+			default: return null;
+		}
+	}
+
+	/**
+	 * Returns the opcode of the arithmetic operation for the given type.
+	 */
+	static int arithmetic( TokenType operation, TypeReference type )
+	{
+		int index;
+		switch (operation)
+		{
+			case TOK_PLUS: index = 0; break;
+			case TOK_MINUS: index = 1; break;
+			case TOK_MUL: index = 2; break;
+			case TOK_DIV: index = 3; break;
+			case TOK_MOD: index = 4; break;
+			default:
+				throw new UnsupportedException("operator " + operation);
+		}
+
+		if (isFloat(type))
+		{
+			if (index == 4) throw new UnsupportedException("floating-point modulo");
+			return ((type == TypeReference.FLOAT32) ? 0x92 : 0xA0) + index;
+		}
+		if (type == TypeReference.BOOL) throw new UnsupportedException("arithmetic on booleans");
+		int base = (valueType(type) == I64) ? 0x7C : 0x6A;
+		// division and remainder have signed and unsigned versions
+		if (index == 3) return base + ((isUnsigned(type)) ? 4 : 3);
+		if (index == 4) return base + ((isUnsigned(type)) ? 6 : 5);
+		return base + index;
+	}
+
+	/**
+	 * Returns the opcode of the comparison for the given type.
+	 */
+	static int compare( TokenType operation, TypeReference type )
+	{
+		if (isFloat(type))
+		{
+			int base = (type == TypeReference.FLOAT32) ? 0x5B : 0x61;
+			switch (operation)
+			{
+				case TOK_EQ: return base;
+				case TOK_NE: return base + 1;
+				case TOK_LT: return base + 2;
+				case TOK_GT: return base + 3;
+				case TOK_LE: return base + 4;
+				case TOK_GE: return base + 5;
+				default: break;
+			}
+		}
+		else
+		{
+			// eq, ne, lt_s, lt_u, gt_s, gt_u, le_s, le_u, ge_s, ge_u
+			int base = (valueType(type) == I64) ? 0x51 : 0x46;
+			int unsigned = (isUnsigned(type)) ? 1 : 0;
+			switch (operation)
+			{
+				case TOK_EQ: return base;
+				case TOK_NE: return base + 1;
+				case TOK_LT: return base + 2 + unsigned;
+				case TOK_GT: return base + 4 + unsigned;
+				case TOK_LE: return base + 6 + unsigned;
+				case TOK_GE: return base + 8 + unsigned;
+				default: break;
+			}
+		}
+		throw new UnsupportedException("operator " + operation);
+	}
+
+	/**
+	 * Truncates the value on the stack to the width of types narrower than
+	 * 32 bits.
+	 */
+	protected void wrap( TypeReference type )
+	{
+		if (type == TypeReference.INT8)
+			code.u8(I32_EXTEND8_S);
+		else
+		if (type == TypeReference.INT16)
+			code.u8(I32_EXTEND16_S);
+		else
+		if (type == TypeReference.UINT8)
+			code.u8(I32_CONST).s64(0xFF).u8(I32_AND);
+		else
+		if (type == TypeReference.UINT16)
+			code.u8(I32_CONST).s64(0xFFFF).u8(I32_AND);
+	}
+
+	protected void generateConstant( TypeReference type, long value )
+	{
+		if (valueType(type) == I64)
+			code.u8(I64_CONST).s64(value);
+		else
+			code.u8(I32_CONST).s64((int) value);
+	}
+
+	protected void generateZero( TypeReference type )
+	{
+		switch (valueType(type))
+		{
+			case I64: code.u8(I64_CONST).s64(0); break;
+			case F32: code.u8(F32_CONST).f32(0); break;
+			case F64: code.u8(F64_CONST).f64(0); break;
+			default: code.u8(I32_CONST).s64(0); break;
+		}
+	}
+
+	/*
+	 * Locals
+	 */
+
+	protected int declare( Name name, TypeReference type )
+	{
+		if (type == null) throw new UnsupportedException("storage without type");
+		locals.add(type);
+		if (name != null) scopes.peek().put(name, locals.size() - 1);
+		return locals.size() - 1;
+	}
+
+	protected Integer lookup( Name name )
+	{
+		// innermost scopes are at the beginning of the list
+		for (HashMap<Name, Integer> scope : scopes)
+		{
+			Integer local = scope.get(name);
+			if (local != null) return local;
+		}
+		return null;
+	}
+
+	protected int local( Name name )
+	{
+		Integer local = lookup(name);
+		if (local == null) throw new UnsupportedException("reference to '" + name + "'");
+		return local;
+	}
+
+	/*
+	 * Types
+	 */
+
+	/**
+	 * Returns the WebAssembly type of values of the given type (strings and
+	 * structures are addresses).
+	 */
+	static int valueType( TypeReference type )
+	{
+		if (type.isVector()) return V128;
+		if (type == TypeReference.INT64 || type == TypeReference.UINT64) return I64;
+		if (type == TypeReference.FLOAT32) return F32;
+		if (type == TypeReference.FLOAT64) return F64;
+		return I32;
+	}
+
+	static String typeName( TypeReference type )
+	{
+		return (type == null) ? "void" : type.qualifiedName();
+	}
+
+	static boolean isInteger( TypeReference type )
+	{
+		return type == TypeReference.INT8 || type == TypeReference.INT16 || type == TypeReference.INT32
+			|| type == TypeReference.INT64 || type == TypeReference.UINT8 || type == TypeReference.UINT16
+			|| type == TypeReference.UINT32 || type == TypeReference.UINT64;
+	}
+
+	static boolean isUnsigned( TypeReference type )
+	{
+		return type == TypeReference.UINT8 || type == TypeReference.UINT16 || type == TypeReference.UINT32
+			|| type == TypeReference.UINT64 || type == TypeReference.BOOL;
+	}
+
+	static boolean isFloat( TypeReference type )
+	{
+		return type == TypeReference.FLOAT32 || type == TypeReference.FLOAT64;
+	}
+
+}
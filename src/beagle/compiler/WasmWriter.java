@@ -0,0 +1,158 @@
+package beagle.compiler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer with the encodings used by WebAssembly binaries
+ * (LEB128 integers, little-endian floats and length-prefixed vectors).
+ *
+ * Sections and function bodies are written to their own buffers first, since
+ * their size prefix is only known at the end.
+ */
+public class WasmWriter
+{
+
+	protected byte[] data;
+
+	protected int size;
+
+	public WasmWriter()
+	{
+		this(256);
+	}
+
+	public WasmWriter( int capacity )
+	{
+		this.data = new byte[Math.max(capacity, 16)];
+		this.size = 0;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public void clear()
+	{
+		size = 0;
+	}
+
+	public WasmWriter u8( int value )
+	{
+		if (size == data.length) data = Arrays.copyOf(data, size * 2);
+		data[size++] = (byte) value;
+		return this;
+	}
+
+	public WasmWriter bytes( byte[] value )
+	{
+		return bytes(value, 0, value.length);
+	}
+
+	public WasmWriter bytes( byte[] value, int offset, int length )
+	{
+		if (size + length > data.length)
+			data = Arrays.copyOf(data, Math.max(data.length * 2, size + length));
+		System.arraycopy(value, offset, data, size, length);
+		size += length;
+		return this;
+	}
+
+	/**
+	 * Unsigned LEB128.
+	 */
+	public WasmWriter u32( long value )
+	{
+		do
+		{
+			int current = (int) (value & 0x7F);
+			value >>>= 7;
+			if (value != 0) current |= 0x80;
+			u8(current);
+		} while (value != 0);
+		return this;
+	}
+
+	/**
+	 * Signed LEB128 (used for both 32 and 64-bit integers).
+	 */
+	public WasmWriter s64( long value )
+	{
+		while (true)
+		{
+			int current = (int) (value & 0x7F);
+			value >>= 7;
+			boolean done = (value == 0 && (current & 0x40) == 0) || (value == -1 && (current & 0x40) != 0);
+			u8((done) ? current : current | 0x80);
+			if (done) return this;
+		}
+	}
+
+	public WasmWriter f32( float value )
+	{
+		int bits = Float.floatToRawIntBits(value);
+		for (int i = 0; i < 4; ++i)
+			u8(bits >>> (i * 8));
+		return this;
+	}
+
+	public WasmWriter f64( double value )
+	{
+		long bits = Double.doubleToRawLongBits(value);
+		for (int i = 0; i < 8; ++i)
+			u8((int) (bits >>> (i * 8)));
+		return this;
+	}
+
+	/**
+	 * Little-endian 32-bit integer (used in the data segment).
+	 */
+	public WasmWriter i32( int value )
+	{
+		for (int i = 0; i < 4; ++i)
+			u8(value >>> (i * 8));
+		return this;
+	}
+
+	/**
+	 * UTF-8 string prefixed by its length.
+	 */
+	public WasmWriter name( String value )
+	{
+		byte[] content = value.getBytes(StandardCharsets.UTF_8);
+		u32(content.length);
+		return bytes(content);
+	}
+
+	/**
+	 * Content of the given buffer prefixed by its length.
+	 */
+	public WasmWriter vector( WasmWriter value )
+	{
+		u32(value.size);
+		return bytes(value.data, 0, value.size);
+	}
+
+	/**
+	 * Section with the given identifier and content.
+	 */
+	public WasmWriter section( int id, WasmWriter content )
+	{
+		u8(id);
+		return vector(content);
+	}
+
+	public void writeTo( OutputStream output ) throws IOException
+	{
+		output.write(data, 0, size);
+	}
+
+	public byte[] toByteArray()
+	{
+		return Arrays.copyOf(data, size);
+	}
+
+}
@@ -0,0 +1,296 @@
+package beagle.compiler;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import beagle.compiler.tree.CompilationUnit;
+import beagle.compiler.tree.TypeImport;
+
+/**
+ * Continuous compilation driven by file system notifications.
+ *
+ * Every source file is compiled once at startup. After that, the parent
+ * directories are watched and only the files that changed (and the units
+ * importing them) are processed again. A single {@link CompilationContext}
+ * is used for the whole session.
+ */
+public class Watcher
+{
+
+	/**
+	 * Time (in milliseconds) without new events before a burst of changes is compiled.
+	 */
+	public static final int DEBOUNCE_TIME = 50;
+
+	public static final String EXTENSION = ".beagle";
+
+	protected CompilationContext context;
+
+	protected WatchService service;
+
+	/**
+	 * Watched directories and the corresponding watch keys.
+	 */
+	protected HashMap<WatchKey, Path> directories;
+
+	/**
+	 * Directories added as a whole, whose new source files are compiled too.
+	 */
+	protected HashSet<Path> sources;
+
+	/**
+	 * Every known source file, in the order they were added.
+	 */
+	protected LinkedHashMap<Path, Entry> entries;
+
+	/**
+	 * Functions per C file when splitting the output (-1 for a single file).
+	 */
+	protected int split;
+
+	public Watcher( CompilationContext context ) throws IOException
+	{
+		this(context, -1);
+	}
+
+	public Watcher( CompilationContext context, int split ) throws IOException
+	{
+		this.context = context;
+		this.split = split;
+		this.service = FileSystems.getDefault().newWatchService();
+		this.directories = new HashMap<>();
+		this.sources = new HashSet<>();
+		this.entries = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Add a source file or a directory containing source files.
+	 */
+	public void add( Path path ) throws IOException
+	{
+		path = path.toAbsolutePath().normalize();
+
+		if (Files.isDirectory(path))
+		{
+			register(path);
+			sources.add(path);
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, "*" + EXTENSION))
+			{
+				for (Path item : stream)
+					entries.put(item, new Entry(item, context.target));
+			}
+		}
+		else
+		{
+			register(path.getParent());
+			entries.put(path, new Entry(path, context.target));
+		}
+	}
+
+	protected void register( Path directory ) throws IOException
+	{
+		if (directories.containsValue(directory)) return;
+		WatchKey key = directory.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+		directories.put(key, directory);
+	}
+
+	/**
+	 * Compile every known file and wait for changes until the thread is interrupted.
+	 */
+	public void run() throws IOException, InterruptedException
+	{
+		update(new LinkedHashSet<>(entries.keySet()));
+
+		System.out.println("Watching " + directories.size() + " director" + ((directories.size() == 1) ? "y" : "ies"));
+
+		while (true)
+		{
+			Set<Path> changed = new LinkedHashSet<>();
+
+			// wait for the first event and then collect the remaining ones until
+			// the burst is over (editors usually write the same file several times)
+			WatchKey key = service.take();
+			while (key != null)
+			{
+				poll(key, changed);
+				key = service.poll(DEBOUNCE_TIME, TimeUnit.MILLISECONDS);
+			}
+
+			if (!changed.isEmpty()) update(changed);
+		}
+	}
+
+	protected void poll( WatchKey key, Set<Path> changed )
+	{
+		Path directory = directories.get(key);
+
+		for (WatchEvent<?> event : key.pollEvents())
+		{
+			if (event.kind() == OVERFLOW)
+			{
+				// some events were lost, so check every file in this directory
+				for (Path item : entries.keySet())
+					if (item.getParent().equals(directory)) changed.add(item);
+				continue;
+			}
+
+			Path path = directory.resolve((Path) event.context());
+			// files next to the ones added individually are not compiled
+			if (entries.containsKey(path) || (sources.contains(directory) && path.toString().endsWith(EXTENSION)))
+				changed.add(path);
+		}
+		key.reset();
+	}
+
+	/**
+	 * Recompile the given files and every unit importing them.
+	 */
+	protected void update( Set<Path> changed ) throws IOException
+	{
+		long start = System.nanoTime();
+		Set<Entry> affected = new LinkedHashSet<>();
+
+		for (Path path : changed)
+		{
+			Entry entry = entries.get(path);
+
+			if (!Files.exists(path))
+			{
+				if (entry != null)
+				{
+					entries.remove(path);
+					Files.deleteIfExists(Paths.get(entry.outputName));
+					Files.deleteIfExists(Paths.get(entry.outputName + ".map"));
+					System.out.println("Removed '" + path + "'");
+				}
+				continue;
+			}
+
+			if (entry == null)
+			{
+				entry = new Entry(path, context.target);
+				entries.put(path, entry);
+			}
+
+			String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+			// saving a file without changes produces the same events
+			if (content.equals(entry.content)) continue;
+			entry.content = content;
+
+			CompilationUnit unit = Main.parse(context, path.toString(), content);
+			if (unit == null) continue;
+			entry.unit = unit;
+			affected.add(entry);
+		}
+
+		if (affected.isEmpty()) return;
+
+		// units importing any of the modified packages must be checked again
+		Set<String> packages = new LinkedHashSet<>();
+		for (Entry entry : affected)
+			if (entry.unit.namespace() != null) packages.add(entry.unit.namespace().qualifiedName());
+		Set<Entry> importers = new LinkedHashSet<>();
+		for (Entry entry : entries.values())
+		{
+			if (entry.unit == null || affected.contains(entry)) continue;
+			for (TypeImport item : entry.unit.imports())
+			{
+				if (item != null && item.namespace() != null && packages.contains(item.namespace().qualifiedName()))
+				{
+					importers.add(entry);
+					break;
+				}
+			}
+		}
+		// the previous tree was already optimized, so start from the source again
+		for (Entry entry : importers)
+		{
+			CompilationUnit unit = Main.parse(context, entry.path.toString(), entry.content);
+			if (unit == null) continue;
+			entry.unit = unit;
+			affected.add(entry);
+		}
+
+		int written = 0;
+		for (Entry entry : affected)
+		{
+			Main.analyze(context, entry.unit);
+			Main.optimize(context, entry.unit);
+
+			// same output as a normal build
+			if (split >= 0 && context.target == Target.C)
+			{
+				File directory = Main.splitDirectory(entry.path.toString());
+				Main.generateSplit(context, entry.unit, directory, split);
+				System.out.println("Generated '" + directory + "'");
+				++written;
+				continue;
+			}
+
+			SourceMap map = Main.sourceMap(context);
+			byte[] output = Main.generate(context, entry.unit, map);
+			if (Arrays.equals(output, entry.output)) continue;
+			entry.output = output;
+
+			FileOutputStream stream = new FileOutputStream(entry.outputName);
+			stream.write(output);
+			stream.close();
+			Main.writeSourceMap(entry.outputName, map);
+			System.out.println("Generated '" + entry.outputName + "'");
+			++written;
+		}
+
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		System.out.println("Compiled " + affected.size() + " unit(s) and wrote " + written + " file(s) in " + elapsed + " ms");
+	}
+
+	protected static class Entry
+	{
+
+		public Path path;
+
+		public String outputName;
+
+		/**
+		 * Last source code read from the file.
+		 */
+		public String content;
+
+		public CompilationUnit unit;
+
+		/**
+		 * Last generated code.
+		 */
+		public byte[] output;
+
+		public Entry( Path path, Target target )
+		{
+			this.path = path;
+			this.outputName = Main.outputName(path.toString(), target);
+		}
+
+	}
+
+}
@@ -0,0 +1,41 @@
+package beagle.compiler.ir;
+
+/**
+ * Sequence of instructions with a single entry and a single exit.
+ *
+ * Instructions are referenced by their index in the owning {@link IrFunction}.
+ * The phi instructions are kept apart and are executed before the remaining
+ * ones; the last instruction of a complete block is always a terminator.
+ */
+public class BasicBlock
+{
+
+	public final int index;
+
+	/**
+	 * Phi instructions.
+	 */
+	public final IntList phis;
+
+	/**
+	 * Remaining instructions.
+	 */
+	public final IntList code;
+
+	public final IntList predecessors;
+
+	/**
+	 * Whether every predecessor of the block is known.
+	 */
+	public boolean sealed;
+
+	public BasicBlock( int index )
+	{
+		this.index = index;
+		this.phis = new IntList(2);
+		this.code = new IntList();
+		this.predecessors = new IntList(2);
+		this.sealed = false;
+	}
+
+}
@@ -0,0 +1,392 @@
+package beagle.compiler.ir;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import beagle.compiler.CodeGenerator;
+import beagle.compiler.SourceLocation;
+import beagle.compiler.tree.TypeReference;
+
+/**
+ * Generates C code for functions in SSA form.
+ *
+ * Every value is stored in its own local variable ('ssa_N_') and phi
+ * instructions become copies at the end of the predecessors. Constants and
+ * parameters are used directly and unused values without side effects are
+ * not generated. Parameters are named like in {@link CodeGenerator}
+ * ('local_X_').
+ *
+ * The source position of the generated statements is reported through
+ * {@link #location(SourceLocation)}.
+ */
+public class CEmitter
+{
+
+	protected PrintStream out;
+
+	protected IrFunction function;
+
+	protected int[] uses;
+
+	/**
+	 * Blocks that are the target of a 'goto'.
+	 */
+	protected BitSet labels;
+
+	/**
+	 * Blocks reachable from the entry block.
+	 */
+	protected BitSet reachable;
+
+	/**
+	 * Source position of the last instruction generated.
+	 */
+	protected SourceLocation last;
+
+	public CEmitter( PrintStream out )
+	{
+		this.out = out;
+	}
+
+	public void emit( IrFunction function )
+	{
+		this.function = function;
+		this.uses = function.uses();
+		computeReachable();
+		computeLabels();
+
+		out.print((function.returnType == null) ? "void" : CodeGenerator.nativeType(function.returnType));
+		out.print("  ");
+		out.print(CodeGenerator.nativeName("def_", function.name));
+		out.print("(");
+		for (int i = 0; i < function.parameterNames.length; ++i)
+		{
+			if (i > 0) out.print(", ");
+			out.print(CodeGenerator.nativeType(function.parameterTypes[i]));
+			out.print(" ");
+			out.print(CodeGenerator.nativeName("local_", function.parameterNames[i]));
+		}
+		if (function.parameterNames.length == 0) out.print("void");
+		out.println(")");
+		out.println("{");
+
+		// declarations
+		for (BasicBlock block : function.blocks)
+		{
+			if (!reachable.get(block.index)) continue;
+			for (int i = 0; i < block.phis.size(); ++i)
+				declare(block.phis.get(i));
+			for (int i = 0; i < block.code.size(); ++i)
+				declare(block.code.get(i));
+		}
+
+		for (int b = 0; b < function.blocks.size(); ++b)
+		{
+			BasicBlock block = function.block(b);
+			if (!reachable.get(b)) continue;
+			if (labels.get(b))
+			{
+				out.print(label(b));
+				out.println(":");
+				// jumps may come from other positions
+				last = null;
+			}
+			for (int i = 0; i < block.code.size(); ++i)
+				emitInstruction(block, block.code.get(i), next(b));
+		}
+
+		out.println("}");
+		this.function = null;
+		this.last = null;
+	}
+
+	/**
+	 * Called before the code generated from the given source position (the
+	 * default implementation does nothing).
+	 */
+	protected void location( SourceLocation location )
+	{
+	}
+
+	protected void computeReachable()
+	{
+		reachable = new BitSet();
+		IntList pending = new IntList();
+		pending.add(0);
+		reachable.set(0);
+		while (!pending.isEmpty())
+		{
+			int block = pending.get(pending.size() - 1);
+			pending.truncate(pending.size() - 1);
+			for (int item : function.successors(function.block(block)))
+			{
+				if (reachable.get(item)) continue;
+				reachable.set(item);
+				pending.add(item);
+			}
+		}
+	}
+
+	/**
+	 * Marks the blocks that can not be reached by falling through from the
+	 * previous block.
+	 */
+	protected void computeLabels()
+	{
+		labels = new BitSet();
+		for (int b = 0; b < function.blocks.size(); ++b)
+		{
+			if (!reachable.get(b)) continue;
+			int last = function.terminator(function.block(b));
+			if (last == IrFunction.NONE) continue;
+			if (function.opcode(last) == Opcode.JUMP)
+			{
+				int target = (int) function.immediate(last);
+				if (target != next(b)) labels.set(target);
+			}
+			else
+			if (function.opcode(last) == Opcode.BRANCH)
+			{
+				labels.set(function.extra(last, 0));
+				if (function.extra(last, 1) != next(b)) labels.set(function.extra(last, 1));
+			}
+		}
+	}
+
+	/**
+	 * Returns the block generated after the given one.
+	 */
+	protected int next( int block )
+	{
+		for (int b = block + 1; b < function.blocks.size(); ++b)
+			if (reachable.get(b)) return b;
+		return IrFunction.NONE;
+	}
+
+	protected boolean isGenerated( int index )
+	{
+		Opcode opcode = function.opcode(index);
+		if (!opcode.hasResult() || function.type(index) == null) return false;
+		return uses[index] > 0;
+	}
+
+	protected void declare( int index )
+	{
+		if (!isGenerated(index)) return;
+		out.print("   ");
+		out.print(CodeGenerator.nativeType(function.type(index)));
+		out.print(" ");
+		out.print(name(index));
+		out.println(";");
+	}
+
+	protected void emitInstruction( BasicBlock block, int index, int next )
+	{
+		Opcode opcode = function.opcode(index);
+
+		// values without side effects that are not used
+		if (opcode.isPure() && !isGenerated(index)) return;
+		if (function.location(index) != null && function.location(index) != last)
+		{
+			last = function.location(index);
+			location(last);
+		}
+
+		switch (opcode)
+		{
+			case JUMP:
+			{
+				int target = (int) function.immediate(index);
+				emitCopies(copies(block, target), "   ");
+				if (target != next) out.println("   goto " + label(target) + ";");
+				return;
+			}
+			case BRANCH:
+			{
+				int onTrue = function.extra(index, 0);
+				int onFalse = function.extra(index, 1);
+				ArrayList<String> copies = copies(block, onTrue);
+				out.print("   if (");
+				out.print(value(function.first(index)));
+				out.print(")");
+				if (copies.isEmpty())
+					out.println(" goto " + label(onTrue) + ";");
+				else
+				{
+					out.println();
+					out.println("   {");
+					emitCopies(copies, "      ");
+					out.println("      goto " + label(onTrue) + ";");
+					out.println("   }");
+				}
+				emitCopies(copies(block, onFalse), "   ");
+				if (onFalse != next) out.println("   goto " + label(onFalse) + ";");
+				return;
+			}
+			case RETURN:
+				out.print("   return");
+				if (function.first(index) != IrFunction.NONE)
+					out.print(" " + value(function.first(index)));
+				out.println(";");
+				return;
+			default:
+				break;
+		}
+
+		out.print("   ");
+		if (isGenerated(index))
+		{
+			out.print(name(index));
+			out.print(" = ");
+		}
+		out.print(expression(index));
+		out.println(";");
+	}
+
+	/**
+	 * Returns the statements copying to the phis of the target block the values
+	 * coming from the given predecessor.
+	 */
+	protected ArrayList<String> copies( BasicBlock from, int target )
+	{
+		ArrayList<String> result = new ArrayList<>();
+		BasicBlock block = function.block(target);
+		int position = -1;
+		for (int i = 0; i < block.predecessors.size(); ++i)
+			if (block.predecessors.get(i) == from.index) position = i;
+		if (position < 0) return result;
+
+		ArrayList<Integer> targets = new ArrayList<>();
+		ArrayList<String> sources = new ArrayList<>();
+		for (int i = 0; i < block.phis.size(); ++i)
+		{
+			int phi = block.phis.get(i);
+			if (!isGenerated(phi) || function.extra(phi, position) == phi) continue;
+			targets.add(phi);
+			sources.add(value(function.extra(phi, position)));
+		}
+
+		// phis are evaluated in parallel, so a phi can only be assigned once
+		// no other copy reads it; cycles are broken with temporaries
+		int temporaries = 0;
+		while (!targets.isEmpty())
+		{
+			int ready = -1;
+			for (int i = 0; i < targets.size() && ready < 0; ++i)
+				if (!sources.contains(name(targets.get(i)))) ready = i;
+
+			if (ready >= 0)
+			{
+				result.add(name(targets.get(ready)) + " = " + sources.get(ready) + ";");
+				targets.remove(ready);
+				sources.remove(ready);
+				continue;
+			}
+
+			int saved = targets.get(0);
+			String temporary = "tmp" + temporaries++ + "_";
+			result.add(CodeGenerator.nativeType(function.type(saved)) + " " + temporary + " = " + name(saved) + ";");
+			for (int i = 0; i < sources.size(); ++i)
+				if (sources.get(i).equals(name(saved))) sources.set(i, temporary);
+		}
+
+		// temporaries are declared in their own scope
+		if (temporaries > 0)
+		{
+			for (int i = 0; i < result.size(); ++i)
+				result.set(i, "   " + result.get(i));
+			result.add(0, "{");
+			result.add("}");
+		}
+		return result;
+	}
+
+	protected void emitCopies( ArrayList<String> copies, String indent )
+	{
+		for (String item : copies)
+			out.println(indent + item);
+	}
+
+	protected String expression( int index )
+	{
+		Opcode opcode = function.opcode(index);
+		int first = function.first(index);
+		int second = function.second(index);
+
+		switch (opcode)
+		{
+			case ADD: return value(first) + " + " + value(second);
+			case SUB: return value(first) + " - " + value(second);
+			case MUL: return value(first) + " * " + value(second);
+			case DIV: return value(first) + " / " + value(second);
+			case MOD: return value(first) + " % " + value(second);
+			case EQ: return value(first) + " == " + value(second);
+			case NE: return value(first) + " != " + value(second);
+			case LT: return value(first) + " < " + value(second);
+			case LE: return value(first) + " <= " + value(second);
+			case GT: return value(first) + " > " + value(second);
+			case GE: return value(first) + " >= " + value(second);
+			case NEG: return "-" + value(first);
+			case NOT: return "!" + value(first);
+			case BNOT: return "~" + value(first);
+			case SELECT: return value(first) + " ? " + value(second) + " : " + value(function.extra(index, 0));
+			case CALL:
+			{
+				StringBuilder output = new StringBuilder();
+				output.append(CodeGenerator.nativeName("def_", function.symbols.get((int) function.immediate(index))));
+				output.append('(');
+				for (int i = 0; i < function.extraCount(index); ++i)
+				{
+					if (i > 0) output.append(", ");
+					output.append(value(function.extra(index, i)));
+				}
+				return output.append(')').toString();
+			}
+			default:
+				throw new IllegalStateException("Unexpected " + opcode);
+		}
+	}
+
+	/**
+	 * Returns the C expression for the given value.
+	 */
+	protected String value( int index )
+	{
+		TypeReference type = function.type(index);
+		switch (function.opcode(index))
+		{
+			case CONST_INT:
+				return CodeGenerator.integerLiteral(function.immediate(index), type);
+			case CONST_FLOAT:
+			{
+				float value = Float.intBitsToFloat((int) function.immediate(index));
+				return (value < 0) ? "(" + value + ")" : Float.toString(value);
+			}
+			case CONST_BOOL:
+				return (function.immediate(index) != 0) ? "BGL_TRUE" : "BGL_FALSE";
+			case CONST_STRING:
+				return "(&STRING_TABLE[" + function.immediate(index) + "])";
+			case PARAM:
+				return CodeGenerator.nativeName("local_", function.parameterNames[(int) function.immediate(index)]);
+			case UNDEF:
+				// any value would do, so use the zero value of the type
+				if (type == TypeReference.BOOL) return "BGL_FALSE";
+				if (type != null && type.isPrimitive && type != TypeReference.STRING) return "0";
+				return "BGL_NULL";
+			default:
+				return name(index);
+		}
+	}
+
+	protected static String name( int index )
+	{
+		return "ssa_" + index + "_";
+	}
+
+	protected static String label( int block )
+	{
+		return "b" + block + "_";
+	}
+
+}
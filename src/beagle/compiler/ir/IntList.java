@@ -0,0 +1,73 @@
+package beagle.compiler.ir;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive integers.
+ */
+public class IntList
+{
+
+	protected int[] values;
+
+	protected int size;
+
+	public IntList()
+	{
+		this(8);
+	}
+
+	public IntList( int capacity )
+	{
+		this.values = new int[Math.max(capacity, 1)];
+		this.size = 0;
+	}
+
+	public void add( int value )
+	{
+		if (size == values.length)
+			values = Arrays.copyOf(values, size * 2);
+		values[size++] = value;
+	}
+
+	public int get( int index )
+	{
+		if (index >= size) throw new IndexOutOfBoundsException(Integer.toString(index));
+		return values[index];
+	}
+
+	public void set( int index, int value )
+	{
+		if (index >= size) throw new IndexOutOfBoundsException(Integer.toString(index));
+		values[index] = value;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/**
+	 * Keep only the first {@code size} elements.
+	 */
+	public void truncate( int size )
+	{
+		if (size < this.size) this.size = size;
+	}
+
+	public void clear()
+	{
+		size = 0;
+	}
+
+	public int[] toArray()
+	{
+		return Arrays.copyOf(values, size);
+	}
+
+}
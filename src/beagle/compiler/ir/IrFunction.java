@@ -0,0 +1,380 @@
+package beagle.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import beagle.compiler.SourceLocation;
+import beagle.compiler.tree.TypeReference;
+
+/**
+ * Function in SSA form.
+ *
+ * Instructions are stored in parallel arrays and identified by their index,
+ * which is also the identifier of the value they produce. Variable length
+ * operand lists (phi and call operands, branch targets) are stored in a
+ * single shared array.
+ */
+public class IrFunction
+{
+
+	public static final int NONE = -1;
+
+	/**
+	 * Qualified name of the function in the source code.
+	 */
+	public final String name;
+
+	public final TypeReference returnType;
+
+	public final String[] parameterNames;
+
+	public final TypeReference[] parameterTypes;
+
+	public final ArrayList<BasicBlock> blocks;
+
+	/**
+	 * Names referenced by instructions (e.g. callees).
+	 */
+	public final ArrayList<String> symbols;
+
+	protected HashMap<String, Integer> symbolIndices;
+
+	protected int count;
+
+	protected Opcode[] opcodes;
+
+	protected TypeReference[] types;
+
+	protected int[] owners;
+
+	protected int[] first;
+
+	protected int[] second;
+
+	protected long[] immediates;
+
+	protected int[] extraStart;
+
+	protected int[] extraCount;
+
+	protected IntList extras;
+
+	/**
+	 * Source position of the statement each instruction was generated from.
+	 */
+	protected SourceLocation[] locations;
+
+	public IrFunction( String name, TypeReference returnType, String[] parameterNames, TypeReference[] parameterTypes )
+	{
+		this.name = name;
+		this.returnType = returnType;
+		this.parameterNames = parameterNames;
+		this.parameterTypes = parameterTypes;
+		this.blocks = new ArrayList<>();
+		this.symbols = new ArrayList<>();
+		this.symbolIndices = new HashMap<>();
+
+		int capacity = 64;
+		this.count = 0;
+		this.opcodes = new Opcode[capacity];
+		this.types = new TypeReference[capacity];
+		this.owners = new int[capacity];
+		this.first = new int[capacity];
+		this.second = new int[capacity];
+		this.immediates = new long[capacity];
+		this.extraStart = new int[capacity];
+		this.extraCount = new int[capacity];
+		this.extras = new IntList(capacity);
+		this.locations = new SourceLocation[capacity];
+	}
+
+	public BasicBlock addBlock()
+	{
+		BasicBlock block = new BasicBlock(blocks.size());
+		blocks.add(block);
+		return block;
+	}
+
+	public BasicBlock block( int index )
+	{
+		return blocks.get(index);
+	}
+
+	/**
+	 * Append a new instruction to the given block.
+	 *
+	 * Floating instructions (see {@link Opcode#isFloating()}) are only
+	 * associated with the block.
+	 *
+	 * @return Index of the new instruction.
+	 */
+	public int add( BasicBlock block, Opcode opcode, TypeReference type, int first, int second, long immediate )
+	{
+		if (count == opcodes.length) grow();
+
+		int index = count++;
+		opcodes[index] = opcode;
+		types[index] = type;
+		owners[index] = block.index;
+		this.first[index] = first;
+		this.second[index] = second;
+		immediates[index] = immediate;
+		extraStart[index] = 0;
+		extraCount[index] = 0;
+
+		if (opcode == Opcode.PHI)
+			block.phis.add(index);
+		else
+		if (!opcode.isFloating())
+			block.code.add(index);
+		return index;
+	}
+
+	private void grow()
+	{
+		int capacity = opcodes.length * 2;
+		opcodes = Arrays.copyOf(opcodes, capacity);
+		types = Arrays.copyOf(types, capacity);
+		owners = Arrays.copyOf(owners, capacity);
+		first = Arrays.copyOf(first, capacity);
+		second = Arrays.copyOf(second, capacity);
+		immediates = Arrays.copyOf(immediates, capacity);
+		extraStart = Arrays.copyOf(extraStart, capacity);
+		extraCount = Arrays.copyOf(extraCount, capacity);
+		locations = Arrays.copyOf(locations, capacity);
+	}
+
+	/**
+	 * Set the extra operands of the given instruction.
+	 */
+	public void setExtras( int index, int... values )
+	{
+		extraStart[index] = extras.size();
+		extraCount[index] = values.length;
+		for (int value : values)
+			extras.add(value);
+	}
+
+	/**
+	 * Set the extra operands of the given instruction.
+	 */
+	public void setExtras( int index, IntList values )
+	{
+		extraStart[index] = extras.size();
+		extraCount[index] = values.size();
+		for (int i = 0; i < values.size(); ++i)
+			extras.add(values.get(i));
+	}
+
+	public int symbol( String name )
+	{
+		Integer index = symbolIndices.get(name);
+		if (index != null) return index;
+		symbols.add(name);
+		symbolIndices.put(name, symbols.size() - 1);
+		return symbols.size() - 1;
+	}
+
+	/**
+	 * Returns the number of instructions.
+	 */
+	public int size()
+	{
+		return count;
+	}
+
+	public Opcode opcode( int index )
+	{
+		return opcodes[index];
+	}
+
+	public TypeReference type( int index )
+	{
+		return types[index];
+	}
+
+	/**
+	 * Returns the index of the block containing the given instruction.
+	 */
+	public int owner( int index )
+	{
+		return owners[index];
+	}
+
+	public int first( int index )
+	{
+		return first[index];
+	}
+
+	public void first( int index, int value )
+	{
+		first[index] = value;
+	}
+
+	public int second( int index )
+	{
+		return second[index];
+	}
+
+	public void second( int index, int value )
+	{
+		second[index] = value;
+	}
+
+	public long immediate( int index )
+	{
+		return immediates[index];
+	}
+
+	/**
+	 * Returns the source position of the instruction or {@code null} if it
+	 * is unknown.
+	 */
+	public SourceLocation location( int index )
+	{
+		return locations[index];
+	}
+
+	public void location( int index, SourceLocation value )
+	{
+		locations[index] = value;
+	}
+
+	public int extraCount( int index )
+	{
+		return extraCount[index];
+	}
+
+	public int extra( int index, int position )
+	{
+		return extras.get(extraStart[index] + position);
+	}
+
+	public void extra( int index, int position, int value )
+	{
+		extras.set(extraStart[index] + position, value);
+	}
+
+	/**
+	 * Returns the last instruction of the given block if it is a terminator,
+	 * or {@link #NONE} otherwise.
+	 */
+	public int terminator( BasicBlock block )
+	{
+		if (block.code.isEmpty()) return NONE;
+		int last = block.code.get(block.code.size() - 1);
+		return (opcodes[last].isTerminator()) ? last : NONE;
+	}
+
+	/**
+	 * Returns the successors of the given block.
+	 */
+	public int[] successors( BasicBlock block )
+	{
+		int last = terminator(block);
+		if (last == NONE) return new int[0];
+		switch (opcodes[last])
+		{
+			case JUMP:
+				return new int[]{ (int) immediates[last] };
+			case BRANCH:
+				return new int[]{ extra(last, 0), extra(last, 1) };
+			default:
+				return new int[0];
+		}
+	}
+
+	/**
+	 * Returns the number of uses of each value.
+	 */
+	public int[] uses()
+	{
+		int[] result = new int[count];
+		for (BasicBlock block : blocks)
+		{
+			for (int i = 0; i < block.phis.size(); ++i)
+				countUses(block.phis.get(i), result);
+			for (int i = 0; i < block.code.size(); ++i)
+				countUses(block.code.get(i), result);
+		}
+		return result;
+	}
+
+	private void countUses( int index, int[] result )
+	{
+		if (first[index] != NONE) ++result[first[index]];
+		if (second[index] != NONE) ++result[second[index]];
+		// branch targets are blocks, not values
+		if (opcodes[index] == Opcode.BRANCH) return;
+		for (int i = 0; i < extraCount[index]; ++i)
+			++result[extra(index, i)];
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder output = new StringBuilder();
+		output.append("function ").append(name).append('\n');
+		for (int i = 0; i < count; ++i)
+			if (opcodes[i].isFloating()) print(output, i);
+		for (BasicBlock block : blocks)
+		{
+			output.append('b').append(block.index).append(':');
+			if (!block.predecessors.isEmpty())
+			{
+				output.append(" ; preds");
+				for (int i = 0; i < block.predecessors.size(); ++i)
+					output.append(" b").append(block.predecessors.get(i));
+			}
+			output.append('\n');
+			for (int i = 0; i < block.phis.size(); ++i)
+				print(output, block.phis.get(i));
+			for (int i = 0; i < block.code.size(); ++i)
+				print(output, block.code.get(i));
+		}
+		return output.toString();
+	}
+
+	private void print( StringBuilder output, int index )
+	{
+		output.append("  ");
+		if (opcodes[index].hasResult())
+			output.append('v').append(index).append(" = ");
+		output.append(opcodes[index].name().toLowerCase());
+
+		switch (opcodes[index])
+		{
+			case CONST_FLOAT:
+				output.append(' ').append(Float.intBitsToFloat((int) immediates[index]));
+				break;
+			case CONST_INT:
+			case CONST_BOOL:
+			case CONST_STRING:
+			case PARAM:
+				output.append(' ').append(immediates[index]);
+				break;
+			case JUMP:
+				output.append(" b").append(immediates[index]);
+				break;
+			case CALL:
+				output.append(' ').append(symbols.get((int) immediates[index]));
+				break;
+			default:
+				break;
+		}
+		if (first[index] != NONE)
+			output.append(" v").append(first[index]);
+		if (second[index] != NONE)
+			output.append(", v").append(second[index]);
+		for (int i = 0; i < extraCount[index]; ++i)
+		{
+			output.append((i == 0 && first[index] == NONE) ? " " : ", ");
+			output.append((opcodes[index] == Opcode.BRANCH) ? 'b' : 'v').append(extra(index, i));
+		}
+		if (types[index] != null)
+			output.append(" : ").append(types[index].qualifiedName());
+		output.append('\n');
+	}
+
+}
@@ -0,0 +1,897 @@
+package beagle.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import beagle.compiler.CompilationContext;
+import beagle.compiler.SourceLocation;
+import beagle.compiler.TokenType;
+import beagle.compiler.tree.Argument;
+import beagle.compiler.tree.ArgumentList;
+import beagle.compiler.tree.AtomicExpression;
+import beagle.compiler.tree.BinaryExpression;
+import beagle.compiler.tree.Block;
+import beagle.compiler.tree.BooleanLiteral;
+import beagle.compiler.tree.CompilationUnit;
+import beagle.compiler.tree.ExpressionStmt;
+import beagle.compiler.tree.FloatLiteral;
+import beagle.compiler.tree.ForEachStmt;
+import beagle.compiler.tree.FormalParameter;
+import beagle.compiler.tree.Function;
+import beagle.compiler.tree.IExpression;
+import beagle.compiler.tree.IStatement;
+import beagle.compiler.tree.IfThenElseStmt;
+import beagle.compiler.tree.IntegerLiteral;
+import beagle.compiler.tree.Name;
+import beagle.compiler.tree.NameLiteral;
+import beagle.compiler.tree.ReturnStmt;
+import beagle.compiler.tree.StorageDeclaration;
+import beagle.compiler.tree.StringLiteral;
+import beagle.compiler.tree.TypeReference;
+import beagle.compiler.tree.UnaryExpression;
+import beagle.compiler.tree.UnaryExpression.UnaryDirection;
+
+/**
+ * Translates functions from the syntax tree to SSA form.
+ *
+ * The SSA form is built directly while the tree is visited, without computing
+ * dominance frontiers (see Braun et al., "Simple and Efficient Construction of
+ * Static Single Assignment Form"): the current value of each local variable is
+ * tracked per block and phi instructions are only created when a variable is
+ * read in a block with more than one predecessor (or whose predecessors are not
+ * known yet). Trivial phis are removed at the end.
+ *
+ * Only a subset of the language is supported for now (local variables of
+ * primitive types, arithmetic, calls to functions of the same unit, conditionals
+ * and counted loops); {@link #lower(Function)} returns {@code null} for any
+ * function using something else, so the caller can fall back to the syntax tree.
+ */
+public class Lowering
+{
+
+	/**
+	 * Thrown when the function uses constructions not supported by the lowering.
+	 */
+	@SuppressWarnings("serial")
+	static class UnsupportedException extends RuntimeException
+	{
+		UnsupportedException( String message )
+		{
+			super(message, null, false, false);
+		}
+	}
+
+	protected CompilationContext context;
+
+	protected HashMap<String, Function> functions;
+
+	protected IrFunction function;
+
+	/**
+	 * Block receiving new instructions ({@code null} after a return).
+	 */
+	protected BasicBlock current;
+
+	/**
+	 * Local variables visible in each scope (innermost scope first).
+	 */
+	protected LinkedList<HashMap<Name, Integer>> scopes;
+
+	protected ArrayList<TypeReference> variables;
+
+	/**
+	 * Current value of each variable in each block.
+	 */
+	protected HashMap<Long, Integer> definitions;
+
+	/**
+	 * Phis created in blocks not sealed yet, by block and variable (in the
+	 * order they were created, so the values are numbered the same way in
+	 * every compilation).
+	 */
+	protected HashMap<Integer, LinkedHashMap<Integer, Integer>> incomplete;
+
+	/**
+	 * Replacement of each value (values are their own replacement unless they
+	 * are removed phis).
+	 */
+	protected IntList aliases;
+
+	/**
+	 * Source position of the statement being lowered.
+	 */
+	protected SourceLocation location;
+
+	public Lowering( CompilationContext context, CompilationUnit unit )
+	{
+		this.context = context;
+		this.functions = new HashMap<>();
+		for (Function item : unit.functions)
+			functions.put(item.name().qualifiedName(), item);
+	}
+
+	/**
+	 * Returns the SSA form of the given function or {@code null} if the
+	 * function can not be lowered.
+	 */
+	public IrFunction lower( Function target )
+	{
+		if (target.body() == null) return null;
+
+		int count = (target.parameters() == null) ? 0 : target.parameters().size();
+		String[] names = new String[count];
+		TypeReference[] types = new TypeReference[count];
+		for (int i = 0; i < count; ++i)
+		{
+			FormalParameter item = target.parameters().get(i);
+			names[i] = item.name().qualifiedName();
+			types[i] = item.type();
+		}
+
+		function = new IrFunction(target.name().qualifiedName(), target.returnType(), names, types);
+		scopes = new LinkedList<>();
+		variables = new ArrayList<>();
+		definitions = new HashMap<>();
+		incomplete = new HashMap<>();
+		aliases = new IntList(64);
+		location = target.location();
+
+		try
+		{
+			if (target.returnType() != null && target.returnType().isVector())
+				throw new UnsupportedException("vector result");
+			current = function.addBlock();
+			seal(current);
+
+			scopes.push(new HashMap<>());
+			for (int i = 0; i < count; ++i)
+			{
+				if (types[i] == null || !types[i].isPrimitive || types[i].isVector())
+					throw new UnsupportedException("parameter '" + names[i] + "'");
+				int variable = declare(target.parameters().get(i).name(), types[i]);
+				write(variable, current, emit(Opcode.PARAM, types[i], IrFunction.NONE, IrFunction.NONE, i));
+			}
+
+			lowerBlock(target.body());
+			scopes.pop();
+
+			// falling off the end of the function
+			if (current != null)
+			{
+				int value = IrFunction.NONE;
+				if (target.returnType() != null)
+					value = zero(target.returnType());
+				emit(Opcode.RETURN, null, value, IrFunction.NONE, 0);
+			}
+			finish();
+		}
+		catch (UnsupportedException ex)
+		{
+			return null;
+		}
+
+		IrFunction result = function;
+		function = null;
+		current = null;
+		return result;
+	}
+
+	/*
+	 * Statements
+	 */
+
+	protected void lowerBlock( Block block )
+	{
+		scopes.push(new HashMap<>());
+		for (IStatement item : block)
+		{
+			// statements after a return are unreachable
+			if (current == null) break;
+			lowerStatement(item);
+		}
+		scopes.pop();
+	}
+
+	protected void lowerStatement( IStatement stmt )
+	{
+		if (stmt.location() != null) location = stmt.location();
+		if (stmt instanceof Block)
+			lowerBlock((Block) stmt);
+		else
+		if (stmt instanceof StorageDeclaration)
+			lowerStorage((StorageDeclaration) stmt);
+		else
+		if (stmt instanceof IfThenElseStmt)
+			lowerIfThenElse((IfThenElseStmt) stmt);
+		else
+		if (stmt instanceof ForEachStmt)
+			lowerForEach((ForEachStmt) stmt);
+		else
+		if (stmt instanceof ReturnStmt)
+		{
+			IExpression expr = ((ReturnStmt) stmt).expression();
+			int value = (expr == null) ? IrFunction.NONE : lowerValue(expr);
+			emit(Opcode.RETURN, null, value, IrFunction.NONE, 0);
+			current = null;
+		}
+		else
+		if (stmt instanceof ExpressionStmt)
+			lowerExpression(((ExpressionStmt) stmt).expression());
+		else
+			throw new UnsupportedException(stmt.getClass().getSimpleName());
+	}
+
+	protected void lowerStorage( StorageDeclaration storage )
+	{
+		TypeReference type = storage.type();
+		if (type == null || !type.isPrimitive || type.isVector())
+			throw new UnsupportedException("variable '" + storage.name() + "'");
+
+		int value;
+		if (storage.initializer() != null)
+			value = lowerValue(storage.initializer());
+		else
+			value = emit(Opcode.UNDEF, type, IrFunction.NONE, IrFunction.NONE, 0);
+		// the variable is visible only after the initializer
+		write(declare(storage.name(), type), current, value);
+	}
+
+	protected void lowerIfThenElse( IfThenElseStmt stmt )
+	{
+		int condition = lowerValue(stmt.condition());
+
+		BasicBlock thenBlock = function.addBlock();
+		BasicBlock elseBlock = (stmt.elseSide() != null) ? function.addBlock() : null;
+		BasicBlock join = function.addBlock();
+
+		branch(condition, thenBlock, (elseBlock != null) ? elseBlock : join);
+		seal(thenBlock);
+		current = thenBlock;
+		lowerScoped(stmt.thenSide());
+		if (current != null) jump(join);
+
+		if (elseBlock != null)
+		{
+			seal(elseBlock);
+			current = elseBlock;
+			lowerScoped(stmt.elseSide());
+			if (current != null) jump(join);
+		}
+
+		seal(join);
+		// both sides returned
+		current = (join.predecessors.isEmpty()) ? null : join;
+	}
+
+	/**
+	 * Lowers 'for x in range(...)' as a counted loop. The end and step values
+	 * are evaluated only once.
+	 */
+	protected void lowerForEach( ForEachStmt stmt )
+	{
+		ArgumentList arguments = stmt.range();
+		if (arguments == null)
+			throw new UnsupportedException("iteration over " + stmt.expression.getClass().getSimpleName());
+
+		int start, end, step;
+		if (arguments.size() == 1)
+		{
+			end = lowerValue(arguments.get(0).value());
+			start = integer(function.type(end), 0);
+		}
+		else
+		{
+			start = lowerValue(arguments.get(0).value());
+			end = lowerValue(arguments.get(1).value());
+		}
+		TypeReference type = function.type(start);
+		if (!isInteger(type) || function.type(end) != type)
+			throw new UnsupportedException("range bounds");
+		if (stmt.iterator.type() != null && stmt.iterator.type() != type)
+			throw new UnsupportedException("range iterator");
+		step = (arguments.size() == 3) ? lowerValue(arguments.get(2).value()) : integer(type, 1);
+		if (function.type(step) != type)
+			throw new UnsupportedException("range step");
+
+		// the direction of the comparison depends on the sign of the step (a
+		// step of zero does not iterate)
+		int increasing = IrFunction.NONE;
+		int decreasing = IrFunction.NONE;
+		if (function.opcode(step) == Opcode.CONST_INT)
+		{
+			// reported by Semantic if written in the source
+			if (function.immediate(step) == 0) return;
+		}
+		else
+		{
+			increasing = emit(Opcode.GT, TypeReference.BOOL, step, integer(type, 0), 0);
+			decreasing = emit(Opcode.LT, TypeReference.BOOL, step, integer(type, 0), 0);
+		}
+
+		scopes.push(new HashMap<>());
+		// hidden variable with the next value of the iterator
+		int counter = declare(null, type);
+		write(counter, current, start);
+
+		BasicBlock header = function.addBlock();
+		BasicBlock body = function.addBlock();
+		BasicBlock exit = function.addBlock();
+		jump(header);
+
+		current = header;
+		int value = read(counter, header);
+		int condition;
+		if (increasing == IrFunction.NONE)
+		{
+			Opcode opcode = (function.immediate(step) > 0) ? Opcode.LT : Opcode.GT;
+			condition = emit(opcode, TypeReference.BOOL, value, end, 0);
+		}
+		else
+		{
+			int upward = emit(Opcode.LT, TypeReference.BOOL, value, end, 0);
+			int downward = emit(Opcode.GT, TypeReference.BOOL, value, end, 0);
+			int stopped = emit(Opcode.CONST_BOOL, TypeReference.BOOL, IrFunction.NONE, IrFunction.NONE, 0);
+			downward = emit(Opcode.SELECT, TypeReference.BOOL, decreasing, downward, 0);
+			function.setExtras(downward, stopped);
+			condition = emit(Opcode.SELECT, TypeReference.BOOL, increasing, upward, 0);
+			function.setExtras(condition, downward);
+		}
+		branch(condition, body, exit);
+		seal(body);
+
+		current = body;
+		write(declare(stmt.iterator.name(), type), body, value);
+		write(counter, body, emit(Opcode.ADD, type, value, step, 0));
+		lowerScoped(stmt.statement);
+		if (current != null) jump(header);
+		seal(header);
+		scopes.pop();
+
+		seal(exit);
+		current = exit;
+	}
+
+	/**
+	 * Lowers a statement in its own scope (e.g. the sides of conditionals).
+	 */
+	protected void lowerScoped( IStatement stmt )
+	{
+		scopes.push(new HashMap<>());
+		lowerStatement(stmt);
+		scopes.pop();
+	}
+
+	/*
+	 * Expressions
+	 */
+
+	/**
+	 * Lowers an expression whose value is required.
+	 */
+	protected int lowerValue( IExpression expr )
+	{
+		int value = lowerExpression(expr);
+		if (value == IrFunction.NONE || function.type(value) == null)
+			throw new UnsupportedException("expression without value");
+		return value;
+	}
+
+	/**
+	 * Returns the value of the expression or {@link IrFunction#NONE} for calls to
+	 * functions without return type.
+	 */
+	protected int lowerExpression( IExpression expr )
+	{
+		if (current == null)
+			throw new UnsupportedException("unreachable code");
+
+		if (expr instanceof AtomicExpression)
+			return lowerExpression(((AtomicExpression) expr).value());
+		else
+		if (expr instanceof IntegerLiteral)
+		{
+			IntegerLiteral literal = (IntegerLiteral) expr;
+			return integer(literal.type(), literal.value());
+		}
+		else
+		if (expr instanceof FloatLiteral)
+		{
+			FloatLiteral literal = (FloatLiteral) expr;
+			return emit(Opcode.CONST_FLOAT, literal.type(), IrFunction.NONE, IrFunction.NONE, Float.floatToIntBits(literal.value()));
+		}
+		else
+		if (expr instanceof BooleanLiteral)
+		{
+			boolean value = ((BooleanLiteral) expr).value();
+			return emit(Opcode.CONST_BOOL, TypeReference.BOOL, IrFunction.NONE, IrFunction.NONE, (value) ? 1 : 0);
+		}
+		else
+		if (expr instanceof StringLiteral)
+		{
+			StringLiteral literal = (StringLiteral) expr;
+			int index = literal.index;
+			if (index < 0 || index >= context.stringTable.size() || !context.stringTable.get(index).equals(literal.value()))
+				index = context.stringTable.add(literal.value());
+			return emit(Opcode.CONST_STRING, TypeReference.STRING, IrFunction.NONE, IrFunction.NONE, index);
+		}
+		else
+		if (expr instanceof NameLiteral)
+			return read(variable(((NameLiteral) expr).value()), current);
+		else
+		if (expr instanceof UnaryExpression)
+			return lowerUnary((UnaryExpression) expr);
+		else
+		if (expr instanceof BinaryExpression)
+			return lowerBinary((BinaryExpression) expr);
+
+		throw new UnsupportedException(expr.getClass().getSimpleName());
+	}
+
+	protected int lowerUnary( UnaryExpression expr )
+	{
+		TokenType operation = expr.operation();
+		switch (operation)
+		{
+			case TOK_LEFT_PAR:
+				return lowerCall(expr);
+			case TOK_INC:
+			case TOK_DEC:
+			{
+				int variable = target(expr.expression());
+				TypeReference type = variables.get(variable);
+				if (!isInteger(type)) throw new UnsupportedException("increment of " + type);
+				int before = read(variable, current);
+				Opcode opcode = (operation == TokenType.TOK_INC) ? Opcode.ADD : Opcode.SUB;
+				int after = emit(opcode, type, before, integer(type, 1), 0);
+				write(variable, current, after);
+				return (expr.direction() == UnaryDirection.PREFIX) ? after : before;
+			}
+			case TOK_MINUS:
+			{
+				int value = lowerValue(expr.expression());
+				if (!isNumeric(function.type(value))) throw new UnsupportedException("negation");
+				return emit(Opcode.NEG, function.type(value), value, IrFunction.NONE, 0);
+			}
+			case TOK_NOT:
+			case TOK_BANG:
+			{
+				int value = lowerValue(expr.expression());
+				if (function.type(value) != TypeReference.BOOL) throw new UnsupportedException("logical negation");
+				return emit(Opcode.NOT, TypeReference.BOOL, value, IrFunction.NONE, 0);
+			}
+			case TOK_TILDE:
+			{
+				int value = lowerValue(expr.expression());
+				if (!isInteger(function.type(value))) throw new UnsupportedException("bitwise negation");
+				return emit(Opcode.BNOT, function.type(value), value, IrFunction.NONE, 0);
+			}
+			default:
+				throw new UnsupportedException("operator " + operation);
+		}
+	}
+
+	/**
+	 * Lowers calls to functions declared in the same unit.
+	 */
+	protected int lowerCall( UnaryExpression expr )
+	{
+		if (!(expr.expression() instanceof NameLiteral))
+			throw new UnsupportedException("indirect call");
+		Name name = ((NameLiteral) expr.expression()).value();
+		if (lookup(name) != null)
+			throw new UnsupportedException("call to variable '" + name + "'");
+		Function callee = functions.get(name.qualifiedName());
+		if (callee == null)
+			throw new UnsupportedException("call to '" + name + "'");
+
+		IntList arguments = new IntList(4);
+		if (expr.extra() instanceof ArgumentList)
+		{
+			for (Argument item : (ArgumentList) expr.extra())
+			{
+				if (item.name() != null) throw new UnsupportedException("named argument");
+				arguments.add(lowerValue(item.value()));
+			}
+		}
+		else
+		if (expr.extra() != null)
+			arguments.add(lowerValue(expr.extra()));
+
+		int parameters = (callee.parameters() == null) ? 0 : callee.parameters().size();
+		if (arguments.size() != parameters)
+			throw new UnsupportedException("call to '" + name + "'");
+
+		int symbol = function.symbol(name.qualifiedName());
+		int call = emit(Opcode.CALL, callee.returnType(), IrFunction.NONE, IrFunction.NONE, symbol);
+		function.setExtras(call, arguments);
+		return (callee.returnType() == null) ? IrFunction.NONE : call;
+	}
+
+	protected int lowerBinary( BinaryExpression expr )
+	{
+		TokenType operation = expr.operation();
+
+		if (operation == TokenType.TOK_AND || operation == TokenType.TOK_OR)
+			return lowerLogical(expr);
+
+		if (operation == TokenType.TOK_ASSIGN)
+		{
+			int variable = target(expr.left());
+			int value = lowerValue(expr.right());
+			if (function.type(value) != variables.get(variable))
+				throw new UnsupportedException("assignment");
+			write(variable, current, value);
+			return value;
+		}
+
+		Opcode compound = compound(operation);
+		if (compound != null)
+		{
+			int variable = target(expr.left());
+			int left = read(variable, current);
+			int value = arithmetic(compound, left, lowerValue(expr.right()));
+			write(variable, current, value);
+			return value;
+		}
+
+		int left = lowerValue(expr.left());
+		int right = lowerValue(expr.right());
+		Opcode opcode;
+		switch (operation)
+		{
+			case TOK_PLUS: opcode = Opcode.ADD; break;
+			case TOK_MINUS: opcode = Opcode.SUB; break;
+			case TOK_MUL: opcode = Opcode.MUL; break;
+			case TOK_DIV: opcode = Opcode.DIV; break;
+			case TOK_MOD: opcode = Opcode.MOD; break;
+			case TOK_EQ: opcode = Opcode.EQ; break;
+			case TOK_NE: opcode = Opcode.NE; break;
+			case TOK_LT: opcode = Opcode.LT; break;
+			case TOK_LE: opcode = Opcode.LE; break;
+			case TOK_GT: opcode = Opcode.GT; break;
+			case TOK_GE: opcode = Opcode.GE; break;
+			default:
+				throw new UnsupportedException("operator " + operation);
+		}
+		if (opcode.ordinal() >= Opcode.EQ.ordinal())
+		{
+			TypeReference type = function.type(left);
+			if (type != function.type(right) || type == TypeReference.STRING)
+				throw new UnsupportedException("comparison");
+			return emit(opcode, TypeReference.BOOL, left, right, 0);
+		}
+		return arithmetic(opcode, left, right);
+	}
+
+	protected int arithmetic( Opcode opcode, int left, int right )
+	{
+		TypeReference type = function.type(left);
+		if (type != function.type(right) || !isNumeric(type))
+			throw new UnsupportedException("arithmetic on " + type);
+		if (opcode == Opcode.MOD && !isInteger(type))
+			throw new UnsupportedException("modulo on " + type);
+		return emit(opcode, type, left, right, 0);
+	}
+
+	/**
+	 * Lowers 'and' and 'or' evaluating the right operand only when needed.
+	 */
+	protected int lowerLogical( BinaryExpression expr )
+	{
+		boolean isAnd = expr.operation() == TokenType.TOK_AND;
+		int left = lowerValue(expr.left());
+		if (function.type(left) != TypeReference.BOOL)
+			throw new UnsupportedException("logical operation");
+
+		BasicBlock right = function.addBlock();
+		BasicBlock join = function.addBlock();
+		BasicBlock origin = current;
+		if (isAnd)
+			branch(left, right, join);
+		else
+			branch(left, join, right);
+		seal(right);
+
+		current = right;
+		int value = lowerValue(expr.right());
+		if (function.type(value) != TypeReference.BOOL)
+			throw new UnsupportedException("logical operation");
+		jump(join);
+		seal(join);
+
+		// operands are in the same order as the predecessors
+		current = join;
+		int shortcut = emit(Opcode.CONST_BOOL, TypeReference.BOOL, IrFunction.NONE, IrFunction.NONE, (isAnd) ? 0 : 1);
+		int phi = emit(Opcode.PHI, TypeReference.BOOL, IrFunction.NONE, IrFunction.NONE, 0);
+		IntList operands = new IntList(2);
+		for (int i = 0; i < join.predecessors.size(); ++i)
+			operands.add((join.predecessors.get(i) == origin.index) ? shortcut : value);
+		function.setExtras(phi, operands);
+		return phi;
+	}
+
+	/**
+	 * Returns the variable referenced by the left side of an assignment.
+	 */
+	protected int target( IExpression expr )
+	{
+		while (expr instanceof AtomicExpression)
+			expr = ((AtomicExpression) expr).value();
+		if (!(expr instanceof NameLiteral))
+			throw new UnsupportedException("assignment to " + expr.getClass().getSimpleName());
+		return variable(((NameLiteral) expr).value());
+	}
+
+	static Opcode compound( TokenType operation )
+	{
+		switch (operation)
+		{
+			case TOK_PLUS_ASSIGN: return Opcode.ADD;
+			case TOK_MINUS_ASSIGN: return Opcode.SUB;
+			case TOK_MUL_ASSIGN: return Opcode.MUL;
+			case TOK_DIV_ASSIGN: return Opcode.DIV;
+			case TOK_MOD_ASSIGN: return Opcode.MOD;
+			default: return null;
+		}
+	}
+
+	/*
+	 * Variables and SSA construction
+	 */
+
+	protected int declare( Name name, TypeReference type )
+	{
+		variables.add(type);
+		int variable = variables.size() - 1;
+		if (name != null) scopes.peek().put(name, variable);
+		return variable;
+	}
+
+	protected Integer lookup( Name name )
+	{
+		// innermost scopes are at the beginning of the list
+		for (HashMap<Name, Integer> scope : scopes)
+		{
+			Integer variable = scope.get(name);
+			if (variable != null) return variable;
+		}
+		return null;
+	}
+
+	protected int variable( Name name )
+	{
+		Integer variable = lookup(name);
+		if (variable == null)
+			throw new UnsupportedException("reference to '" + name + "'");
+		return variable;
+	}
+
+	private static long key( int block, int variable )
+	{
+		return ((long) block << 32) | (variable & 0xFFFFFFFFL);
+	}
+
+	protected void write( int variable, BasicBlock block, int value )
+	{
+		definitions.put(key(block.index, variable), value);
+	}
+
+	protected int read( int variable, BasicBlock block )
+	{
+		Integer value = definitions.get(key(block.index, variable));
+		if (value != null) return resolve(value);
+
+		// walk up chains of single predecessors without recursion
+		ArrayList<BasicBlock> chain = new ArrayList<>();
+		while (block.sealed && block.predecessors.size() == 1)
+		{
+			chain.add(block);
+			block = function.block(block.predecessors.get(0));
+			value = definitions.get(key(block.index, variable));
+			if (value != null) break;
+		}
+
+		int result;
+		if (value != null)
+			result = resolve(value);
+		else
+		if (!block.sealed)
+		{
+			// the operands are added once every predecessor is known
+			result = emit(block, Opcode.PHI, variables.get(variable));
+			incomplete.computeIfAbsent(block.index, k -> new LinkedHashMap<>()).put(variable, result);
+			write(variable, block, result);
+		}
+		else
+		if (block.predecessors.isEmpty())
+		{
+			result = emit(Opcode.UNDEF, variables.get(variable), IrFunction.NONE, IrFunction.NONE, 0);
+			write(variable, block, result);
+		}
+		else
+		{
+			// the phi is defined before reading the operands to break cycles
+			result = emit(block, Opcode.PHI, variables.get(variable));
+			write(variable, block, result);
+			result = addOperands(variable, result);
+			write(variable, block, result);
+		}
+
+		for (BasicBlock item : chain)
+			write(variable, item, result);
+		return result;
+	}
+
+	protected int addOperands( int variable, int phi )
+	{
+		BasicBlock block = function.block(function.owner(phi));
+		IntList operands = new IntList(block.predecessors.size());
+		for (int i = 0; i < block.predecessors.size(); ++i)
+			operands.add(read(variable, function.block(block.predecessors.get(i))));
+		function.setExtras(phi, operands);
+		return removeTrivial(phi);
+	}
+
+	/**
+	 * Replaces the phi by its single operand (not counting itself), if any.
+	 */
+	protected int removeTrivial( int phi )
+	{
+		int same = IrFunction.NONE;
+		for (int i = 0; i < function.extraCount(phi); ++i)
+		{
+			int operand = resolve(function.extra(phi, i));
+			if (operand == same || operand == phi) continue;
+			if (same != IrFunction.NONE) return phi;
+			same = operand;
+		}
+		if (same == IrFunction.NONE)
+			same = emit(Opcode.UNDEF, function.type(phi), IrFunction.NONE, IrFunction.NONE, 0);
+		aliases.set(phi, same);
+		return same;
+	}
+
+	protected int resolve( int value )
+	{
+		int result = value;
+		while (aliases.get(result) != result)
+			result = aliases.get(result);
+		// path compression
+		while (aliases.get(value) != result)
+		{
+			int next = aliases.get(value);
+			aliases.set(value, result);
+			value = next;
+		}
+		return result;
+	}
+
+	/**
+	 * Marks the block as having every predecessor known.
+	 */
+	protected void seal( BasicBlock block )
+	{
+		LinkedHashMap<Integer, Integer> phis = incomplete.remove(block.index);
+		if (phis != null)
+		{
+			for (Map.Entry<Integer, Integer> entry : phis.entrySet())
+				addOperands(entry.getKey(), entry.getValue());
+		}
+		block.sealed = true;
+	}
+
+	/**
+	 * Removes the remaining trivial phis and replaces every reference to removed
+	 * values.
+	 */
+	protected void finish()
+	{
+		// removing a phi may turn its users into trivial phis
+		boolean changed = true;
+		while (changed)
+		{
+			changed = false;
+			for (BasicBlock block : function.blocks)
+			{
+				for (int i = 0; i < block.phis.size(); ++i)
+				{
+					int phi = block.phis.get(i);
+					if (resolve(phi) == phi && removeTrivial(phi) != phi) changed = true;
+				}
+			}
+		}
+
+		for (int index = 0; index < function.size(); ++index)
+		{
+			if (function.first(index) != IrFunction.NONE)
+				function.first(index, resolve(function.first(index)));
+			if (function.second(index) != IrFunction.NONE)
+				function.second(index, resolve(function.second(index)));
+			if (function.opcode(index) == Opcode.BRANCH) continue;
+			for (int i = 0; i < function.extraCount(index); ++i)
+				function.extra(index, i, resolve(function.extra(index, i)));
+		}
+
+		for (BasicBlock block : function.blocks)
+		{
+			int size = 0;
+			for (int i = 0; i < block.phis.size(); ++i)
+			{
+				int phi = block.phis.get(i);
+				if (resolve(phi) == phi) block.phis.set(size++, phi);
+			}
+			block.phis.truncate(size);
+		}
+	}
+
+	/*
+	 * Instructions
+	 */
+
+	protected int emit( Opcode opcode, TypeReference type, int first, int second, long immediate )
+	{
+		return emit(current, opcode, type, first, second, immediate);
+	}
+
+	protected int emit( BasicBlock block, Opcode opcode, TypeReference type )
+	{
+		return emit(block, opcode, type, IrFunction.NONE, IrFunction.NONE, 0);
+	}
+
+	protected int emit( BasicBlock block, Opcode opcode, TypeReference type, int first, int second, long immediate )
+	{
+		int index = function.add(block, opcode, type, first, second, immediate);
+		function.location(index, location);
+		aliases.add(index);
+		return index;
+	}
+
+	protected void jump( BasicBlock target )
+	{
+		emit(Opcode.JUMP, null, IrFunction.NONE, IrFunction.NONE, target.index);
+		target.predecessors.add(current.index);
+	}
+
+	protected void branch( int condition, BasicBlock onTrue, BasicBlock onFalse )
+	{
+		int index = emit(Opcode.BRANCH, null, condition, IrFunction.NONE, 0);
+		function.setExtras(index, onTrue.index, onFalse.index);
+		onTrue.predecessors.add(current.index);
+		onFalse.predecessors.add(current.index);
+	}
+
+	protected int integer( TypeReference type, long value )
+	{
+		return emit(Opcode.CONST_INT, type, IrFunction.NONE, IrFunction.NONE, value);
+	}
+
+	/**
+	 * Returns the zero value of the given type.
+	 */
+	protected int zero( TypeReference type )
+	{
+		if (isInteger(type))
+			return integer(type, 0);
+		if (type == TypeReference.FLOAT32 || type == TypeReference.FLOAT64)
+			return emit(Opcode.CONST_FLOAT, type, IrFunction.NONE, IrFunction.NONE, Float.floatToIntBits(0));
+		if (type == TypeReference.BOOL)
+			return emit(Opcode.CONST_BOOL, type, IrFunction.NONE, IrFunction.NONE, 0);
+		return emit(Opcode.UNDEF, type, IrFunction.NONE, IrFunction.NONE, 0);
+	}
+
+	static boolean isInteger( TypeReference type )
+	{
+		return type == TypeReference.INT8 || type == TypeReference.INT16 || type == TypeReference.INT32
+			|| type == TypeReference.INT64 || type == TypeReference.UINT8 || type == TypeReference.UINT16
+			|| type == TypeReference.UINT32 || type == TypeReference.UINT64;
+	}
+
+	static boolean isNumeric( TypeReference type )
+	{
+		return isInteger(type) || type == TypeReference.FLOAT32 || type == TypeReference.FLOAT64;
+	}
+
+}
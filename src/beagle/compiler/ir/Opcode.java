@@ -0,0 +1,106 @@
+package beagle.compiler.ir;
+
+/**
+ * Operations of the intermediate representation.
+ */
+public enum Opcode
+{
+
+	// constants (the value is in the immediate field)
+	CONST_INT(true, true),
+	CONST_FLOAT(true, true),
+	CONST_BOOL(true, true),
+	CONST_STRING(true, true),
+	/**
+	 * Value of unknown content (e.g. variables read before being assigned).
+	 */
+	UNDEF(true, true),
+	/**
+	 * Function parameter (the index is in the immediate field).
+	 */
+	PARAM(true, true),
+	/**
+	 * Merge of the values coming from each predecessor (the operands are in
+	 * the same order as the predecessors of the block).
+	 */
+	PHI(true, true),
+
+	// arithmetic and logical operations
+	ADD(true, true),
+	SUB(true, true),
+	MUL(true, true),
+	DIV(true, true),
+	MOD(true, true),
+	NEG(true, true),
+	NOT(true, true),
+	BNOT(true, true),
+	EQ(true, true),
+	NE(true, true),
+	LT(true, true),
+	LE(true, true),
+	GT(true, true),
+	GE(true, true),
+	/**
+	 * Conditional value: first ? second : extra[0]
+	 */
+	SELECT(true, true),
+
+	/**
+	 * Function call (the callee is in the symbol table and the arguments are
+	 * the extra operands).
+	 */
+	CALL(true, false),
+
+	// terminators
+	JUMP(false, false),
+	BRANCH(false, false),
+	RETURN(false, false);
+
+	private final boolean result;
+
+	private final boolean pure;
+
+	private Opcode( boolean result, boolean pure )
+	{
+		this.result = result;
+		this.pure = pure;
+	}
+
+	/**
+	 * Whether the operation produces a value.
+	 */
+	public boolean hasResult()
+	{
+		return result;
+	}
+
+	/**
+	 * Whether the operation has no side effects (and can be removed if the
+	 * result is not used).
+	 */
+	public boolean isPure()
+	{
+		return pure;
+	}
+
+	public boolean isTerminator()
+	{
+		return this == JUMP || this == BRANCH || this == RETURN;
+	}
+
+	public boolean isConstant()
+	{
+		return this == CONST_INT || this == CONST_FLOAT || this == CONST_BOOL || this == CONST_STRING;
+	}
+
+	/**
+	 * Whether the value does not depend on the position of the instruction
+	 * (constants, parameters and undefined values). These instructions are
+	 * not part of the instruction sequence of any block.
+	 */
+	public boolean isFloating()
+	{
+		return isConstant() || this == UNDEF || this == PARAM;
+	}
+
+}
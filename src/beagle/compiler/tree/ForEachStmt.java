@@ -1,5 +1,9 @@
 package beagle.compiler.tree;
 
+import java.util.List;
+
+import beagle.compiler.TokenType;
+
 public class ForEachStmt extends TreeElement implements IStatement
 {
 
@@ -9,6 +13,18 @@ public class ForEachStmt extends TreeElement implements IStatement
 
 	public IExpression expression;
 
+	/**
+	 * Whether the iterations of a counted loop have no memory dependencies
+	 * between them (see 'AliasAnalysis').
+	 */
+	public boolean independent;
+
+	/**
+	 * Variables accumulated with '+=' by the iterations if they can also
+	 * run in parallel as SIMD lanes, otherwise {@code null}.
+	 */
+	public List<String> reductions;
+
 	public ForEachStmt(StorageDeclaration iterator, IExpression expression, IStatement statement)
 	{
 		this.iterator = iterator;
@@ -16,10 +32,36 @@ public class ForEachStmt extends TreeElement implements IStatement
 		this.statement = statement;
 	}
 
+	/**
+	 * Returns the arguments if the loop iterates over 'range(end)',
+	 * 'range(start, end)' or 'range(start, end, step)'; otherwise returns
+	 * {@code null}.
+	 */
+	public ArgumentList range()
+	{
+		if (!(expression instanceof UnaryExpression)) return null;
+
+		UnaryExpression call = (UnaryExpression) expression;
+		if (call.operation() != TokenType.TOK_LEFT_PAR || !(call.expression() instanceof NameLiteral)) return null;
+		if (!((NameLiteral) call.expression()).value().qualifiedName().equals("range")) return null;
+		if (!(call.extra() instanceof ArgumentList)) return null;
+
+		ArgumentList arguments = (ArgumentList) call.extra();
+		if (arguments.size() < 1 || arguments.size() > 3) return null;
+		for (Argument item : arguments)
+			if (item.name() != null) return null;
+		return arguments;
+	}
+
 	@Override
 	public void accept(ITreeVisitor visitor)
 	{
 		if (visitor.visit(this))
+		{
+			accept(visitor, iterator);
+			accept(visitor, expression);
+			accept(visitor, statement);
+		}
 		visitor.finish(this);
 	}
 
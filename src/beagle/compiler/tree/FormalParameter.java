@@ -7,6 +7,12 @@ public class FormalParameter extends TreeElement
 
 	private Name name;
 
+	/**
+	 * Whether the instance is only accessed through this parameter while the
+	 * function runs (see 'AliasAnalysis').
+	 */
+	public boolean restrict;
+
 	public FormalParameter( Name name, TypeReference type )
 	{
 		this.type = type;
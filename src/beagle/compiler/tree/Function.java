@@ -17,6 +17,11 @@ public class Function extends TreeElement
 
 	TreeElement parent;
 
+	/**
+	 * Whether the function is generated as 'static inline' (see 'Inliner').
+	 */
+	public boolean inline;
+
 	public Function(AnnotationList annots, TypeReference type, Name name, FormalParameterList parameters, Block body)
 	{
 		this.annotations = annots;
@@ -25,6 +25,7 @@ public class IntegerLiteral extends Literal<Long>
 	public TypeReference type()
 	{
 		// TODO: detect input type
+		if (type != null) return type;
 		return TypeReference.INT32;
 	}
 
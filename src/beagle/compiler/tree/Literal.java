@@ -27,4 +27,9 @@ public abstract class Literal<T> extends TreeElement implements IExpression
 		return this.type;
 	}
 
+	public void type(TypeReference value)
+	{
+		this.type = value;
+	}
+
 }
@@ -1,19 +1,23 @@
 package beagle.compiler.tree;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 public class Module extends TreeElement
 {
 
 	public Name name;
 
-	public HashMap<String, CompilationUnit> units;
+	/**
+	 * Compilation units sorted by file name, so the code generated for the
+	 * module does not depend on the order the units were added.
+	 */
+	public TreeMap<String, CompilationUnit> units;
 
 	public Module( Name name )
 	{
 		this.name = name;
-		this.units = new HashMap<>();
+		this.units = new TreeMap<>();
 	}
 
 //	@Override
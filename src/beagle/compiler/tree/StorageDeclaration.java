@@ -13,6 +13,18 @@ public abstract class StorageDeclaration extends TreeElement implements IStateme
 
 	protected IExpression initializer;
 
+	/**
+	 * Whether the storage only borrows the object it references, so no
+	 * retain/release is generated for it (see 'RetainElision').
+	 */
+	public boolean borrowed;
+
+	/**
+	 * Whether the instance created by the initializer never escapes the
+	 * function and can live on the stack (see 'EscapeAnalysis').
+	 */
+	public boolean onStack;
+
 	public StorageDeclaration( AnnotationList annotations, Name name, TypeReference type, IExpression initializer)
 	{
 		this.annotations = annotations;
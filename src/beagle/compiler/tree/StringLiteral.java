@@ -3,6 +3,11 @@ package beagle.compiler.tree;
 public class StringLiteral extends Literal<String>
 {
 
+	/**
+	 * Index of the string in the string table (-1 if not in the table).
+	 */
+	public int index = -1;
+
 	public StringLiteral(String value)
 	{
 		super(value);
@@ -3,6 +3,8 @@ package beagle.compiler.tree;
 public class Structure extends TreeElement
 {
 
+	public AnnotationList annotations;
+
 	public TypeReference parent;
 
 	//public StorageList storages = new StorageList();
@@ -13,6 +15,18 @@ public class Structure extends TreeElement
 
 	public TypeBody body;
 
+	/**
+	 * Returns the field with the given name declared in this structure (fields
+	 * of the parent are not included) or {@code null}.
+	 */
+	public StorageDeclaration field( String name )
+	{
+		if (body == null) return null;
+		for (StorageDeclaration item : body.storages)
+			if (item.name().qualifiedName().equals(name)) return item;
+		return null;
+	}
+
 	@Override
 	public void accept(ITreeVisitor visitor)
 	{
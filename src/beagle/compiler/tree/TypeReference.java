@@ -27,6 +27,14 @@ public class TypeReference extends TreeElement
 
 	public static TypeReference BOOL = new TypeReference(new Name("bool"), true);
 
+	public static TypeReference FLOAT32X4 = new TypeReference(new Name("float32x4"), FLOAT32, 4);
+
+	public static TypeReference FLOAT32X8 = new TypeReference(new Name("float32x8"), FLOAT32, 8);
+
+	public static TypeReference INT32X4 = new TypeReference(new Name("int32x4"), INT32, 4);
+
+	static TypeReference[] VECTORS = { FLOAT32X4, FLOAT32X8, INT32X4 };
+
 	private Package pack;
 
 	private TypeDeclaration type;
@@ -37,6 +45,16 @@ public class TypeReference extends TreeElement
 
 	public boolean isPrimitive = false;
 
+	/**
+	 * Type of the elements of vector types ({@code null} for other types).
+	 */
+	public TypeReference element;
+
+	/**
+	 * Number of elements of vector types.
+	 */
+	public int lanes;
+
 	public TypeReference( Name qualifiedName )
 	{
 		if (qualifiedName.isQualified())
@@ -66,6 +84,18 @@ public class TypeReference extends TreeElement
 		this.isPrimitive = isPrimitive;
 	}
 
+	private TypeReference( Name typeName, TypeReference element, int lanes )
+	{
+		this(typeName, true);
+		this.element = element;
+		this.lanes = lanes;
+	}
+
+	public boolean isVector()
+	{
+		return element != null;
+	}
+
 	public Name name()
 	{
 		if (type != null)
@@ -103,6 +133,23 @@ public class TypeReference extends TreeElement
 		return type;
 	}
 
+	@Override
+	public boolean equals( Object value )
+	{
+		if (value == this) return true;
+		if (!(value instanceof TypeReference)) return false;
+		// primitive types have a single instance
+		TypeReference other = (TypeReference) value;
+		if (isPrimitive || other.isPrimitive) return false;
+		return qualifiedName().equals(other.qualifiedName());
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return qualifiedName().hashCode();
+	}
+
 	@Override
 	public void accept(ITreeVisitor visitor)
 	{
@@ -160,8 +207,10 @@ public class TypeReference extends TreeElement
 		else
 		if (name.qualifiedName().equals(FLOAT32.qualifiedName()))
 			return FLOAT32;
-		else
-			return new TypeReference(name);
+
+		for (TypeReference item : VECTORS)
+			if (name.qualifiedName().equals(item.qualifiedName())) return item;
+		return new TypeReference(name);
 	}
 
 }
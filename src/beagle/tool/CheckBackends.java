@@ -0,0 +1,199 @@
+package beagle.tool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import beagle.compiler.CompilationContext;
+import beagle.compiler.Main;
+import beagle.compiler.Target;
+import beagle.compiler.tree.CompilationUnit;
+
+/**
+ * Runs the 'main' function of the given sources with every back end and
+ * compares the results with the value in the '// expect: <value>' comment
+ * of the source.
+ *
+ * The C code (generated from the tree and from the SSA form) is compiled
+ * with 'cc', the WebAssembly module is run with 'node' and the LLVM IR is
+ * compiled with 'clang'. Back ends whose tools are not installed are
+ * skipped. As the LLVM executable returns the result as its exit status,
+ * only the lowest 8 bits are compared. The exit status is 1 if any result
+ * differs.
+ */
+public class CheckBackends
+{
+
+	static final Pattern EXPECT = Pattern.compile("//\\s*expect:\\s*(-?[0-9]+)");
+
+	protected String include = "include";
+
+	protected int failures = 0;
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		CheckBackends checker = new CheckBackends();
+		List<String> fileNames = new ArrayList<>();
+		for (int i = 0; i < args.length; ++i)
+		{
+			if (args[i].equals("-include") && i + 1 < args.length)
+				checker.include = args[++i];
+			else
+				fileNames.add(args[i]);
+		}
+		if (fileNames.isEmpty())
+		{
+			System.err.println("Usage: CheckBackends [ -include <runtime headers> ] <source1> ... <source-n>");
+			return;
+		}
+
+		for (String fileName : fileNames)
+			checker.check(fileName);
+		if (checker.failures > 0)
+		{
+			System.err.println(checker.failures + " result(s) differ");
+			System.exit(1);
+		}
+		System.out.println("Checked " + fileNames.size() + " source(s)");
+	}
+
+	protected void check( String fileName ) throws IOException, InterruptedException
+	{
+		String content = new String(Files.readAllBytes(Paths.get(fileName)), StandardCharsets.UTF_8);
+		Matcher matcher = EXPECT.matcher(content);
+		if (!matcher.find())
+		{
+			System.out.println(fileName + ": no '// expect:' comment, skipped");
+			return;
+		}
+		long expected = Long.parseLong(matcher.group(1));
+
+		File directory = Files.createTempDirectory("beagle").toFile();
+		try
+		{
+			File source = new File(directory, "main.c");
+			File program = new File(directory, "main");
+			for (boolean useIr : new boolean[] { false, true })
+			{
+				String name = (useIr) ? "c -ir" : "c";
+				if (!compile(fileName, content, Target.C, useIr, source, "int main( void ) { printf(\"%lld\\n\", (long long) def_main_()); return 0; }\n"))
+					continue;
+				String output = run(name, "cc", "-w", "-include", "stdio.h", "-I" + include, "-o", program.getPath(), source.getPath(), "-lm");
+				if (output == null) continue;
+				output = run(name, program.getPath());
+				if (output != null) compare(fileName, name, output.trim(), expected, false);
+			}
+
+			File module = new File(directory, "main.wasm");
+			if (compile(fileName, content, Target.WASM, false, module, null))
+			{
+				String script = "const fs = require('fs');" +
+					"const instance = new WebAssembly.Instance(new WebAssembly.Module(fs.readFileSync(process.argv[1])), {});" +
+					"console.log(String(instance.exports.main()));";
+				String output = run("wasm", "node", "-e", script, module.getPath());
+				if (output != null) compare(fileName, "wasm", output.trim(), expected, false);
+			}
+
+			File assembly = new File(directory, "main.ll");
+			if (compile(fileName, content, Target.LLVM, false, assembly, null))
+			{
+				String output = run("llvm", "clang", "-w", "-o", program.getPath(), assembly.getPath());
+				if (output != null)
+				{
+					Process process = new ProcessBuilder(program.getPath()).redirectErrorStream(true).start();
+					process.getInputStream().readAllBytes();
+					compare(fileName, "llvm", Integer.toString(process.waitFor()), expected, true);
+				}
+			}
+		}
+		finally
+		{
+			for (File item : directory.listFiles())
+				item.delete();
+			directory.delete();
+		}
+	}
+
+	/**
+	 * Compiles the source for the given target, appending the given code
+	 * (if any) to the output.
+	 */
+	protected boolean compile( String fileName, String content, Target target, boolean useIr, File output, String suffix ) throws IOException
+	{
+		CompilationContext context = new CompilationContext(new Main.Listener());
+		context.target = target;
+		context.useIr = useIr;
+		context.lineDirectives = false;
+		CompilationUnit unit = Main.parse(context, fileName, content);
+		if (unit == null)
+		{
+			System.out.println(fileName + ": compilation failed");
+			++failures;
+			return false;
+		}
+		Main.analyze(context, unit);
+		Main.optimize(context, unit);
+		try (FileOutputStream stream = new FileOutputStream(output))
+		{
+			Main.generate(context, unit, stream);
+			if (suffix != null) stream.write(suffix.getBytes(StandardCharsets.UTF_8));
+		}
+		return true;
+	}
+
+	/**
+	 * Runs the given command.
+	 *
+	 * @return The output of the command or {@code null} if it failed or
+	 *    could not be run.
+	 */
+	protected String run( String name, String... command ) throws IOException, InterruptedException
+	{
+		Process process;
+		try
+		{
+			process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		} catch (IOException ex)
+		{
+			System.out.println(name + ": '" + command[0] + "' not available, skipped");
+			return null;
+		}
+		String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+		if (process.waitFor() != 0)
+		{
+			System.out.println(name + ": '" + command[0] + "' failed");
+			System.out.print(output);
+			++failures;
+			return null;
+		}
+		return output;
+	}
+
+	protected void compare( String fileName, String name, String output, long expected, boolean exitStatus )
+	{
+		long value;
+		try
+		{
+			value = Long.parseLong(output);
+		} catch (NumberFormatException ex)
+		{
+			value = expected + 1;
+		}
+		if (exitStatus) expected &= 0xFF;
+		if (value == expected)
+		{
+			System.out.println(fileName + ": " + name + ": ok");
+			return;
+		}
+		System.out.println(fileName + ": " + name + ": got '" + output + "', expected " + expected);
+		++failures;
+	}
+
+}
@@ -0,0 +1,134 @@
+package beagle.tool;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import beagle.compiler.CompilationContext;
+import beagle.compiler.Main;
+import beagle.compiler.Target;
+import beagle.compiler.tree.CompilationUnit;
+
+/**
+ * Checks that the compiler generates the same bytes every time it compiles
+ * the same source, so the output can be cached (e.g. by 'ccache') and builds
+ * are reproducible.
+ *
+ * Each source file is compiled for every target in a fresh compilation
+ * context, then again with all the sources sharing a single context in the
+ * reverse order (as the watcher does). Every output must be identical to the
+ * one of the first compilation. The exit status is 1 if any output differs.
+ */
+public class CheckDeterminism
+{
+
+	public static void main(String[] args) throws IOException
+	{
+		List<Target> targets = new ArrayList<>(Arrays.asList(Target.values()));
+		boolean useIr = false;
+		List<String> fileNames = new LinkedList<>();
+
+		for (int i = 0; i < args.length; ++i)
+		{
+			if (args[i].equals("-target") && i + 1 < args.length)
+			{
+				Target target = Target.fromOption(args[++i]);
+				if (target == null)
+				{
+					System.err.println("Unknown target '" + args[i] + "'");
+					System.exit(1);
+				}
+				targets = List.of(target);
+			}
+			else
+			if (args[i].equals("-ir"))
+				useIr = true;
+			else
+				fileNames.add(args[i]);
+		}
+
+		if (fileNames.isEmpty())
+		{
+			System.err.println("Usage: CheckDeterminism [ -target <name> ] [ -ir ] <source1> ... <source-n>");
+			System.err.println("  -target <name>  Check only the given target (default is every target)");
+			System.err.println("  -ir             Generate functions from their SSA form");
+			return;
+		}
+
+		List<String> contents = new ArrayList<>();
+		for (String fileName : fileNames)
+			contents.add(new String(Files.readAllBytes(Paths.get(fileName)), StandardCharsets.UTF_8));
+
+		int failures = 0;
+		for (Target target : targets)
+		{
+			byte[][] expected = new byte[fileNames.size()][];
+			for (int i = 0; i < fileNames.size(); ++i)
+				expected[i] = compile(context(target, useIr), fileNames.get(i), contents.get(i));
+
+			CompilationContext shared = context(target, useIr);
+			for (int i = fileNames.size() - 1; i >= 0; --i)
+			{
+				byte[] output = compile(shared, fileNames.get(i), contents.get(i));
+				if (expected[i] == null || output == null)
+				{
+					System.err.println(fileNames.get(i) + ": compilation failed");
+					++failures;
+					continue;
+				}
+				int offset = Arrays.mismatch(expected[i], output);
+				if (offset < 0) continue;
+				System.err.println(fileNames.get(i) + ": " + target.option + " output differs at " + position(expected[i], offset, target));
+				++failures;
+			}
+		}
+
+		if (failures > 0)
+		{
+			System.err.println(failures + " output(s) are not deterministic");
+			System.exit(1);
+		}
+		System.out.println("Checked " + fileNames.size() + " file(s) for " + targets.size() + " target(s)");
+	}
+
+	protected static CompilationContext context( Target target, boolean useIr )
+	{
+		CompilationContext context = new CompilationContext(new Main.Listener());
+		context.target = target;
+		context.useIr = useIr;
+		return context;
+	}
+
+	/**
+	 * Compiles the source in memory.
+	 *
+	 * @return The generated code or {@code null} in case of errors.
+	 */
+	protected static byte[] compile( CompilationContext context, String fileName, String content )
+	{
+		CompilationUnit unit = Main.parse(context, fileName, content);
+		if (unit == null) return null;
+		Main.analyze(context, unit);
+		Main.optimize(context, unit);
+		return Main.generate(context, unit);
+	}
+
+	/**
+	 * Describes the position of the first difference (line for textual
+	 * outputs, byte offset for binary ones).
+	 */
+	protected static String position( byte[] output, int offset, Target target )
+	{
+		if (target == Target.WASM) return "byte " + offset;
+		int line = 1;
+		for (int i = 0; i < offset && i < output.length; ++i)
+			if (output[i] == '\n') ++line;
+		return "line " + line;
+	}
+
+}
@@ -0,0 +1,135 @@
+package beagle.tool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import beagle.compiler.CompilationContext;
+import beagle.compiler.CompilationListener;
+import beagle.compiler.IncrementalParser;
+import beagle.compiler.JsonVisitor;
+import beagle.compiler.Main;
+import beagle.compiler.SourceLocation;
+import beagle.compiler.tree.CompilationUnit;
+
+/**
+ * Checks that the incremental parser builds the same tree as a full parse.
+ *
+ * Each source file is parsed from scratch and incrementally, then every
+ * top-level declaration is edited (a space inserted before it and removed
+ * again) and the incremental tree is checked once more. Trees are compared
+ * through their JSON dump and the number of errors reported. The exit
+ * status is 1 if any tree differs.
+ *
+ * Sources with syntax errors are skipped: the full parse stops at the first
+ * error, while the incremental parser recovers at the next declaration.
+ */
+public class CheckIncremental
+{
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length == 0)
+		{
+			System.err.println("Usage: CheckIncremental <source1> ... <source-n>");
+			return;
+		}
+
+		int failures = 0;
+		int checked = 0;
+		for (String fileName : args)
+		{
+			String content = new String(Files.readAllBytes(Paths.get(fileName)), StandardCharsets.UTF_8);
+
+			Counter full = new Counter();
+			String expected = dump(Main.parse(new CompilationContext(full), fileName, content));
+			if (full.errors > 0)
+			{
+				System.out.println("Skipped '" + fileName + "' (syntax errors)");
+				continue;
+			}
+
+			++checked;
+			Counter incremental = new Counter();
+			IncrementalParser parser = new IncrementalParser(new CompilationContext(incremental), fileName, content);
+			failures += compare(fileName, "parse", expected, dump(parser.parse()), incremental.errors);
+
+			List<Integer> offsets = new ArrayList<>();
+			for (IncrementalParser.Declaration item : parser.declarations())
+				offsets.add(parser.tokens().get(item.start).offset);
+			for (int offset : offsets)
+			{
+				parser.update(offset, 0, " ");
+				incremental.errors = 0;
+				CompilationUnit unit = parser.update(offset, 1, "");
+				failures += compare(fileName, "edit at " + offset, expected, dump(unit), incremental.errors);
+			}
+		}
+
+		if (failures > 0)
+		{
+			System.err.println(failures + " incremental parse(s) differ from the full parse");
+			System.exit(1);
+		}
+		System.out.println("Checked " + checked + " file(s)");
+	}
+
+	protected static int compare( String fileName, String step, String expected, String actual, int errors )
+	{
+		if (expected.equals(actual) && errors == 0) return 0;
+		if (errors > 0)
+			System.err.println(fileName + " (" + step + "): " + errors + " error(s)");
+		else
+			System.err.println(fileName + " (" + step + "): tree differs");
+		return 1;
+	}
+
+	protected static String dump( CompilationUnit unit )
+	{
+		if (unit == null) return "";
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		PrintStream printer = new PrintStream(output, false, StandardCharsets.UTF_8);
+		new JsonVisitor(printer).print(unit);
+		printer.flush();
+		return output.toString(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Counts the errors without printing them.
+	 */
+	protected static class Counter implements CompilationListener
+	{
+
+		int errors = 0;
+
+		@Override
+		public void onStart()
+		{
+		}
+
+		@Override
+		public boolean onError( SourceLocation location, String message )
+		{
+			++errors;
+			return true;
+		}
+
+		@Override
+		public boolean onWarning( SourceLocation location, String message )
+		{
+			return false;
+		}
+
+		@Override
+		public void onFinish()
+		{
+		}
+
+	}
+
+}
@@ -0,0 +1,266 @@
+package beagle.tool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import beagle.tool.lsp.Json;
+
+/**
+ * Scripted client for the language server.
+ *
+ * Starts 'beagle.tool.lsp.LanguageServer' as a separate process and drives
+ * it over the standard input and output: initialization, diagnostics,
+ * hover, go-to-definition, completion, diagnostics of the functions using
+ * an edited declaration, unknown methods, malformed messages and shutdown. Each step prints 'ok' or the reason it failed; the exit
+ * status is 1 if any step fails.
+ */
+public class CheckLanguageServer
+{
+
+	static final String URI = "file:///check.beagle";
+
+	static final String TEXT =
+		"package test\n" +
+		"\n" +
+		"struct Fruit\n" +
+		"{\n" +
+		"\tvar weight : int\n" +
+		"}\n" +
+		"\n" +
+		"struct Apple : Fruit\n" +
+		"{\n" +
+		"\tvar radius : int\n" +
+		"}\n" +
+		"\n" +
+		"def weigh( fruit : Fruit ) : int\n" +
+		"{\n" +
+		"\treturn fruit.weight\n" +
+		"}\n" +
+		"\n" +
+		"@arena\n" +
+		"def main() : int\n" +
+		"{\n" +
+		"\tvar apple = Apple()\n" +
+		"\tif apple is Fruit then return weigh(apple)\n" +
+		"\treturn 0\n" +
+		"}\n";
+
+	static final String CALLER_URI = "file:///caller.beagle";
+
+	static final String CALLER =
+		"package test\n" +
+		"\n" +
+		"def main() : int\n" +
+		"{\n" +
+		"\treturn g()\n" +
+		"}\n";
+
+	protected Process process;
+
+	protected OutputStream input;
+
+	protected InputStream output;
+
+	protected int failures = 0;
+
+	protected long id = 0;
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		CheckLanguageServer client = new CheckLanguageServer();
+		client.run();
+		if (client.failures > 0)
+		{
+			System.err.println(client.failures + " step(s) failed");
+			System.exit(1);
+		}
+		System.out.println("Language server checked");
+	}
+
+	@SuppressWarnings("unchecked")
+	protected void run() throws IOException, InterruptedException
+	{
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "beagle.tool.lsp.LanguageServer")
+			.redirectError(ProcessBuilder.Redirect.INHERIT)
+			.start();
+		input = process.getOutputStream();
+		output = process.getInputStream();
+
+		Map<String, Object> result = (Map<String, Object>) request("initialize", Json.object("capabilities", Json.object()));
+		Map<String, Object> capabilities = (result == null) ? null : (Map<String, Object>) result.get("capabilities");
+		check("initialize", capabilities != null && Boolean.TRUE.equals(capabilities.get("hoverProvider")));
+		notify("initialized", Json.object());
+
+		notify("textDocument/didOpen", Json.object("textDocument",
+			Json.object("uri", URI, "languageId", "beagle", "version", 1L, "text", TEXT)));
+		Map<String, Object> diagnostics = read();
+		List<Object> items = (List<Object>) ((Map<String, Object>) diagnostics.get("params")).get("diagnostics");
+		check("diagnostics", items.isEmpty(), Json.toString(items));
+
+		// 'weigh' in 'return weigh(apple)'
+		Map<String, Object> hover = (Map<String, Object>) request("textDocument/hover", position(21, 31));
+		String contents = (hover == null) ? "" : (String) ((Map<String, Object>) hover.get("contents")).get("value");
+		check("hover", contents.contains("weigh"), contents);
+
+		Map<String, Object> definition = (Map<String, Object>) request("textDocument/definition", position(21, 31));
+		long line = (definition == null) ? -1 : ((Number) ((Map<String, Object>) ((Map<String, Object>) definition.get("range")).get("start")).get("line")).longValue();
+		check("definition", line == 12, "line " + line);
+
+		Map<String, Object> completion = (Map<String, Object>) request("textDocument/completion", position(22, 1));
+		String labels = (completion == null) ? "" : Json.toString(completion.get("items"));
+		check("completion", labels.contains("\"weigh\"") && labels.contains("\"apple\"") && labels.contains("\"Fruit\""), labels);
+
+		// declaring (and renaming) the function called by 'main'
+		notify("textDocument/didOpen", Json.object("textDocument",
+			Json.object("uri", CALLER_URI, "languageId", "beagle", "version", 1L, "text", CALLER)));
+		items = diagnostics(CALLER_URI);
+		check("undefined function", !items.isEmpty(), Json.toString(items));
+		change(CALLER_URI, 2L, 6, 0, 6, 0, "\ndef g() : int\n{\n\treturn 1\n}\n");
+		items = diagnostics(CALLER_URI);
+		check("function declared", items.isEmpty(), Json.toString(items));
+		change(CALLER_URI, 3L, 7, 4, 7, 5, "h");
+		items = diagnostics(CALLER_URI);
+		check("function renamed", !items.isEmpty(), Json.toString(items));
+
+		Map<String, Object> response = send("textDocument/formatting", Json.object("textDocument", Json.object("uri", URI)));
+		check("unknown method", errorCode(response) == -32601, Json.toString(response));
+
+		write("{ \"jsonrpc\": \"2.0\", \"id\": ");
+		response = read();
+		check("malformed message", errorCode(response) == -32700, Json.toString(response));
+
+		result = (Map<String, Object>) request("textDocument/hover", position(21, 31));
+		check("recovery", result != null);
+
+		request("shutdown", null);
+		notify("exit", null);
+		input.close();
+		boolean finished = process.waitFor(10, TimeUnit.SECONDS);
+		check("exit", finished && process.exitValue() == 0);
+		if (!finished) process.destroyForcibly();
+	}
+
+	protected void check( String step, boolean condition )
+	{
+		check(step, condition, null);
+	}
+
+	protected void check( String step, boolean condition, String detail )
+	{
+		if (condition)
+		{
+			System.out.println(step + ": ok");
+			return;
+		}
+		System.out.println(step + ": failed" + ((detail != null) ? " (" + detail + ")" : ""));
+		++failures;
+	}
+
+	/**
+	 * Replaces the given range of a document.
+	 */
+	protected void change( String uri, long version, int startLine, int startCharacter, int endLine, int endCharacter, String text ) throws IOException
+	{
+		Map<String, Object> range = Json.object(
+			"start", Json.object("line", (long) startLine, "character", (long) startCharacter),
+			"end", Json.object("line", (long) endLine, "character", (long) endCharacter));
+		notify("textDocument/didChange", Json.object("textDocument", Json.object("uri", uri, "version", version),
+			"contentChanges", List.of(Json.object("range", range, "text", text))));
+	}
+
+	/**
+	 * Reads the diagnostics published for the given document.
+	 */
+	@SuppressWarnings("unchecked")
+	protected List<Object> diagnostics( String uri ) throws IOException
+	{
+		while (true)
+		{
+			Map<String, Object> message = read();
+			if (message == null) return List.of();
+			if (!"textDocument/publishDiagnostics".equals(message.get("method"))) continue;
+			Map<String, Object> params = (Map<String, Object>) message.get("params");
+			if (uri.equals(params.get("uri"))) return (List<Object>) params.get("diagnostics");
+		}
+	}
+
+	protected static Map<String, Object> position( int line, int character )
+	{
+		return Json.object("textDocument", Json.object("uri", URI), "position", Json.object("line", (long) line, "character", (long) character));
+	}
+
+	@SuppressWarnings("unchecked")
+	protected static long errorCode( Map<String, Object> response )
+	{
+		if (response == null || !(response.get("error") instanceof Map)) return 0;
+		return ((Number) ((Map<String, Object>) response.get("error")).get("code")).longValue();
+	}
+
+	/**
+	 * Sends a request and returns its result.
+	 */
+	protected Object request( String method, Object params ) throws IOException
+	{
+		Map<String, Object> response = send(method, params);
+		return (response == null) ? null : response.get("result");
+	}
+
+	/**
+	 * Sends a request and returns the response, skipping the notifications
+	 * sent by the server meanwhile.
+	 */
+	protected Map<String, Object> send( String method, Object params ) throws IOException
+	{
+		long current = ++id;
+		write(Json.toString(Json.object("jsonrpc", "2.0", "id", current, "method", method, "params", params)));
+		while (true)
+		{
+			Map<String, Object> message = read();
+			if (message == null) return null;
+			Object value = message.get("id");
+			if (value instanceof Number && ((Number) value).longValue() == current) return message;
+		}
+	}
+
+	protected void notify( String method, Object params ) throws IOException
+	{
+		write(Json.toString(Json.object("jsonrpc", "2.0", "method", method, "params", params)));
+	}
+
+	protected void write( String content ) throws IOException
+	{
+		byte[] data = content.getBytes(StandardCharsets.UTF_8);
+		input.write(("Content-Length: " + data.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+		input.write(data);
+		input.flush();
+	}
+
+	@SuppressWarnings("unchecked")
+	protected Map<String, Object> read() throws IOException
+	{
+		int length = -1;
+		while (true)
+		{
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int value;
+			while ((value = output.read()) >= 0 && value != '\n')
+				if (value != '\r') line.write(value);
+			if (value < 0) return null;
+			String header = line.toString(StandardCharsets.US_ASCII);
+			if (header.isEmpty()) break;
+			if (header.regionMatches(true, 0, "Content-Length:", 0, 15))
+				length = Integer.parseInt(header.substring(15).trim());
+		}
+		byte[] buffer = output.readNBytes(length);
+		return (Map<String, Object>) Json.parse(new String(buffer, StandardCharsets.UTF_8));
+	}
+
+}
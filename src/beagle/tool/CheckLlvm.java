@@ -0,0 +1,95 @@
+package beagle.tool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import beagle.compiler.CompilationContext;
+import beagle.compiler.Main;
+import beagle.compiler.Target;
+import beagle.compiler.tree.CompilationUnit;
+
+/**
+ * Checks that the LLVM IR generated for the given sources is accepted by
+ * 'llvm-as' (or the assembler given with '-as').
+ *
+ * Each source is compiled with '-target llvm' into a temporary file and
+ * assembled. The exit status is 1 if any source fails and 2 if the
+ * assembler can not be run.
+ */
+public class CheckLlvm
+{
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		String assembler = "llvm-as";
+		int first = 0;
+		if (args.length > 1 && args[0].equals("-as"))
+		{
+			assembler = args[1];
+			first = 2;
+		}
+		if (first >= args.length)
+		{
+			System.err.println("Usage: CheckLlvm [ -as <llvm-as> ] <source1> ... <source-n>");
+			return;
+		}
+
+		int failures = 0;
+		for (int i = first; i < args.length; ++i)
+		{
+			String fileName = args[i];
+			String content = new String(Files.readAllBytes(Paths.get(fileName)), StandardCharsets.UTF_8);
+			CompilationContext context = new CompilationContext(new Main.Listener());
+			context.target = Target.LLVM;
+			CompilationUnit unit = Main.parse(context, fileName, content);
+			if (unit == null)
+			{
+				System.err.println(fileName + ": compilation failed");
+				++failures;
+				continue;
+			}
+			Main.analyze(context, unit);
+			Main.optimize(context, unit);
+
+			File output = File.createTempFile("beagle", ".ll");
+			try (FileOutputStream stream = new FileOutputStream(output))
+			{
+				Main.generate(context, unit, stream);
+			}
+
+			Process process;
+			try
+			{
+				process = new ProcessBuilder(assembler, "-o", "/dev/null", output.getPath())
+					.redirectErrorStream(true)
+					.start();
+			} catch (IOException ex)
+			{
+				System.err.println("Unable to run '" + assembler + "': " + ex.getMessage());
+				output.delete();
+				System.exit(2);
+				return;
+			}
+			String messages = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+			if (process.waitFor() != 0)
+			{
+				System.err.println(fileName + ": invalid LLVM IR");
+				System.err.print(messages);
+				++failures;
+			}
+			output.delete();
+		}
+
+		if (failures > 0)
+		{
+			System.err.println(failures + " source(s) failed");
+			System.exit(1);
+		}
+		System.out.println("Checked " + (args.length - first) + " source(s)");
+	}
+
+}
@@ -1,65 +1,161 @@
 package beagle.tool;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import beagle.compiler.CompilationContext;
 import beagle.compiler.CompilationListener;
 import beagle.compiler.HtmlVisitor;
 import beagle.compiler.IParser;
 import beagle.compiler.IScanner;
+import beagle.compiler.JsonVisitor;
 import beagle.compiler.Parser;
 import beagle.compiler.ScanString;
 import beagle.compiler.Scanner;
-import beagle.compiler.Semantic;
 import beagle.compiler.SourceLocation;
 import beagle.compiler.tree.CompilationUnit;
-import beagle.compiler.tree.ITreeVisitor;
 
+/**
+ * Dumps the AST of the given source files.
+ *
+ * By default every compilation unit is rendered into a single HTML file.
+ * With '-split' the output is a directory and each unit is rendered into its
+ * own file, using one thread per available processor. With '-json' the AST
+ * is written as newline delimited JSON instead of HTML.
+ */
 public class PrintTree
 {
 
+	/**
+	 * Size of the buffer used for each output file.
+	 */
+	public static final int BUFFER_SIZE = 64 * 1024;
 
-	public static void main(String[] args) throws IOException
+	public static void main(String[] args) throws IOException, InterruptedException
 	{
-		CompilationContext context = new CompilationContext(new Listener());
+		int maxDepth = HtmlVisitor.UNLIMITED;
+		int collapseDepth = HtmlVisitor.UNLIMITED;
+		boolean split = false;
+		boolean json = false;
+		List<String> fileNames = new LinkedList<>();
 
-		if (args.length < 2)
+		for (int i = 0; i < args.length; ++i)
 		{
-			System.err.println("Usage: PrintTree <source1> ... <source-n> <html file>");
+			if (args[i].equals("-depth") && i + 1 < args.length)
+				maxDepth = Integer.parseInt(args[++i]);
+			else
+			if (args[i].equals("-collapse") && i + 1 < args.length)
+				collapseDepth = Integer.parseInt(args[++i]);
+			else
+			if (args[i].equals("-split"))
+				split = true;
+			else
+			if (args[i].equals("-json"))
+				json = true;
+			else
+				fileNames.add(args[i]);
+		}
+
+		if (fileNames.size() < 2)
+		{
+			System.err.println("Usage: PrintTree [ -depth <n> ] [ -collapse <n> ] [ -split ] [ -json ] <source1> ... <source-n> <output>");
+			System.err.println("  -depth <n>     Omit AST nodes deeper than 'n' levels");
+			System.err.println("  -collapse <n>  Render AST nodes at level 'n' or deeper collapsed");
+			System.err.println("  -split         Output one file per source in the directory <output>");
+			System.err.println("  -json          Output newline delimited JSON ('-' for the standard output)");
 			return;
 		}
 
-		String outputFileName = args[args.length-1];
-		if (!outputFileName.endsWith(".html"))
+		String outputName = fileNames.remove(fileNames.size() - 1);
+		if (!split && !json && !outputName.endsWith(".html"))
 		{
 			System.err.println("Output file must be an '.html' file");
 			return;
 		}
 
-		OutputStream os = new FileOutputStream(outputFileName);
-
-		for (int i = 0; i < args.length-1; i++)
+		if (split)
 		{
-			String fileName = args[i];
-			String content = new String(Files.readAllBytes(Paths.get(fileName)), StandardCharsets.UTF_8);
+			Files.createDirectories(Paths.get(outputName));
 
-			System.err.println("Compiling '" + fileName + "'");
-			IScanner scanner = new Scanner(context, new ScanString(fileName, content));
+			final int depth = maxDepth;
+			final int collapse = collapseDepth;
+			final String extension = (json) ? ".ndjson" : ".html";
+			final boolean asJson = json;
 
-			IParser parser = new Parser(context, scanner);
-			CompilationUnit unit = parser.parse();
-			if (unit == null) return;
-			HtmlVisitor visitor = new HtmlVisitor(new PrintStream(os));
-			visitor.print(unit);
+			// the compilation context is not thread-safe, so each unit has its own
+			ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+			for (String fileName : fileNames)
+			{
+				final String outputFileName = Paths.get(outputName, new File(fileName).getName() + extension).toString();
+				executor.execute(() -> {
+					try
+					{
+						CompilationUnit unit = parse(new CompilationContext(new Listener()), fileName);
+						if (unit == null) return;
+
+						PrintStream output = open(outputFileName);
+						print(unit, output, asJson, depth, collapse);
+						output.close();
+					} catch (IOException ex)
+					{
+						System.err.println("Unable to write '" + outputFileName + "': " + ex.getMessage());
+					}
+				});
+			}
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			return;
 		}
 
-		os.close();
+		CompilationContext context = new CompilationContext(new Listener());
+		PrintStream output = (json && outputName.equals("-")) ? new PrintStream(new BufferedOutputStream(System.out, BUFFER_SIZE), false, "UTF-8") : open(outputName);
+
+		for (String fileName : fileNames)
+		{
+			CompilationUnit unit = parse(context, fileName);
+			if (unit == null) break;
+			print(unit, output, json, maxDepth, collapseDepth);
+		}
+
+		output.close();
+	}
+
+	/**
+	 * Open a buffered stream for the given output file.
+	 */
+	protected static PrintStream open( String fileName ) throws IOException
+	{
+		return new PrintStream(new BufferedOutputStream(new FileOutputStream(fileName), BUFFER_SIZE), false, "UTF-8");
+	}
+
+	protected static CompilationUnit parse( CompilationContext context, String fileName ) throws IOException
+	{
+		String content = new String(Files.readAllBytes(Paths.get(fileName)), StandardCharsets.UTF_8);
+
+		System.err.println("Compiling '" + fileName + "'");
+		IScanner scanner = new Scanner(context, new ScanString(fileName, content));
+
+		IParser parser = new Parser(context, scanner);
+		return parser.parse();
+	}
+
+	protected static void print( CompilationUnit unit, PrintStream output, boolean json, int maxDepth, int collapseDepth )
+	{
+		if (json)
+			new JsonVisitor(output).print(unit);
+		else
+			new HtmlVisitor(output, maxDepth, collapseDepth).print(unit);
 	}
 
 	public static class Listener implements CompilationListener
@@ -72,6 +168,16 @@ public class PrintTree
 
 		@Override
 		public boolean onError(SourceLocation location, String message)
+		{
+			// units may be processed in parallel
+			synchronized (System.err)
+			{
+				print(location, message);
+			}
+			return true;
+		}
+
+		protected void print(SourceLocation location, String message)
 		{
 			if (location != null)
 			{
@@ -85,7 +191,6 @@ public class PrintTree
 				System.err.print("unknow:0:0");
 			System.err.print(": [E] ");
 			System.err.println(message);
-			return true;
 		}
 
 		@Override
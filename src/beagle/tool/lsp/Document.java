@@ -0,0 +1,579 @@
+package beagle.tool.lsp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import beagle.compiler.CompilationContext;
+import beagle.compiler.CompilationListener;
+import beagle.compiler.IncrementalParser;
+import beagle.compiler.Semantic;
+import beagle.compiler.SourceLocation;
+import beagle.compiler.Token;
+import beagle.compiler.TokenType;
+import beagle.compiler.tree.Block;
+import beagle.compiler.tree.ConstantDeclaration;
+import beagle.compiler.tree.ForEachStmt;
+import beagle.compiler.tree.FormalParameter;
+import beagle.compiler.tree.Function;
+import beagle.compiler.tree.IStatement;
+import beagle.compiler.tree.IfThenElseStmt;
+import beagle.compiler.tree.Name;
+import beagle.compiler.tree.NameLiteral;
+import beagle.compiler.tree.StorageDeclaration;
+import beagle.compiler.tree.Structure;
+import beagle.compiler.tree.TreeElement;
+import beagle.compiler.tree.TreeVisitor;
+import beagle.compiler.tree.TypeReference;
+
+/**
+ * Source file opened in the language server.
+ *
+ * Keeps the tokens, the compilation unit and the diagnostics of each
+ * top-level declaration. Edits are applied incrementally: only the modified
+ * declarations, and the ones referencing declarations whose signature
+ * changed, are parsed and analyzed again.
+ */
+public class Document extends IncrementalParser
+{
+
+	protected String uri;
+
+	/**
+	 * Offset of the first character of each line.
+	 */
+	protected int[] lines;
+
+	/**
+	 * Diagnostics of each top-level declaration.
+	 */
+	protected IdentityHashMap<Declaration, List<Diagnostic>> diagnostics;
+
+	/**
+	 * Diagnostics not related to a declaration (e.g. scanner errors), valid until the next edit.
+	 */
+	protected List<Diagnostic> transients;
+
+	/**
+	 * Declaration being parsed or analyzed.
+	 */
+	protected Declaration current;
+
+	/**
+	 * Whether errors are being ignored (used when revisiting unmodified declarations).
+	 */
+	protected boolean muted;
+
+	public Document( String uri, String text )
+	{
+		super(new CompilationContext(null), uri, text);
+		this.uri = uri;
+		this.diagnostics = new IdentityHashMap<>();
+		this.transients = new LinkedList<>();
+		context.listener = new Listener();
+
+		parse();
+		updateLines();
+		analyze(true);
+	}
+
+	public String uri()
+	{
+		return uri;
+	}
+
+	/**
+	 * Apply a text edit.
+	 */
+	public void edit( int offset, int removed, String inserted )
+	{
+		transients.clear();
+		Map<String, String> previous = signatures();
+		update(offset, removed, inserted);
+
+		// discard the diagnostics of removed declarations
+		IdentityHashMap<Declaration, Boolean> alive = new IdentityHashMap<>();
+		for (Declaration item : declarations) alive.put(item, Boolean.TRUE);
+		diagnostics.keySet().retainAll(alive.keySet());
+
+		updateLines();
+		analyze(false);
+		analyzeDependents(previous);
+	}
+
+	@Override
+	protected void parse( Declaration item )
+	{
+		current = item;
+		diagnostics.remove(item);
+		super.parse(item);
+		current = null;
+	}
+
+	/**
+	 * Run the semantic analysis on the modified declarations (or on every declaration).
+	 *
+	 * Global variables and constants are always visible to the analyzed functions.
+	 */
+	protected void analyze( boolean everything )
+	{
+		IdentityHashMap<TreeElement, Declaration> owners = new IdentityHashMap<>();
+		for (Declaration item : declarations)
+			if (item.element != null) owners.put(item.element, item);
+		IdentityHashMap<TreeElement, Boolean> modified = new IdentityHashMap<>();
+		for (TreeElement item : changed) modified.put(item, Boolean.TRUE);
+
+		Semantic semantic = new Semantic(context);
+		// calls, constructors and type tests resolve against the whole unit
+		semantic.declare(unit);
+
+		// every global must be in scope, but the errors of the unmodified
+		// ones were already reported
+		for (StorageDeclaration item : unit.storages())
+		{
+			current = owners.get(item);
+			muted = !everything && !modified.containsKey(item);
+			semantic.typeInference(item);
+		}
+		muted = false;
+		for (Structure item : unit.structures)
+		{
+			if (item.body == null || (!everything && !modified.containsKey(item))) continue;
+			current = owners.get(item);
+			semantic.typeInference(item.body.storages);
+		}
+		for (Function item : unit.functions)
+		{
+			if (!everything && !modified.containsKey(item)) continue;
+			current = owners.get(item);
+			semantic.typeInference(item);
+		}
+		current = null;
+	}
+
+	/**
+	 * Parse and analyze again the declarations referencing the ones whose
+	 * signature changed, until no other signature changes.
+	 *
+	 * The semantic analysis stores the inferred types in the tree, so the
+	 * dependents are parsed again instead of analyzing their old tree.
+	 */
+	protected void analyzeDependents( Map<String, String> previous )
+	{
+		// every pass changes at least one declaration
+		for (int pass = 0; pass < declarations.size(); ++pass)
+		{
+			Map<String, String> current = signatures();
+			Set<String> names = new HashSet<>();
+			for (String name : previous.keySet())
+				if (!Objects.equals(previous.get(name), current.get(name))) names.add(name);
+			for (String name : current.keySet())
+				if (!previous.containsKey(name)) names.add(name);
+			if (names.isEmpty()) return;
+
+			IdentityHashMap<TreeElement, Boolean> analyzed = new IdentityHashMap<>();
+			for (TreeElement item : changed) analyzed.put(item, Boolean.TRUE);
+			List<Declaration> dependents = new ArrayList<>();
+			for (Declaration item : declarations)
+				if (item.element != null && !analyzed.containsKey(item.element) && references(item.element, names)) dependents.add(item);
+			if (dependents.isEmpty()) return;
+
+			changed.clear();
+			for (Declaration item : dependents)
+				reparse(item);
+			analyze(false);
+			previous = current;
+		}
+	}
+
+	/**
+	 * Returns the description of every top-level declaration by name.
+	 */
+	protected Map<String, String> signatures()
+	{
+		Map<String, String> output = new HashMap<>();
+		for (Declaration item : declarations)
+		{
+			Name name = nameOf(item.element);
+			if (name == null) continue;
+			StringBuilder value = new StringBuilder(describe(item.element));
+			// fields are part of the signature of structures
+			if (item.element instanceof Structure && ((Structure) item.element).body != null)
+				for (StorageDeclaration field : ((Structure) item.element).body.storages)
+					value.append("; ").append(describe(field));
+			output.merge(name.qualifiedName(), value.toString(), (a, b) -> a + "\n" + b);
+		}
+		return output;
+	}
+
+	/**
+	 * Whether the element references any of the given names (regardless of
+	 * scope, so local names hiding them count as well).
+	 */
+	protected static boolean references( TreeElement element, Set<String> names )
+	{
+		boolean[] found = new boolean[1];
+		TreeVisitor visitor = new TreeVisitor()
+		{
+			@Override
+			public boolean visit( NameLiteral target )
+			{
+				Name name = target.value();
+				found[0] |= names.contains(name.qualifiedName()) || names.contains(name.name(0));
+				return true;
+			}
+
+			@Override
+			public boolean visit( TypeReference target )
+			{
+				found[0] |= names.contains(target.qualifiedName());
+				return true;
+			}
+		};
+		if (element instanceof Structure)
+		{
+			Structure structure = (Structure) element;
+			if (structure.parent != null) found[0] |= names.contains(structure.parent.qualifiedName());
+			if (structure.body != null) structure.body.accept(visitor);
+		}
+		else
+			element.accept(visitor);
+		return found[0];
+	}
+
+	protected void updateLines()
+	{
+		int count = 1;
+		for (int i = 0; i < text.length(); ++i)
+			if (text.charAt(i) == '\n') ++count;
+
+		lines = new int[count];
+		int line = 1;
+		for (int i = 0; i < text.length(); ++i)
+			if (text.charAt(i) == '\n') lines[line++] = i + 1;
+	}
+
+	/**
+	 * Convert a LSP position (zero-based line and character) into an offset.
+	 */
+	public int offset( int line, int character )
+	{
+		if (line < 0) return 0;
+		if (line >= lines.length) return text.length();
+		return Math.min(lines[line] + character, text.length());
+	}
+
+	public Map<String, Object> position( int offset )
+	{
+		int low = 0, high = lines.length - 1;
+		while (low < high)
+		{
+			int middle = (low + high + 1) >>> 1;
+			if (lines[middle] <= offset)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		return Json.object("line", (long) low, "character", (long) (offset - lines[low]));
+	}
+
+	public Map<String, Object> range( int start, int end )
+	{
+		return Json.object("start", position(start), "end", position(end));
+	}
+
+	/**
+	 * Returns the range of a name given the location of its last character.
+	 */
+	public Map<String, Object> range( SourceLocation location, int length )
+	{
+		if (location == null) return range(0, 0);
+
+		int line = Math.max(0, Math.min(location.getLine() - 1, lines.length - 1));
+		// the first line starts at column 2 (see SourceLocation.update)
+		int last = location.getColumn() - ((line == 0) ? 2 : 1);
+		int end = Math.min(lines[line] + Math.max(0, last) + 1, text.length());
+		return range(Math.max(lines[line], end - Math.max(1, length)), end);
+	}
+
+	/**
+	 * Returns the index of the token at the given offset (or ending at it) or -1.
+	 */
+	public int tokenAt( int offset )
+	{
+		int index = find(offset);
+		if (index >= tokens.size()) return -1;
+
+		Token token = tokens.get(index);
+		if (token.offset > offset) return -1;
+		// cursor after the end of a token
+		if (token.offset + token.length == offset && index + 1 < tokens.size() && tokens.get(index + 1).offset == offset)
+			return index + 1;
+		return index;
+	}
+
+	public Token token( int index )
+	{
+		return tokens.get(index);
+	}
+
+	/**
+	 * Returns the top-level declaration containing the given token.
+	 */
+	public Declaration declarationAt( int tokenIndex )
+	{
+		int low = 0, high = declarations.size() - 1;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			Declaration item = declarations.get(middle);
+			if (tokenIndex < item.start)
+				high = middle - 1;
+			else
+			if (tokenIndex >= item.end)
+				low = middle + 1;
+			else
+				return item;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the top-level declaration containing the given position (or
+	 * the following token, if the position is between tokens).
+	 */
+	public Declaration declarationAtOffset( int offset )
+	{
+		return declarationAt(find(offset));
+	}
+
+	/**
+	 * Returns every symbol visible inside the given declaration, with local
+	 * symbols hiding the global ones.
+	 */
+	public Map<String, TreeElement> symbols( Declaration scope )
+	{
+		Map<String, TreeElement> output = new LinkedHashMap<>();
+
+		for (Structure item : unit.structures)
+			if (item.name != null) output.put(item.name.qualifiedName(), item);
+		for (Function item : unit.functions)
+			if (item.name() != null) output.put(item.name().qualifiedName(), item);
+		for (StorageDeclaration item : unit.storages())
+			if (item.name() != null) output.put(item.name().qualifiedName(), item);
+
+		if (scope != null && scope.element instanceof Function)
+		{
+			Function function = (Function) scope.element;
+			if (function.parameters() != null)
+				for (FormalParameter item : function.parameters())
+					if (item.name() != null) output.put(item.name().qualifiedName(), item);
+			collect(function.body(), output);
+		}
+		return output;
+	}
+
+	private void collect( IStatement statement, Map<String, TreeElement> output )
+	{
+		if (statement instanceof StorageDeclaration)
+		{
+			StorageDeclaration storage = (StorageDeclaration) statement;
+			if (storage.name() != null) output.put(storage.name().qualifiedName(), storage);
+		}
+		else
+		if (statement instanceof Block)
+		{
+			for (IStatement item : (Block) statement)
+				collect(item, output);
+		}
+		else
+		if (statement instanceof IfThenElseStmt)
+		{
+			collect(((IfThenElseStmt) statement).thenSide(), output);
+			collect(((IfThenElseStmt) statement).elseSide(), output);
+		}
+		else
+		if (statement instanceof ForEachStmt)
+		{
+			collect(((ForEachStmt) statement).iterator, output);
+			collect(((ForEachStmt) statement).statement, output);
+		}
+	}
+
+	/**
+	 * Returns the declaration of the name at the given token or {@code null}.
+	 */
+	public TreeElement resolve( int tokenIndex )
+	{
+		if (tokenIndex < 0) return null;
+		Token token = tokens.get(tokenIndex);
+		if (token.type != TokenType.TOK_NAME) return null;
+		return symbols(declarationAt(tokenIndex)).get(token.value);
+	}
+
+	/**
+	 * Returns the name of a declaration.
+	 */
+	public static Name nameOf( TreeElement element )
+	{
+		if (element instanceof StorageDeclaration) return ((StorageDeclaration) element).name();
+		if (element instanceof FormalParameter) return ((FormalParameter) element).name();
+		if (element instanceof Function) return ((Function) element).name();
+		if (element instanceof Structure) return ((Structure) element).name;
+		return null;
+	}
+
+	/**
+	 * Returns a short textual description of a declaration.
+	 */
+	public static String describe( TreeElement element )
+	{
+		if (element instanceof StorageDeclaration)
+		{
+			StorageDeclaration storage = (StorageDeclaration) element;
+			String kind = (storage instanceof ConstantDeclaration) ? "const " : "var ";
+			return kind + storage.name() + " : " + typeName(storage.type());
+		}
+		if (element instanceof FormalParameter)
+		{
+			FormalParameter param = (FormalParameter) element;
+			return param.name() + " : " + typeName(param.type());
+		}
+		if (element instanceof Function)
+		{
+			Function function = (Function) element;
+			StringBuilder output = new StringBuilder("def ");
+			output.append(function.name()).append('(');
+			if (function.parameters() != null)
+			{
+				boolean first = true;
+				for (FormalParameter item : function.parameters())
+				{
+					if (!first) output.append(", ");
+					output.append(item.name()).append(" : ").append(typeName(item.type()));
+					first = false;
+				}
+			}
+			output.append(") : ").append(typeName(function.returnType()));
+			return output.toString();
+		}
+		if (element instanceof Structure)
+		{
+			Structure structure = (Structure) element;
+			String result = "struct " + structure.name;
+			if (structure.parent != null) result += " : " + structure.parent.qualifiedName();
+			return result;
+		}
+		return "";
+	}
+
+	static String typeName( TypeReference type )
+	{
+		return (type == null) ? "?" : type.qualifiedName();
+	}
+
+	/**
+	 * Returns the diagnostics of the whole document as LSP objects.
+	 */
+	public List<Object> diagnostics()
+	{
+		List<Object> output = new ArrayList<>();
+		for (Diagnostic item : transients)
+			output.add(item.toJson(this));
+		for (Declaration item : declarations)
+		{
+			List<Diagnostic> entries = diagnostics.get(item);
+			if (entries == null) continue;
+			for (Diagnostic entry : entries)
+				output.add(entry.toJson(this));
+		}
+		return output;
+	}
+
+	public static class Diagnostic
+	{
+
+		/**
+		 * Location of the error. Token locations are shared with the token
+		 * stream and follow the edits automatically.
+		 */
+		public SourceLocation location;
+
+		public String message;
+
+		public Declaration owner;
+
+		public Diagnostic( SourceLocation location, String message, Declaration owner )
+		{
+			this.location = location;
+			this.message = message;
+			this.owner = owner;
+		}
+
+		public Map<String, Object> toJson( Document document )
+		{
+			Map<String, Object> range;
+			if (location == null && owner != null)
+			{
+				// use the beginning of the declaration
+				Token first = document.tokens.get(owner.start);
+				range = document.range(first.offset, first.offset + first.length);
+			}
+			else
+				range = document.range(location, 1);
+
+			return Json.object("range", range, "severity", 1L, "source", "beagle", "message", message);
+		}
+
+	}
+
+	protected class Listener implements CompilationListener
+	{
+
+		@Override
+		public void onStart()
+		{
+		}
+
+		@Override
+		public boolean onError( SourceLocation location, String message )
+		{
+			if (muted) return true;
+			if (current == null)
+			{
+				// the scanner keeps updating its location object
+				transients.add(new Diagnostic((location == null) ? null : location.clone(), message, null));
+				return true;
+			}
+
+			List<Diagnostic> entries = diagnostics.get(current);
+			if (entries == null)
+			{
+				entries = new LinkedList<>();
+				diagnostics.put(current, entries);
+			}
+			entries.add(new Diagnostic(location, message, current));
+			return true;
+		}
+
+		@Override
+		public boolean onWarning( SourceLocation location, String message )
+		{
+			return false;
+		}
+
+		@Override
+		public void onFinish()
+		{
+		}
+
+	}
+
+}
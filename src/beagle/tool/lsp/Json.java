@@ -0,0 +1,279 @@
+package beagle.tool.lsp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader and writer used by the language server.
+ *
+ * Objects are mapped to {@link Map}, arrays to {@link List}, numbers to
+ * {@link Long} or {@link Double}, and the remaining values to the
+ * corresponding Java types ({@code null} included).
+ */
+public class Json
+{
+
+	private String text;
+
+	private int index;
+
+	private Json( String text )
+	{
+		this.text = text;
+		this.index = 0;
+	}
+
+	public static Object parse( String text )
+	{
+		Json reader = new Json(text);
+		Object result = reader.readValue();
+		reader.skipSpaces();
+		if (reader.index != text.length())
+			throw reader.error("Unexpected content");
+		return result;
+	}
+
+	private IllegalArgumentException error( String message )
+	{
+		return new IllegalArgumentException(message + " at position " + index);
+	}
+
+	private void skipSpaces()
+	{
+		while (index < text.length() && Character.isWhitespace(text.charAt(index)))
+			++index;
+	}
+
+	private void expect( char value )
+	{
+		skipSpaces();
+		if (index >= text.length() || text.charAt(index) != value)
+			throw error("Expected '" + value + "'");
+		++index;
+	}
+
+	private Object readValue()
+	{
+		skipSpaces();
+		if (index >= text.length()) throw error("Unexpected end of input");
+
+		char current = text.charAt(index);
+		switch (current)
+		{
+			case '{':
+				return readObject();
+			case '[':
+				return readArray();
+			case '"':
+				return readString();
+			case 't':
+				return readKeyword("true", Boolean.TRUE);
+			case 'f':
+				return readKeyword("false", Boolean.FALSE);
+			case 'n':
+				return readKeyword("null", null);
+			default:
+				return readNumber();
+		}
+	}
+
+	private Object readKeyword( String keyword, Object value )
+	{
+		if (!text.startsWith(keyword, index)) throw error("Invalid value");
+		index += keyword.length();
+		return value;
+	}
+
+	private Map<String, Object> readObject()
+	{
+		Map<String, Object> result = new LinkedHashMap<>();
+		expect('{');
+		skipSpaces();
+		if (index < text.length() && text.charAt(index) == '}')
+		{
+			++index;
+			return result;
+		}
+		while (true)
+		{
+			skipSpaces();
+			String key = readString();
+			expect(':');
+			result.put(key, readValue());
+			skipSpaces();
+			if (index < text.length() && text.charAt(index) == ',')
+			{
+				++index;
+				continue;
+			}
+			expect('}');
+			return result;
+		}
+	}
+
+	private List<Object> readArray()
+	{
+		List<Object> result = new ArrayList<>();
+		expect('[');
+		skipSpaces();
+		if (index < text.length() && text.charAt(index) == ']')
+		{
+			++index;
+			return result;
+		}
+		while (true)
+		{
+			result.add(readValue());
+			skipSpaces();
+			if (index < text.length() && text.charAt(index) == ',')
+			{
+				++index;
+				continue;
+			}
+			expect(']');
+			return result;
+		}
+	}
+
+	private String readString()
+	{
+		expect('"');
+		StringBuilder output = new StringBuilder();
+		while (true)
+		{
+			if (index >= text.length()) throw error("Unterminated string");
+			char current = text.charAt(index++);
+			if (current == '"') break;
+			if (current != '\\')
+			{
+				output.append(current);
+				continue;
+			}
+			if (index >= text.length()) throw error("Unterminated string");
+			current = text.charAt(index++);
+			switch (current)
+			{
+				case 'b': output.append('\b'); break;
+				case 'f': output.append('\f'); break;
+				case 'n': output.append('\n'); break;
+				case 'r': output.append('\r'); break;
+				case 't': output.append('\t'); break;
+				case 'u':
+					if (index + 4 > text.length()) throw error("Invalid escape sequence");
+					output.append((char) Integer.parseInt(text.substring(index, index + 4), 16));
+					index += 4;
+					break;
+				default:
+					output.append(current);
+			}
+		}
+		return output.toString();
+	}
+
+	private Object readNumber()
+	{
+		int start = index;
+		boolean isInteger = true;
+		while (index < text.length())
+		{
+			char current = text.charAt(index);
+			if (current == '.' || current == 'e' || current == 'E')
+				isInteger = false;
+			else
+			if (current != '-' && current != '+' && (current < '0' || current > '9'))
+				break;
+			++index;
+		}
+		if (start == index) throw error("Invalid value");
+
+		String value = text.substring(start, index);
+		if (isInteger)
+			return Long.valueOf(value);
+		else
+			return Double.valueOf(value);
+	}
+
+	public static String toString( Object value )
+	{
+		StringBuilder output = new StringBuilder();
+		write(output, value);
+		return output.toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	public static void write( StringBuilder output, Object value )
+	{
+		if (value == null)
+			output.append("null");
+		else
+		if (value instanceof String)
+			writeString(output, (String) value);
+		else
+		if (value instanceof Map)
+		{
+			output.append('{');
+			boolean first = true;
+			for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet())
+			{
+				if (!first) output.append(',');
+				writeString(output, entry.getKey());
+				output.append(':');
+				write(output, entry.getValue());
+				first = false;
+			}
+			output.append('}');
+		}
+		else
+		if (value instanceof List)
+		{
+			output.append('[');
+			boolean first = true;
+			for (Object item : (List<Object>) value)
+			{
+				if (!first) output.append(',');
+				write(output, item);
+				first = false;
+			}
+			output.append(']');
+		}
+		else
+			output.append(value.toString());
+	}
+
+	private static void writeString( StringBuilder output, String value )
+	{
+		output.append('"');
+		for (int i = 0; i < value.length(); ++i)
+		{
+			char current = value.charAt(i);
+			switch (current)
+			{
+				case '"': output.append("\\\""); break;
+				case '\\': output.append("\\\\"); break;
+				case '\n': output.append("\\n"); break;
+				case '\r': output.append("\\r"); break;
+				case '\t': output.append("\\t"); break;
+				default:
+					if (current < ' ')
+						output.append(String.format("\\u%04x", (int) current));
+					else
+						output.append(current);
+			}
+		}
+		output.append('"');
+	}
+
+	/**
+	 * Create an object from a sequence of key and value pairs.
+	 */
+	public static Map<String, Object> object( Object... pairs )
+	{
+		Map<String, Object> result = new LinkedHashMap<>();
+		for (int i = 0; i + 1 < pairs.length; i += 2)
+			result.put((String) pairs[i], pairs[i + 1]);
+		return result;
+	}
+
+}
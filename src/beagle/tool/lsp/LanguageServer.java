@@ -0,0 +1,351 @@
+package beagle.tool.lsp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import beagle.compiler.IncrementalParser.Declaration;
+import beagle.compiler.Token;
+import beagle.compiler.TokenType;
+import beagle.compiler.tree.FormalParameter;
+import beagle.compiler.tree.Function;
+import beagle.compiler.tree.Name;
+import beagle.compiler.tree.StorageDeclaration;
+import beagle.compiler.tree.Structure;
+import beagle.compiler.tree.TreeElement;
+
+/**
+ * Language server for Beagle using JSON-RPC over the standard input and output.
+ *
+ * Supports diagnostics, hover, go-to-definition and completion. Every
+ * request is answered from the in-memory state of the documents, which is
+ * updated incrementally as the client sends edits.
+ *
+ * Usage: LanguageServer
+ */
+public class LanguageServer
+{
+
+	// LSP error codes
+	static final long PARSE_ERROR = -32700;
+
+	static final long INVALID_REQUEST = -32600;
+
+	static final long METHOD_NOT_FOUND = -32601;
+
+	static final long INTERNAL_ERROR = -32603;
+
+	// LSP completion item kinds
+	static final long KIND_FUNCTION = 3;
+
+	static final long KIND_VARIABLE = 6;
+
+	static final long KIND_STRUCT = 22;
+
+	static final long KIND_KEYWORD = 14;
+
+	static final String[] KEYWORDS = { "def", "var", "const", "struct", "if", "then", "elif",
+		"else", "for", "in", "return", "import", "package", "true", "false", "null", "and", "or",
+		"not", "is" };
+
+	/**
+	 * Methods handled by the server ('exit' is handled by the main loop).
+	 */
+	static final Set<String> METHODS = Set.of("initialize", "initialized", "shutdown",
+		"textDocument/didOpen", "textDocument/didChange", "textDocument/didClose",
+		"textDocument/hover", "textDocument/definition", "textDocument/completion");
+
+	protected InputStream input;
+
+	protected OutputStream output;
+
+	protected HashMap<String, Document> documents;
+
+	protected boolean shutdown = false;
+
+	public LanguageServer( InputStream input, OutputStream output )
+	{
+		this.input = new BufferedInputStream(input);
+		this.output = new BufferedOutputStream(output);
+		this.documents = new HashMap<>();
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		System.exit(new LanguageServer(System.in, System.out).run());
+	}
+
+	/**
+	 * Process messages until the client sends 'exit' or closes the input.
+	 *
+	 * @return Process exit code.
+	 */
+	@SuppressWarnings("unchecked")
+	public int run() throws IOException
+	{
+		while (true)
+		{
+			String content = readMessage();
+			if (content == null) return 1;
+
+			Object parsed;
+			try
+			{
+				parsed = Json.parse(content);
+			} catch (IllegalArgumentException ex)
+			{
+				// the id is unknown, so the error has none
+				writeError(null, PARSE_ERROR, ex.getMessage());
+				continue;
+			}
+			if (!(parsed instanceof Map))
+			{
+				writeError(null, INVALID_REQUEST, "Invalid request");
+				continue;
+			}
+
+			Map<String, Object> message = (Map<String, Object>) parsed;
+			String method = (String) message.get("method");
+			if ("exit".equals(method)) return (shutdown) ? 0 : 1;
+
+			Object id = message.get("id");
+			if (method == null || !METHODS.contains(method))
+			{
+				// unknown notifications (e.g. '$/cancelRequest') are ignored
+				if (id != null)
+					writeError(id, METHOD_NOT_FOUND, "Method not found: " + method);
+				continue;
+			}
+			try
+			{
+				Object result = handle(method, (Map<String, Object>) message.get("params"));
+				if (id != null)
+					writeMessage(Json.object("jsonrpc", "2.0", "id", id, "result", result));
+			} catch (RuntimeException ex)
+			{
+				if (id != null)
+					writeError(id, INTERNAL_ERROR, ex.toString());
+			}
+		}
+	}
+
+	protected String readMessage() throws IOException
+	{
+		int length = -1;
+
+		// headers
+		while (true)
+		{
+			String line = readLine();
+			if (line == null) return null;
+			if (line.isEmpty()) break;
+			if (line.regionMatches(true, 0, "Content-Length:", 0, 15))
+				length = Integer.parseInt(line.substring(15).trim());
+		}
+		if (length < 0) throw new IOException("Missing 'Content-Length' header");
+
+		byte[] buffer = new byte[length];
+		int count = 0;
+		while (count < length)
+		{
+			int read = input.read(buffer, count, length - count);
+			if (read < 0) return null;
+			count += read;
+		}
+		return new String(buffer, StandardCharsets.UTF_8);
+	}
+
+	private String readLine() throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		while (true)
+		{
+			int value = input.read();
+			if (value < 0) return null;
+			if (value == '\n') break;
+			if (value != '\r') line.write(value);
+		}
+		return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+	}
+
+	protected void writeMessage( Map<String, Object> message ) throws IOException
+	{
+		byte[] content = Json.toString(message).getBytes(StandardCharsets.UTF_8);
+		output.write(("Content-Length: " + content.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+		output.write(content);
+		output.flush();
+	}
+
+	protected void writeError( Object id, long code, String message ) throws IOException
+	{
+		writeMessage(Json.object("jsonrpc", "2.0", "id", id, "error", Json.object("code", code, "message", message)));
+	}
+
+	@SuppressWarnings("unchecked")
+	protected Object handle( String method, Map<String, Object> params ) throws IOException
+	{
+		switch (method)
+		{
+			case "initialize":
+				return initialize();
+			case "initialized":
+				return null;
+			case "shutdown":
+				shutdown = true;
+				return null;
+			case "textDocument/didOpen":
+				didOpen((Map<String, Object>) params.get("textDocument"));
+				return null;
+			case "textDocument/didChange":
+				didChange(params);
+				return null;
+			case "textDocument/didClose":
+				documents.remove(uri(params));
+				return null;
+			case "textDocument/hover":
+				return hover(params);
+			case "textDocument/definition":
+				return definition(params);
+			case "textDocument/completion":
+				return completion(params);
+			default:
+				// not in 'METHODS'
+				return null;
+		}
+	}
+
+	protected Object initialize()
+	{
+		Map<String, Object> sync = Json.object("openClose", Boolean.TRUE, "change", 2L);
+		Map<String, Object> completion = Json.object("triggerCharacters", new ArrayList<>());
+		Map<String, Object> capabilities = Json.object(
+			"textDocumentSync", sync,
+			"hoverProvider", Boolean.TRUE,
+			"definitionProvider", Boolean.TRUE,
+			"completionProvider", completion);
+		return Json.object("capabilities", capabilities, "serverInfo", Json.object("name", "beagle"));
+	}
+
+	@SuppressWarnings("unchecked")
+	static String uri( Map<String, Object> params )
+	{
+		return (String) ((Map<String, Object>) params.get("textDocument")).get("uri");
+	}
+
+	protected void didOpen( Map<String, Object> item ) throws IOException
+	{
+		Document document = new Document((String) item.get("uri"), (String) item.get("text"));
+		documents.put(document.uri(), document);
+		publishDiagnostics(document);
+	}
+
+	@SuppressWarnings("unchecked")
+	protected void didChange( Map<String, Object> params ) throws IOException
+	{
+		String uri = uri(params);
+		Document document = documents.get(uri);
+		if (document == null) return;
+
+		for (Object entry : (List<Object>) params.get("contentChanges"))
+		{
+			Map<String, Object> change = (Map<String, Object>) entry;
+			String text = (String) change.get("text");
+			Map<String, Object> range = (Map<String, Object>) change.get("range");
+
+			if (range == null)
+			{
+				document = new Document(uri, text);
+				documents.put(uri, document);
+				continue;
+			}
+
+			int start = offset(document, (Map<String, Object>) range.get("start"));
+			int end = offset(document, (Map<String, Object>) range.get("end"));
+			document.edit(start, end - start, text);
+		}
+
+		publishDiagnostics(document);
+	}
+
+	protected void publishDiagnostics( Document document ) throws IOException
+	{
+		Map<String, Object> params = Json.object("uri", document.uri(), "diagnostics", document.diagnostics());
+		writeMessage(Json.object("jsonrpc", "2.0", "method", "textDocument/publishDiagnostics", "params", params));
+	}
+
+	static int offset( Document document, Map<String, Object> position )
+	{
+		int line = ((Number) position.get("line")).intValue();
+		int character = ((Number) position.get("character")).intValue();
+		return document.offset(line, character);
+	}
+
+	@SuppressWarnings("unchecked")
+	protected int tokenAt( Document document, Map<String, Object> params )
+	{
+		return document.tokenAt(offset(document, (Map<String, Object>) params.get("position")));
+	}
+
+	protected Object hover( Map<String, Object> params )
+	{
+		Document document = documents.get(uri(params));
+		if (document == null) return null;
+
+		int index = tokenAt(document, params);
+		TreeElement element = document.resolve(index);
+		if (element == null) return null;
+
+		Token token = document.token(index);
+		Map<String, Object> contents = Json.object("kind", "markdown",
+			"value", "```beagle\n" + Document.describe(element) + "\n```");
+		return Json.object("contents", contents, "range", document.range(token.offset, token.offset + token.length));
+	}
+
+	protected Object definition( Map<String, Object> params )
+	{
+		Document document = documents.get(uri(params));
+		if (document == null) return null;
+
+		TreeElement element = document.resolve(tokenAt(document, params));
+		Name name = Document.nameOf(element);
+		if (name == null) return null;
+
+		return Json.object("uri", document.uri(), "range", document.range(name.location(), name.qualifiedName().length()));
+	}
+
+	protected Object completion( Map<String, Object> params )
+	{
+		Document document = documents.get(uri(params));
+		if (document == null) return null;
+
+		@SuppressWarnings("unchecked")
+		Declaration scope = document.declarationAtOffset(offset(document, (Map<String, Object>) params.get("position")));
+
+		List<Object> items = new ArrayList<>();
+		for (Map.Entry<String, TreeElement> entry : document.symbols(scope).entrySet())
+		{
+			TreeElement element = entry.getValue();
+			long kind = KIND_VARIABLE;
+			if (element instanceof Function) kind = KIND_FUNCTION;
+			if (element instanceof Structure) kind = KIND_STRUCT;
+			if (element instanceof StorageDeclaration || element instanceof FormalParameter) kind = KIND_VARIABLE;
+			items.add(Json.object("label", entry.getKey(), "kind", kind, "detail", Document.describe(element)));
+		}
+		for (String keyword : KEYWORDS)
+		{
+			if (TokenType.fromString(keyword) == TokenType.TOK_NAME) continue;
+			items.add(Json.object("label", keyword, "kind", KIND_KEYWORD));
+		}
+		return Json.object("isIncomplete", Boolean.FALSE, "items", items);
+	}
+
+}